@@ -0,0 +1,90 @@
+/**
+ * Copyright (C) 2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.beersample.beers;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.couchbase.beersample.CouchbaseService;
+import com.couchbase.beersample.testing.BeerSampleData;
+import com.couchbase.beersample.testing.FakeBucket;
+import com.couchbase.beersample.testing.TestConfig;
+import com.couchbase.beersample.web.JsonStreamingResponse;
+import com.couchbase.client.java.document.json.JsonArray;
+import com.couchbase.client.java.document.json.JsonObject;
+import com.couchbase.client.java.view.AsyncViewRow;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The JSON rendering of the beer listing: writing the rows straight to a JSON generator, as
+ * {@link BeersController#listBeers} does, versus building a {@link JsonArray} of {@link JsonObject} first. Run with
+ * <code>-prof gc</code> to compare the allocations.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class ListBeersRenderingBenchmark {
+
+    @Param({ "100", "1000", "10000" })
+    public int rows;
+
+    private List<AsyncViewRow> viewRows;
+
+    @Setup
+    public void setUp() {
+        FakeBucket bucket = new FakeBucket(0, TimeUnit.MICROSECONDS);
+        BeerSampleData.load(bucket, Math.max(1, rows / 100), Math.min(rows, 100), 0d);
+        CouchbaseService service = new CouchbaseService(TestConfig.database(), bucket.bucket());
+        viewRows = service.findAllBeersAsync().flatMap(CouchbaseService.VIEW_ROWS).toList().toBlocking().single();
+    }
+
+    @Benchmark
+    public String rowWriter() throws IOException {
+        return JsonStreamingResponse.render(viewRows, BeersController.LIST_ROW_WRITER);
+    }
+
+    @Benchmark
+    public String jsonArray() {
+        JsonArray keys = JsonArray.create();
+        for (AsyncViewRow row : viewRows) {
+            JsonObject beer = JsonObject.create();
+            beer.put("name", row.key());
+            beer.put("id", row.id());
+            keys.add(beer);
+        }
+        return keys.toString();
+    }
+}
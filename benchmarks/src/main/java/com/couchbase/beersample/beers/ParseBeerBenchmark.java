@@ -0,0 +1,105 @@
+/**
+ * Copyright (C) 2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.beersample.beers;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.couchbase.beersample.model.Beer;
+import com.couchbase.beersample.testing.BeerSampleData;
+import com.couchbase.client.java.document.json.JsonObject;
+import com.couchbase.client.java.transcoder.JsonTranscoder;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Turning the body of a beer creation or update into its document content (then into its stored JSON): bound to a
+ * map by Jackson then copied into a JsonObject, as the controller used to do, versus read into a {@link Beer} from
+ * the JSON tokens.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class ParseBeerBenchmark {
+
+    private static final JsonTranscoder TRANSCODER = new JsonTranscoder();
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private byte[] body;
+
+    @Setup
+    public void setUp() {
+        body = BeerSampleData.beer(0, 0, 0, 0d).content().toString().getBytes();
+    }
+
+    @Benchmark
+    public JsonObject mapBinding() throws IOException {
+        return bindAndCopy();
+    }
+
+    @Benchmark
+    public JsonObject streaming() throws IOException {
+        return Beer.parse(new ByteArrayInputStream(body)).toContent();
+    }
+
+    @Benchmark
+    public String mapBindingEncoded() throws Exception {
+        return TRANSCODER.jsonObjectToString(bindAndCopy());
+    }
+
+    @Benchmark
+    public String streamingEncoded() throws IOException {
+        return Beer.parse(new ByteArrayInputStream(body)).toJson();
+    }
+
+    /**
+     * The former request binding and validation.
+     */
+    @SuppressWarnings("unchecked")
+    private JsonObject bindAndCopy() throws IOException {
+        Map<String, Object> beerData = mapper.readValue(body, Map.class);
+        String type = (String) beerData.get("type");
+        String name = (String) beerData.get("name");
+        if (type == null || name == null || type.isEmpty() || name.isEmpty()) {
+            throw new IllegalArgumentException();
+        }
+        JsonObject beer = JsonObject.create();
+        for (Map.Entry<String, Object> entry : beerData.entrySet()) {
+            beer.put(entry.getKey(), entry.getValue());
+        }
+        return beer;
+    }
+}
@@ -0,0 +1,99 @@
+/**
+ * Copyright (C) 2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.beersample.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import com.couchbase.beersample.search.BeerSearchIndex;
+import com.couchbase.beersample.testing.BeerSampleData;
+import com.couchbase.client.java.document.JsonDocument;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Queries on the {@link BeerSearchIndex}, from a selective one (a rare word, an ABV range and a state) to one matching
+ * every beer, all with the counts of every facet and the top 10 beers. The beer-sample bucket holds about 5900 beers
+ * from 1400 breweries, the largest size is that scaled 100 times.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class BeerQueryBenchmark {
+
+    /** the number of beers in the index */
+    @Param({ "5900", "590000" })
+    public int beers;
+
+    private BeerSearchIndex index;
+
+    @Setup
+    public void setUp() {
+        index = new BeerSearchIndex();
+        int breweries = Math.max(1, beers / 4);
+        for (int b = 0; b < breweries; b++) {
+            JsonDocument brewery = BeerSampleData.brewery(b);
+            index.put(brewery.id(), brewery.content());
+        }
+        for (int i = 0; i < beers; i++) {
+            JsonDocument beer = BeerSampleData.beer(i % breweries, i / breweries, i, 0.01);
+            index.put(beer.id(), beer.content());
+        }
+        index.markReady();
+    }
+
+    @Benchmark
+    public BeerSearchIndex.Result selective() {
+        return index.search(new BeerSearchIndex.Query()
+                .text(BeerSampleData.TOKEN)
+                .abv(6d, 8d)
+                .filter(BeerSearchIndex.STATE, "State 3"));
+    }
+
+    @Benchmark
+    public BeerSearchIndex.Result facetsOnly() {
+        return index.search(new BeerSearchIndex.Query()
+                .filter(BeerSearchIndex.STYLE, "porter")
+                .ibu(20d, 40d));
+    }
+
+    @Benchmark
+    public BeerSearchIndex.Result ranked() {
+        return index.search(new BeerSearchIndex.Query().text("imperial ale"));
+    }
+
+    @Benchmark
+    public BeerSearchIndex.Result everything() {
+        return index.search(new BeerSearchIndex.Query().text("ale"));
+    }
+}
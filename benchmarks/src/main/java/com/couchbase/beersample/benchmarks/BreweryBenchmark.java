@@ -0,0 +1,107 @@
+/**
+ * Copyright (C) 2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.beersample.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.couchbase.beersample.CouchbaseService;
+import com.couchbase.beersample.breweries.BreweryAggregates;
+import com.couchbase.beersample.config.Database;
+import com.couchbase.beersample.testing.BeerSampleData;
+import com.couchbase.beersample.testing.FakeBucket;
+import com.couchbase.beersample.testing.TestConfig;
+import com.couchbase.client.java.document.JsonDocument;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import rx.Observable;
+
+/**
+ * Reading a brewery with its beers: {@link CouchbaseService#concatBeerInfoToBrewery} on its own, the whole fan-out
+ * (view query then one get per beer) and a read of the materialized aggregate.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class BreweryBenchmark {
+
+    @Param({ "1", "10", "100", "1000" })
+    public int beersPerBrewery;
+
+    /** the latency of each database operation */
+    @Param({ "0", "200" })
+    public long latencyMicros;
+
+    private CouchbaseService service;
+    private BreweryAggregates aggregates;
+    private String breweryId;
+    private JsonDocument brewery;
+    private List<JsonDocument> beers;
+
+    @Setup
+    public void setUp() {
+        FakeBucket bucket = new FakeBucket(latencyMicros, TimeUnit.MICROSECONDS);
+        BeerSampleData.load(bucket, 10, beersPerBrewery, 0d);
+        Database config = TestConfig.database("couchbase.cache.maxBytes", 0, "couchbase.aggregates.enabled", true);
+        service = new CouchbaseService(config, bucket.bucket());
+        aggregates = new BreweryAggregates(service, config);
+
+        breweryId = BeerSampleData.breweryId(5);
+        brewery = BeerSampleData.brewery(5);
+        beers = new ArrayList<JsonDocument>(beersPerBrewery);
+        for (int i = 0; i < beersPerBrewery; i++) {
+            beers.add(BeerSampleData.beer(5, i, i, 0d));
+        }
+        //materialize the aggregate once, the benchmark measures the reads
+        aggregates.read(breweryId).toBlocking().single();
+    }
+
+    @Benchmark
+    public JsonDocument concat() {
+        return CouchbaseService.concatBeerInfoToBrewery(Observable.just(brewery), Observable.just(beers))
+                .toBlocking().single();
+    }
+
+    @Benchmark
+    public JsonDocument fanOut() {
+        return CouchbaseService.concatBeerInfoToBrewery(service.asyncRead(breweryId),
+                service.findBeerDocumentsForBreweryAsync(breweryId)).toBlocking().single();
+    }
+
+    @Benchmark
+    public JsonDocument aggregate() {
+        return aggregates.read(breweryId).toBlocking().single();
+    }
+}
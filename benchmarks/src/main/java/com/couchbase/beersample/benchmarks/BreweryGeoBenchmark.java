@@ -0,0 +1,113 @@
+/**
+ * Copyright (C) 2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.beersample.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import com.couchbase.beersample.breweries.BreweryGeoIndex;
+import com.couchbase.beersample.testing.BeerSampleData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Nearby breweries queries on the {@link BreweryGeoIndex}, by radius, versus computing the distance to every brewery.
+ * The breweries are spread over the continental United States, where most of those of the beer-sample bucket are.
+ * The bucket holds about 1400 breweries, the largest size is that scaled 100 times.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class BreweryGeoBenchmark {
+
+    /** the number of breweries in the index */
+    @Param({ "1400", "140000" })
+    public int breweries;
+
+    /** the radius of the queries, in kilometers */
+    @Param({ "10", "100", "500" })
+    public double radiusKm;
+
+    private BreweryGeoIndex index;
+    private double[] lats;
+    private double[] lons;
+    private double[] points;
+    private int next = 0;
+
+    @Setup
+    public void setUp() {
+        index = new BreweryGeoIndex();
+        lats = new double[breweries];
+        lons = new double[breweries];
+        Random random = new Random(42);
+        for (int b = 0; b < breweries; b++) {
+            lats[b] = 25d + 24d * random.nextDouble();
+            lons[b] = -125d + 58d * random.nextDouble();
+            index.put(BeerSampleData.breweryId(b), "Brewery " + b, lats[b], lons[b]);
+        }
+        points = new double[2 * 1024];
+        for (int i = 0; i < points.length; i += 2) {
+            points[i] = 25d + 24d * random.nextDouble();
+            points[i + 1] = -125d + 58d * random.nextDouble();
+        }
+        index.markReady();
+    }
+
+    @Benchmark
+    public BreweryGeoIndex.Result near() {
+        int i = 2 * (next++ & 1023);
+        return index.near(points[i], points[i + 1], radiusKm, 10);
+    }
+
+    /**
+     * What answering the query without an index takes, once every brewery has been read: the distance to all of them.
+     */
+    @Benchmark
+    public int scanAll() {
+        int i = 2 * (next++ & 1023);
+        double lat = Math.toRadians(points[i]);
+        double lon = Math.toRadians(points[i + 1]);
+        int within = 0;
+        for (int b = 0; b < breweries; b++) {
+            double sinHalfLat = Math.sin((Math.toRadians(lats[b]) - lat) / 2);
+            double sinHalfLon = Math.sin((Math.toRadians(lons[b]) - lon) / 2);
+            double h = sinHalfLat * sinHalfLat
+                    + Math.cos(lat) * Math.cos(Math.toRadians(lats[b])) * sinHalfLon * sinHalfLon;
+            if (2 * BreweryGeoIndex.EARTH_RADIUS_KM * Math.asin(Math.min(1d, Math.sqrt(h))) <= radiusKm) {
+                within++;
+            }
+        }
+        return within;
+    }
+}
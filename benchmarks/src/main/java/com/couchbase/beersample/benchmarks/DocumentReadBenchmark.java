@@ -0,0 +1,112 @@
+/**
+ * Copyright (C) 2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.beersample.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import com.couchbase.beersample.CouchbaseService;
+import com.couchbase.beersample.testing.BeerSampleData;
+import com.couchbase.beersample.testing.FakeBucket;
+import com.couchbase.beersample.testing.TestConfig;
+import com.couchbase.client.java.document.JsonDocument;
+import com.couchbase.client.java.document.RawJsonDocument;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Concurrent single document reads with a skewed popularity (a few beers get most of the reads, like on a real
+ * catalog), with and without the document cache, decoded or raw.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Threads(16)
+public class DocumentReadBenchmark {
+
+    @Param({ "0", "33554432" })
+    public long cacheMaxBytes;
+
+    /** the latency of each database operation */
+    @Param({ "200", "1000" })
+    public long latencyMicros;
+
+    @Param({ "10000" })
+    public int beers;
+
+    private CouchbaseService service;
+
+    @State(Scope.Thread)
+    public static class Keys {
+        private final Random random = new Random(42);
+
+        /**
+         * @return the index of a beer, most often one of the first ones.
+         */
+        int next(int count) {
+            double r = random.nextDouble();
+            return (int) (count * r * r * r);
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        FakeBucket bucket = new FakeBucket(latencyMicros, TimeUnit.MICROSECONDS);
+        BeerSampleData.load(bucket, beers / 100, 100, 0d);
+        service = new CouchbaseService(TestConfig.database("couchbase.cache.maxBytes", cacheMaxBytes),
+                bucket.bucket());
+    }
+
+    /**
+     * A read as GET /beer/{id} used to do it: decoded, then encoded back into the response body.
+     */
+    @Benchmark
+    public String read(Keys keys) {
+        int index = keys.next(beers);
+        JsonDocument doc = service.asyncRead(BeerSampleData.beerId(index / 100, index % 100)).toBlocking().single();
+        return doc.content().toString();
+    }
+
+    /**
+     * A raw read, passed through as is like GET /beer/{id} now does.
+     */
+    @Benchmark
+    public String readRaw(Keys keys) {
+        int index = keys.next(beers);
+        RawJsonDocument doc = service.asyncReadRaw(BeerSampleData.beerId(index / 100, index % 100))
+                .toBlocking().single();
+        return doc.content();
+    }
+}
@@ -0,0 +1,113 @@
+/**
+ * Copyright (C) 2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.beersample.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.couchbase.beersample.CouchbaseService;
+import com.couchbase.beersample.search.BeerNameSnapshot;
+import com.couchbase.beersample.testing.BeerSampleData;
+import com.couchbase.beersample.testing.FakeBucket;
+import com.couchbase.beersample.testing.TestConfig;
+import com.couchbase.client.java.view.AsyncViewRow;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Getting a page of the beer listing deep into the "by_name" view, with an offset (the rows before it are walked
+ * through) versus with a cursor (the view seeks right after the last row of the previous page), and the same cursor
+ * page sliced out of the in-memory snapshot of the view.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class PagingBenchmark {
+
+    @Param({ "10000", "100000" })
+    public int rows;
+
+    /** how deep in the listing the page is, as a fraction of the rows */
+    @Param({ "0.0", "0.5", "0.99" })
+    public double depth;
+
+    @Param({ "20" })
+    public int limit;
+
+    private CouchbaseService service;
+    private int offset;
+    private String lastName;
+    private String lastId;
+
+    @Setup
+    public void setUp() {
+        FakeBucket bucket = new FakeBucket(0, TimeUnit.MICROSECONDS);
+        BeerSampleData.load(bucket, Math.max(1, rows / 100), 100, 0d);
+        service = new CouchbaseService(TestConfig.database(), bucket.bucket());
+        service.loadBeerNameIndex();
+
+        offset = (int) (rows * depth);
+        if (offset > 0) {
+            //the row right before the page, as a cursor designates it
+            AsyncViewRow previous = service.findAllBeersAsync(offset - 1, 1).flatMap(CouchbaseService.VIEW_ROWS)
+                    .toBlocking().single();
+            lastName = (String) previous.key();
+            lastId = previous.id();
+        }
+    }
+
+    @Benchmark
+    public List<AsyncViewRow> offset() {
+        return service.findAllBeersAsync(offset, limit).flatMap(CouchbaseService.VIEW_ROWS).toList()
+                .toBlocking().single();
+    }
+
+    @Benchmark
+    public List<AsyncViewRow> cursor() {
+        if (lastId == null) {
+            return offset();
+        }
+        return service.findBeersAfterAsync(lastName, lastId, limit).flatMap(CouchbaseService.VIEW_ROWS).toList()
+                .toBlocking().single();
+    }
+
+    @Benchmark
+    public List<BeerNameSnapshot.Row> snapshotCursor() {
+        BeerNameSnapshot snapshot = service.beerSnapshot();
+        int from = lastId == null ? 0 : snapshot.indexAfter(lastName, lastId);
+        //materialize the page, as rendering it would
+        return new ArrayList<BeerNameSnapshot.Row>(snapshot.rows(from, from + limit));
+    }
+}
@@ -0,0 +1,112 @@
+/**
+ * Copyright (C) 2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.beersample.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import com.couchbase.beersample.CouchbaseService;
+import com.couchbase.beersample.testing.BeerSampleData;
+import com.couchbase.beersample.testing.FakeBucket;
+import com.couchbase.beersample.testing.TestConfig;
+import com.couchbase.client.java.document.JsonDocument;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Concurrent uncached document reads on a sick bucket, where some reads are much slower than the others and some
+ * fail, with and without hedged reads and the circuit breaker. Sampled, so that the tail latency shows.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Threads(16)
+public class ResilienceBenchmark {
+
+    @Param({ "false", "true" })
+    public boolean hedge;
+
+    @Param({ "false", "true" })
+    public boolean breaker;
+
+    /** the fraction of the reads which are slow */
+    @Param({ "0.05" })
+    public double slowRate;
+
+    /** the fraction of the reads which fail */
+    @Param({ "0", "0.9" })
+    public double errorRate;
+
+    @Param({ "10000" })
+    public int beers;
+
+    private FakeBucket bucket;
+    private CouchbaseService service;
+
+    @State(Scope.Thread)
+    public static class Keys {
+        private final Random random = new Random(42);
+
+        int next(int count) {
+            return random.nextInt(count);
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        bucket = new FakeBucket(200, TimeUnit.MICROSECONDS);
+        BeerSampleData.load(bucket, beers / 100, 100, 0d);
+        bucket.injectFaults(slowRate, 50, errorRate, TimeUnit.MILLISECONDS);
+        service = new CouchbaseService(TestConfig.database("couchbase.cache.maxBytes", 0L,
+                "couchbase.hedge.enabled", hedge, "couchbase.breaker.enabled", breaker), bucket.bucket());
+    }
+
+    @TearDown
+    public void tearDown() {
+        service.preDestroy();
+    }
+
+    @Benchmark
+    public JsonDocument read(Keys keys) {
+        int index = keys.next(beers);
+        try {
+            return service.asyncRead(BeerSampleData.beerId(index / 100, index % 100)).toBlocking().single();
+        } catch (RuntimeException e) {
+            //failed or rejected by the circuit breaker
+            return null;
+        }
+    }
+}
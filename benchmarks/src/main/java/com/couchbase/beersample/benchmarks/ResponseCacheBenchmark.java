@@ -0,0 +1,113 @@
+/**
+ * Copyright (C) 2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.beersample.benchmarks;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.couchbase.beersample.cache.ResponseCache;
+import com.couchbase.beersample.testing.BeerSampleData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Serving a response from the {@link ResponseCache}, gzipped and as is, from the heap and off the heap, against
+ * storing it (which compresses it). The responses are JSON arrays of beers, from a short search to a long listing.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class ResponseCacheBenchmark {
+
+    /** the number of beers in the response */
+    @Param({ "10", "1000" })
+    public int beers;
+
+    @Param({ "false", "true" })
+    public boolean offHeap;
+
+    private static final List<String[]> NO_HEADERS = Collections.emptyList();
+
+    private ResponseCache cache;
+    private byte[] body;
+    private long written = 0;
+    private OutputStream sink;
+    private int next = 0;
+
+    @Setup
+    public void setUp() {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < beers; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append(BeerSampleData.beer(i / 10, i % 10, i, 0.01).content().toString());
+        }
+        body = json.append(']').toString().getBytes(Charset.forName("UTF-8"));
+        cache = new ResponseCache(256L * 1024 * 1024, 1, TimeUnit.HOURS, offHeap);
+        cache.put("/beer", "beers", "application/json", NO_HEADERS, body, cache.ticket());
+        sink = new OutputStream() {
+            @Override
+            public void write(int b) {
+                written++;
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                written += len;
+            }
+        };
+    }
+
+    @Benchmark
+    public long hitGzip() throws IOException {
+        cache.get("/beer").writeTo(sink, true);
+        return written;
+    }
+
+    @Benchmark
+    public long hitIdentity() throws IOException {
+        cache.get("/beer").writeTo(sink, false);
+        return written;
+    }
+
+    @Benchmark
+    public void store() {
+        cache.put("/beer?offset=" + (next++ & 1023), "beers", "application/json", NO_HEADERS, body, cache.ticket());
+    }
+}
@@ -0,0 +1,90 @@
+/**
+ * Copyright (C) 2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.beersample.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import com.couchbase.beersample.CouchbaseService;
+import com.couchbase.beersample.testing.BeerSampleData;
+import com.couchbase.beersample.testing.FakeBucket;
+import com.couchbase.beersample.testing.TestConfig;
+import com.couchbase.client.java.document.json.JsonArray;
+import com.couchbase.client.java.view.AsyncViewRow;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import rx.Observable;
+
+/**
+ * {@link CouchbaseService#searchBeer}: scanning every row of the "by_name" view (and fetching each beer) versus
+ * looking the token up in the local beer name index (and fetching only the matches).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class SearchBenchmark {
+
+    /** the number of beers in the bucket */
+    @Param({ "1000", "10000" })
+    public int rows;
+
+    /** the fraction of the beers matching the searched token */
+    @Param({ "0.01", "0.1", "0.5" })
+    public double matchRate;
+
+    /** the latency of each database operation */
+    @Param({ "0", "200" })
+    public long latencyMicros;
+
+    private CouchbaseService service;
+
+    @Setup
+    public void setUp() {
+        FakeBucket bucket = new FakeBucket(latencyMicros, TimeUnit.MICROSECONDS);
+        BeerSampleData.load(bucket, Math.max(1, rows / 10), 10, matchRate);
+        //measure the fetches, not the document cache
+        service = new CouchbaseService(TestConfig.database("couchbase.cache.maxBytes", 0), bucket.bucket());
+        service.loadBeerNameIndex();
+    }
+
+    @Benchmark
+    public JsonArray scan() {
+        Observable<AsyncViewRow> allBeers = service.findAllBeersAsync().flatMap(CouchbaseService.VIEW_ROWS);
+        return service.searchBeer(allBeers, BeerSampleData.TOKEN).toBlocking().single();
+    }
+
+    @Benchmark
+    public JsonArray index() {
+        return service.searchBeer(BeerSampleData.TOKEN).toBlocking().single();
+    }
+}
@@ -0,0 +1,124 @@
+/**
+ * Copyright (C) 2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.beersample.benchmarks;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.TimeUnit;
+
+import com.couchbase.beersample.CouchbaseService;
+import com.couchbase.beersample.metrics.Metrics;
+import com.couchbase.beersample.testing.BeerSampleData;
+import com.couchbase.beersample.testing.FakeBucket;
+import com.couchbase.beersample.testing.TestConfig;
+import com.couchbase.client.java.Cluster;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The time it takes to start the service on a stubbed cluster which takes a while to open the bucket: until
+ * {@link CouchbaseService#start()} returns (the application can serve requests) and until the service reports
+ * itself ready (the bucket is open and the caches are warm).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+public class StartupBenchmark {
+
+    /** the time the stubbed cluster takes to open the bucket */
+    @Param({ "500", "2000" })
+    public long openMillis;
+
+    /** the number of documents read into the cache while warming up */
+    @Param({ "0", "1000" })
+    public int warmUpIds;
+
+    private FakeBucket bucket;
+    private Cluster cluster;
+    private String ids;
+    private CouchbaseService service;
+
+    @Setup
+    public void setUp() {
+        bucket = new FakeBucket(200, TimeUnit.MICROSECONDS);
+        BeerSampleData.load(bucket, 100, 100, 0d);
+        StringBuilder idList = new StringBuilder();
+        for (int i = 0; i < warmUpIds; i++) {
+            idList.append(i == 0 ? "" : ",").append(BeerSampleData.beerId(i % 100, i / 100));
+        }
+        ids = idList.toString();
+        cluster = (Cluster) Proxy.newProxyInstance(Cluster.class.getClassLoader(), new Class<?>[] { Cluster.class },
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if ("openBucket".equals(method.getName())) {
+                            Thread.sleep(openMillis);
+                            return bucket.bucket();
+                        } else if ("disconnect".equals(method.getName())) {
+                            return true;
+                        }
+                        throw new UnsupportedOperationException("Cluster." + method.getName()
+                                + " is not supported by the stubbed cluster");
+                    }
+                });
+    }
+
+    @TearDown(Level.Invocation)
+    public void tearDown() {
+        if (service != null) {
+            service.preDestroy();
+            service = null;
+        }
+    }
+
+    @Benchmark
+    public CouchbaseService start() {
+        service = new CouchbaseService(TestConfig.database("couchbase.startup.warmUpIds", ids), new Metrics(),
+                cluster);
+        service.start();
+        return service;
+    }
+
+    @Benchmark
+    public CouchbaseService ready() throws InterruptedException {
+        CouchbaseService started = start();
+        while (!started.isReady()) {
+            Thread.sleep(1);
+        }
+        return started;
+    }
+}
@@ -0,0 +1,175 @@
+/**
+ * Copyright (C) 2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.beersample.benchmarks;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletOutputStream;
+
+import com.couchbase.beersample.CouchbaseService;
+import com.couchbase.beersample.beers.BeerBulkLoader;
+import com.couchbase.beersample.beers.BeersController;
+import com.couchbase.beersample.config.Database;
+import com.couchbase.beersample.search.BeerSearch;
+import com.couchbase.beersample.search.BeerSuggest;
+import com.couchbase.beersample.testing.BeerSampleData;
+import com.couchbase.beersample.testing.FakeBucket;
+import com.couchbase.beersample.testing.TestConfig;
+import com.couchbase.client.java.document.json.JsonArray;
+import com.couchbase.client.java.document.json.JsonObject;
+import com.couchbase.client.java.view.AsyncViewRow;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+/**
+ * Whole requests to the unbounded beer listing and to the beer search: streamed row by row to the response, as
+ * {@link BeersController} does, versus accumulated in a {@link JsonArray} rendered to a String before being sent,
+ * as it used to. One operation is one request, so <code>-prof gc</code> reports the bytes allocated per request as
+ * <code>gc.alloc.rate.norm</code>. The response body is discarded as it is written, like a socket would take it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class StreamedResponsesBenchmark {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** the number of beers in the bucket, a tenth of them match the search */
+    @Param({ "1000", "10000" })
+    public int rows;
+
+    private CouchbaseService service;
+    private BeersController controller;
+
+    /**
+     * A response which body is counted and dropped.
+     */
+    private static final class DiscardingResponse extends MockHttpServletResponse {
+        private long written = 0;
+        private final ServletOutputStream out = new ServletOutputStream() {
+            @Override
+            public void write(int b) {
+                written++;
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                written += len;
+            }
+        };
+
+        @Override
+        public ServletOutputStream getOutputStream() {
+            return out;
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        FakeBucket bucket = new FakeBucket(0, TimeUnit.MICROSECONDS);
+        BeerSampleData.load(bucket, Math.max(1, rows / 10), 10, 0.1d);
+        //measure the fetches, not the document cache
+        Database config = TestConfig.database("couchbase.cache.maxBytes", 0, "couchbase.search.enabled", false,
+                "couchbase.suggest.enabled", false);
+        service = new CouchbaseService(config, bucket.bucket());
+        service.loadBeerNameIndex();
+        controller = new BeersController(service, new BeerBulkLoader(service, config), new BeerSearch(service, config),
+                new BeerSuggest(service, config), config);
+    }
+
+    private static MockHttpServletRequest request(String path) {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", path);
+        request.setAsyncSupported(true);
+        return request;
+    }
+
+    /**
+     * @return the number of bytes of the response, once it is complete.
+     */
+    private static long awaitStreamed(MockHttpServletRequest request, DiscardingResponse response) {
+        while (request.isAsyncStarted()) {
+            Thread.yield();
+        }
+        return response.written;
+    }
+
+    private static long send(String json, DiscardingResponse response) throws IOException {
+        response.setContentType("application/json;charset=UTF-8");
+        byte[] body = json.getBytes(UTF_8);
+        response.setContentLength(body.length);
+        response.getOutputStream().write(body);
+        return response.written;
+    }
+
+    @Benchmark
+    public long listStreamed() {
+        MockHttpServletRequest request = request("/beer");
+        DiscardingResponse response = new DiscardingResponse();
+        controller.listBeers(null, null, null, request, response);
+        return awaitStreamed(request, response);
+    }
+
+    @Benchmark
+    public long listAccumulated() throws IOException {
+        List<AsyncViewRow> viewRows = service.findAllBeersAsync().flatMap(CouchbaseService.VIEW_ROWS).toList()
+                .toBlocking().single();
+        JsonArray keys = JsonArray.create();
+        for (AsyncViewRow row : viewRows) {
+            JsonObject beer = JsonObject.create();
+            beer.put("name", row.key());
+            beer.put("id", row.id());
+            keys.add(beer);
+        }
+        return send(keys.toString(), new DiscardingResponse());
+    }
+
+    @Benchmark
+    public long searchStreamed() {
+        MockHttpServletRequest request = request("/beer/search/" + BeerSampleData.TOKEN);
+        DiscardingResponse response = new DiscardingResponse();
+        controller.searchBeer(BeerSampleData.TOKEN, request, response);
+        return awaitStreamed(request, response);
+    }
+
+    @Benchmark
+    public long searchAccumulated() throws IOException {
+        JsonArray matches = service.searchBeer(BeerSampleData.TOKEN).toBlocking().single();
+        return send(matches.toString(), new DiscardingResponse());
+    }
+}
@@ -0,0 +1,103 @@
+/**
+ * Copyright (C) 2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.beersample.benchmarks;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import com.couchbase.beersample.search.BeerSuggestIndex;
+import com.couchbase.beersample.testing.BeerSampleData;
+import com.couchbase.client.java.document.JsonDocument;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Type-ahead lookups on the {@link BeerSuggestIndex}, for prefixes from one letter (matching a good part of the
+ * beers) to most of a name, and the cost of recording a read. The popularity of the beers is skewed, a few beers
+ * getting most of the reads. The beer-sample bucket holds about 5900 beers, the largest size is that scaled 100 times.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class SuggestBenchmark {
+
+    /** the number of beers in the index */
+    @Param({ "5900", "590000" })
+    public int beers;
+
+    /** the number of characters of the names typed so far */
+    @Param({ "1", "3", "8" })
+    public int prefixLength;
+
+    private BeerSuggestIndex index;
+    private String[] ids;
+    private String[] prefixes;
+    private int next = 0;
+
+    @Setup
+    public void setUp() {
+        index = new BeerSuggestIndex(10);
+        ids = new String[beers];
+        prefixes = new String[1024];
+        int breweries = Math.max(1, beers / 4);
+        for (int i = 0; i < beers; i++) {
+            JsonDocument beer = BeerSampleData.beer(i % breweries, i / breweries, i, 0.01);
+            ids[i] = beer.id();
+            index.put(beer.id(), beer.content().getString("name"));
+        }
+        Random random = new Random(42);
+        for (int i = 0; i < beers; i++) {
+            //a square law: the beers at the start of the array get most of the reads
+            double draw = random.nextDouble();
+            index.hit(ids[(int) (draw * draw * beers)]);
+        }
+        for (int i = 0; i < prefixes.length; i++) {
+            JsonDocument beer = BeerSampleData.beer(0, 0, random.nextInt(beers), 0.01);
+            String name = beer.content().getString("name");
+            prefixes[i] = name.substring(0, Math.min(prefixLength, name.length()));
+        }
+        index.markReady();
+    }
+
+    @Benchmark
+    public List<BeerSuggestIndex.Suggestion> suggest() {
+        return index.suggest(prefixes[next++ & (prefixes.length - 1)], 10);
+    }
+
+    @Benchmark
+    public void recordRead() {
+        index.hit(ids[(next++ & Integer.MAX_VALUE) % beers]);
+    }
+}
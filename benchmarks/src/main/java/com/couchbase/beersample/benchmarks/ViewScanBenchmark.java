@@ -0,0 +1,91 @@
+/**
+ * Copyright (C) 2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.beersample.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import com.couchbase.beersample.CouchbaseService;
+import com.couchbase.beersample.testing.BeerSampleData;
+import com.couchbase.beersample.testing.FakeBucket;
+import com.couchbase.beersample.testing.TestConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Reading every row of the "by_name" view with a single query versus with {@link CouchbaseService#scanAllBeersAsync}
+ * (key ranges queried in parallel, or one after the other in key order), on a view which takes longer the more rows
+ * it returns.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class ViewScanBenchmark {
+
+    @Param({ "5900", "59000" })
+    public int rows;
+
+    /** the maximum number of key ranges of a scan */
+    @Param({ "1", "4", "8" })
+    public int partitions;
+
+    /** the time each row adds to a view query */
+    @Param({ "5" })
+    public long rowLatencyMicros;
+
+    private CouchbaseService service;
+
+    @Setup
+    public void setUp() {
+        FakeBucket bucket = new FakeBucket(200, TimeUnit.MICROSECONDS);
+        bucket.viewRowLatency(rowLatencyMicros, TimeUnit.MICROSECONDS);
+        BeerSampleData.load(bucket, Math.max(1, rows / 10), 10, 0d);
+        service = new CouchbaseService(TestConfig.database("couchbase.scan.partitions", partitions),
+                bucket.bucket());
+    }
+
+    @Benchmark
+    public int singleQuery() {
+        return service.findAllBeersAsync().flatMap(CouchbaseService.VIEW_ROWS).count().toBlocking().single();
+    }
+
+    @Benchmark
+    public int unordered() {
+        return service.scanAllBeersAsync(false).count().toBlocking().single();
+    }
+
+    @Benchmark
+    public int ordered() {
+        return service.scanAllBeersAsync(true).count().toBlocking().single();
+    }
+}
@@ -0,0 +1,105 @@
+/**
+ * Copyright (C) 2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.beersample.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import com.couchbase.beersample.CouchbaseService;
+import com.couchbase.beersample.testing.BeerSampleData;
+import com.couchbase.beersample.testing.FakeBucket;
+import com.couchbase.beersample.testing.TestConfig;
+import com.couchbase.client.java.document.JsonDocument;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Concurrent beer updates concentrated on a few beers, like a partner feed would send them, written right away
+ * versus through the write-behind queue (waiting for each write to be flushed, so that both are durable).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Threads(16)
+public class WriteBehindBenchmark {
+
+    @Param({ "false", "true" })
+    public boolean writeBehind;
+
+    /** the latency of each database operation */
+    @Param({ "200", "1000" })
+    public long latencyMicros;
+
+    /** the number of beers the updates go to */
+    @Param({ "100", "10000" })
+    public int beers;
+
+    private CouchbaseService service;
+
+    @State(Scope.Thread)
+    public static class Keys {
+        private final Random random = new Random(42);
+
+        int next(int count) {
+            return random.nextInt(count);
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        FakeBucket bucket = new FakeBucket(latencyMicros, TimeUnit.MICROSECONDS);
+        BeerSampleData.load(bucket, Math.max(1, beers / 100), Math.min(beers, 100), 0d);
+        service = new CouchbaseService(TestConfig.database("couchbase.writeBehind.enabled", writeBehind),
+                bucket.bucket());
+    }
+
+    @TearDown
+    public void tearDown() {
+        service.preDestroy();
+    }
+
+    @Benchmark
+    public JsonDocument update(Keys keys) {
+        int index = keys.next(beers);
+        int brewery = index / 100;
+        int beer = index % 100;
+        JsonDocument doc = BeerSampleData.beer(brewery, beer, index, 0d);
+        if (writeBehind) {
+            return service.queueUpdate(doc).outcome().toBlocking().single();
+        }
+        return service.asyncUpdate(doc).toBlocking().single();
+    }
+}
@@ -0,0 +1,132 @@
+/**
+ * Copyright (C) 2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.beersample;
+
+import java.util.concurrent.TimeUnit;
+
+import com.couchbase.beersample.metrics.LatencyHistogram;
+
+/**
+ * A duration that follows the latency of an operation: a percentile of its recent latency times a factor, within
+ * bounds. It is used as the timeout of database operations (so that a slow node is given up on long before the SDK
+ * default timeouts) and as the delay before a read is hedged.
+ *
+ * The latency histogram of the operation is cumulative, so the percentile is read from the values recorded in the
+ * last one to two windows of {@value #WINDOW_SECONDS}s (by diffing with a copy of the counts taken at the start of
+ * the previous window): a latency spike long gone, or the slow warm-up of the application, doesn't weigh on the
+ * duration forever, and a lasting change of the latency is followed within two windows. Reading a percentile walks
+ * the whole histogram, so the value is only recomputed once per second. While the window holds too few samples to be
+ * meaningful, the upper bound is used.
+ */
+public class AdaptiveTimeout {
+
+    /** the number of samples under which the percentiles are not trusted */
+    private static final long MIN_SAMPLES = 100;
+    private static final long WINDOW_SECONDS = 10;
+    private static final long REFRESH_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final LatencyHistogram latency;
+    private final double quantile;
+    private final double factor;
+    private final long minNanos;
+    private final long maxNanos;
+    private final long windowNanos;
+    private final long refreshNanos;
+
+    private volatile long nanos;
+    private volatile long computedAt;
+
+    //guarded by this
+    /** the counts of the histogram at the start of the previous and of the current window */
+    private long[] previousWindow;
+    private long[] currentWindow;
+    private long windowStart;
+
+    /**
+     * @param latency the latency histogram of the operation.
+     * @param quantile the percentile of the latency to follow (eg. 0.99).
+     * @param factor the factor to apply to the percentile.
+     * @param min the lower bound of the duration.
+     * @param max the upper bound of the duration, also used until there are enough samples.
+     * @param unit the unit of the bounds.
+     */
+    public AdaptiveTimeout(LatencyHistogram latency, double quantile, double factor, long min, long max,
+            TimeUnit unit) {
+        this(latency, quantile, factor, min, max, unit, TimeUnit.SECONDS.toNanos(WINDOW_SECONDS), REFRESH_NANOS);
+    }
+
+    AdaptiveTimeout(LatencyHistogram latency, double quantile, double factor, long min, long max, TimeUnit unit,
+            long windowNanos, long refreshNanos) {
+        this.latency = latency;
+        this.quantile = quantile;
+        this.factor = factor;
+        this.minNanos = unit.toNanos(min);
+        this.maxNanos = Math.max(minNanos, unit.toNanos(max));
+        this.windowNanos = windowNanos;
+        this.refreshNanos = refreshNanos;
+        this.nanos = maxNanos;
+        this.computedAt = System.nanoTime() - refreshNanos;
+        this.currentWindow = latency.counts();
+        this.previousWindow = currentWindow;
+        this.windowStart = System.nanoTime();
+    }
+
+    /**
+     * @return the current duration, in nanoseconds.
+     */
+    public long nanos() {
+        long now = System.nanoTime();
+        if (now - computedAt >= refreshNanos) {
+            refresh(now);
+        }
+        return nanos;
+    }
+
+    /**
+     * @return the current duration, in milliseconds (rounded up).
+     */
+    public long millis() {
+        return (nanos() + 999999L) / 1000000L;
+    }
+
+    private synchronized void refresh(long now) {
+        if (now - computedAt < refreshNanos) {
+            //another thread just did it
+            return;
+        }
+        if (now - windowStart >= windowNanos) {
+            previousWindow = currentWindow;
+            currentWindow = latency.counts();
+            windowStart = now;
+        }
+        nanos = compute();
+        computedAt = now;
+    }
+
+    private long compute() {
+        if (latency.countSince(previousWindow) < MIN_SAMPLES) {
+            return maxNanos;
+        }
+        long percentile = latency.percentilesSince(previousWindow, quantile)[0];
+        return Math.min(maxNanos, Math.max(minNanos, (long) (percentile * factor)));
+    }
+}
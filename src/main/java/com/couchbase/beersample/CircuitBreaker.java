@@ -0,0 +1,293 @@
+/**
+ * Copyright (C) 2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.beersample;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.couchbase.client.java.document.json.JsonObject;
+import com.couchbase.client.java.error.CASMismatchException;
+import com.couchbase.client.java.error.DocumentAlreadyExistsException;
+import com.couchbase.client.java.error.DocumentDoesNotExistException;
+import rx.Observable;
+import rx.functions.Action0;
+import rx.functions.Action1;
+import rx.functions.Func0;
+
+/**
+ * A circuit breaker in front of the database: once the error rate of the operations over a sliding window
+ * crosses a threshold, the circuit opens and operations fail fast with a {@link CircuitBreakerOpenException}
+ * instead of piling up on a database that doesn't answer. After a while, a single trial operation is let
+ * through (the circuit is half-open): if it succeeds the circuit closes again, otherwise it stays open.
+ *
+ * Errors that are the regular outcome of an operation (a missing document, a CAS mismatch...) don't count as
+ * failures, timeouts and other errors do. The window is made of one-second slots, so recording is cheap.
+ */
+public class CircuitBreaker {
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private static final long SLOT_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final boolean enabled;
+    private final double errorRateThreshold;
+    private final int minRequests;
+    private final long openNanos;
+
+    /** requests and failures of the window, by slot */
+    private final long[] slotIds;
+    private final int[] requests;
+    private final int[] failures;
+
+    private State state = State.CLOSED;
+    private long openedAt;
+    private boolean trialInFlight;
+
+    private final AtomicLong opens = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * @param enabled false to never open the circuit.
+     * @param errorRateThreshold the rate of failures (between 0 and 1) over the window that opens the circuit.
+     * @param minRequests the number of requests over the window under which the circuit never opens.
+     * @param windowSeconds the length of the sliding window.
+     * @param openSeconds the time the circuit stays open before a trial operation is let through.
+     */
+    public CircuitBreaker(boolean enabled, double errorRateThreshold, int minRequests, int windowSeconds,
+            int openSeconds) {
+        this.enabled = enabled;
+        this.errorRateThreshold = errorRateThreshold;
+        this.minRequests = Math.max(1, minRequests);
+        this.openNanos = TimeUnit.SECONDS.toNanos(openSeconds);
+        int slots = Math.max(1, windowSeconds);
+        this.slotIds = new long[slots];
+        this.requests = new int[slots];
+        this.failures = new int[slots];
+    }
+
+    /**
+     * Run an operation through the circuit. The operation is only created (and so sent to the database) if the
+     * circuit lets it through.
+     *
+     * @return the stream of the operation, or a stream failing with a {@link CircuitBreakerOpenException}.
+     */
+    public <T> Observable<T> guard(final Func0<Observable<T>> operation) {
+        if (!enabled) {
+            return Observable.defer(operation);
+        }
+        return Observable.defer(new Func0<Observable<T>>() {
+            @Override
+            public Observable<T> call() {
+                if (!allowRequest()) {
+                    return Observable.error(new CircuitBreakerOpenException());
+                }
+                final AtomicBoolean recorded = new AtomicBoolean();
+                return operation.call()
+                        .doOnError(new Action1<Throwable>() {
+                            @Override
+                            public void call(Throwable e) {
+                                if (recorded.compareAndSet(false, true)) {
+                                    record(!isFailure(e));
+                                }
+                            }
+                        })
+                        .doOnCompleted(new Action0() {
+                            @Override
+                            public void call() {
+                                if (recorded.compareAndSet(false, true)) {
+                                    record(true);
+                                }
+                            }
+                        })
+                        .doOnUnsubscribe(new Action0() {
+                            @Override
+                            public void call() {
+                                //given up on by the caller, this tells nothing about the database
+                                if (recorded.compareAndSet(false, true)) {
+                                    release();
+                                }
+                            }
+                        });
+            }
+        });
+    }
+
+    /**
+     * Run a synchronous operation through the circuit.
+     *
+     * @throws CircuitBreakerOpenException if the circuit doesn't let the operation through.
+     */
+    public <T> T call(Func0<T> operation) {
+        if (!enabled) {
+            return operation.call();
+        }
+        if (!allowRequest()) {
+            throw new CircuitBreakerOpenException();
+        }
+        T result;
+        try {
+            result = operation.call();
+        } catch (RuntimeException e) {
+            record(!isFailure(e));
+            throw e;
+        }
+        record(true);
+        return result;
+    }
+
+    /**
+     * @return true if the error is a sign of an unhealthy database, rather than the regular outcome of an operation.
+     */
+    static boolean isFailure(Throwable e) {
+        return !(e instanceof DocumentDoesNotExistException
+                || e instanceof DocumentAlreadyExistsException
+                || e instanceof CASMismatchException);
+    }
+
+    private synchronized boolean allowRequest() {
+        if (state == State.OPEN && System.nanoTime() - openedAt >= openNanos) {
+            state = State.HALF_OPEN;
+        }
+        if (state == State.CLOSED) {
+            return true;
+        }
+        if (state == State.HALF_OPEN && !trialInFlight) {
+            trialInFlight = true;
+            return true;
+        }
+        rejected.incrementAndGet();
+        return false;
+    }
+
+    private synchronized void record(boolean success) {
+        long now = System.nanoTime();
+        if (state == State.HALF_OPEN && trialInFlight) {
+            trialInFlight = false;
+            if (success) {
+                state = State.CLOSED;
+                clearWindow();
+            } else {
+                open(now);
+            }
+            return;
+        }
+        int slot = slot(now);
+        requests[slot]++;
+        if (!success) {
+            failures[slot]++;
+        }
+        if (state == State.CLOSED && !success) {
+            int windowRequests = 0;
+            int windowFailures = 0;
+            for (int i = 0; i < slotIds.length; i++) {
+                if (isCurrent(i, now)) {
+                    windowRequests += requests[i];
+                    windowFailures += failures[i];
+                }
+            }
+            if (windowRequests >= minRequests && windowFailures >= errorRateThreshold * windowRequests) {
+                open(now);
+            }
+        }
+    }
+
+    private synchronized void release() {
+        if (state == State.HALF_OPEN) {
+            trialInFlight = false;
+        }
+    }
+
+    private void open(long now) {
+        state = State.OPEN;
+        openedAt = now;
+        opens.incrementAndGet();
+    }
+
+    /**
+     * @return the index of the slot of this time, reset if it was last used for an older second.
+     */
+    private int slot(long now) {
+        long slotId = now / SLOT_NANOS;
+        int index = (int) (slotId % slotIds.length);
+        if (slotIds[index] != slotId) {
+            slotIds[index] = slotId;
+            requests[index] = 0;
+            failures[index] = 0;
+        }
+        return index;
+    }
+
+    private boolean isCurrent(int index, long now) {
+        return now / SLOT_NANOS - slotIds[index] < slotIds.length;
+    }
+
+    private void clearWindow() {
+        for (int i = 0; i < slotIds.length; i++) {
+            requests[i] = 0;
+            failures[i] = 0;
+        }
+    }
+
+    public synchronized State state() {
+        return state;
+    }
+
+    /**
+     * @return the state and counters of the circuit breaker, as a JSON object.
+     */
+    public JsonObject stats() {
+        int windowRequests = 0;
+        int windowFailures = 0;
+        State current;
+        synchronized (this) {
+            long now = System.nanoTime();
+            for (int i = 0; i < slotIds.length; i++) {
+                if (isCurrent(i, now)) {
+                    windowRequests += requests[i];
+                    windowFailures += failures[i];
+                }
+            }
+            current = state;
+        }
+        return JsonObject.create()
+                .put("enabled", enabled)
+                .put("state", current.name())
+                .put("requests", windowRequests)
+                .put("failures", windowFailures)
+                .put("errorRate", windowRequests == 0 ? 0d : (double) windowFailures / windowRequests)
+                .put("opens", opens.get())
+                .put("rejected", rejected.get());
+    }
+
+    /**
+     * The error of operations that the circuit breaker didn't let through.
+     */
+    public static class CircuitBreakerOpenException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        public CircuitBreakerOpenException() {
+            super("The database is unavailable, operation rejected by the circuit breaker");
+        }
+    }
+}
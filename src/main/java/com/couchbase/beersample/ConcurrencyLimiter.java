@@ -0,0 +1,213 @@
+/**
+ * Copyright (C) 2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.beersample;
+
+import java.util.concurrent.TimeUnit;
+
+import com.couchbase.client.java.document.json.JsonObject;
+
+/**
+ * An adaptive limit on the number of concurrent requests of a kind, so that a slow database makes the application
+ * refuse work early rather than queue it until everything times out.
+ *
+ * The limit follows the latency of the requests: it grows while their recent latency stays close to their long-term
+ * latency, and shrinks by the ratio of the two once the recent latency goes up (a gradient, as in TCP Vegas). A
+ * window with failed requests (errors and timeouts) cuts the limit multiplicatively, like AIMD. The latency is
+ * sampled in windows of at least {@value #WINDOW_MIN_SAMPLES} requests and {@value #WINDOW_MILLIS}ms, the long-term
+ * latency being a moving average of the windows. The limit doesn't grow while the requests use less than half of it,
+ * as their latency then tells nothing about a larger concurrency.
+ */
+public class ConcurrencyLimiter {
+
+    private static final int WINDOW_MIN_SAMPLES = 10;
+    private static final long WINDOW_MILLIS = 100;
+    /** the number of windows the long-term latency is averaged over */
+    private static final int LONG_WINDOWS = 100;
+    /** how much the recent latency can exceed the long-term one before the limit shrinks */
+    private static final double TOLERANCE = 1.5;
+    /** the factor applied to the limit after a window with failures */
+    private static final double BACKOFF = 0.9;
+    /** the weight of each new limit, to smooth out noisy windows */
+    private static final double SMOOTHING = 0.2;
+
+    private final String name;
+    private final int minLimit;
+    private final int maxLimit;
+    private final long windowNanos;
+
+    private double limit;
+    private int inFlight = 0;
+
+    //===== the current window =====
+    private long windowStart = System.nanoTime();
+    private long windowLatencyNanos = 0;
+    private int windowSamples = 0;
+    private int windowMaxInFlight = 0;
+    private boolean windowFailed = false;
+
+    /** the long-term latency, 0 until the first window */
+    private double longLatencyNanos = 0;
+    private double lastLatencyNanos = 0;
+
+    private long admitted = 0;
+    private long rejected = 0;
+    private long failed = 0;
+
+    /**
+     * @param name the kind of requests the limiter is for.
+     * @param initialLimit the limit until the latency is known.
+     * @param minLimit the lowest the limit can go.
+     * @param maxLimit the highest the limit can go.
+     */
+    public ConcurrencyLimiter(String name, int initialLimit, int minLimit, int maxLimit) {
+        this(name, initialLimit, minLimit, maxLimit, TimeUnit.MILLISECONDS.toNanos(WINDOW_MILLIS));
+    }
+
+    ConcurrencyLimiter(String name, int initialLimit, int minLimit, int maxLimit, long windowNanos) {
+        this.name = name;
+        this.windowNanos = windowNanos;
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.limit = Math.min(this.maxLimit, Math.max(this.minLimit, initialLimit));
+    }
+
+    public String name() {
+        return name;
+    }
+
+    /**
+     * Try to start a request. A request that is let through must be ended by {@link #release(long, boolean)}.
+     *
+     * @return false if as many requests as the limit are already in flight.
+     */
+    public synchronized boolean tryAcquire() {
+        if (inFlight >= (int) limit) {
+            rejected++;
+            return false;
+        }
+        inFlight++;
+        admitted++;
+        windowMaxInFlight = Math.max(windowMaxInFlight, inFlight);
+        return true;
+    }
+
+    /**
+     * End a request that was let through, adjusting the limit once the window is over.
+     *
+     * @param latencyNanos the time the request took.
+     * @param failure true if the request failed for a reason that may come from an overload (error or timeout).
+     */
+    public synchronized void release(long latencyNanos, boolean failure) {
+        inFlight--;
+        windowLatencyNanos += latencyNanos;
+        windowSamples++;
+        if (failure) {
+            failed++;
+            windowFailed = true;
+        }
+        long now = System.nanoTime();
+        if (windowSamples >= WINDOW_MIN_SAMPLES && now - windowStart >= windowNanos) {
+            update();
+            windowStart = now;
+            windowLatencyNanos = 0;
+            windowSamples = 0;
+            windowMaxInFlight = inFlight;
+            windowFailed = false;
+        }
+    }
+
+    private void update() {
+        double latency = (double) windowLatencyNanos / windowSamples;
+        lastLatencyNanos = latency;
+        if (longLatencyNanos == 0) {
+            longLatencyNanos = latency;
+        } else {
+            longLatencyNanos += (latency - longLatencyNanos) / LONG_WINDOWS;
+            if (longLatencyNanos > 2 * latency) {
+                //the latency dropped a lot, don't wait for the average to catch up
+                longLatencyNanos = 2 * latency;
+            }
+        }
+        double target;
+        if (windowFailed) {
+            target = limit * BACKOFF;
+        } else if (windowMaxInFlight < limit / 2) {
+            return;
+        } else {
+            double gradient = Math.max(0.5, Math.min(1d, TOLERANCE * longLatencyNanos / latency));
+            //leave room for a few queued requests, so that the limit can probe upwards
+            target = limit * gradient + Math.sqrt(limit);
+        }
+        limit = Math.min(maxLimit, Math.max(minLimit, (1 - SMOOTHING) * limit + SMOOTHING * target));
+    }
+
+    /**
+     * @return the current limit.
+     */
+    public synchronized int limit() {
+        return (int) limit;
+    }
+
+    /**
+     * @return the number of requests in flight.
+     */
+    public synchronized int inFlight() {
+        return inFlight;
+    }
+
+    /**
+     * @return the number of requests let through so far.
+     */
+    public synchronized long admitted() {
+        return admitted;
+    }
+
+    /**
+     * @return the number of requests rejected so far.
+     */
+    public synchronized long rejected() {
+        return rejected;
+    }
+
+    /**
+     * @return the number of requests let through that failed so far.
+     */
+    public synchronized long failed() {
+        return failed;
+    }
+
+    /**
+     * @return the state and counters of the limiter, as a JSON object.
+     */
+    public synchronized JsonObject stats() {
+        return JsonObject.create()
+                .put("limit", (int) limit)
+                .put("inFlight", inFlight)
+                .put("minLimit", minLimit)
+                .put("maxLimit", maxLimit)
+                .put("latencyMillis", lastLatencyNanos / 1e6d)
+                .put("longLatencyMillis", longLatencyNanos / 1e6d)
+                .put("admitted", admitted)
+                .put("rejected", rejected)
+                .put("failed", failed);
+    }
+}
@@ -21,27 +21,60 @@
  */
 package com.couchbase.beersample;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 
+import com.couchbase.beersample.cache.CachedDocument;
+import com.couchbase.beersample.cache.DocumentCache;
+import com.couchbase.beersample.cache.SingleFlight;
 import com.couchbase.beersample.config.Database;
+import com.couchbase.beersample.metrics.CountedViewResult;
+import com.couchbase.beersample.metrics.Metrics;
+import com.couchbase.beersample.metrics.OperationMetrics;
+import com.couchbase.beersample.search.BeerNameIndex;
+import com.couchbase.beersample.search.BeerNameSnapshot;
+import com.couchbase.beersample.stats.FanOutStats;
+import com.couchbase.client.java.AsyncBucket;
 import com.couchbase.client.java.Bucket;
 import com.couchbase.client.java.Cluster;
-import com.couchbase.client.java.CouchbaseCluster;
+import com.couchbase.client.java.ReplicaMode;
+import com.couchbase.client.java.document.Document;
 import com.couchbase.client.java.document.JsonDocument;
+import com.couchbase.client.java.document.RawJsonDocument;
 import com.couchbase.client.java.document.json.JsonArray;
 import com.couchbase.client.java.document.json.JsonObject;
+import com.couchbase.client.java.transcoder.JsonTranscoder;
 import com.couchbase.client.java.view.AsyncViewResult;
 import com.couchbase.client.java.view.AsyncViewRow;
+import com.couchbase.client.java.view.Stale;
 import com.couchbase.client.java.view.ViewQuery;
-import com.couchbase.client.java.view.ViewResult;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.context.annotation.Bean;
-import org.springframework.http.HttpStatus;
-import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
 import rx.Observable;
+import rx.Subscriber;
+import rx.functions.Action1;
 import rx.functions.Action2;
 import rx.functions.Func0;
 import rx.functions.Func1;
@@ -56,24 +89,316 @@ import rx.functions.Func2;
 @Service
 public class CouchbaseService {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(CouchbaseService.class);
+
     private final Database config;
 
-    private final Bucket bucket;
-    private final Cluster cluster;
+    private final LazyBucket bucket;
+    private final Metrics metrics;
+
+    private static final JsonTranscoder TRANSCODER = new JsonTranscoder();
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final BeerNameIndex beerNameIndex = new BeerNameIndex();
+    private final DocumentCache documentCache;
+    private final FanOutStats breweryFanOutStats = new FanOutStats();
+    private final ViewScanner viewScanner;
+    private final List<DocumentChangeListener> listeners = new CopyOnWriteArrayList<DocumentChangeListener>();
+    /** the number of listeners that need the content of a document before it is written */
+    private final AtomicInteger previousContentListeners = new AtomicInteger();
+    /** the metrics of each view by view name, so that a query doesn't build the "view.{name}" operation name */
+    private final ConcurrentMap<String, OperationMetrics> viewMetrics =
+            new ConcurrentHashMap<String, OperationMetrics>();
+
+    private final SingleFlight<JsonDocument> readFlights;
+    private final SingleFlight<List<JsonDocument>> breweryBeersFlights;
+    private final SingleFlight<JsonDocument> searchFlights;
+    private final SingleFlight<RawJsonDocument> rawSearchFlights;
+    private final SingleFlight<RawJsonDocument> rawReadFlights;
 
+    /** the current snapshot of the "by_name" view, null until it is first loaded */
+    private final AtomicReference<BeerNameSnapshot> beerSnapshot = new AtomicReference<BeerNameSnapshot>();
+    /** incremented on each write applied to the beer snapshot, so that reloads racing with a write are dropped */
+    private final AtomicLong beerSnapshotWrites = new AtomicLong();
+    private final AtomicLong beerSnapshotReloads = new AtomicLong();
+    private final AtomicLong beerSnapshotDroppedReloads = new AtomicLong();
+    /** opens the bucket and reloads the beer snapshot */
+    private ScheduledExecutorService background;
+    private volatile boolean warmedUp = false;
+    private volatile long warmUpMillis = -1;
+
+    /** null unless write-behind is enabled */
+    private final WriteBehindQueue writeBehindQueue;
+
+    private final CircuitBreaker breaker;
+    /** the timeout of each kind of database operation, by operation name */
+    private final ConcurrentMap<String, AdaptiveTimeout> timeouts = new ConcurrentHashMap<String, AdaptiveTimeout>();
+    /** the delay before a read is hedged with a replica read */
+    private final AdaptiveTimeout hedgeDelay;
+    private final AtomicLong hedges = new AtomicLong();
+    private final AtomicLong hedgesWon = new AtomicLong();
+
+    /**
+     * Open the configured bucket on the cluster, which is shared with any other bucket the application opens.
+     * The bucket is opened in the background once the service is started, see {@link #isReady()}.
+     */
     @Autowired
-    public CouchbaseService(final Database config) {
+    public CouchbaseService(final Database config, final Metrics metrics, final Cluster cluster) {
+        this(config, new LazyBucket(cluster, config.getBucket(), config.getPassword()), metrics);
+    }
+
+    /**
+     * Create the service on top of an already opened bucket (for instance an in-memory
+     * stand-in). The lifecycle of the bucket is left to the caller.
+     */
+    public CouchbaseService(final Database config, final Bucket bucket) {
+        this(config, bucket, new Metrics());
+    }
+
+    /**
+     * Same as {@link #CouchbaseService(Database, Bucket)}, recording the database operations in the given metrics.
+     */
+    public CouchbaseService(final Database config, final Bucket bucket, final Metrics metrics) {
+        this(config, LazyBucket.of(bucket), metrics);
+    }
+
+    private CouchbaseService(final Database config, final LazyBucket bucket, final Metrics metrics) {
         this.config = config;
+        this.metrics = metrics;
+        this.bucket = bucket;
+        this.documentCache = createDocumentCache(config);
+        this.readFlights = new SingleFlight<JsonDocument>(config.isCoalescingEnabled());
+        this.breweryBeersFlights = new SingleFlight<List<JsonDocument>>(config.isCoalescingEnabled());
+        this.searchFlights = new SingleFlight<JsonDocument>(config.isCoalescingEnabled());
+        this.rawSearchFlights = new SingleFlight<RawJsonDocument>(config.isCoalescingEnabled());
+        this.rawReadFlights = new SingleFlight<RawJsonDocument>(config.isCoalescingEnabled());
+        this.writeBehindQueue = createWriteBehindQueue(config, metrics);
+        this.breaker = new CircuitBreaker(config.isBreakerEnabled(), config.getBreakerErrorRate(),
+                config.getBreakerMinRequests(), config.getBreakerWindowSeconds(), config.getBreakerOpenSeconds());
+        this.hedgeDelay = new AdaptiveTimeout(metrics.operation("get").latency(), config.getHedgeQuantile(), 1d,
+                config.getHedgeMinDelayMillis(), config.getRequestTimeoutMillis(), TimeUnit.MILLISECONDS);
+        this.viewScanner = new ViewScanner(new Func1<ViewQuery, Observable<AsyncViewResult>>() {
+            @Override
+            public Observable<AsyncViewResult> call(ViewQuery viewQuery) {
+                return query(viewQuery);
+            }
+        }, config.getScanPartitions(), config.getScanPageSize(), config.getScanMaxRetries(),
+                config.getScanRetryDelayMillis());
+    }
+
+    private static DocumentCache createDocumentCache(Database config) {
+        return new DocumentCache(config.getCacheMaxBytes(), config.getCacheTtlSeconds(), TimeUnit.SECONDS);
+    }
+
+    private WriteBehindQueue createWriteBehindQueue(Database config, Metrics metrics) {
+        if (!config.isWriteBehindEnabled()) {
+            return null;
+        }
+        return new WriteBehindQueue(this, config, metrics.operation("writeBehind.flush"));
+    }
+
+    /**
+     * Start opening the bucket, without waiting for it. Once it is open the service warms up: the beer name
+     * index and snapshot are loaded, the documents listed in "couchbase.startup.warmUpIds" are read into the
+     * document cache and the view connections are opened, all in parallel.
+     */
+    @PostConstruct
+    public void start() {
+        background = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "couchbase-service-background");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        bucket.open(background);
+        final long start = System.nanoTime();
+        bucket.whenOpen()
+                .flatMap(new Func1<Bucket, Observable<Object>>() {
+                    @Override
+                    public Observable<Object> call(Bucket opened) {
+                        return warmUp();
+                    }
+                })
+                .subscribe(new Subscriber<Object>() {
+                    @Override
+                    public void onNext(Object ignored) {
+                    }
 
-        //connect to the cluster and open the configured bucket
-        this.cluster = CouchbaseCluster.create(config.getNodes());
-        this.bucket = cluster.openBucket(config.getBucket(), config.getPassword());
+                    @Override
+                    public void onError(Throwable e) {
+                        //each part of the warm-up deals with its own errors, this is unexpected
+                        LOGGER.warn("Warm-up failed", e);
+                        onCompleted();
+                    }
+
+                    @Override
+                    public void onCompleted() {
+                        warmUpMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                        warmedUp = true;
+                        LOGGER.info("Warmed up " + warmUpMillis + "ms after startup");
+                    }
+                });
+
+        if (config.isBeerSnapshotEnabled() && config.getBeerSnapshotRefreshSeconds() > 0) {
+            //a reload needs the bucket: only schedule the reloads once it is open, so that none can wait for it on
+            //the thread which retries opening it
+            bucket.whenOpen().subscribe(new Action1<Bucket>() {
+                @Override
+                public void call(Bucket opened) {
+                    scheduleBeerSnapshotRefresh(config.getBeerSnapshotRefreshSeconds());
+                }
+            });
+        }
+    }
+
+    /**
+     * Reload the beer snapshot every period seconds, on the background thread. A reload that takes longer than
+     * the period is given up, so that it can't hold the thread forever.
+     */
+    private void scheduleBeerSnapshotRefresh(final long period) {
+        try {
+            background.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        refreshBeerSnapshot().timeout(period, TimeUnit.SECONDS).toBlocking().single();
+                    } catch (Exception e) {
+                        LOGGER.warn("Unable to reload the beer snapshot, keeping the previous one", e);
+                    }
+                }
+            }, period, period, TimeUnit.SECONDS);
+        } catch (RejectedExecutionException e) {
+            //the bucket opened as the service was stopping
+            LOGGER.debug("Not scheduling beer snapshot reloads, the service is stopped");
+        }
+    }
+
+    /**
+     * Warm the service up, all the parts in parallel. Failures are logged and ignored, the service works cold.
+     *
+     * @return a stream completing once warmed up.
+     */
+    private Observable<Object> warmUp() {
+        List<Observable<?>> parts = new ArrayList<Observable<?>>();
+        parts.add(loadBeerNameIndexAsync());
+        String warmUpIds = config.getStartupWarmUpIds();
+        if (warmUpIds != null && !warmUpIds.trim().isEmpty()) {
+            final List<String> ids = new ArrayList<String>();
+            for (String id : warmUpIds.split(",")) {
+                if (!id.trim().isEmpty()) {
+                    ids.add(id.trim());
+                }
+            }
+            Observable<Observable<JsonDocument>> reads = Observable.from(ids)
+                    .map(new Func1<String, Observable<JsonDocument>>() {
+                        @Override
+                        public Observable<JsonDocument> call(String id) {
+                            return asyncRead(id).onErrorResumeNext(Observable.<JsonDocument>empty());
+                        }
+                    });
+            parts.add(Observable.merge(reads, config.getMgetConcurrency())
+                    .count()
+                    .doOnNext(new Action1<Integer>() {
+                        @Override
+                        public void call(Integer read) {
+                            LOGGER.info("Warmed the document cache up with " + read + " of " + ids.size()
+                                    + " documents");
+                        }
+                    }));
+        }
+        //the first query on a view opens its connections, don't let a request pay for it
+        parts.add(query(createQueryBeersForBrewery("").limit(1))
+                .flatMap(VIEW_ROWS)
+                .onErrorResumeNext(Observable.<AsyncViewRow>empty()));
+        return Observable.merge(Observable.from(parts)).ignoreElements().cast(Object.class);
+    }
+
+    /**
+     * @return true once the bucket is open and, unless "couchbase.startup.readyAfterWarmUp" is false, the service
+     * is warmed up.
+     */
+    public boolean isReady() {
+        return bucket.isOpen() && (warmedUp || !config.isStartupReadyAfterWarmUp());
+    }
+
+    /**
+     * @return the startup state of the service, as a JSON object.
+     */
+    public JsonObject readiness() {
+        return JsonObject.create()
+                .put("ready", isReady())
+                .put("bucket", bucket.stats())
+                .put("warmedUp", warmedUp)
+                .put("warmUpMillis", warmUpMillis);
+    }
+
+    /**
+     * Load the name of every beer from the "by_name" view into the local search index, and into the
+     * beer snapshot if it is enabled, waiting for it to be done.
+     *
+     * @see #loadBeerNameIndexAsync()
+     */
+    public void loadBeerNameIndex() {
+        loadBeerNameIndexAsync().toBlocking().single();
+    }
+
+    /**
+     * Asynchronously load the name of every beer from a scan of the "by_name" view into the local search index,
+     * and into the beer snapshot if it is enabled.
+     * If this fails, searches fall back to scanning the whole view and the listing queries the view.
+     *
+     * @return a stream emitting the number of beers loaded, 0 if the load failed.
+     */
+    public Observable<Integer> loadBeerNameIndexAsync() {
+        return Observable.defer(new Func0<Observable<Integer>>() {
+            @Override
+            public Observable<Integer> call() {
+                beerNameIndex.clear();
+                final long ticket = beerSnapshotWrites.get();
+                return scanAllBeersAsync(false)
+                        .collect(new Func0<BeerNameSnapshot.Builder>() {
+                            @Override
+                            public BeerNameSnapshot.Builder call() {
+                                return new BeerNameSnapshot.Builder();
+                            }
+                        }, new Action2<BeerNameSnapshot.Builder, AsyncViewRow>() {
+                            @Override
+                            public void call(BeerNameSnapshot.Builder snapshot, AsyncViewRow row) {
+                                beerNameIndex.put(row.id(), (String) row.key());
+                                snapshot.add((String) row.key(), row.id());
+                            }
+                        })
+                        .map(new Func1<BeerNameSnapshot.Builder, Integer>() {
+                            @Override
+                            public Integer call(BeerNameSnapshot.Builder snapshot) {
+                                beerNameIndex.markReady();
+                                LOGGER.info("Beer name index loaded with " + beerNameIndex.size() + " beers");
+                                if (config.isBeerSnapshotEnabled()) {
+                                    swapBeerSnapshot(snapshot.build(), ticket);
+                                }
+                                return beerNameIndex.size();
+                            }
+                        })
+                        .onErrorReturn(new Func1<Throwable, Integer>() {
+                            @Override
+                            public Integer call(Throwable e) {
+                                LOGGER.warn("Unable to load the beer name index, searches will scan all beers", e);
+                                return 0;
+                            }
+                        });
+            }
+        });
     }
 
     @PreDestroy
     public void preDestroy() {
-        if (this.cluster != null) {
-            this.cluster.disconnect();
+        if (background != null) {
+            background.shutdownNow();
+        }
+        if (writeBehindQueue != null) {
+            writeBehindQueue.shutdown();
         }
     }
 
@@ -88,41 +413,702 @@ public class CouchbaseService {
      * CREATE the document in database
      * @return the created document, with up to date metadata
      */
-    public JsonDocument create(JsonDocument doc) {
-        return bucket.insert(doc);
+    public JsonDocument create(final JsonDocument doc) {
+        JsonDocument created = timed("insert", new Func0<JsonDocument>() {
+            @Override
+            public JsonDocument call() {
+                return syncBucket().insert(doc, timeoutMillis("insert"), TimeUnit.MILLISECONDS);
+            }
+        });
+        stored(doc, created.cas(), null);
+        return created;
     }
 
     /**
-     * READ the document from database
+     * READ the document from database, or from the document cache if it is there
      */
-    public JsonDocument read(String id) {
-        return bucket.get(id);
+    public JsonDocument read(final String id) {
+        CachedDocument cached = documentCache.get(id);
+        if (cached != null) {
+            return toJsonDocument(cached);
+        }
+        long ticket = documentCache.ticket(id);
+        JsonDocument doc = timed("get", new Func0<JsonDocument>() {
+            @Override
+            public JsonDocument call() {
+                return syncBucket().get(id, timeoutMillis("get"), TimeUnit.MILLISECONDS);
+            }
+        });
+        cache(doc, ticket);
+        return doc;
     }
 
     /**
-     * UPDATE the document in database
+     * UPDATE the document in database. If a listener needs the previous content of the document, it is read
+     * first (see {@link #addDocumentChangeListener(DocumentChangeListener, boolean)}).
      * @return the updated document, with up to date metadata
      */
-    public JsonDocument update(JsonDocument doc) {
-        return bucket.replace(doc);
+    public JsonDocument update(final JsonDocument doc) {
+        JsonObject previous = needsPreviousContent() ? previousContent(doc.id()).toBlocking().single() : null;
+        JsonDocument updated = timed("replace", new Func0<JsonDocument>() {
+            @Override
+            public JsonDocument call() {
+                return syncBucket().replace(doc, timeoutMillis("replace"), TimeUnit.MILLISECONDS);
+            }
+        });
+        stored(doc, updated.cas(), previous);
+        return updated;
     }
 
     /**
-     * DELETE the document from database
+     * DELETE the document from database. If a listener needs the previous content of the document, it is read
+     * first (see {@link #addDocumentChangeListener(DocumentChangeListener, boolean)}).
      * @return the deleted document, with only metadata (since content has been deleted)
      */
-    public JsonDocument delete(String id) {
-        return bucket.remove(id);
+    public JsonDocument delete(final String id) {
+        JsonObject previous = needsPreviousContent() ? previousContent(id).toBlocking().single() : null;
+        JsonDocument deleted = timed("remove", new Func0<JsonDocument>() {
+            @Override
+            public JsonDocument call() {
+                return syncBucket().remove(id, timeoutMillis("remove"), TimeUnit.MILLISECONDS);
+            }
+        });
+        removed(id, previous);
+        return deleted;
+    }
+
+    /**
+     * CREATE the document in database asynchronously
+     * @return a stream emitting the created document, with up to date metadata
+     */
+    public Observable<JsonDocument> asyncCreate(final JsonDocument doc) {
+        Observable<JsonDocument> insert = guarded("insert", new Func1<AsyncBucket, Observable<JsonDocument>>() {
+            @Override
+            public Observable<JsonDocument> call(AsyncBucket bucket) {
+                return bucket.insert(doc);
+            }
+        });
+        return insert.doOnNext(new Action1<JsonDocument>() {
+            @Override
+            public void call(JsonDocument created) {
+                stored(doc, created.cas(), null);
+            }
+        });
+    }
+
+    /**
+     * UPDATE the document in database asynchronously. If a listener needs the previous content of the document,
+     * it is read first (see {@link #addDocumentChangeListener(DocumentChangeListener, boolean)}).
+     * @return a stream emitting the updated document, with up to date metadata
+     */
+    public Observable<JsonDocument> asyncUpdate(final JsonDocument doc) {
+        return afterPreviousContent(doc.id(), new Func1<JsonObject, Observable<JsonDocument>>() {
+            @Override
+            public Observable<JsonDocument> call(JsonObject previous) {
+                return asyncUpdate(doc, previous);
+            }
+        });
+    }
+
+    /**
+     * UPDATE the document in database asynchronously, when its previous content is already known.
+     * @param previous the content of the document before the write, given to the listeners (null if unknown).
+     * @return a stream emitting the updated document, with up to date metadata
+     */
+    public Observable<JsonDocument> asyncUpdate(final JsonDocument doc, final JsonObject previous) {
+        Observable<JsonDocument> replace = guarded("replace", new Func1<AsyncBucket, Observable<JsonDocument>>() {
+            @Override
+            public Observable<JsonDocument> call(AsyncBucket bucket) {
+                return bucket.replace(doc);
+            }
+        });
+        return replace.doOnNext(new Action1<JsonDocument>() {
+            @Override
+            public void call(JsonDocument updated) {
+                stored(doc, updated.cas(), previous);
+            }
+        });
+    }
+
+    /**
+     * UPSERT (create or replace) the document in database asynchronously. If a listener needs the previous
+     * content of the document, it is read first (see {@link #addDocumentChangeListener(DocumentChangeListener,
+     * boolean)}).
+     * @return a stream emitting the stored document, with up to date metadata
+     */
+    public Observable<JsonDocument> asyncUpsert(final JsonDocument doc) {
+        return afterPreviousContent(doc.id(), new Func1<JsonObject, Observable<JsonDocument>>() {
+            @Override
+            public Observable<JsonDocument> call(JsonObject previous) {
+                return asyncUpsert(doc, previous);
+            }
+        });
+    }
+
+    /**
+     * UPSERT (create or replace) the document in database asynchronously, when its previous content is already
+     * known.
+     * @param previous the content of the document before the write, given to the listeners (null if unknown or
+     * if it doesn't exist).
+     * @return a stream emitting the stored document, with up to date metadata
+     */
+    public Observable<JsonDocument> asyncUpsert(final JsonDocument doc, final JsonObject previous) {
+        Observable<JsonDocument> upsert = guarded("upsert", new Func1<AsyncBucket, Observable<JsonDocument>>() {
+            @Override
+            public Observable<JsonDocument> call(AsyncBucket bucket) {
+                return bucket.upsert(doc);
+            }
+        });
+        return upsert.doOnNext(new Action1<JsonDocument>() {
+            @Override
+            public void call(JsonDocument upserted) {
+                stored(doc, upserted.cas(), previous);
+            }
+        });
+    }
+
+    /**
+     * DELETE the document from database asynchronously. If a listener needs the previous content of the
+     * document, it is read first (see {@link #addDocumentChangeListener(DocumentChangeListener, boolean)}).
+     * @return a stream emitting the deleted document, with only metadata
+     */
+    public Observable<JsonDocument> asyncDelete(final String id) {
+        return afterPreviousContent(id, new Func1<JsonObject, Observable<JsonDocument>>() {
+            @Override
+            public Observable<JsonDocument> call(final JsonObject previous) {
+                Observable<JsonDocument> remove = guarded("remove", new Func1<AsyncBucket, Observable<JsonDocument>>() {
+                    @Override
+                    public Observable<JsonDocument> call(AsyncBucket bucket) {
+                        return bucket.remove(id);
+                    }
+                });
+                return remove.doOnNext(new Action1<JsonDocument>() {
+                    @Override
+                    public void call(JsonDocument deleted) {
+                        removed(id, previous);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * @return true if writes can be queued with {@link #queueCreate(JsonDocument)}, {@link #queueUpdate(JsonDocument)}
+     * and {@link #queueDelete(String)}.
+     */
+    public boolean isWriteBehindEnabled() {
+        return writeBehindQueue != null;
     }
 
     /**
-     * Uses a view query to find all beers. Possibly use an offset and a limit of the
-     * number of beers to retrieve.
+     * Queue the creation of a document, to be done by {@link #asyncCreate(JsonDocument)} in a later batch.
+     *
+     * @return the ack of the write, see {@link WriteBehindQueue#enqueue(WriteBehindQueue.Kind, JsonDocument)}.
+     */
+    public WriteBehindQueue.Ack queueCreate(JsonDocument doc) {
+        return writeBehindQueue.enqueue(WriteBehindQueue.Kind.CREATE, doc);
+    }
+
+    /**
+     * Queue the update of a document, to be done by {@link #asyncUpdate(JsonDocument)} in a later batch.
+     */
+    public WriteBehindQueue.Ack queueUpdate(JsonDocument doc) {
+        return writeBehindQueue.enqueue(WriteBehindQueue.Kind.UPDATE, doc);
+    }
+
+    /**
+     * Queue the deletion of a document, to be done by {@link #asyncDelete(String)} in a later batch.
+     */
+    public WriteBehindQueue.Ack queueDelete(String id) {
+        return writeBehindQueue.enqueue(WriteBehindQueue.Kind.DELETE, JsonDocument.create(id));
+    }
+
+    /**
+     * @return the counters of the write-behind queue.
+     */
+    public JsonObject writeBehindStats() {
+        if (writeBehindQueue == null) {
+            return JsonObject.create().put("enabled", false);
+        }
+        return writeBehindQueue.stats().put("enabled", true);
+    }
+
+    /**
+     * Register a listener to be notified of every document written or deleted through this service, which
+     * doesn't need the previous content of the documents (it is given null, unless the writer passed it in).
+     */
+    public void addDocumentChangeListener(DocumentChangeListener listener) {
+        addDocumentChangeListener(listener, false);
+    }
+
+    /**
+     * Register a listener to be notified of every document written or deleted through this service.
+     *
+     * @param needsPreviousContent true if the listener needs the content a document had before a write (eg. to
+     * know which brewery a deleted beer belonged to). As long as such a listener is registered, the updates,
+     * upserts and deletes that aren't given the previous content read it first (most likely from the document
+     * cache, otherwise at the cost of a database round trip before the write).
+     */
+    public void addDocumentChangeListener(DocumentChangeListener listener, boolean needsPreviousContent) {
+        if (needsPreviousContent) {
+            previousContentListeners.incrementAndGet();
+        }
+        listeners.add(listener);
+    }
+
+    private boolean needsPreviousContent() {
+        return previousContentListeners.get() > 0;
+    }
+
+    /**
+     * Run a write once the previous content of the document is known, if a listener needs it, or right away
+     * (with a null previous content) otherwise.
+     */
+    private Observable<JsonDocument> afterPreviousContent(String id,
+            Func1<JsonObject, Observable<JsonDocument>> write) {
+        if (!needsPreviousContent()) {
+            return write.call(null);
+        }
+        return previousContent(id).flatMap(write);
+    }
+
+    /**
+     * @return a stream emitting the current content of the document, or null if it doesn't exist or can't be read.
+     */
+    private Observable<JsonObject> previousContent(String id) {
+        return asyncRead(id)
+                .map(new Func1<JsonDocument, JsonObject>() {
+                    @Override
+                    public JsonObject call(JsonDocument doc) {
+                        return doc.content();
+                    }
+                })
+                .defaultIfEmpty(null)
+                .onErrorReturn(new Func1<Throwable, JsonObject>() {
+                    @Override
+                    public JsonObject call(Throwable throwable) {
+                        return null;
+                    }
+                });
+    }
+
+    /**
+     * Keep the local structures in line with a document that was just written: the cached copy
+     * is invalidated (and later reads won't join a read started before the write), beers get (re)indexed
+     * and anything else is removed from the beer name index and snapshot in case it used to be a beer.
+     * Then the listeners are notified.
+     */
+    private void stored(JsonDocument doc, long cas, JsonObject previous) {
+        documentCache.invalidate(doc.id(), cas);
+        readFlights.forget(doc.id());
+        rawReadFlights.forget(doc.id());
+        JsonObject content = doc.content();
+        if (content != null && "beer".equals(content.getString("type"))) {
+            beerNameIndex.put(doc.id(), content.getString("name"));
+            updateBeerSnapshot(doc.id(), content.getString("name"));
+        } else {
+            beerNameIndex.remove(doc.id());
+            updateBeerSnapshot(doc.id(), null);
+        }
+        for (DocumentChangeListener listener : listeners) {
+            try {
+                listener.documentStored(doc.id(), content, previous);
+            } catch (Exception e) {
+                LOGGER.warn("Listener failed on write of " + doc.id(), e);
+            }
+        }
+    }
+
+    /**
+     * Keep the local structures in line with a document that was just deleted, then notify the listeners.
+     */
+    private void removed(String id, JsonObject previous) {
+        documentCache.invalidate(id, 0L);
+        readFlights.forget(id);
+        rawReadFlights.forget(id);
+        beerNameIndex.remove(id);
+        updateBeerSnapshot(id, null);
+        for (DocumentChangeListener listener : listeners) {
+            try {
+                listener.documentRemoved(id, previous);
+            } catch (Exception e) {
+                LOGGER.warn("Listener failed on delete of " + id, e);
+            }
+        }
+    }
+
+    /**
+     * @return the bucket for a synchronous operation, waiting for it to be open if needed (up to the request
+     * timeout).
+     */
+    private Bucket syncBucket() {
+        return bucket.get(config.getRequestTimeoutMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Run a view query asynchronously through the circuit breaker, recording its latency (until the result is
+     * received, the rows being streamed after that) and the number of rows it returns.
+     */
+    private Observable<AsyncViewResult> query(final ViewQuery query) {
+        final OperationMetrics view = viewMetrics(query.getView());
+        //not given an adaptive timeout: the latency of a view query depends too much on the query (range, stale...)
+        Observable<AsyncViewResult> result = breaker.guard(new Func0<Observable<AsyncViewResult>>() {
+            @Override
+            public Observable<AsyncViewResult> call() {
+                return view.time(bucket.async(new Func1<AsyncBucket, Observable<AsyncViewResult>>() {
+                    @Override
+                    public Observable<AsyncViewResult> call(AsyncBucket bucket) {
+                        return bucket.query(query);
+                    }
+                }));
+            }
+        });
+        return result.map(CountedViewResult.counting(view));
+    }
+
+    private OperationMetrics viewMetrics(String view) {
+        OperationMetrics operation = viewMetrics.get(view);
+        if (operation == null) {
+            operation = metrics.operation("view." + view);
+            viewMetrics.putIfAbsent(view, operation);
+        }
+        return operation;
+    }
+
+    /**
+     * Run an asynchronous operation on the bucket through the circuit breaker, with the timeout of this kind of
+     * operation, recording its metrics.
+     */
+    private <T> Observable<T> guarded(String operation, Func1<AsyncBucket, Observable<T>> call) {
+        return guarded(metrics.operation(operation), call);
+    }
+
+    private <T> Observable<T> guarded(final OperationMetrics operation, final Func1<AsyncBucket, Observable<T>> call) {
+        return guarded(operation, new Func0<Observable<T>>() {
+            @Override
+            public Observable<T> call() {
+                return bucket.async(call);
+            }
+        });
+    }
+
+    private <T> Observable<T> guarded(final OperationMetrics operation, final Func0<Observable<T>> call) {
+        return breaker.guard(new Func0<Observable<T>>() {
+            @Override
+            public Observable<T> call() {
+                long timeout = timeoutMillis(operation.name());
+                return operation.time(call.call().timeout(timeout, TimeUnit.MILLISECONDS));
+            }
+        });
+    }
+
+    /**
+     * Get the document of a view row, like a get.
+     */
+    private Observable<JsonDocument> document(final AsyncViewRow row) {
+        return guarded(metrics.operation("get"), new Func0<Observable<JsonDocument>>() {
+            @Override
+            public Observable<JsonDocument> call() {
+                return row.document();
+            }
+        });
+    }
+
+    /**
+     * Get a document, hedging the read: if the active copy hasn't answered once the usual latency of gets is
+     * over (see "couchbase.hedge.quantile"), the first replica is read too and the first answer wins. Replicas
+     * may lag behind the active copy, so a hedged read may return a slightly older revision.
+     *
+     * @param fromActive called with the document only when it comes from the active copy, to cache it: a revision
+     * read from a replica may already be outdated and is never cached.
+     */
+    private <D extends Document<?>> Observable<D> hedgedGet(final String id, final Class<D> type,
+            final Action1<? super D> fromActive) {
+        final Func1<AsyncBucket, Observable<D>> get = new Func1<AsyncBucket, Observable<D>>() {
+            @Override
+            public Observable<D> call(AsyncBucket bucket) {
+                return bucket.get(id, type);
+            }
+        };
+        if (!config.isHedgeEnabled()) {
+            return guarded("get", get).doOnNext(fromActive);
+        }
+        final Observable<D> replica = metrics.operation("getFromReplica").time(Observable.defer(
+                new Func0<Observable<D>>() {
+                    @Override
+                    public Observable<D> call() {
+                        hedges.incrementAndGet();
+                        return bucket.async(new Func1<AsyncBucket, Observable<D>>() {
+                            @Override
+                            public Observable<D> call(AsyncBucket bucket) {
+                                return bucket.getFromReplica(id, ReplicaMode.FIRST, type);
+                            }
+                        });
+                    }
+                }));
+        return guarded(metrics.operation("get"), new Func0<Observable<D>>() {
+            @Override
+            public Observable<D> call() {
+                Observable<D> hedge = Observable.timer(hedgeDelay.nanos(), TimeUnit.NANOSECONDS)
+                        .flatMap(new Func1<Long, Observable<D>>() {
+                            @Override
+                            public Observable<D> call(Long tick) {
+                                return replica;
+                            }
+                        })
+                        //a failed hedge leaves the answer to the active copy, so does a replica without the document
+                        .onErrorResumeNext(Observable.<D>never())
+                        .concatWith(Observable.<D>never())
+                        .take(1)
+                        .doOnNext(new Action1<D>() {
+                            @Override
+                            public void call(D doc) {
+                                hedgesWon.incrementAndGet();
+                            }
+                        });
+                return Observable.amb(bucket.async(get).doOnNext(fromActive), hedge);
+            }
+        });
+    }
+
+    /**
+     * @return the current timeout of this kind of database operation, in milliseconds: a multiple of its usual
+     * latency (see "couchbase.timeouts"), never more than the request timeout.
+     */
+    private long timeoutMillis(String operation) {
+        AdaptiveTimeout timeout = timeouts.get(operation);
+        if (timeout == null) {
+            //with adaptive timeouts disabled, the bounds are both the request timeout
+            long min = config.isAdaptiveTimeoutsEnabled() ? config.getTimeoutMinMillis()
+                    : config.getRequestTimeoutMillis();
+            timeout = new AdaptiveTimeout(metrics.operation(operation).latency(), config.getTimeoutQuantile(),
+                    config.getTimeoutFactor(), min, config.getRequestTimeoutMillis(), TimeUnit.MILLISECONDS);
+            AdaptiveTimeout existing = timeouts.putIfAbsent(operation, timeout);
+            if (existing != null) {
+                timeout = existing;
+            }
+        }
+        return timeout.millis();
+    }
+
+    /**
+     * @return the state of the circuit breaker, the current timeouts by operation and the counters of hedged reads.
+     */
+    public JsonObject resilienceStats() {
+        JsonObject timeoutMillis = JsonObject.create();
+        for (Map.Entry<String, AdaptiveTimeout> timeout : timeouts.entrySet()) {
+            timeoutMillis.put(timeout.getKey(), timeout.getValue().millis());
+        }
+        return JsonObject.create()
+                .put("breaker", breaker.stats())
+                .put("timeoutMillis", timeoutMillis)
+                .put("hedges", JsonObject.create()
+                        .put("enabled", config.isHedgeEnabled())
+                        .put("delayMillis", hedgeDelay.millis())
+                        .put("fired", hedges.get())
+                        .put("won", hedgesWon.get()));
+    }
+
+    private <T> T timed(String operation, Func0<T> call) {
+        return timed(metrics.operation(operation), call);
+    }
+
+    /**
+     * Time a synchronous database call, run through the circuit breaker.
+     */
+    private <T> T timed(final OperationMetrics operation, final Func0<T> call) {
+        return breaker.call(new Func0<T>() {
+            @Override
+            public T call() {
+                long start = operation.start();
+                T result;
+                try {
+                    result = call.call();
+                } catch (RuntimeException e) {
+                    operation.stop(start, e);
+                    throw e;
+                }
+                operation.stop(start, null);
+                return result;
+            }
+        });
+    }
+
+    /**
+     * @return the current snapshot of the "by_name" view, to be used instead of querying the view,
+     * or null if it is disabled or couldn't be loaded.
+     */
+    public BeerNameSnapshot beerSnapshot() {
+        return config.isBeerSnapshotEnabled() ? beerSnapshot.get() : null;
+    }
+
+    /**
+     * Reload the beer snapshot from the "by_name" view, in the background. The new snapshot is swapped in
+     * once fully built, unless a write was applied to the current snapshot meanwhile: the view may have been
+     * indexed before that write, so the reload is dropped and the next one will catch up.
+     *
+     * @return a stream emitting the current snapshot once the reload is done.
+     */
+    public Observable<BeerNameSnapshot> refreshBeerSnapshot() {
+        return Observable.defer(new Func0<Observable<BeerNameSnapshot>>() {
+            @Override
+            public Observable<BeerNameSnapshot> call() {
+                final long ticket = beerSnapshotWrites.get();
+                return scanViewAsync("by_name", Stale.FALSE, false)
+                        .collect(new Func0<BeerNameSnapshot.Builder>() {
+                            @Override
+                            public BeerNameSnapshot.Builder call() {
+                                return new BeerNameSnapshot.Builder(Math.max(16, beerNameIndex.size()));
+                            }
+                        }, new Action2<BeerNameSnapshot.Builder, AsyncViewRow>() {
+                            @Override
+                            public void call(BeerNameSnapshot.Builder builder, AsyncViewRow row) {
+                                builder.add((String) row.key(), row.id());
+                            }
+                        })
+                        .map(new Func1<BeerNameSnapshot.Builder, BeerNameSnapshot>() {
+                            @Override
+                            public BeerNameSnapshot call(BeerNameSnapshot.Builder builder) {
+                                swapBeerSnapshot(builder.build(), ticket);
+                                return beerSnapshot.get();
+                            }
+                        });
+            }
+        });
+    }
+
+    private void swapBeerSnapshot(BeerNameSnapshot snapshot, long ticket) {
+        BeerNameSnapshot current = beerSnapshot.get();
+        //a write applied after the ticket check swaps its own snapshot first, so the compare-and-set fails
+        if (ticket == beerSnapshotWrites.get() && beerSnapshot.compareAndSet(current, snapshot)) {
+            beerSnapshotReloads.incrementAndGet();
+            LOGGER.debug("Beer snapshot reloaded with " + snapshot.size() + " beers");
+        } else {
+            beerSnapshotDroppedReloads.incrementAndGet();
+            LOGGER.debug("Beer snapshot reload dropped, a beer was written meanwhile");
+        }
+    }
+
+    /**
+     * Apply a write to the beer snapshot right away, by swapping in a copy with the beer's row replaced.
+     *
+     * @param name the beer's new name, null if the document was deleted or is not a beer.
+     */
+    private void updateBeerSnapshot(String id, String name) {
+        if (!config.isBeerSnapshotEnabled()) {
+            return;
+        }
+        beerSnapshotWrites.incrementAndGet();
+        BeerNameSnapshot current;
+        do {
+            current = beerSnapshot.get();
+            if (current == null) {
+                return;
+            }
+        } while (!beerSnapshot.compareAndSet(current, current.with(id, name)));
+    }
+
+    /**
+     * @return the counters of the beer snapshot.
+     */
+    public JsonObject beerSnapshotStats() {
+        BeerNameSnapshot snapshot = beerSnapshot.get();
+        return JsonObject.create()
+                .put("enabled", config.isBeerSnapshotEnabled())
+                .put("loaded", snapshot != null)
+                .put("beers", snapshot == null ? 0 : snapshot.size())
+                .put("ageMillis", snapshot == null ? 0 : System.currentTimeMillis() - snapshot.createdAt())
+                .put("writes", beerSnapshotWrites.get())
+                .put("reloads", beerSnapshotReloads.get())
+                .put("droppedReloads", beerSnapshotDroppedReloads.get());
+    }
+
+    /**
+     * Retrieves all the beers using a view query, returning the result asynchronously.
+     */
+    public Observable<AsyncViewResult> findAllBeersAsync() {
+        ViewQuery allBeers = ViewQuery.from("beer", "by_name");
+        return query(allBeers);
+    }
+
+    /**
+     * Scan every beer of the "by_name" view, as key ranges queried in parallel.
+     *
+     * @param ordered true to get the beers by name (the ranges are then read one after the other), false to get them
+     * as soon as they are read.
+     * @see #scanViewAsync(String, Stale, boolean)
+     */
+    public Observable<AsyncViewRow> scanAllBeersAsync(boolean ordered) {
+        return scanViewAsync("by_name", null, ordered);
+    }
+
+    /**
+     * Scan every row of a view of the "beer" design document, split into "couchbase.scan.partitions" key ranges
+     * queried in parallel, a range that fails being retried on its own (see {@link ViewScanner}).
+     *
+     * @param stale the staleness of the view, null for the server's default.
+     * @param ordered true to get the rows in key order (the ranges are then read one after the other), false to get
+     * them as soon as they are read.
+     */
+    public Observable<AsyncViewRow> scanViewAsync(String view, Stale stale, boolean ordered) {
+        return viewScanner.scan("beer", view, stale, ordered);
+    }
+
+    /**
+     * @return the counters of the full view scans.
+     */
+    public JsonObject viewScanStats() {
+        return viewScanner.stats();
+    }
+
+    /**
+     * Asynchronously retrieves beers using a view query, possibly with an offset and a limit of the number of beers
+     * to retrieve.
      *
      * @param offset the number of beers to skip, null or < 1 to ignore
      * @param limit the limit of beers to retrieve, null or < 1 to ignore
      */
-    public ViewResult findAllBeers(Integer offset, Integer limit) {
+    public Observable<AsyncViewResult> findAllBeersAsync(Integer offset, Integer limit) {
+        return query(createQueryAllBeers(offset, limit));
+    }
+
+    /**
+     * Asynchronously retrieves a page of beers, resuming right after a given row of the "by_name" view
+     * rather than skipping a number of rows, which the view engine would have to walk through.
+     *
+     * @param lastName the name (key) of the last row of the previous page, ignored if lastId is null.
+     * @param lastId the id of the last row of the previous page, null to start from the first beer.
+     * @param limit the maximum number of beers in the page, < 1 for all the remaining beers.
+     */
+    public Observable<AsyncViewResult> findBeersAfterAsync(String lastName, String lastId, int limit) {
+        ViewQuery query = ViewQuery.from("beer", "by_name");
+        if (limit > 0) {
+            query.limit(limit);
+        }
+        if (lastId != null) {
+            //several beers can have the same name, the doc id disambiguates, then skip that last row itself
+            query.startKey(lastName).startKeyDocId(lastId).skip(1);
+        }
+        return query(query);
+    }
+
+    /**
+     * Asynchronously retrieves the first beers of the "by_name" view which name starts with a prefix. Like for
+     * {@link #createQueryBeersForBrewery(String)}, the range ends at the prefix followed by the largest UTF8 char.
+     * The view collates strings ignoring case first, so the range also holds the names starting with the prefix in
+     * another case.
+     *
+     * @param limit the maximum number of beers.
+     */
+    public Observable<AsyncViewResult> findBeersByNamePrefixAsync(String prefix, int limit) {
+        ViewQuery query = ViewQuery.from("beer", "by_name")
+                .startKey(prefix)
+                .endKey(prefix + "\uefff")
+                .limit(limit);
+        return query(query);
+    }
+
+    private static ViewQuery createQueryAllBeers(Integer offset, Integer limit) {
         ViewQuery query = ViewQuery.from("beer", "by_name");
         if (limit != null && limit > 0) {
             query.limit(limit);
@@ -130,23 +1116,118 @@ public class CouchbaseService {
         if (offset != null && offset > 0) {
             query.skip(offset);
         }
-        ViewResult result = bucket.query(query);
-        return result;
+        return query;
     }
 
     /**
-     * Retrieves all the beers using a view query, returning the result asynchronously.
+     * READ the document asynchronously from database, or from the document cache if it is there.
+     * Concurrent reads of a document that is not cached share a single get, each getting its own
+     * copy of the document.
      */
-    public Observable<AsyncViewResult> findAllBeersAsync() {
-        ViewQuery allBeers = ViewQuery.from("beer", "by_name");
-        return bucket.async().query(allBeers);
+    public Observable<JsonDocument> asyncRead(final String id) {
+        return Observable.defer(new Func0<Observable<JsonDocument>>() {
+            @Override
+            public Observable<JsonDocument> call() {
+                CachedDocument cached = documentCache.get(id);
+                if (cached != null) {
+                    return Observable.just(toJsonDocument(cached));
+                }
+                return readFlights.execute(id, new Func0<Observable<JsonDocument>>() {
+                    @Override
+                    public Observable<JsonDocument> call() {
+                        final long ticket = documentCache.ticket(id);
+                        return hedgedGet(id, JsonDocument.class, new Action1<JsonDocument>() {
+                            @Override
+                            public void call(JsonDocument doc) {
+                                cache(doc, ticket);
+                            }
+                        });
+                    }
+                }).map(COPY_DOCUMENT);
+            }
+        });
     }
 
     /**
-     * READ the document asynchronously from database.
+     * READ the raw JSON content of a document asynchronously from database, or from the document cache if it is
+     * there. The content is never decoded, which makes this the read to use when the document is passed through
+     * as is. Concurrent reads of a document that is not cached share a single get (the content is immutable, so
+     * it isn't copied).
      */
-    public Observable<JsonDocument> asyncRead(String id) {
-        return bucket.async().get(id);
+    public Observable<RawJsonDocument> asyncReadRaw(final String id) {
+        return Observable.defer(new Func0<Observable<RawJsonDocument>>() {
+            @Override
+            public Observable<RawJsonDocument> call() {
+                CachedDocument cached = documentCache.get(id);
+                if (cached != null) {
+                    return Observable.just(RawJsonDocument.create(cached.id(), cached.content(), cached.cas()));
+                }
+                return rawReadFlights.execute(id, new Func0<Observable<RawJsonDocument>>() {
+                    @Override
+                    public Observable<RawJsonDocument> call() {
+                        final long ticket = documentCache.ticket(id);
+                        return hedgedGet(id, RawJsonDocument.class, new Action1<RawJsonDocument>() {
+                            @Override
+                            public void call(RawJsonDocument doc) {
+                                //already serialized, the cache takes it as is
+                                documentCache.put(doc.id(), doc.content(), doc.cas(), ticket);
+                            }
+                        });
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Callers are free to mutate the documents they read, so those shared by a coalesced read are copied.
+     */
+    private static final Func1<JsonDocument, JsonDocument> COPY_DOCUMENT = new Func1<JsonDocument, JsonDocument>() {
+        @Override
+        public JsonDocument call(JsonDocument doc) {
+            JsonObject content = doc.content() == null ? null : JsonObject.from(doc.content().toMap());
+            return JsonDocument.create(doc.id(), content, doc.cas());
+        }
+    };
+
+    /**
+     * @return the counters of the document cache.
+     */
+    public JsonObject documentCacheStats() {
+        return documentCache.stats();
+    }
+
+    /**
+     * @return the counters of the coalescing of concurrent identical operations, by kind of operation.
+     */
+    public JsonObject coalescingStats() {
+        return JsonObject.create()
+                .put("reads", readFlights.stats())
+                .put("rawReads", rawReadFlights.stats())
+                .put("breweryBeers", breweryBeersFlights.stats())
+                .put("searches", searchFlights.stats())
+                .put("rawSearches", rawSearchFlights.stats());
+    }
+
+    private void cache(JsonDocument doc, long ticket) {
+        if (doc != null && documentCache.isEnabled()) {
+            try {
+                documentCache.put(doc.id(), TRANSCODER.jsonObjectToString(doc.content()), doc.cas(), ticket);
+            } catch (Exception e) {
+                LOGGER.warn("Unable to cache document " + doc.id(), e);
+            }
+        }
+    }
+
+    /**
+     * Decode a fresh copy of a cached document, that the caller is free to mutate.
+     */
+    private static JsonDocument toJsonDocument(CachedDocument cached) {
+        try {
+            return JsonDocument.create(cached.id(), TRANSCODER.stringToJsonObject(cached.content()), cached.cas());
+        } catch (Exception e) {
+            throw new IllegalStateException("Unable to decode cached document " + cached.id(), e);
+        }
     }
 
     /**
@@ -158,7 +1239,15 @@ public class CouchbaseService {
      * @param breweryId the brewery key for which to retrieve associated beers.
      */
     public static ViewQuery createQueryBeersForBrewery(String breweryId) {
-        ViewQuery forBrewery = ViewQuery.from("beer", "brewery_beers");
+        return createQueryBeersForBrewery("brewery_beers", breweryId);
+    }
+
+    /**
+     * Same as {@link #createQueryBeersForBrewery(String)} on another view of the "beer" design document
+     * that is keyed the same way.
+     */
+    public static ViewQuery createQueryBeersForBrewery(String view, String breweryId) {
+        ViewQuery forBrewery = ViewQuery.from("beer", view);
         forBrewery.startKey(JsonArray.from(breweryId));
         //the trick here is that sorting is UTF8 based, uefff is the largest UTF8 char
         forBrewery.endKey(JsonArray.from(breweryId, "\uefff"));
@@ -172,9 +1261,158 @@ public class CouchbaseService {
      * @see #createQueryBeersForBrewery(String)
      */
     public Observable<AsyncViewResult> findBeersForBreweryAsync(String breweryId) {
-        return bucket.async().query(createQueryBeersForBrewery(breweryId));
+        return query(createQueryBeersForBrewery(breweryId));
+    }
+
+    /**
+     * Asynchronously query the database for the ids of all the breweries, using the rows that the
+     * "brewery_beers" view emits for the breweries themselves (which key only holds the brewery id).
+     * The view is updated before being queried, so that recently created breweries are included.
+     */
+    public Observable<String> findBreweryIdsAsync() {
+        return scanViewAsync("brewery_beers", Stale.FALSE, false)
+                .filter(new Func1<AsyncViewRow, Boolean>() {
+                    @Override
+                    public Boolean call(AsyncViewRow row) {
+                        return row.key() instanceof JsonArray && ((JsonArray) row.key()).size() == 1;
+                    }
+                })
+                .map(new Func1<AsyncViewRow, String>() {
+                    @Override
+                    public String call(AsyncViewRow row) {
+                        return row.id();
+                    }
+                });
     }
 
+    /**
+     * Asynchronously fetch every brewery and every beer that belongs to a brewery, from the rows of the
+     * "brewery_beers" view, at most "couchbase.mget.concurrency" documents at a time. The view is updated before
+     * being queried.
+     */
+    public Observable<JsonDocument> findBreweriesAndBeersAsync() {
+        Observable<Observable<JsonDocument>> gets = scanViewAsync("brewery_beers", Stale.FALSE, false)
+                .map(new Func1<AsyncViewRow, Observable<JsonDocument>>() {
+                    @Override
+                    public Observable<JsonDocument> call(AsyncViewRow row) {
+                        return document(row);
+                    }
+                });
+        return Observable.merge(gets, config.getMgetConcurrency());
+    }
+
+    /**
+     * Asynchronously fetch the documents of all the beers associated to a brewery. At most
+     * the configured number of beers are fetched in parallel, so that large breweries don't
+     * flood the cluster with gets.
+     *
+     * @param breweryId the brewery key for which to retrieve associated beers.
+     */
+    public Observable<List<JsonDocument>> findBeerDocumentsForBreweryAsync(final String breweryId) {
+        return findBeerDocumentsForBreweryAsync(breweryId, null);
+    }
+
+    /**
+     * Same as {@link #findBeerDocumentsForBreweryAsync(String)}, but querying the view with the given
+     * staleness (eg. {@link Stale#FALSE} to be sure that the latest writes are taken into account).
+     *
+     * @param stale the staleness of the view query, null for the server's default.
+     */
+    public Observable<List<JsonDocument>> findBeerDocumentsForBreweryAsync(final String breweryId,
+            final Stale stale) {
+        String key = "documents:" + stale + ":" + breweryId;
+        return breweryBeersFlights.execute(key, new Func0<Observable<List<JsonDocument>>>() {
+            @Override
+            public Observable<List<JsonDocument>> call() {
+                final long start = System.nanoTime();
+                ViewQuery query = createQueryBeersForBrewery(breweryId);
+                if (stale != null) {
+                    query.stale(stale);
+                }
+                Observable<Observable<JsonDocument>> gets = query(query)
+                        .flatMap(VIEW_ROWS)
+                        .filter(isBeerOf(breweryId))
+                        //extract the actual document (pair of brewery id and beer id)
+                        .map(new Func1<AsyncViewRow, Observable<JsonDocument>>() {
+                            @Override
+                            public Observable<JsonDocument> call(AsyncViewRow row) {
+                                return document(row);
+                            }
+                        });
+                return Observable.merge(gets, config.getBreweryFanOutConcurrency())
+                        .toList()
+                        .doOnNext(new Action1<List<JsonDocument>>() {
+                            @Override
+                            public void call(List<JsonDocument> beers) {
+                                breweryFanOutStats.record(beers.size(), System.nanoTime() - start);
+                            }
+                        });
+            }
+        });
+    }
+
+    /**
+     * Asynchronously get summaries of all the beers associated to a brewery, straight from the
+     * rows of the summary view, without fetching any beer document. Each summary is represented as
+     * a document which content is the view row's value.
+     *
+     * @param breweryId the brewery key for which to retrieve associated beers.
+     * @see Database#getBrewerySummaryView()
+     */
+    public Observable<List<JsonDocument>> findBeerSummariesForBreweryAsync(final String breweryId) {
+        return breweryBeersFlights.execute("summaries:" + breweryId, new Func0<Observable<List<JsonDocument>>>() {
+            @Override
+            public Observable<List<JsonDocument>> call() {
+                return query(createQueryBeersForBrewery(config.getBrewerySummaryView(), breweryId))
+                        .flatMap(VIEW_ROWS)
+                        .filter(isBeerOf(breweryId))
+                        .map(new Func1<AsyncViewRow, JsonDocument>() {
+                            @Override
+                            public JsonDocument call(AsyncViewRow row) {
+                                Object value = row.value();
+                                return JsonDocument.create(row.id(),
+                                        value instanceof JsonObject ? (JsonObject) value : JsonObject.empty());
+                            }
+                        })
+                        .toList();
+            }
+        });
+    }
+
+    /**
+     * @return the counters of the fan-out of beer fetches for breweries.
+     */
+    public JsonObject breweryFanOutStats() {
+        return breweryFanOutStats.toJson();
+    }
+
+    /**
+     * The brewery views also emit a row for the brewery itself, which is not one of its beers.
+     */
+    private static Func1<AsyncViewRow, Boolean> isBeerOf(final String breweryId) {
+        return new Func1<AsyncViewRow, Boolean>() {
+            @Override
+            public Boolean call(AsyncViewRow row) {
+                return !breweryId.equals(row.id());
+            }
+        };
+    }
+
+    /**
+     * Extracts the rows of a successful view result, or fails with the view's error.
+     */
+    public static final Func1<AsyncViewResult, Observable<AsyncViewRow>> VIEW_ROWS =
+            new Func1<AsyncViewResult, Observable<AsyncViewRow>>() {
+                @Override
+                public Observable<AsyncViewRow> call(AsyncViewResult result) {
+                    if (result.success()) {
+                        return result.rows();
+                    }
+                    return Observable.error(new IllegalStateException("Error while querying view - "
+                            + result.error()));
+                }
+            };
+
     /**
      * From a brewery document and a list of documents for its associated beers,
      * both asynchronously represented, prepare a stream of JSON documents concatenating
@@ -205,6 +1443,25 @@ public class CouchbaseService {
 
     //===== Here is a more advanced example, using Async API to search in Beer names =====
 
+    /**
+     * @return true if the local beer name index is loaded, meaning {@link #searchBeer(String)}
+     * can be used instead of scanning all the beers.
+     */
+    public boolean isBeerNameIndexReady() {
+        return beerNameIndex.isReady();
+    }
+
+    /**
+     * Search beers which name contains the token using the local beer name index, so that
+     * only the matching beers are fetched from the database. The resulting stream emits
+     * a single JSON array similar to {@link #searchBeer(Observable, String)}.
+     */
+    public Observable<JsonArray> searchBeer(final String token) {
+        return findBeersByName(token)
+                .map(TO_SEARCH_RESULT)
+                .collect(NEW_ARRAY, ADD_TO_ARRAY);
+    }
+
     /**
      * From an async stream of all the beers and a search token, returns a stream
      * emitting a single JSON array. The array contains data for all matching beers,
@@ -212,43 +1469,197 @@ public class CouchbaseService {
      * and "detail" (the beers whole document content).
      */
     public Observable<JsonArray> searchBeer(Observable<AsyncViewRow> allBeers, final String token) {
-        return allBeers
-                //extract the document from the row and carve a result object using its content and id
-                .flatMap(new Func1<AsyncViewRow, Observable<JsonObject>>() {
-                    @Override
-                    public Observable<JsonObject> call(AsyncViewRow row) {
-                        return row.document().map(new Func1<JsonDocument, JsonObject>() {
+        return findBeersByName(allBeers, token)
+                //carve a result object using the document's content and id
+                .map(TO_SEARCH_RESULT)
+                        //collect results into a JSON array (one could also just use toList() since a List would be
+                        // transcoded into a JSON array)
+                .collect(NEW_ARRAY, ADD_TO_ARRAY);
+    }
+
+    /**
+     * Stream the documents of the beers which name contains the token, found using the local beer
+     * name index (see {@link #isBeerNameIndexReady()}). Only the matching beers are fetched.
+     */
+    public Observable<JsonDocument> findBeersByName(final String token) {
+        return searchFlights.execute("index:" + normalize(token), new Func0<Observable<JsonDocument>>() {
+            @Override
+            public Observable<JsonDocument> call() {
+                return Observable.from(beerNameIndex.search(token))
+                        //fetch only the documents of the beers that matched
+                        .flatMap(new Func1<String, Observable<JsonDocument>>() {
                             @Override
-                            public JsonObject call(JsonDocument jsonDocument) {
-                                return JsonObject.create()
-                                                 .put("id", jsonDocument.id())
-                                                 .put("name", jsonDocument.content().getString("name"))
-                                                 .put("detail", jsonDocument.content());
+                            public Observable<JsonDocument> call(String id) {
+                                return asyncRead(id);
                             }
-                        });
-                    }
-                })
-                        //reject beers that don't match the partial name
-                .filter(new Func1<JsonObject, Boolean>() {
+                        })
+                        //the index could be slightly behind the documents, so check the name again
+                        .filter(nameMatches(token));
+            }
+        });
+    }
+
+    /**
+     * Stream the documents of the beers which name contains the token, out of a scan of all the beers
+     * of the "by_name" view. Concurrent scans for the same token (ignoring case) share a single scan.
+     */
+    public Observable<JsonDocument> scanBeersByName(final String token) {
+        return searchFlights.execute("scan:" + normalize(token), new Func0<Observable<JsonDocument>>() {
+            @Override
+            public Observable<JsonDocument> call() {
+                return findBeersByName(scanAllBeersAsync(false), token);
+            }
+        });
+    }
+
+    /**
+     * Like {@link #findBeersByName(String)}, but the documents are streamed as stored, to be sent without being
+     * decoded and encoded again.
+     */
+    public Observable<RawJsonDocument> findRawBeersByName(final String token) {
+        return rawSearchFlights.execute("index:" + normalize(token), new Func0<Observable<RawJsonDocument>>() {
+            @Override
+            public Observable<RawJsonDocument> call() {
+                return Observable.from(beerNameIndex.search(token))
+                        .flatMap(new Func1<String, Observable<RawJsonDocument>>() {
+                            @Override
+                            public Observable<RawJsonDocument> call(String id) {
+                                return asyncReadRaw(id);
+                            }
+                        })
+                        .filter(rawNameMatches(token));
+            }
+        });
+    }
+
+    /**
+     * Like {@link #scanBeersByName(String)}, but the documents are streamed as stored, to be sent without being
+     * decoded and encoded again.
+     */
+    public Observable<RawJsonDocument> scanRawBeersByName(final String token) {
+        return rawSearchFlights.execute("scan:" + normalize(token), new Func0<Observable<RawJsonDocument>>() {
+            @Override
+            public Observable<RawJsonDocument> call() {
+                return scanAllBeersAsync(false)
+                        .flatMap(new Func1<AsyncViewRow, Observable<RawJsonDocument>>() {
+                            @Override
+                            public Observable<RawJsonDocument> call(AsyncViewRow row) {
+                                return asyncReadRaw(row.id());
+                            }
+                        })
+                        .filter(rawNameMatches(token));
+            }
+        });
+    }
+
+    /**
+     * Stream the documents of the beers which name contains the token, out of an async stream of all the beers.
+     */
+    public Observable<JsonDocument> findBeersByName(Observable<AsyncViewRow> allBeers, final String token) {
+        return allBeers
+                //extract the document from the row
+                .flatMap(new Func1<AsyncViewRow, Observable<JsonDocument>>() {
                     @Override
-                    public Boolean call(JsonObject jsonObject) {
-                        String name = jsonObject.getString("name");
-                        return name != null && name.toLowerCase().contains(token.toLowerCase());
+                    public Observable<JsonDocument> call(AsyncViewRow row) {
+                        return document(row);
                     }
                 })
-                        //collect results into a JSON array (one could also just use toList() since a List would be
-                        // transcoded into a JSON array)
-                .collect(new Func0<JsonArray>() { //this creates the array (once)
-                    @Override
-                    public JsonArray call() {
-                        return JsonArray.empty();
-                    }
-                }, new Action2<JsonArray, JsonObject>() { //this populates the array (each item)
-                    @Override
-                    public void call(JsonArray objects, JsonObject jsonObject) {
-                        objects.add(jsonObject);
+                //reject beers that don't match the partial name
+                .filter(nameMatches(token));
+    }
+
+    private static final Func1<JsonDocument, JsonObject> TO_SEARCH_RESULT = new Func1<JsonDocument, JsonObject>() {
+        @Override
+        public JsonObject call(JsonDocument jsonDocument) {
+            return JsonObject.create()
+                             .put("id", jsonDocument.id())
+                             .put("name", jsonDocument.content().getString("name"))
+                             .put("detail", jsonDocument.content());
+        }
+    };
+
+    private static Func1<JsonDocument, Boolean> nameMatches(final String token) {
+        final String lowerToken = normalize(token);
+        return new Func1<JsonDocument, Boolean>() {
+            @Override
+            public Boolean call(JsonDocument jsonDocument) {
+                String name = jsonDocument.content().getString("name");
+                return name != null && normalize(name).contains(lowerToken);
+            }
+        };
+    }
+
+    private static Func1<RawJsonDocument, Boolean> rawNameMatches(final String token) {
+        final String lowerToken = normalize(token);
+        return new Func1<RawJsonDocument, Boolean>() {
+            @Override
+            public Boolean call(RawJsonDocument document) {
+                String name = rawName(document.content());
+                return name != null && normalize(name).contains(lowerToken);
+            }
+        };
+    }
+
+    /**
+     * Read the "name" attribute of a stored JSON document, without decoding the rest of it.
+     *
+     * @return the name, null if the document has none (or is not a JSON object).
+     */
+    public static String rawName(String content) {
+        return rawString(content, "name");
+    }
+
+    /**
+     * Read a top-level string attribute of a stored JSON document, without decoding the rest of it.
+     *
+     * @return the value of the attribute, null if the document has no such string (or is not a JSON object).
+     */
+    public static String rawString(String content, String attribute) {
+        if (content == null) {
+            return null;
+        }
+        try {
+            JsonParser parser = JSON_FACTORY.createParser(content);
+            try {
+                if (parser.nextToken() != JsonToken.START_OBJECT) {
+                    return null;
+                }
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String field = parser.getCurrentName();
+                    JsonToken value = parser.nextToken();
+                    if (attribute.equals(field)) {
+                        return value == JsonToken.VALUE_STRING ? parser.getText() : null;
                     }
-                });
+                    parser.skipChildren();
+                }
+                return null;
+            } finally {
+                parser.close();
+            }
+        } catch (IOException e) {
+            //not valid JSON, so no name
+            return null;
+        }
+    }
+
+    private static String normalize(String value) {
+        return value.toLowerCase(Locale.ENGLISH);
     }
 
+    //this creates the array (once)
+    private static final Func0<JsonArray> NEW_ARRAY = new Func0<JsonArray>() {
+        @Override
+        public JsonArray call() {
+            return JsonArray.empty();
+        }
+    };
+
+    //this populates the array (each item)
+    private static final Action2<JsonArray, JsonObject> ADD_TO_ARRAY = new Action2<JsonArray, JsonObject>() {
+        @Override
+        public void call(JsonArray objects, JsonObject jsonObject) {
+            objects.add(jsonObject);
+        }
+    };
+
 }
@@ -0,0 +1,53 @@
+/**
+ * Copyright (C) 2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.beersample;
+
+import com.couchbase.client.java.document.json.JsonObject;
+
+/**
+ * A listener of the documents written and deleted through the {@link CouchbaseService}, to keep derived
+ * data up to date.
+ *
+ * Listeners are called once the write has succeeded, possibly from an I/O thread, so they shouldn't block.
+ * The contents they are given are shared and must not be mutated. The previous content of a document is only
+ * read before a write if a listener was registered as needing it, see
+ * {@link CouchbaseService#addDocumentChangeListener(DocumentChangeListener, boolean)}.
+ */
+public interface DocumentChangeListener {
+
+    /**
+     * A document was created or updated.
+     *
+     * @param id the id of the document.
+     * @param content the new content of the document.
+     * @param previous the content of the document before the write, null if unknown or if it didn't exist.
+     */
+    void documentStored(String id, JsonObject content, JsonObject previous);
+
+    /**
+     * A document was deleted.
+     *
+     * @param id the id of the document.
+     * @param previous the content of the document before it was deleted, null if unknown.
+     */
+    void documentRemoved(String id, JsonObject previous);
+}
@@ -0,0 +1,172 @@
+/**
+ * Copyright (C) 2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.beersample;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.couchbase.client.java.AsyncBucket;
+import com.couchbase.client.java.Bucket;
+import com.couchbase.client.java.Cluster;
+import com.couchbase.client.java.document.json.JsonObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rx.Observable;
+import rx.functions.Func1;
+import rx.subjects.AsyncSubject;
+
+/**
+ * A bucket which is opened in the background rather than when the application starts, so that a slow or
+ * unreachable cluster doesn't hold the startup back (nor make it fail): opening is retried, waiting longer
+ * and longer between attempts, until it succeeds.
+ *
+ * Asynchronous operations issued before the bucket is open simply wait for it, without blocking any thread.
+ * Synchronous ones block until it is open, up to a timeout.
+ */
+public class LazyBucket {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LazyBucket.class);
+
+    private static final long FIRST_RETRY_DELAY_MILLIS = 500;
+    private static final long MAX_RETRY_DELAY_MILLIS = 30000;
+
+    private final Cluster cluster;
+    private final String name;
+    private final String password;
+
+    private volatile Bucket bucket;
+    private final AsyncSubject<Bucket> opened = AsyncSubject.create();
+
+    private final long createdAt = System.nanoTime();
+    private volatile long openMillis = -1;
+    private final AtomicInteger attempts = new AtomicInteger();
+    private volatile String lastError;
+
+    /**
+     * @param cluster the cluster to open the bucket on, once {@link #open(ScheduledExecutorService)} is called.
+     */
+    public LazyBucket(Cluster cluster, String name, String password) {
+        this.cluster = cluster;
+        this.name = name;
+        this.password = password;
+    }
+
+    /**
+     * @return a lazy bucket that is already open.
+     */
+    public static LazyBucket of(Bucket bucket) {
+        LazyBucket lazyBucket = new LazyBucket(null, null, null);
+        lazyBucket.opened(bucket);
+        return lazyBucket;
+    }
+
+    /**
+     * Start opening the bucket on the given executor, unless it is already open.
+     */
+    public void open(final ScheduledExecutorService executor) {
+        if (bucket != null) {
+            return;
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                int attempt = attempts.incrementAndGet();
+                try {
+                    opened(cluster.openBucket(name, password));
+                    LOGGER.info("Bucket " + name + " opened in " + openMillis + "ms (attempt " + attempt + ")");
+                } catch (Exception e) {
+                    lastError = e.toString();
+                    long delay = Math.min(MAX_RETRY_DELAY_MILLIS,
+                            FIRST_RETRY_DELAY_MILLIS << Math.min(attempt - 1, 16));
+                    LOGGER.warn("Unable to open bucket " + name + " (attempt " + attempt + "), retrying in "
+                            + delay + "ms", e);
+                    if (!executor.isShutdown()) {
+                        executor.schedule(this, delay, TimeUnit.MILLISECONDS);
+                    }
+                }
+            }
+        });
+    }
+
+    private void opened(Bucket bucket) {
+        this.openMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - createdAt);
+        this.bucket = bucket;
+        opened.onNext(bucket);
+        opened.onCompleted();
+    }
+
+    public boolean isOpen() {
+        return bucket != null;
+    }
+
+    /**
+     * @return a stream emitting the bucket once it is open (right away if it already is).
+     */
+    public Observable<Bucket> whenOpen() {
+        Bucket current = bucket;
+        return current != null ? Observable.just(current) : opened.asObservable();
+    }
+
+    /**
+     * Run an asynchronous operation on the bucket, as soon as it is open.
+     */
+    public <T> Observable<T> async(final Func1<AsyncBucket, Observable<T>> operation) {
+        Bucket current = bucket;
+        if (current != null) {
+            return operation.call(current.async());
+        }
+        return opened.flatMap(new Func1<Bucket, Observable<T>>() {
+            @Override
+            public Observable<T> call(Bucket bucket) {
+                return operation.call(bucket.async());
+            }
+        });
+    }
+
+    /**
+     * @return the bucket, waiting for it to be open if needed.
+     * @throws IllegalStateException if the bucket is not open within the timeout.
+     */
+    public Bucket get(long timeout, TimeUnit unit) {
+        Bucket current = bucket;
+        if (current != null) {
+            return current;
+        }
+        try {
+            return opened.timeout(timeout, unit).toBlocking().single();
+        } catch (RuntimeException e) {
+            throw new IllegalStateException("Bucket " + name + " is not open yet", e);
+        }
+    }
+
+    /**
+     * @return the state of the bucket, as a JSON object.
+     */
+    public JsonObject stats() {
+        return JsonObject.create()
+                .put("open", isOpen())
+                .put("openMillis", openMillis)
+                .put("attempts", attempts.get())
+                .put("lastError", lastError);
+    }
+}
@@ -0,0 +1,89 @@
+/**
+ * Copyright (C) 2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.beersample;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.couchbase.client.core.BackpressureException;
+import rx.Observable;
+import rx.functions.Func1;
+import rx.functions.Func2;
+
+/**
+ * A retry policy to be used with {@link Observable#retryWhen(Func1)}: temporary failures (the SDK's request buffer
+ * being full) are retried up to a maximum number of times, waiting an exponentially growing delay between each
+ * attempt. Any other error is propagated as is.
+ */
+public class RetryWithBackoff implements Func1<Observable<? extends Throwable>, Observable<?>> {
+
+    private final int maxRetries;
+    private final long initialDelayMillis;
+    private final AtomicLong retryCounter;
+
+    /**
+     * @param maxRetries the maximum number of retries.
+     * @param initialDelayMillis the delay before the first retry, doubled for each subsequent retry.
+     * @param retryCounter a counter incremented on each retry (can be null).
+     */
+    public RetryWithBackoff(int maxRetries, long initialDelayMillis, AtomicLong retryCounter) {
+        this.maxRetries = maxRetries;
+        this.initialDelayMillis = initialDelayMillis;
+        this.retryCounter = retryCounter;
+    }
+
+    /**
+     * @return true if the error is worth retrying.
+     */
+    public static boolean isTemporary(Throwable error) {
+        return error instanceof BackpressureException;
+    }
+
+    /**
+     * @return true if this policy retries the error, by default only if it {@link #isTemporary(Throwable) is
+     * temporary}.
+     */
+    protected boolean isRetryable(Throwable error) {
+        return isTemporary(error);
+    }
+
+    @Override
+    public Observable<?> call(Observable<? extends Throwable> errors) {
+        return errors.zipWith(Observable.range(1, maxRetries + 1), new Func2<Throwable, Integer, Observable<Long>>() {
+            @Override
+            public Observable<Long> call(Throwable error, Integer attempt) {
+                if (!isRetryable(error) || attempt > maxRetries) {
+                    return Observable.error(error);
+                }
+                if (retryCounter != null) {
+                    retryCounter.incrementAndGet();
+                }
+                return Observable.timer(initialDelayMillis << (attempt - 1), TimeUnit.MILLISECONDS);
+            }
+        }).flatMap(new Func1<Observable<Long>, Observable<Long>>() {
+            @Override
+            public Observable<Long> call(Observable<Long> delay) {
+                return delay;
+            }
+        });
+    }
+}
@@ -0,0 +1,417 @@
+/**
+ * Copyright (C) 2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.beersample;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.couchbase.beersample.CircuitBreaker.CircuitBreakerOpenException;
+import com.couchbase.client.java.document.json.JsonArray;
+import com.couchbase.client.java.document.json.JsonObject;
+import com.couchbase.client.java.view.AsyncViewResult;
+import com.couchbase.client.java.view.AsyncViewRow;
+import com.couchbase.client.java.view.Stale;
+import com.couchbase.client.java.view.ViewQuery;
+import rx.Observable;
+import rx.functions.Func0;
+import rx.functions.Func1;
+
+/**
+ * Scans every row of a view as several key ranges queried in parallel, rather than as a single view request which
+ * one node streams on its own.
+ *
+ * The key space is split at sampled rows: the view is first asked for its number of rows, then for the split rows one
+ * after the other, each one a range's worth of rows after the previous one (a limit of 1 after a skip, starting at the
+ * previous split row), so that the ranges hold about as many rows each. The view engine walks the rows it skips, so
+ * sampling the split rows costs as much as skipping through the view once, however many ranges there are. The split
+ * keys can't be computed locally instead, as the view engine collates keys in its own (Unicode) order. Each range is
+ * then paged through by key, each page starting at the last row of the previous one. A range that fails is retried on
+ * its own from where it stopped, without replaying the rows it already delivered nor touching the other ranges.
+ *
+ * The rows can be delivered as they come, when the caller doesn't care about their order, or in key order: the ranges
+ * are then read one after the other rather than in parallel, so that no more than a page of rows is ever held.
+ */
+public class ViewScanner {
+
+    private final Func1<ViewQuery, Observable<AsyncViewResult>> query;
+    private final int partitions;
+    private final int pageSize;
+    private final int maxRetries;
+    private final long retryDelayMillis;
+
+    private final AtomicLong scans = new AtomicLong();
+    private final AtomicLong ranges = new AtomicLong();
+    private final AtomicLong pages = new AtomicLong();
+    private final AtomicLong rows = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+
+    /**
+     * @param query runs a view query.
+     * @param partitions the maximum number of ranges a view is split into.
+     * @param pageSize the number of rows queried at once in a range, a range never holding less than a page.
+     * @param maxRetries the maximum number of retries of each range (and of each sampling query).
+     * @param retryDelayMillis the delay before the first retry, doubled for each subsequent retry.
+     */
+    public ViewScanner(Func1<ViewQuery, Observable<AsyncViewResult>> query, int partitions, int pageSize,
+            int maxRetries, long retryDelayMillis) {
+        this.query = query;
+        this.partitions = Math.max(1, partitions);
+        //a page starts at the last row of the previous one, it needs room for at least one more
+        this.pageSize = Math.max(2, pageSize);
+        this.maxRetries = maxRetries;
+        this.retryDelayMillis = retryDelayMillis;
+    }
+
+    /**
+     * Scan every row of a view.
+     *
+     * @param stale the staleness of the view, null for the server's default. With {@link Stale#FALSE}, the index is
+     *  updated by the first query of the scan only, the following ones don't wait for it again.
+     * @param ordered true to get the rows in key order (the ranges being read one after the other), false to get
+     *  them as soon as they are read.
+     */
+    public Observable<AsyncViewRow> scan(final String design, final String view, final Stale stale,
+            final boolean ordered) {
+        return Observable.defer(new Func0<Observable<AsyncViewRow>>() {
+            @Override
+            public Observable<AsyncViewRow> call() {
+                scans.incrementAndGet();
+                final Stale rangeStale = stale == Stale.FALSE ? Stale.TRUE : stale;
+                return splitPoints(design, view, stale, rangeStale)
+                        .flatMap(new Func1<List<Position>, Observable<AsyncViewRow>>() {
+                            @Override
+                            public Observable<AsyncViewRow> call(List<Position> splits) {
+                                List<Observable<AsyncViewRow>> rangeScans = new ArrayList<Observable<AsyncViewRow>>();
+                                for (int i = 0; i <= splits.size(); i++) {
+                                    rangeScans.add(range(design, view, rangeStale,
+                                            i == 0 ? null : splits.get(i - 1),
+                                            i == splits.size() ? null : splits.get(i)));
+                                }
+                                return ordered ? Observable.concat(Observable.from(rangeScans))
+                                        : Observable.merge(rangeScans);
+                            }
+                        });
+            }
+        });
+    }
+
+    /**
+     * @return the rows at which the view is split, in key order, none if the view holds less than two pages.
+     */
+    private Observable<List<Position>> splitPoints(final String design, final String view, Stale stale,
+            final Stale sampleStale) {
+        final ViewQuery count = newQuery(design, view, stale).limit(0);
+        Observable<Integer> totalRows = run(count).flatMap(new Func1<AsyncViewResult, Observable<Integer>>() {
+            @Override
+            public Observable<Integer> call(AsyncViewResult result) {
+                final int total = result.totalRows();
+                //go through the (empty) rows anyway, to fail with the view's error if there is one
+                return CouchbaseService.VIEW_ROWS.call(result).count().map(new Func1<Integer, Integer>() {
+                    @Override
+                    public Integer call(Integer ignored) {
+                        return total;
+                    }
+                });
+            }
+        });
+        return retried(totalRows)
+                .flatMap(new Func1<Integer, Observable<List<Position>>>() {
+                    @Override
+                    public Observable<List<Position>> call(Integer total) {
+                        int splits = Math.min(partitions, Math.max(1, total / pageSize));
+                        final int step = Math.max(1, total / splits);
+                        //shared by the samples, each one starting from the previous
+                        final Cursor cursor = new Cursor(null);
+                        return Observable.range(1, splits - 1)
+                                .concatMap(new Func1<Integer, Observable<Position>>() {
+                                    @Override
+                                    public Observable<Position> call(Integer split) {
+                                        return sample(design, view, sampleStale, cursor, step);
+                                    }
+                                })
+                                .toList()
+                                .map(DISTINCT_SPLITS);
+                    }
+                });
+    }
+
+    /**
+     * @return the row a step after the cursor, if any, moving the cursor to it.
+     */
+    private Observable<Position> sample(final String design, final String view, final Stale stale,
+            final Cursor cursor, final int step) {
+        return Observable.defer(new Func0<Observable<Position>>() {
+            @Override
+            public Observable<Position> call() {
+                if (cursor.done) {
+                    return Observable.empty();
+                }
+                //the start row is the previous split row itself, skipping a step lands a step after it
+                ViewQuery sampleQuery = newQuery(design, view, stale).skip(cursor.skip + step).limit(1);
+                if (cursor.after != null) {
+                    startKey(sampleQuery, cursor.after.key).startKeyDocId(cursor.after.id);
+                }
+                return retried(run(sampleQuery).flatMap(CouchbaseService.VIEW_ROWS))
+                        .toList()
+                        .flatMap(new Func1<List<AsyncViewRow>, Observable<Position>>() {
+                            @Override
+                            public Observable<Position> call(List<AsyncViewRow> sampled) {
+                                if (sampled.isEmpty()) {
+                                    //the view shrank since it was counted
+                                    cursor.done = true;
+                                    return Observable.empty();
+                                }
+                                AsyncViewRow row = sampled.get(0);
+                                if (row.key() != null) {
+                                    cursor.after = new Position(row);
+                                    cursor.skip = 0;
+                                } else {
+                                    cursor.skip += step;
+                                }
+                                return Observable.just(new Position(row));
+                            }
+                        });
+            }
+        });
+    }
+
+    /**
+     * Drop the split points which are the same row (the view changed since it was counted), or which key is null:
+     * a null key can't be given as a start key, but null keys sort first so this only makes the first range larger.
+     */
+    private static final Func1<List<Position>, List<Position>> DISTINCT_SPLITS =
+            new Func1<List<Position>, List<Position>>() {
+                @Override
+                public List<Position> call(List<Position> samples) {
+                    List<Position> splits = new ArrayList<Position>(samples.size());
+                    for (Position sample : samples) {
+                        if (sample.key != null
+                                && (splits.isEmpty() || !splits.get(splits.size() - 1).isRow(sample.id, sample.key))) {
+                            splits.add(sample);
+                        }
+                    }
+                    return splits;
+                }
+            };
+
+    /**
+     * Scan the rows after a split point (excluded) up to the next one (included), page by page.
+     *
+     * @param after the split point the range starts after, null to start at the first row of the view.
+     * @param until the split point the range ends at, null to end at the last row of the view.
+     */
+    private Observable<AsyncViewRow> range(final String design, final String view, final Stale stale,
+            final Position after, final Position until) {
+        return Observable.defer(new Func0<Observable<AsyncViewRow>>() {
+            @Override
+            public Observable<AsyncViewRow> call() {
+                ranges.incrementAndGet();
+                //shared by the retries, so that they resume after the last page delivered
+                final Cursor cursor = new Cursor(after);
+                //read the next page once the previous one completed, as long as the cursor isn't done
+                Observable<AsyncViewRow> pagedRows = page(design, view, stale, cursor, until)
+                        .repeatWhen(new Func1<Observable<? extends Void>, Observable<?>>() {
+                            @Override
+                            public Observable<?> call(Observable<? extends Void> pageCompletions) {
+                                return pageCompletions.takeWhile(new Func1<Object, Boolean>() {
+                                    @Override
+                                    public Boolean call(Object pageCompletion) {
+                                        return !cursor.done;
+                                    }
+                                });
+                            }
+                        });
+                return retried(pagedRows);
+            }
+        });
+    }
+
+    /**
+     * Read the next page of a range, moving the cursor forward once the whole page has been read.
+     */
+    private Observable<AsyncViewRow> page(final String design, final String view, final Stale stale,
+            final Cursor cursor, final Position until) {
+        return Observable.defer(new Func0<Observable<AsyncViewRow>>() {
+            @Override
+            public Observable<AsyncViewRow> call() {
+                if (cursor.done) {
+                    return Observable.empty();
+                }
+                ViewQuery pageQuery = newQuery(design, view, stale).limit(pageSize);
+                if (cursor.after != null) {
+                    startKey(pageQuery, cursor.after.key).startKeyDocId(cursor.after.id);
+                }
+                if (cursor.skip > 0) {
+                    pageQuery.skip(cursor.skip);
+                }
+                if (until != null) {
+                    endKey(pageQuery, until.key).endKeyDocId(until.id);
+                }
+                return run(pageQuery)
+                        .flatMap(CouchbaseService.VIEW_ROWS)
+                        .toList()
+                        .flatMap(new Func1<List<AsyncViewRow>, Observable<AsyncViewRow>>() {
+                            @Override
+                            public Observable<AsyncViewRow> call(List<AsyncViewRow> page) {
+                                pages.incrementAndGet();
+                                List<AsyncViewRow> newRows = cursor.moveOver(page, pageSize);
+                                rows.addAndGet(newRows.size());
+                                return Observable.from(newRows);
+                            }
+                        });
+            }
+        });
+    }
+
+    private Observable<AsyncViewResult> run(final ViewQuery viewQuery) {
+        return Observable.defer(new Func0<Observable<AsyncViewResult>>() {
+            @Override
+            public Observable<AsyncViewResult> call() {
+                return query.call(viewQuery);
+            }
+        });
+    }
+
+    /**
+     * Retry any failure, but for the circuit breaker being open: retrying wouldn't get through either.
+     */
+    private <T> Observable<T> retried(Observable<T> operation) {
+        return operation.retryWhen(new RetryWithBackoff(maxRetries, retryDelayMillis, retries) {
+            @Override
+            protected boolean isRetryable(Throwable error) {
+                return !(error instanceof CircuitBreakerOpenException);
+            }
+        });
+    }
+
+    private static ViewQuery newQuery(String design, String view, Stale stale) {
+        ViewQuery query = ViewQuery.from(design, view);
+        if (stale != null) {
+            query.stale(stale);
+        }
+        return query;
+    }
+
+    private static ViewQuery startKey(ViewQuery query, Object key) {
+        if (key instanceof String) {
+            return query.startKey((String) key);
+        } else if (key instanceof JsonArray) {
+            return query.startKey((JsonArray) key);
+        } else if (key instanceof JsonObject) {
+            return query.startKey((JsonObject) key);
+        } else if (key instanceof Boolean) {
+            return query.startKey((Boolean) key);
+        } else if (key instanceof Integer || key instanceof Long) {
+            return query.startKey(((Number) key).longValue());
+        } else if (key instanceof Number) {
+            return query.startKey(((Number) key).doubleValue());
+        }
+        throw new IllegalArgumentException("Unsupported view key " + key);
+    }
+
+    private static ViewQuery endKey(ViewQuery query, Object key) {
+        if (key instanceof String) {
+            return query.endKey((String) key);
+        } else if (key instanceof JsonArray) {
+            return query.endKey((JsonArray) key);
+        } else if (key instanceof JsonObject) {
+            return query.endKey((JsonObject) key);
+        } else if (key instanceof Boolean) {
+            return query.endKey((Boolean) key);
+        } else if (key instanceof Integer || key instanceof Long) {
+            return query.endKey(((Number) key).longValue());
+        } else if (key instanceof Number) {
+            return query.endKey(((Number) key).doubleValue());
+        }
+        throw new IllegalArgumentException("Unsupported view key " + key);
+    }
+
+    /**
+     * @return the counters of the scans.
+     */
+    public JsonObject stats() {
+        return JsonObject.create()
+                .put("partitions", partitions)
+                .put("pageSize", pageSize)
+                .put("scans", scans.get())
+                .put("ranges", ranges.get())
+                .put("pages", pages.get())
+                .put("rows", rows.get())
+                .put("retries", retries.get());
+    }
+
+    /**
+     * A row of the view, by key and id.
+     */
+    private static class Position {
+        private final String id;
+        private final Object key;
+
+        private Position(AsyncViewRow row) {
+            this.id = row.id();
+            this.key = row.key();
+        }
+
+        private boolean isRow(String id, Object key) {
+            return this.id.equals(id) && String.valueOf(this.key).equals(String.valueOf(key));
+        }
+    }
+
+    /**
+     * Where a range (or the sampling of the split points) stands: the next page starts at the last row read (which is
+     * then skipped), or, if that row's key is null, after skipping the rows read since the last non-null key.
+     */
+    private static class Cursor {
+        private Position after;
+        private int skip = 0;
+        private boolean done = false;
+
+        private Cursor(Position after) {
+            this.after = after;
+        }
+
+        /**
+         * Move the cursor over a page that was read from it.
+         *
+         * @return the rows of the page which hadn't been read yet.
+         */
+        private List<AsyncViewRow> moveOver(List<AsyncViewRow> page, int pageSize) {
+            done = page.size() < pageSize;
+            if (page.isEmpty()) {
+                return page;
+            }
+            int first = 0;
+            if (skip == 0 && after != null && after.isRow(page.get(0).id(), page.get(0).key())) {
+                first = 1;
+            }
+            AsyncViewRow last = page.get(page.size() - 1);
+            if (last.key() != null) {
+                after = new Position(last);
+                skip = 0;
+            } else {
+                skip += page.size();
+            }
+            return first == 0 ? page : page.subList(first, page.size());
+        }
+    }
+}
@@ -0,0 +1,383 @@
+/**
+ * Copyright (C) 2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.beersample;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.couchbase.beersample.config.Database;
+import com.couchbase.beersample.metrics.OperationMetrics;
+import com.couchbase.client.java.document.JsonDocument;
+import com.couchbase.client.java.document.json.JsonObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rx.Observable;
+import rx.functions.Action1;
+import rx.functions.Func1;
+import rx.subjects.AsyncSubject;
+
+/**
+ * A bounded queue of document writes, flushed in batches through the asynchronous API of a
+ * {@link CouchbaseService}: a flush starts as soon as a batch is full, or after a maximum delay
+ * once a write is queued, whichever comes first.
+ *
+ * Consecutive updates of the same document are merged while they wait, only the last content
+ * being written. The writes of a document are otherwise applied in the order they were queued,
+ * and one flush runs at a time, so a document's writes are never reordered. Temporary failures
+ * are retried like in the bulk import.
+ *
+ * Each queued write is given an {@link Ack}: its sequence number, and the outcome of the write
+ * for callers that want to wait for it to be durable.
+ */
+public class WriteBehindQueue {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(WriteBehindQueue.class);
+
+    /** the kinds of write, matching {@link CouchbaseService#asyncCreate}, asyncUpdate and asyncDelete */
+    public enum Kind { CREATE, UPDATE, DELETE }
+
+    private final CouchbaseService couchbaseService;
+    private final int batchSize;
+    private final int maxPending;
+    private final long flushIntervalMillis;
+    private final int maxRetries;
+    private final long retryDelayMillis;
+    private final OperationMetrics flushMetrics;
+    private final ScheduledExecutorService flusher;
+
+    /** guards the pending writes and the flush flags */
+    private final Object lock = new Object();
+    /** the pending writes by document id, in the order the ids were queued */
+    private final LinkedHashMap<String, List<Write>> pending = new LinkedHashMap<String, List<Write>>();
+    private int pendingCount = 0;
+    private boolean timedFlushScheduled = false;
+    private boolean immediateFlushScheduled = false;
+
+    private final AtomicLong acks = new AtomicLong();
+    /** the acks which write is still pending or being flushed */
+    private final ConcurrentSkipListSet<Long> unsettled = new ConcurrentSkipListSet<Long>();
+
+    private final AtomicLong queued = new AtomicLong();
+    private final AtomicLong merged = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong flushes = new AtomicLong();
+    private final AtomicLong flushedWrites = new AtomicLong();
+    private volatile int lastFlushSize = 0;
+    private volatile int maxFlushSize = 0;
+
+    public WriteBehindQueue(CouchbaseService couchbaseService, Database config, OperationMetrics flushMetrics) {
+        this.couchbaseService = couchbaseService;
+        this.batchSize = Math.max(1, config.getWriteBehindBatchSize());
+        this.maxPending = config.getWriteBehindMaxPending();
+        this.flushIntervalMillis = config.getWriteBehindFlushIntervalMillis();
+        this.maxRetries = config.getBulkMaxRetries();
+        this.retryDelayMillis = config.getBulkRetryDelayMillis();
+        this.flushMetrics = flushMetrics;
+        this.flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "write-behind-flusher");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Queue a write.
+     *
+     * @param document the document to write, only its id matters for a {@link Kind#DELETE}.
+     * @return the ack of the write, which is not {@link Ack#isQueued() queued} if the queue is full.
+     */
+    public Ack enqueue(Kind kind, JsonDocument document) {
+        AsyncSubject<JsonDocument> outcome = AsyncSubject.create();
+        long ack;
+        synchronized (lock) {
+            if (pendingCount >= maxPending) {
+                rejected.incrementAndGet();
+                return new Ack(0, Observable.<JsonDocument>error(
+                        new IllegalStateException("Too many pending writes, try again later")));
+            }
+            ack = acks.incrementAndGet();
+            unsettled.add(ack);
+            queued.incrementAndGet();
+
+            List<Write> writes = pending.get(document.id());
+            if (writes == null) {
+                writes = new ArrayList<Write>(1);
+                pending.put(document.id(), writes);
+            }
+            Write last = writes.isEmpty() ? null : writes.get(writes.size() - 1);
+            if (last != null && last.kind == Kind.UPDATE && kind == Kind.UPDATE) {
+                //the previous update would be overwritten right away anyway
+                last.document = document;
+                merged.incrementAndGet();
+            } else {
+                last = new Write(kind, document);
+                writes.add(last);
+                pendingCount++;
+            }
+            last.acks.add(ack);
+            last.outcomes.add(outcome);
+
+            if (pendingCount >= batchSize && !immediateFlushScheduled) {
+                immediateFlushScheduled = true;
+                flusher.execute(flushTask);
+            } else if (!timedFlushScheduled) {
+                timedFlushScheduled = true;
+                flusher.schedule(flushTask, flushIntervalMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+        return new Ack(ack, outcome.asObservable());
+    }
+
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                flush();
+            } catch (Exception e) {
+                LOGGER.error("Write-behind flush failed", e);
+            }
+        }
+    };
+
+    /**
+     * Flush batches as long as there are full ones, then let the remaining writes wait for the next timed flush.
+     */
+    private void flush() {
+        while (true) {
+            List<Write> batch = new ArrayList<Write>(batchSize);
+            List<List<Write>> byId = new ArrayList<List<Write>>();
+            synchronized (lock) {
+                timedFlushScheduled = false;
+                immediateFlushScheduled = false;
+                //whole documents are taken so that their writes stay in order
+                Iterator<List<Write>> ids = pending.values().iterator();
+                while (ids.hasNext() && batch.size() < batchSize) {
+                    List<Write> writes = ids.next();
+                    ids.remove();
+                    byId.add(writes);
+                    batch.addAll(writes);
+                }
+                pendingCount -= batch.size();
+            }
+            if (batch.isEmpty()) {
+                return;
+            }
+            write(byId, batch.size());
+            synchronized (lock) {
+                //once shut down, everything is flushed right away
+                if (pendingCount < batchSize && !flusher.isShutdown()) {
+                    if (pendingCount > 0 && !timedFlushScheduled) {
+                        timedFlushScheduled = true;
+                        flusher.schedule(flushTask, flushIntervalMillis, TimeUnit.MILLISECONDS);
+                    }
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Apply a batch of writes, the documents in parallel and the writes of each document in sequence, and wait
+     * for all of them to complete.
+     */
+    private void write(List<List<Write>> byId, int size) {
+        long start = flushMetrics.start();
+        Observable.from(byId)
+                .flatMap(new Func1<List<Write>, Observable<JsonDocument>>() {
+                    @Override
+                    public Observable<JsonDocument> call(List<Write> writes) {
+                        return Observable.from(writes).concatMap(new Func1<Write, Observable<JsonDocument>>() {
+                            @Override
+                            public Observable<JsonDocument> call(Write write) {
+                                return apply(write);
+                            }
+                        });
+                    }
+                })
+                .toBlocking()
+                .lastOrDefault(null);
+        flushMetrics.stop(start, null);
+        flushes.incrementAndGet();
+        flushedWrites.addAndGet(size);
+        lastFlushSize = size;
+        if (size > maxFlushSize) {
+            maxFlushSize = size;
+        }
+    }
+
+    /**
+     * @return a stream emitting the written document, or nothing if the write failed (its callers being notified).
+     */
+    private Observable<JsonDocument> apply(final Write write) {
+        Observable<JsonDocument> result;
+        switch (write.kind) {
+            case CREATE:
+                result = couchbaseService.asyncCreate(write.document);
+                break;
+            case UPDATE:
+                result = couchbaseService.asyncUpdate(write.document);
+                break;
+            default:
+                result = couchbaseService.asyncDelete(write.document.id());
+                break;
+        }
+        return result
+                .retryWhen(new RetryWithBackoff(maxRetries, retryDelayMillis, retries))
+                .last()
+                .doOnNext(new Action1<JsonDocument>() {
+                    @Override
+                    public void call(JsonDocument document) {
+                        written.addAndGet(write.acks.size());
+                        write.settle(document, null);
+                    }
+                })
+                .onErrorResumeNext(new Func1<Throwable, Observable<JsonDocument>>() {
+                    @Override
+                    public Observable<JsonDocument> call(Throwable e) {
+                        failed.addAndGet(write.acks.size());
+                        LOGGER.debug("Write-behind " + write.kind + " of " + write.document.id() + " failed", e);
+                        write.settle(null, e);
+                        return Observable.empty();
+                    }
+                });
+    }
+
+    /**
+     * Stop the flusher once the running flush is done, then flush the remaining writes.
+     */
+    public void shutdown() {
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+
+    /**
+     * @return the counters of this queue, as a JSON object.
+     */
+    public JsonObject stats() {
+        int depth;
+        int documents;
+        synchronized (lock) {
+            depth = pendingCount;
+            documents = pending.size();
+        }
+        long flushCount = flushes.get();
+        long acked = acks.get();
+        Long oldestUnsettled = unsettled.isEmpty() ? null : unsettled.first();
+        return JsonObject.create()
+                .put("pending", depth)
+                .put("pendingDocuments", documents)
+                .put("maxPending", maxPending)
+                .put("queued", queued.get())
+                .put("merged", merged.get())
+                .put("rejected", rejected.get())
+                .put("written", written.get())
+                .put("failed", failed.get())
+                .put("retries", retries.get())
+                .put("flushes", flushCount)
+                .put("lastFlushSize", lastFlushSize)
+                .put("maxFlushSize", maxFlushSize)
+                .put("averageFlushSize", flushCount == 0 ? 0d : (double) flushedWrites.get() / flushCount)
+                .put("lastAck", acked)
+                //every write up to this ack has been flushed, successfully or not
+                .put("settledThrough", oldestUnsettled == null ? acked : oldestUnsettled - 1);
+    }
+
+    /**
+     * The receipt of a queued write.
+     */
+    public static class Ack {
+        private final long id;
+        private final Observable<JsonDocument> outcome;
+
+        private Ack(long id, Observable<JsonDocument> outcome) {
+            this.id = id;
+            this.outcome = outcome;
+        }
+
+        /**
+         * @return false if the write was rejected, the queue being full.
+         */
+        public boolean isQueued() {
+            return id > 0;
+        }
+
+        /**
+         * @return the sequence number of the write, increasing with each queued write.
+         */
+        public long id() {
+            return id;
+        }
+
+        /**
+         * @return a stream emitting the written document once the write is flushed, or the write's error.
+         */
+        public Observable<JsonDocument> outcome() {
+            return outcome;
+        }
+    }
+
+    /**
+     * A pending write, possibly standing for several merged ones.
+     */
+    private class Write {
+        private final Kind kind;
+        private JsonDocument document;
+        private final List<Long> acks = new ArrayList<Long>(1);
+        private final List<AsyncSubject<JsonDocument>> outcomes = new ArrayList<AsyncSubject<JsonDocument>>(1);
+
+        private Write(Kind kind, JsonDocument document) {
+            this.kind = kind;
+            this.document = document;
+        }
+
+        private void settle(JsonDocument result, Throwable error) {
+            unsettled.removeAll(acks);
+            for (AsyncSubject<JsonDocument> outcome : outcomes) {
+                if (error != null) {
+                    outcome.onError(error);
+                } else {
+                    outcome.onNext(result);
+                    outcome.onCompleted();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,293 @@
+/**
+ * Copyright (C) 2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.beersample.beers;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.couchbase.beersample.CouchbaseService;
+import com.couchbase.beersample.RetryWithBackoff;
+import com.couchbase.beersample.config.Database;
+import com.couchbase.beersample.model.Beer;
+import com.couchbase.client.java.document.JsonDocument;
+import com.couchbase.client.java.document.json.JsonObject;
+import com.couchbase.client.java.view.AsyncViewRow;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import rx.Observable;
+import rx.Subscriber;
+import rx.functions.Func1;
+
+/**
+ * Streaming bulk import and export of beer documents, in NDJSON (one JSON object per line).
+ *
+ * Each line of an import is either a bare beer (stored under "beer-" + name, like <code>POST /beer</code>
+ * does) or an envelope <code>{"id": "theId", "doc": {...}}</code>, which is also the format of the export.
+ * Beers are validated like those of <code>POST /beer</code>, see {@link Beer}.
+ * The input is read one line at a time and the upserts go through the asynchronous bucket with a bounded
+ * number of them in flight, so neither the payload nor the pending writes are ever fully held in memory.
+ */
+@Component
+public class BeerBulkLoader {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BeerBulkLoader.class);
+
+    private static final String UTF8 = "UTF-8";
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final CouchbaseService couchbaseService;
+
+    private final int window;
+    private final int maxRetries;
+    private final long retryDelayMillis;
+    private final int exportPageSize;
+
+    @Autowired
+    public BeerBulkLoader(CouchbaseService couchbaseService, Database config) {
+        this.couchbaseService = couchbaseService;
+        this.window = config.getBulkWindow();
+        this.maxRetries = config.getBulkMaxRetries();
+        this.retryDelayMillis = config.getBulkRetryDelayMillis();
+        this.exportPageSize = config.getBulkExportPageSize();
+    }
+
+    /**
+     * Import NDJSON beers, upserting them in the database.
+     *
+     * @param ndjson the input, read incrementally and not closed.
+     * @return the report of the import.
+     */
+    public BulkReport importBeers(InputStream ndjson) throws IOException, InterruptedException {
+        final BulkReport report = new BulkReport("import");
+        final Semaphore inFlight = new Semaphore(window);
+        BufferedReader reader = new BufferedReader(new InputStreamReader(ndjson, UTF8));
+
+        String line;
+        long lineNumber = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+            report.read.incrementAndGet();
+            final JsonDocument doc;
+            try {
+                doc = parseLine(line);
+            } catch (Exception e) {
+                report.invalid.incrementAndGet();
+                LOGGER.debug("Invalid beer on line " + lineNumber + ": " + e);
+                continue;
+            }
+
+            //wait for a slot in the window before sending more writes
+            inFlight.acquire();
+            couchbaseService.asyncUpsert(doc)
+                    .retryWhen(new RetryWithBackoff(maxRetries, retryDelayMillis, report.retries))
+                    .subscribe(new Subscriber<JsonDocument>() {
+                        @Override
+                        public void onNext(JsonDocument stored) {
+                            report.written.incrementAndGet();
+                        }
+
+                        @Override
+                        public void onError(Throwable e) {
+                            report.failed.incrementAndGet();
+                            LOGGER.debug("Unable to import " + doc.id(), e);
+                            inFlight.release();
+                        }
+
+                        @Override
+                        public void onCompleted() {
+                            inFlight.release();
+                        }
+                    });
+        }
+        //wait for the last writes
+        inFlight.acquire(window);
+        inFlight.release(window);
+
+        report.finish();
+        LOGGER.info(report.toString());
+        return report;
+    }
+
+    private JsonDocument parseLine(String line) throws IOException {
+        JsonParser parser = JSON_FACTORY.createParser(line);
+        try {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IllegalArgumentException("Expected a JSON object");
+            }
+            //a single pass over the line, which is either an envelope or a bare beer
+            String id = null;
+            Beer envelopeDoc = null;
+            Beer.Reader bareBeer = new Beer.Reader();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if ("id".equals(field) && value == JsonToken.VALUE_STRING) {
+                    id = parser.getText();
+                } else if ("doc".equals(field) && value == JsonToken.START_OBJECT) {
+                    envelopeDoc = Beer.read(parser);
+                } else {
+                    bareBeer.field(field, parser);
+                }
+            }
+            if (id != null && envelopeDoc != null) {
+                return CouchbaseService.createDocument(id, envelopeDoc.toContent());
+            } else if (id != null || envelopeDoc != null) {
+                throw new IllegalArgumentException("An envelope needs both an id and a doc");
+            }
+            Beer beer = bareBeer.build();
+            return CouchbaseService.createDocument(beer.defaultId(), beer.toContent());
+        } finally {
+            parser.close();
+        }
+    }
+
+    /**
+     * Export all the beers as NDJSON envelopes, out of a scan of the "by_name" view (see
+     * {@link CouchbaseService#scanAllBeersAsync(boolean)}), fetching and writing "couchbase.bulk.exportPageSize"
+     * beers at a time. The key ranges of the scan are read in parallel, so the beers come in no particular order.
+     *
+     * @param out the output, flushed after each page and not closed.
+     * @return the report of the export.
+     */
+    public BulkReport exportBeers(OutputStream out) throws IOException {
+        BulkReport report = new BulkReport("export");
+        Writer writer = new OutputStreamWriter(out, UTF8);
+
+        Iterator<List<AsyncViewRow>> pages = couchbaseService.scanAllBeersAsync(false)
+                .buffer(exportPageSize)
+                .toBlocking().getIterator();
+        while (true) {
+            List<AsyncViewRow> rows;
+            try {
+                if (!pages.hasNext()) {
+                    break;
+                }
+                rows = pages.next();
+            } catch (RuntimeException e) {
+                report.failed.incrementAndGet();
+                LOGGER.warn("Export stopped, unable to scan the view", e);
+                break;
+            }
+            report.read.addAndGet(rows.size());
+
+            List<String> ids = new ArrayList<String>(rows.size());
+            for (AsyncViewRow row : rows) {
+                ids.add(row.id());
+            }
+            List<JsonDocument> docs = fetch(ids, report);
+            for (JsonDocument doc : docs) {
+                JsonObject envelope = JsonObject.create().put("id", doc.id()).put("doc", doc.content());
+                writer.write(envelope.toString());
+                writer.write('\n');
+            }
+            report.written.addAndGet(docs.size());
+            writer.flush();
+        }
+        writer.flush();
+
+        report.finish();
+        LOGGER.info(report.toString());
+        return report;
+    }
+
+    private List<JsonDocument> fetch(List<String> ids, final BulkReport report) {
+        Observable<Observable<JsonDocument>> gets = Observable.from(ids)
+                .map(new Func1<String, Observable<JsonDocument>>() {
+                    @Override
+                    public Observable<JsonDocument> call(final String id) {
+                        return couchbaseService.asyncRead(id)
+                                .retryWhen(new RetryWithBackoff(maxRetries, retryDelayMillis, report.retries))
+                                .onErrorResumeNext(new Func1<Throwable, Observable<JsonDocument>>() {
+                                    @Override
+                                    public Observable<JsonDocument> call(Throwable e) {
+                                        report.failed.incrementAndGet();
+                                        LOGGER.debug("Unable to export " + id, e);
+                                        return Observable.empty();
+                                    }
+                                });
+                    }
+                });
+        return Observable.merge(gets, window).toList().toBlocking().single();
+    }
+
+    /**
+     * The counters of a bulk run, and its throughput once finished.
+     */
+    public static class BulkReport {
+
+        private final String operation;
+        private final long start = System.nanoTime();
+        private long elapsedNanos;
+
+        final AtomicLong read = new AtomicLong();
+        final AtomicLong written = new AtomicLong();
+        final AtomicLong invalid = new AtomicLong();
+        final AtomicLong failed = new AtomicLong();
+        final AtomicLong retries = new AtomicLong();
+
+        BulkReport(String operation) {
+            this.operation = operation;
+        }
+
+        void finish() {
+            elapsedNanos = System.nanoTime() - start;
+        }
+
+        public JsonObject toJson() {
+            long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+            double docsPerSecond = elapsedNanos == 0 ? 0d : written.get() * 1e9d / elapsedNanos;
+            return JsonObject.create()
+                    .put("operation", operation)
+                    .put("read", read.get())
+                    .put("written", written.get())
+                    .put("invalid", invalid.get())
+                    .put("failed", failed.get())
+                    .put("retries", retries.get())
+                    .put("elapsedMillis", elapsedMillis)
+                    .put("docsPerSecond", Math.round(docsPerSecond));
+        }
+
+        @Override
+        public String toString() {
+            return "Bulk " + operation + " finished: " + toJson();
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/**
+ * Copyright (C) 2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.beersample.beers;
+
+import java.io.UnsupportedEncodingException;
+import java.util.List;
+
+import javax.xml.bind.DatatypeConverter;
+
+import com.couchbase.client.java.document.json.JsonArray;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * An opaque continuation token for the beer listing, identifying the last row of a page of the "by_name"
+ * view by its key (the beer's name) and document id, so that the next page can resume right after it.
+ *
+ * The token is the URL-safe base64 form of the JSON array <code>[name, id]</code>.
+ */
+public class BeerCursor {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final String UTF8 = "UTF-8";
+
+    private final String name;
+    private final String id;
+
+    public BeerCursor(String name, String id) {
+        this.name = name;
+        this.id = id;
+    }
+
+    /**
+     * @return the name (view key) of the last row of the page.
+     */
+    public String name() {
+        return name;
+    }
+
+    /**
+     * @return the document id of the last row of the page.
+     */
+    public String id() {
+        return id;
+    }
+
+    /**
+     * @return the opaque token for this cursor.
+     */
+    public String encode() {
+        try {
+            byte[] json = JsonArray.from(name, id).toString().getBytes(UTF8);
+            return DatatypeConverter.printBase64Binary(json).replace('+', '-').replace('/', '_').replace("=", "");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return the cursor represented by the token.
+     * @throws IllegalArgumentException if the token is not a valid cursor.
+     */
+    public static BeerCursor decode(String token) {
+        try {
+            StringBuilder base64 = new StringBuilder(token.replace('-', '+').replace('_', '/'));
+            while (base64.length() % 4 != 0) {
+                base64.append('=');
+            }
+            List<?> values = MAPPER.readValue(new String(DatatypeConverter.parseBase64Binary(base64.toString()), UTF8),
+                    List.class);
+            if (values.size() != 2 || !(values.get(1) instanceof String)
+                    || (values.get(0) != null && !(values.get(0) instanceof String))) {
+                throw new IllegalArgumentException("Invalid cursor " + token);
+            }
+            return new BeerCursor((String) values.get(0), (String) values.get(1));
+        } catch (IllegalArgumentException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalArgumentException("Invalid cursor " + token, e);
+        }
+    }
+}
@@ -21,22 +21,39 @@
  */
 package com.couchbase.beersample.beers;
 
-import java.util.Iterator;
-import java.util.Map;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
 import com.couchbase.beersample.CouchbaseService;
-import com.couchbase.client.java.Bucket;
+import com.couchbase.beersample.WriteBehindQueue;
+import com.couchbase.beersample.config.Database;
+import com.couchbase.beersample.model.Beer;
+import com.couchbase.beersample.search.BeerNameSnapshot;
+import com.couchbase.beersample.search.BeerSearch;
+import com.couchbase.beersample.search.BeerSearchIndex;
+import com.couchbase.beersample.search.BeerSuggest;
+import com.couchbase.beersample.search.BeerSuggestIndex;
+import com.couchbase.beersample.web.DeferredResponses;
+import com.couchbase.beersample.web.JsonRowWriter;
+import com.couchbase.beersample.web.JsonStreamingResponse;
+import com.couchbase.beersample.web.MultiGetResponses;
+import com.couchbase.beersample.web.RawJsonResponse;
 import com.couchbase.client.java.document.JsonDocument;
-import com.couchbase.client.java.document.json.JsonArray;
-import com.couchbase.client.java.document.json.JsonObject;
+import com.couchbase.client.java.document.RawJsonDocument;
 import com.couchbase.client.java.error.DocumentAlreadyExistsException;
 import com.couchbase.client.java.error.DocumentDoesNotExistException;
 import com.couchbase.client.java.view.AsyncViewResult;
 import com.couchbase.client.java.view.AsyncViewRow;
-import com.couchbase.client.java.view.ViewQuery;
-import com.couchbase.client.java.view.ViewResult;
-import com.couchbase.client.java.view.ViewRow;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
@@ -45,10 +62,10 @@ import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
 import rx.Observable;
-import rx.functions.Action2;
-import rx.functions.Func0;
 import rx.functions.Func1;
 
 /**
@@ -61,123 +78,467 @@ import rx.functions.Func1;
 @RequestMapping("/beer")
 public class BeersController {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(BeersController.class);
+
+    private static final String NDJSON = "application/x-ndjson";
+
+    /** the response header holding the cursor to the next page of a beer listing */
+    public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
+    /** the response header holding the ack of a write queued by the write-behind mode */
+    public static final String WRITE_ACK_HEADER = "X-Write-Ack";
+
     private final CouchbaseService couchbaseService;
+    private final BeerBulkLoader bulkLoader;
+    private final BeerSearch beerSearch;
+    private final BeerSuggest beerSuggest;
+    private final Database config;
+    private final long requestTimeoutMillis;
 
     @Autowired
-    public BeersController(CouchbaseService couchbaseService) {
+    public BeersController(CouchbaseService couchbaseService, BeerBulkLoader bulkLoader, BeerSearch beerSearch,
+            BeerSuggest beerSuggest, Database config) {
         this.couchbaseService = couchbaseService;
+        this.bulkLoader = bulkLoader;
+        this.beerSearch = beerSearch;
+        this.beerSuggest = beerSuggest;
+        this.config = config;
+        this.requestTimeoutMillis = config.getRequestTimeoutMillis();
     }
 
+    /**
+     * Pass the stored JSON of the beer through as is, with its CAS as ETag: a request which If-None-Match
+     * header holds the current ETag gets a 304 response without a body. Each read makes the beer more popular in
+     * the suggestions.
+     */
     @RequestMapping(method = RequestMethod.GET, value = "/{id}", produces = MediaType.APPLICATION_JSON_VALUE)
-    public ResponseEntity<String> getBeer(@PathVariable String id) {
-        JsonDocument doc = couchbaseService.read(id);
-        if (doc != null) {
-            return new ResponseEntity<String>(doc.content().toString(), HttpStatus.OK);
-        } else {
-            return new ResponseEntity<String>(HttpStatus.NOT_FOUND);
+    public void getBeer(@PathVariable String id, HttpServletRequest request, HttpServletResponse response) {
+        beerSuggest.recordRead(id);
+        RawJsonResponse.send(request, response, couchbaseService.asyncReadRaw(id), requestTimeoutMillis);
+    }
+
+    @RequestMapping(method = RequestMethod.POST, value = "/_mget", consumes = MediaType.APPLICATION_JSON_VALUE,
+            produces = MediaType.APPLICATION_JSON_VALUE)
+    public DeferredResult<ResponseEntity<String>> getBeers(@RequestBody List<String> ids,
+            HttpServletRequest request, HttpServletResponse response) {
+        ResponseEntity<String> rejection = MultiGetResponses.reject(ids, config.getMgetMaxIds());
+        if (rejection != null) {
+            return DeferredResponses.of(rejection);
         }
+        MultiGetResponses.stream(request, response, couchbaseService, ids, "beer", config.getMgetConcurrency(),
+                requestTimeoutMillis);
+        //the response is written by the stream, there's nothing left for Spring to handle
+        return null;
+    }
+
+    @RequestMapping(method = RequestMethod.POST, value = "/_bulk", consumes = NDJSON,
+            produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<String> importBeers(InputStream body) {
+        try {
+            //the body is streamed through the loader, one line at a time
+            return new ResponseEntity<String>(bulkLoader.importBeers(body).toJson().toString(), HttpStatus.OK);
+        } catch (Exception e) {
+            LOGGER.error("Bulk import failed", e);
+            return new ResponseEntity<String>(e.toString(), HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    @RequestMapping(method = RequestMethod.GET, value = "/_export", produces = NDJSON)
+    @ResponseStatus(HttpStatus.OK)
+    public void exportBeers(OutputStream out) throws IOException {
+        bulkLoader.exportBeers(out);
     }
 
     @RequestMapping(method = RequestMethod.POST, consumes = MediaType.APPLICATION_JSON_VALUE)
-    public ResponseEntity<String> createBeer(@RequestBody Map<String, Object> beerData) {
-        String id = "";
+    public DeferredResult<ResponseEntity<String>> createBeer(InputStream body,
+            @RequestParam(defaultValue = "false") boolean durable) throws IOException {
+        final Beer beer;
         try {
-            JsonObject beer = parseBeer(beerData);
-            id = "beer-" + beer.getString("name");
-            JsonDocument doc = CouchbaseService.createDocument(id, beer);
-            couchbaseService.create(doc);
-            return new ResponseEntity<String>(id, HttpStatus.CREATED);
+            beer = Beer.parse(body);
         } catch (IllegalArgumentException e) {
-            return new ResponseEntity<String>(HttpStatus.BAD_REQUEST);
-        } catch (DocumentAlreadyExistsException e) {
-            return new ResponseEntity<String>("Id " + id + " already exist", HttpStatus.CONFLICT);
-        } catch (Exception e) {
-            return new ResponseEntity<String>(e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
+            return DeferredResponses.of(new ResponseEntity<String>(e.getMessage(), HttpStatus.BAD_REQUEST));
         }
+        final String id = beer.defaultId();
+        JsonDocument doc = CouchbaseService.createDocument(id, beer.toContent());
+        Observable<JsonDocument> write;
+        if (couchbaseService.isWriteBehindEnabled()) {
+            WriteBehindQueue.Ack ack = couchbaseService.queueCreate(doc);
+            if (!durable || !ack.isQueued()) {
+                return DeferredResponses.of(accepted(id, ack));
+            }
+            write = ack.outcome();
+        } else {
+            write = couchbaseService.asyncCreate(doc);
+        }
+        Observable<ResponseEntity<String>> response = write
+                .map(new Func1<JsonDocument, ResponseEntity<String>>() {
+                    @Override
+                    public ResponseEntity<String> call(JsonDocument created) {
+                        return new ResponseEntity<String>(id, HttpStatus.CREATED);
+                    }
+                })
+                .onErrorReturn(new Func1<Throwable, ResponseEntity<String>>() {
+                    @Override
+                    public ResponseEntity<String> call(Throwable e) {
+                        if (e instanceof DocumentAlreadyExistsException) {
+                            return new ResponseEntity<String>("Id " + id + " already exist", HttpStatus.CONFLICT);
+                        }
+                        return new ResponseEntity<String>(e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
+                    }
+                });
+        return DeferredResponses.defer(response, requestTimeoutMillis);
     }
 
     @RequestMapping(method = RequestMethod.DELETE, value = "/{beerId}")
-    public ResponseEntity<String> deleteBeer(@PathVariable String beerId) {
-        JsonDocument deleted = couchbaseService.delete(beerId);
-        return new ResponseEntity<String>(""+deleted.cas(), HttpStatus.OK);
+    public DeferredResult<ResponseEntity<String>> deleteBeer(@PathVariable final String beerId,
+            @RequestParam(defaultValue = "false") boolean durable) {
+        Observable<JsonDocument> write;
+        if (couchbaseService.isWriteBehindEnabled()) {
+            WriteBehindQueue.Ack ack = couchbaseService.queueDelete(beerId);
+            if (!durable || !ack.isQueued()) {
+                return DeferredResponses.of(accepted(beerId, ack));
+            }
+            write = ack.outcome();
+        } else {
+            write = couchbaseService.asyncDelete(beerId);
+        }
+        Observable<ResponseEntity<String>> response = write
+                .map(new Func1<JsonDocument, ResponseEntity<String>>() {
+                    @Override
+                    public ResponseEntity<String> call(JsonDocument deleted) {
+                        return new ResponseEntity<String>(""+deleted.cas(), HttpStatus.OK);
+                    }
+                })
+                .onErrorReturn(new Func1<Throwable, ResponseEntity<String>>() {
+                    @Override
+                    public ResponseEntity<String> call(Throwable e) {
+                        if (e instanceof DocumentDoesNotExistException) {
+                            return new ResponseEntity<String>("Id " + beerId + " does not exist", HttpStatus.NOT_FOUND);
+                        }
+                        return new ResponseEntity<String>(e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
+                    }
+                });
+        return DeferredResponses.defer(response, requestTimeoutMillis);
     }
 
     @RequestMapping(value = "/{beerId}", consumes = MediaType.APPLICATION_JSON_VALUE, method = RequestMethod.PUT)
-    public ResponseEntity<String> updateBeer(@PathVariable String beerId, @RequestBody Map<String, Object> beerData) {
+    public DeferredResult<ResponseEntity<String>> updateBeer(@PathVariable final String beerId,
+            InputStream body, @RequestParam(defaultValue = "false") boolean durable) throws IOException {
+        Beer beer;
         try {
-            JsonObject beer = parseBeer(beerData);
-            couchbaseService.update(CouchbaseService.createDocument(beerId, beer));
-            return new ResponseEntity<String>(beerId, HttpStatus.OK);
+            beer = Beer.parse(body);
         } catch (IllegalArgumentException e) {
-            return new ResponseEntity<String>(HttpStatus.BAD_REQUEST);
-        } catch (DocumentDoesNotExistException e) {
-            return new ResponseEntity<String>("Id " + beerId + " does not exist", HttpStatus.NOT_FOUND);
-        } catch (Exception e) {
-            return new ResponseEntity<String>(e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
+            return DeferredResponses.of(new ResponseEntity<String>(e.getMessage(), HttpStatus.BAD_REQUEST));
+        }
+        JsonDocument doc = CouchbaseService.createDocument(beerId, beer.toContent());
+        Observable<JsonDocument> write;
+        if (couchbaseService.isWriteBehindEnabled()) {
+            WriteBehindQueue.Ack ack = couchbaseService.queueUpdate(doc);
+            if (!durable || !ack.isQueued()) {
+                return DeferredResponses.of(accepted(beerId, ack));
+            }
+            write = ack.outcome();
+        } else {
+            write = couchbaseService.asyncUpdate(doc);
         }
+        Observable<ResponseEntity<String>> response = write
+                .map(new Func1<JsonDocument, ResponseEntity<String>>() {
+                    @Override
+                    public ResponseEntity<String> call(JsonDocument updated) {
+                        return new ResponseEntity<String>(beerId, HttpStatus.OK);
+                    }
+                })
+                .onErrorReturn(new Func1<Throwable, ResponseEntity<String>>() {
+                    @Override
+                    public ResponseEntity<String> call(Throwable e) {
+                        if (e instanceof DocumentDoesNotExistException) {
+                            return new ResponseEntity<String>("Id " + beerId + " does not exist", HttpStatus.NOT_FOUND);
+                        }
+                        return new ResponseEntity<String>(e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
+                    }
+                });
+        return DeferredResponses.defer(response, requestTimeoutMillis);
     }
 
-    private JsonObject parseBeer(Map<String, Object> beerData) {
-        String type = (String) beerData.get("type");
-        String name = (String) beerData.get("name");
-        if (type == null || name == null || type.isEmpty() || name.isEmpty()) {
-           throw new IllegalArgumentException();
-        } else {
-            JsonObject beer = JsonObject.create();
-            for (Map.Entry<String, Object> entry : beerData.entrySet()) {
-                beer.put(entry.getKey(), entry.getValue());
-            }
-            return beer;
+    /**
+     * The response to a write queued by the write-behind mode, sent without waiting for the write: 202 with the
+     * ack of the write in the {@value #WRITE_ACK_HEADER} header, or 503 if the queue is full.
+     */
+    private static ResponseEntity<String> accepted(String id, WriteBehindQueue.Ack ack) {
+        if (!ack.isQueued()) {
+            return new ResponseEntity<String>("Too many pending writes, try again later",
+                    HttpStatus.SERVICE_UNAVAILABLE);
         }
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(WRITE_ACK_HEADER, String.valueOf(ack.id()));
+        return new ResponseEntity<String>(id, headers, HttpStatus.ACCEPTED);
     }
 
+    /**
+     * List beers, either all of them or a page. A page can be designated by an offset (which the view engine has
+     * to walk through, so deep pages get slower) or by the cursor sent in the {@value #NEXT_CURSOR_HEADER} header
+     * of the previous page, which resumes right after its last row whatever the depth.
+     *
+     * The full list is streamed row by row. A page is bounded by its limit, so it is rendered at once in order to
+     * send the cursor to the next page in the headers.
+     *
+     * When the beer snapshot is loaded, the rows are taken from it rather than from the view.
+     */
     @RequestMapping(method = RequestMethod.GET, produces = MediaType.APPLICATION_JSON_VALUE)
-    public ResponseEntity<String> listBeers(@RequestParam(required = false) Integer offset,
-            @RequestParam(required = false) Integer limit) {
-        ViewResult result = couchbaseService.findAllBeers(offset, limit);
-        if (!result.success()) {
-            //TODO maybe detect type of error and change error code accordingly
-            return new ResponseEntity<String>(result.error().toString(), HttpStatus.INTERNAL_SERVER_ERROR);
-        } else {
-            JsonArray keys = JsonArray.create();
-            Iterator<ViewRow> iter = result.rows();
-            while(iter.hasNext()) {
-                ViewRow row = iter.next();
-                JsonObject beer = JsonObject.create();
-                beer.put("name", row.key());
-                beer.put("id", row.id());
-                keys.add(beer);
+    public DeferredResult<ResponseEntity<String>> listBeers(@RequestParam(required = false) Integer offset,
+            @RequestParam(required = false) final Integer limit, @RequestParam(required = false) String cursor,
+            HttpServletRequest request, HttpServletResponse servletResponse) {
+        BeerCursor after = null;
+        if (cursor != null) {
+            if (offset != null) {
+                return DeferredResponses.of(new ResponseEntity<String>("offset and cursor can't be used together",
+                        HttpStatus.BAD_REQUEST));
+            }
+            try {
+                after = BeerCursor.decode(cursor);
+            } catch (IllegalArgumentException e) {
+                return DeferredResponses.of(new ResponseEntity<String>(e.getMessage(), HttpStatus.BAD_REQUEST));
             }
-            return new ResponseEntity<String>(keys.toString(), HttpStatus.OK);
         }
-    }
 
-    @RequestMapping(method = RequestMethod.GET, value = "/search/{token}", produces = MediaType.APPLICATION_JSON_VALUE)
-    public ResponseEntity<String> searchBeer(@PathVariable final String token) {
-        //we'll get all beers asynchronously and compose on the stream to extract those that match
-        AsyncViewResult viewResult = couchbaseService.findAllBeersAsync().toBlocking().single();
-        if (viewResult.success()) {
-            return couchbaseService.searchBeer(viewResult.rows(), token)
-                    //transform the array into a ResponseEntity with correct status
-                    .map(new Func1<JsonArray, ResponseEntity<String>>() {
-                        @Override
-                        public ResponseEntity<String> call(JsonArray objects) {
-                            return new ResponseEntity<String>(objects.toString(), HttpStatus.OK);
+        BeerNameSnapshot snapshot = couchbaseService.beerSnapshot();
+        if (snapshot != null) {
+            return listSnapshotBeers(snapshot, offset, limit, after, request, servletResponse);
+        }
+
+        Observable<AsyncViewResult> page;
+        if (after != null) {
+            page = couchbaseService.findBeersAfterAsync(after.name(), after.id(), limit == null ? 0 : limit);
+        } else {
+            page = couchbaseService.findAllBeersAsync(offset, limit);
+        }
+        Observable<AsyncViewRow> rows = page.flatMap(CouchbaseService.VIEW_ROWS);
+
+        if (limit == null || limit < 1) {
+            JsonStreamingResponse.stream(request, servletResponse, rows, LIST_ROW_WRITER, requestTimeoutMillis);
+            //the response is written by the stream, there's nothing left for Spring to handle
+            return null;
+        }
+
+        Observable<ResponseEntity<String>> response = rows
+                .toList()
+                .map(new Func1<List<AsyncViewRow>, ResponseEntity<String>>() {
+                    @Override
+                    public ResponseEntity<String> call(List<AsyncViewRow> rows) {
+                        HttpHeaders headers = new HttpHeaders();
+                        //a full page may be followed by another one, give the means to resume
+                        if (rows.size() == limit) {
+                            AsyncViewRow last = rows.get(rows.size() - 1);
+                            headers.set(NEXT_CURSOR_HEADER, new BeerCursor((String) last.key(), last.id()).encode());
                         }
-                    })
-                    //in case of errors during this processing, return a ERROR 500 response with detail
-                    .onErrorReturn(new Func1<Throwable, ResponseEntity<String>>() {
-                        @Override
-                        public ResponseEntity<String> call(Throwable throwable) {
-                            return new ResponseEntity<String>("Error while parsing results - " + throwable,
-                                    HttpStatus.INTERNAL_SERVER_ERROR);
+                        try {
+                            return new ResponseEntity<String>(JsonStreamingResponse.render(rows, LIST_ROW_WRITER),
+                                    headers, HttpStatus.OK);
+                        } catch (IOException e) {
+                            throw new IllegalStateException("Unable to render beers", e);
                         }
-                    })
-                    //block and send back the response
-                   .toBlocking().single();
+                    }
+                });
+        return DeferredResponses.defer(response, requestTimeoutMillis);
+    }
+
+    /**
+     * Serve a listing from a snapshot of the view: the page is a slice of the snapshot, which start is found by
+     * binary search when resuming from a cursor. Nothing is fetched, so the response is ready right away.
+     */
+    private DeferredResult<ResponseEntity<String>> listSnapshotBeers(BeerNameSnapshot snapshot, Integer offset,
+            Integer limit, BeerCursor after, HttpServletRequest request, HttpServletResponse servletResponse) {
+        int from;
+        if (after != null) {
+            from = snapshot.indexAfter(after.name(), after.id());
+        } else {
+            from = offset != null && offset > 0 ? offset : 0;
+        }
+
+        if (limit == null || limit < 1) {
+            List<BeerNameSnapshot.Row> rows = snapshot.rows(from, snapshot.size());
+            JsonStreamingResponse.stream(request, servletResponse, Observable.from(rows), SNAPSHOT_ROW_WRITER,
+                    requestTimeoutMillis);
+            return null;
+        }
+
+        List<BeerNameSnapshot.Row> rows = snapshot.rows(from, (int) Math.min((long) from + limit, snapshot.size()));
+        HttpHeaders headers = new HttpHeaders();
+        if (rows.size() == limit) {
+            BeerNameSnapshot.Row last = rows.get(rows.size() - 1);
+            headers.set(NEXT_CURSOR_HEADER, new BeerCursor(last.name(), last.id()).encode());
+        }
+        try {
+            return DeferredResponses.of(new ResponseEntity<String>(
+                    JsonStreamingResponse.render(rows, SNAPSHOT_ROW_WRITER), headers, HttpStatus.OK));
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to render beers", e);
+        }
+    }
+
+    @RequestMapping(method = RequestMethod.GET, value = "/search/{token}", produces = MediaType.APPLICATION_JSON_VALUE)
+    public void searchBeer(@PathVariable final String token, HttpServletRequest request,
+            HttpServletResponse response) {
+        Observable<RawJsonDocument> matches;
+        if (couchbaseService.isBeerNameIndexReady()) {
+            //the local name index knows which beers match, so only those are fetched
+            matches = couchbaseService.findRawBeersByName(token);
         } else {
-            return new ResponseEntity<String>("Error while searching - " + viewResult.error(),
-                    HttpStatus.INTERNAL_SERVER_ERROR);
+            //we'll get all beers asynchronously and compose on the stream to extract those that match
+            matches = couchbaseService.scanRawBeersByName(token);
+        }
+        //each match is written to the response as soon as it's fetched, no servlet thread is blocked meanwhile
+        JsonStreamingResponse.stream(request, response, matches, SEARCH_ROW_WRITER, requestTimeoutMillis);
+    }
+
+    /**
+     * Query the in-memory search index: beers matching all the words of q, any of the values given for each facet
+     * and the ABV and IBU ranges, with the count of the matches by facet value and the best ranked matches.
+     */
+    @RequestMapping(method = RequestMethod.GET, value = "/query", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<String> queryBeers(@RequestParam(required = false) String q,
+            @RequestParam(required = false) List<String> style,
+            @RequestParam(required = false) List<String> category,
+            @RequestParam(required = false) List<String> brewery,
+            @RequestParam(required = false) List<String> state,
+            @RequestParam(required = false) List<String> country,
+            @RequestParam(required = false) Double abvMin, @RequestParam(required = false) Double abvMax,
+            @RequestParam(required = false) Double ibuMin, @RequestParam(required = false) Double ibuMax,
+            @RequestParam(defaultValue = "10") int limit,
+            @RequestParam(required = false) List<String> facets,
+            @RequestParam(defaultValue = "10") int facetSize) {
+        if (!beerSearch.isReady()) {
+            return new ResponseEntity<String>("The beer search index is "
+                    + (beerSearch.isEnabled() ? "loading" : "disabled"), HttpStatus.SERVICE_UNAVAILABLE);
+        }
+        if (limit < 0 || limit > beerSearch.getMaxLimit()) {
+            return new ResponseEntity<String>("limit must be between 0 and " + beerSearch.getMaxLimit(),
+                    HttpStatus.BAD_REQUEST);
+        }
+        BeerSearchIndex.Query query = new BeerSearchIndex.Query()
+                .text(q)
+                .abv(abvMin, abvMax)
+                .ibu(ibuMin, ibuMax)
+                .limit(limit)
+                .facetSize(facetSize);
+        addFilters(query, BeerSearchIndex.STYLE, style);
+        addFilters(query, BeerSearchIndex.CATEGORY, category);
+        addFilters(query, BeerSearchIndex.BREWERY, brewery);
+        addFilters(query, BeerSearchIndex.STATE, state);
+        addFilters(query, BeerSearchIndex.COUNTRY, country);
+        try {
+            if (facets != null) {
+                query.facets(facets);
+            }
+            return new ResponseEntity<String>(beerSearch.search(query).toJson().toString(), HttpStatus.OK);
+        } catch (IllegalArgumentException e) {
+            return new ResponseEntity<String>(e.getMessage(), HttpStatus.BAD_REQUEST);
+        }
+    }
+
+    /**
+     * Suggest the beers which name starts with the prefix, for type-ahead: the most popular first from the in-memory
+     * suggestion index, or the first by name from the view while the index is not loaded.
+     */
+    @RequestMapping(method = RequestMethod.GET, value = "/suggest", produces = MediaType.APPLICATION_JSON_VALUE)
+    public DeferredResult<ResponseEntity<String>> suggestBeers(@RequestParam String prefix,
+            @RequestParam(defaultValue = "10") int limit) {
+        if (limit < 1 || limit > beerSuggest.getMaxLimit()) {
+            return DeferredResponses.of(new ResponseEntity<String>("limit must be between 1 and "
+                    + beerSuggest.getMaxLimit(), HttpStatus.BAD_REQUEST));
+        }
+        if (beerSuggest.isReady()) {
+            try {
+                return DeferredResponses.of(new ResponseEntity<String>(JsonStreamingResponse.render(
+                        beerSuggest.suggest(prefix, limit), SUGGESTION_WRITER), HttpStatus.OK));
+            } catch (IOException e) {
+                throw new IllegalStateException("Unable to render suggestions", e);
+            }
+        }
+        Observable<ResponseEntity<String>> response = couchbaseService.findBeersByNamePrefixAsync(prefix, limit)
+                .flatMap(CouchbaseService.VIEW_ROWS)
+                .toList()
+                .map(new Func1<List<AsyncViewRow>, ResponseEntity<String>>() {
+                    @Override
+                    public ResponseEntity<String> call(List<AsyncViewRow> rows) {
+                        try {
+                            return new ResponseEntity<String>(JsonStreamingResponse.render(rows, LIST_ROW_WRITER),
+                                    HttpStatus.OK);
+                        } catch (IOException e) {
+                            throw new IllegalStateException("Unable to render suggestions", e);
+                        }
+                    }
+                });
+        return DeferredResponses.defer(response, requestTimeoutMillis);
+    }
+
+    private static void addFilters(BeerSearchIndex.Query query, String facet, List<String> values) {
+        if (values != null) {
+            for (String value : values) {
+                query.filter(facet, value);
+            }
         }
     }
+
+    /**
+     * Writes a beer of the listing as its "name" and "id".
+     */
+    static final JsonRowWriter<AsyncViewRow> LIST_ROW_WRITER = new JsonRowWriter<AsyncViewRow>() {
+        @Override
+        public void write(JsonGenerator generator, AsyncViewRow row) throws IOException {
+            generator.writeStartObject();
+            generator.writeFieldName("name");
+            if (row.key() == null) {
+                generator.writeNull();
+            } else {
+                generator.writeString(String.valueOf(row.key()));
+            }
+            generator.writeStringField("id", row.id());
+            generator.writeEndObject();
+        }
+    };
+
+    /**
+     * Writes a beer of the snapshot listing like {@link #LIST_ROW_WRITER}.
+     */
+    static final JsonRowWriter<BeerNameSnapshot.Row> SNAPSHOT_ROW_WRITER = new JsonRowWriter<BeerNameSnapshot.Row>() {
+        @Override
+        public void write(JsonGenerator generator, BeerNameSnapshot.Row row) throws IOException {
+            generator.writeStartObject();
+            generator.writeStringField("name", row.name());
+            generator.writeStringField("id", row.id());
+            generator.writeEndObject();
+        }
+    };
+
+    /**
+     * Writes a suggestion like {@link #LIST_ROW_WRITER}.
+     */
+    private static final JsonRowWriter<BeerSuggestIndex.Suggestion> SUGGESTION_WRITER =
+            new JsonRowWriter<BeerSuggestIndex.Suggestion>() {
+                @Override
+                public void write(JsonGenerator generator, BeerSuggestIndex.Suggestion suggestion)
+                        throws IOException {
+                    generator.writeStartObject();
+                    generator.writeStringField("name", suggestion.name());
+                    generator.writeStringField("id", suggestion.id());
+                    generator.writeEndObject();
+                }
+            };
+
+    /**
+     * Writes a search match as its "id", "name" and whole stored content under "detail".
+     */
+    private static final JsonRowWriter<RawJsonDocument> SEARCH_ROW_WRITER = new JsonRowWriter<RawJsonDocument>() {
+        @Override
+        public void write(JsonGenerator generator, RawJsonDocument doc) throws IOException {
+            generator.writeStartObject();
+            generator.writeStringField("id", doc.id());
+            generator.writeStringField("name", CouchbaseService.rawName(doc.content()));
+            generator.writeFieldName("detail");
+            //the stored content is written as is
+            generator.writeRawValue(doc.content());
+            generator.writeEndObject();
+        }
+    };
 }
@@ -0,0 +1,65 @@
+/**
+ * Copyright (C) 2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.beersample.beers;
+
+import java.io.FileInputStream;
+import java.io.InputStream;
+
+import com.couchbase.beersample.config.Database;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.stereotype.Component;
+
+/**
+ * Imports a NDJSON file of beers once the application has started, if one is configured under
+ * <code>couchbase.bulk.importFile</code> (eg. <code>--couchbase.bulk.importFile=beers.ndjson</code>).
+ */
+@Component
+public class BulkImportRunner implements CommandLineRunner {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BulkImportRunner.class);
+
+    private final BeerBulkLoader bulkLoader;
+    private final String importFile;
+
+    @Autowired
+    public BulkImportRunner(BeerBulkLoader bulkLoader, Database config) {
+        this.bulkLoader = bulkLoader;
+        this.importFile = config.getBulkImportFile();
+    }
+
+    @Override
+    public void run(String... args) throws Exception {
+        if (importFile == null || importFile.isEmpty()) {
+            return;
+        }
+        LOGGER.info("Importing beers from " + importFile);
+        InputStream in = new FileInputStream(importFile);
+        try {
+            bulkLoader.importBeers(in);
+        } finally {
+            in.close();
+        }
+    }
+}
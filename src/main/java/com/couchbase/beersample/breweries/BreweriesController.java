@@ -23,27 +23,32 @@ package com.couchbase.beersample.breweries;
 
 import java.util.List;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
 import com.couchbase.beersample.CouchbaseService;
-import com.couchbase.client.java.AsyncBucket;
-import com.couchbase.client.java.Bucket;
+import com.couchbase.beersample.config.Database;
+import com.couchbase.beersample.web.DeferredResponses;
+import com.couchbase.beersample.web.MultiGetResponses;
 import com.couchbase.client.java.document.JsonDocument;
 import com.couchbase.client.java.document.json.JsonArray;
 import com.couchbase.client.java.document.json.JsonObject;
-import com.couchbase.client.java.view.AsyncViewResult;
-import com.couchbase.client.java.view.AsyncViewRow;
-import com.couchbase.client.java.view.ViewQuery;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
 import rx.Observable;
 import rx.functions.Func1;
-import rx.functions.Func2;
 
 /**
  * REST CRUD Controller for breweries
@@ -58,39 +63,101 @@ public class BreweriesController {
     private static final Logger LOGGER =  LoggerFactory.getLogger(BreweriesController.class);
 
     private final CouchbaseService couchbaseService;
+    private final BreweryAggregates aggregates;
+    private final BreweryGeo breweryGeo;
+    private final Database config;
+    private final long requestTimeoutMillis;
 
     @Autowired
-    public BreweriesController(final CouchbaseService couchbaseService) {
+    public BreweriesController(final CouchbaseService couchbaseService, final BreweryAggregates aggregates,
+            final BreweryGeo breweryGeo, final Database config) {
         this.couchbaseService = couchbaseService;
+        this.aggregates = aggregates;
+        this.breweryGeo = breweryGeo;
+        this.config = config;
+        this.requestTimeoutMillis = config.getRequestTimeoutMillis();
     }
 
-    @RequestMapping("/{id}")
-    public ResponseEntity<String> getBrewery(@PathVariable String id) {
+    @RequestMapping(value = "/_mget", method = RequestMethod.POST, consumes = MediaType.APPLICATION_JSON_VALUE)
+    public DeferredResult<ResponseEntity<String>> getBreweries(@RequestBody List<String> ids,
+            HttpServletRequest request, HttpServletResponse response) {
+        ResponseEntity<String> rejection = MultiGetResponses.reject(ids, config.getMgetMaxIds());
+        if (rejection != null) {
+            return DeferredResponses.of(rejection);
+        }
+        MultiGetResponses.stream(request, response, couchbaseService, ids, "brewery", config.getMgetConcurrency(),
+                requestTimeoutMillis);
+        //the response is written by the stream, there's nothing left for Spring to handle
+        return null;
+    }
+
+    /**
+     * Find the breweries within radius kilometers of a point, nearest first, from the in-memory geo index. With
+     * beers=true, each brewery comes with its number of beers.
+     */
+    @RequestMapping(value = "/near", method = RequestMethod.GET)
+    public ResponseEntity<String> findBreweriesNear(@RequestParam double lat, @RequestParam double lon,
+            @RequestParam double radius, @RequestParam(defaultValue = "10") int limit,
+            @RequestParam(defaultValue = "false") boolean beers) {
+        if (!breweryGeo.isReady()) {
+            return new ResponseEntity<String>("The brewery geo index is "
+                    + (breweryGeo.isEnabled() ? "loading" : "disabled"), HttpStatus.SERVICE_UNAVAILABLE);
+        }
+        if (!(lat >= -90d && lat <= 90d) || !(lon >= -180d && lon <= 180d)) {
+            return new ResponseEntity<String>("lat must be between -90 and 90, lon between -180 and 180",
+                    HttpStatus.BAD_REQUEST);
+        }
+        if (!(radius > 0d && radius <= breweryGeo.getMaxRadiusKm())) {
+            return new ResponseEntity<String>("radius must be more than 0 and at most " + breweryGeo.getMaxRadiusKm()
+                    + " km", HttpStatus.BAD_REQUEST);
+        }
+        if (limit < 1 || limit > breweryGeo.getMaxLimit()) {
+            return new ResponseEntity<String>("limit must be between 1 and " + breweryGeo.getMaxLimit(),
+                    HttpStatus.BAD_REQUEST);
+        }
+        BreweryGeoIndex.Result result = breweryGeo.near(lat, lon, radius, limit);
+        JsonArray breweries = JsonArray.create();
+        for (BreweryGeoIndex.Nearby nearby : result.breweries()) {
+            JsonObject brewery = JsonObject.create()
+                    .put("id", nearby.id())
+                    .put("name", nearby.name())
+                    .put("distanceKm", nearby.distanceKm())
+                    .put("lat", nearby.lat())
+                    .put("lon", nearby.lon());
+            if (beers) {
+                brewery.put("beers", nearby.beers());
+            }
+            breweries.add(brewery);
+        }
+        JsonObject json = JsonObject.create()
+                .put("total", result.total())
+                .put("breweries", breweries);
+        return new ResponseEntity<String>(json.toString(), HttpStatus.OK);
+    }
 
-        ViewQuery forBrewery = CouchbaseService.createQueryBeersForBrewery(id);
+    /**
+     * Get a brewery along with its beers. By default each beer's whole document is fetched (with a bounded
+     * concurrency), or read from the brewery's materialized aggregate if those are enabled. In summary mode the
+     * beers are only described by what the summary view emits for them, without fetching any beer document.
+     */
+    @RequestMapping("/{id}")
+    public DeferredResult<ResponseEntity<String>> getBrewery(@PathVariable final String id,
+            @RequestParam(required = false, defaultValue = "false") boolean summary) {
 
-        Observable<JsonDocument> brewery = couchbaseService.asyncRead(id);
-        Observable<List<JsonDocument>> beers =
-                couchbaseService.findBeersForBreweryAsync(id)
-                //extract rows from the result
-                .flatMap(new Func1<AsyncViewResult, Observable<AsyncViewRow>>() {
-                    @Override
-                    public Observable<AsyncViewRow> call(AsyncViewResult asyncViewResult) {
-                        return asyncViewResult.rows();
-                    }
-                })
-                //extract the actual document (pair of brewery id and beer id)
-                .flatMap(new Func1<AsyncViewRow, Observable<JsonDocument>>() {
-                    @Override
-                    public Observable<JsonDocument> call(AsyncViewRow asyncViewRow) {
-                        return asyncViewRow.document();
-                    }
-                })
-                .toList();
+        Observable<JsonDocument> breweryWithBeers;
+        if (aggregates.isEnabled() && !summary) {
+            breweryWithBeers = aggregates.read(id);
+        } else {
+            Observable<JsonDocument> brewery = couchbaseService.asyncRead(id);
+            Observable<List<JsonDocument>> beers = summary
+                    ? couchbaseService.findBeerSummariesForBreweryAsync(id)
+                    : couchbaseService.findBeerDocumentsForBreweryAsync(id);
+            //in the next observable we'll transform list of brewery-beer pairs into an array of beers
+            //then we'll inject it into the associated brewery jsonObject
+            breweryWithBeers = CouchbaseService.concatBeerInfoToBrewery(brewery, beers);
+        }
 
-        //in the next observable we'll transform list of brewery-beer pairs into an array of beers
-        //then we'll inject it into the associated brewery jsonObject
-        Observable<JsonDocument> fullBeers = couchbaseService.concatBeerInfoToBrewery(brewery, beers)
+        Observable<JsonDocument> fullBeers = breweryWithBeers
                 //take care of the case where no corresponding brewery info was found
                 .singleOrDefault(JsonDocument.create("empty",
                         JsonObject.create().put("error", "brewery " + id + " not found")))
@@ -104,14 +171,79 @@ public class BreweriesController {
                     }
                 });
 
-        try {
-            return new ResponseEntity<String>(fullBeers.toBlocking().single().content().toString(), HttpStatus.OK);
-        } catch (Exception e) {
-            LOGGER.error("Unable to get brewery " + id, e);
-            return new ResponseEntity<String>(HttpStatus.INTERNAL_SERVER_ERROR);
-        }
+        Observable<ResponseEntity<String>> response = fullBeers
+                .map(new Func1<JsonDocument, ResponseEntity<String>>() {
+                    @Override
+                    public ResponseEntity<String> call(JsonDocument breweryWithBeers) {
+                        HttpHeaders headers = new HttpHeaders();
+                        if ("error".equals(breweryWithBeers.id())) {
+                            //a transient failure, not to be reused by any cache
+                            headers.setCacheControl("no-store");
+                        }
+                        return new ResponseEntity<String>(breweryWithBeers.content().toString(), headers,
+                                HttpStatus.OK);
+                    }
+                })
+                .onErrorReturn(new Func1<Throwable, ResponseEntity<String>>() {
+                    @Override
+                    public ResponseEntity<String> call(Throwable throwable) {
+                        LOGGER.error("Unable to get brewery " + id, throwable);
+                        return new ResponseEntity<String>(HttpStatus.INTERNAL_SERVER_ERROR);
+                    }
+                });
+        //the response is sent back from the callbacks, no servlet thread is blocked in the meantime
+        return DeferredResponses.defer(response, requestTimeoutMillis);
+    }
 
+    /**
+     * Compare the materialized aggregate of a brewery with its sources.
+     */
+    @RequestMapping(value = "/{id}/_check", method = RequestMethod.GET)
+    public DeferredResult<ResponseEntity<String>> checkAggregate(@PathVariable final String id) {
+        return DeferredResponses.defer(toResponse(aggregates.check(id), "check the aggregate of brewery " + id),
+                requestTimeoutMillis);
     }
 
+    /**
+     * Rebuild the materialized aggregate of a brewery from its sources.
+     */
+    @RequestMapping(value = "/{id}/_rebuild", method = RequestMethod.POST)
+    public DeferredResult<ResponseEntity<String>> rebuildAggregate(@PathVariable final String id) {
+        if (!aggregates.isEnabled()) {
+            return DeferredResponses.of(new ResponseEntity<String>("{\"error\": \"aggregates are disabled\"}",
+                    HttpStatus.CONFLICT));
+        }
+        return DeferredResponses.defer(toResponse(aggregates.rebuild(id), "rebuild the aggregate of brewery " + id),
+                requestTimeoutMillis);
+    }
 
+    /**
+     * Rebuild the materialized aggregates of all the breweries. This can take much longer than a regular
+     * request, so the response is not subject to the request timeout.
+     */
+    @RequestMapping(value = "/_rebuild", method = RequestMethod.POST)
+    public DeferredResult<ResponseEntity<String>> rebuildAggregates() {
+        if (!aggregates.isEnabled()) {
+            return DeferredResponses.of(new ResponseEntity<String>("{\"error\": \"aggregates are disabled\"}",
+                    HttpStatus.CONFLICT));
+        }
+        return DeferredResponses.defer(toResponse(aggregates.rebuildAll(), "rebuild the brewery aggregates"), 0L);
+    }
+
+    private static Observable<ResponseEntity<String>> toResponse(Observable<JsonObject> report, final String what) {
+        return report
+                .map(new Func1<JsonObject, ResponseEntity<String>>() {
+                    @Override
+                    public ResponseEntity<String> call(JsonObject json) {
+                        return new ResponseEntity<String>(json.toString(), HttpStatus.OK);
+                    }
+                })
+                .onErrorReturn(new Func1<Throwable, ResponseEntity<String>>() {
+                    @Override
+                    public ResponseEntity<String> call(Throwable throwable) {
+                        LOGGER.error("Unable to " + what, throwable);
+                        return new ResponseEntity<String>(HttpStatus.INTERNAL_SERVER_ERROR);
+                    }
+                });
+    }
 }
@@ -0,0 +1,639 @@
+/**
+ * Copyright (C) 2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.beersample.breweries;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.couchbase.beersample.CouchbaseService;
+import com.couchbase.beersample.DocumentChangeListener;
+import com.couchbase.beersample.config.Database;
+import com.couchbase.client.java.document.JsonDocument;
+import com.couchbase.client.java.document.json.JsonArray;
+import com.couchbase.client.java.document.json.JsonObject;
+import com.couchbase.client.java.error.CASMismatchException;
+import com.couchbase.client.java.error.DocumentDoesNotExistException;
+import com.couchbase.client.java.view.Stale;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import rx.Observable;
+import rx.Subscriber;
+import rx.functions.Action1;
+import rx.functions.Func1;
+import rx.functions.Func2;
+
+/**
+ * Materialized brewery-with-beers documents, so that reading a brewery along with its beers is a single get
+ * instead of a view query and one get per beer.
+ *
+ * The aggregate of a brewery is stored under <code>brewery::{id}::full</code> as an envelope
+ * <code>{"type": "brewery_full", "breweryId": ..., "brewery": {...}, "beers": [{"id": ..., "beer": {...}}],
+ * "materializedAt": ...}</code>, which type keeps it out of the beer and brewery views. It is built the first time
+ * the brewery is read, then kept up to date incrementally from the writes going through the {@link CouchbaseService}:
+ * each beer write patches the aggregate of its brewery (and of its previous brewery if it moved), with an optimistic
+ * CAS loop. An aggregate that can't be patched is deleted, so that the next read builds it again.
+ *
+ * Writes made outside of this application are not seen, which is what the consistency check and the rebuilds are for.
+ * The lag between a source write and the matching aggregate update is tracked and reported by {@link #stats()}.
+ */
+@Component
+public class BreweryAggregates implements DocumentChangeListener {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BreweryAggregates.class);
+
+    public static final String TYPE = "brewery_full";
+    private static final String PREFIX = "brewery::";
+    private static final String SUFFIX = "::full";
+
+    private final CouchbaseService couchbaseService;
+    private final boolean enabled;
+    private final int maxAttempts;
+    private final int rebuildConcurrency;
+
+    /** incremented on each change, so that builds racing with a write don't store stale aggregates */
+    private final AtomicLong changes = new AtomicLong();
+    /** start time of each pending update, by sequence number, so that the oldest one comes first */
+    private final ConcurrentSkipListMap<Long, Long> pending = new ConcurrentSkipListMap<Long, Long>();
+    private final AtomicLong sequence = new AtomicLong();
+
+    private final AtomicLong updates = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong untracked = new AtomicLong();
+    private final AtomicLong lastLagNanos = new AtomicLong();
+    private final AtomicLong maxLagNanos = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong builds = new AtomicLong();
+
+    @Autowired
+    public BreweryAggregates(final CouchbaseService couchbaseService, final Database config) {
+        this.couchbaseService = couchbaseService;
+        this.enabled = config.isAggregatesEnabled();
+        this.maxAttempts = Math.max(1, config.getAggregatesMaxAttempts());
+        this.rebuildConcurrency = Math.max(1, config.getAggregatesRebuildConcurrency());
+        if (enabled) {
+            couchbaseService.addDocumentChangeListener(this, true);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return the key of the aggregate of a brewery.
+     */
+    public static String aggregateId(String breweryId) {
+        return PREFIX + breweryId + SUFFIX;
+    }
+
+    /**
+     * Read a brewery along with its beers from its aggregate, building (and storing) the aggregate if there
+     * is none yet. The emitted document is shaped like {@link CouchbaseService#concatBeerInfoToBrewery}'s.
+     *
+     * @return a stream emitting the brewery with its beers, or nothing if the brewery doesn't exist.
+     */
+    public Observable<JsonDocument> read(final String breweryId) {
+        return couchbaseService.asyncRead(aggregateId(breweryId))
+                .defaultIfEmpty(null)
+                .flatMap(new Func1<JsonDocument, Observable<JsonDocument>>() {
+                    @Override
+                    public Observable<JsonDocument> call(JsonDocument aggregate) {
+                        if (aggregate != null && TYPE.equals(aggregate.content().getString("type"))) {
+                            hits.incrementAndGet();
+                            return Observable.just(toBreweryWithBeers(breweryId, aggregate.content()));
+                        }
+                        misses.incrementAndGet();
+                        return build(breweryId, false).map(new Func1<JsonObject, JsonDocument>() {
+                            @Override
+                            public JsonDocument call(JsonObject envelope) {
+                                return toBreweryWithBeers(breweryId, envelope);
+                            }
+                        });
+                    }
+                });
+    }
+
+    /**
+     * Build the aggregate of a brewery from its sources and store it. A build that raced with a write may have
+     * missed it, so it is not kept: it isn't stored at all unless forced, and is deleted again if the write only
+     * happened while it was being stored.
+     *
+     * @return a stream emitting the fresh aggregate envelope, or nothing if the brewery doesn't exist.
+     */
+    private Observable<JsonObject> build(final String breweryId, final boolean force) {
+        final long ticket = changes.get();
+        return compute(breweryId)
+                .defaultIfEmpty(null)
+                .flatMap(new Func1<JsonObject, Observable<JsonObject>>() {
+                    @Override
+                    public Observable<JsonObject> call(final JsonObject envelope) {
+                        if (envelope == null) {
+                            //no such brewery, make sure there is no leftover aggregate either
+                            return drop(breweryId).flatMap(new Func1<Boolean, Observable<JsonObject>>() {
+                                @Override
+                                public Observable<JsonObject> call(Boolean dropped) {
+                                    return Observable.empty();
+                                }
+                            });
+                        }
+                        if (!force && ticket != changes.get()) {
+                            return Observable.just(envelope);
+                        }
+                        return store(breweryId, envelope, ticket).map(new Func1<Boolean, JsonObject>() {
+                            @Override
+                            public JsonObject call(Boolean stored) {
+                                return envelope;
+                            }
+                        });
+                    }
+                });
+    }
+
+    /**
+     * Compute the aggregate envelope of a brewery from the brewery document and an up to date view of its beers,
+     * without storing it.
+     */
+    private Observable<JsonObject> compute(final String breweryId) {
+        builds.incrementAndGet();
+        Observable<JsonDocument> brewery = couchbaseService.asyncRead(breweryId)
+                .filter(new Func1<JsonDocument, Boolean>() {
+                    @Override
+                    public Boolean call(JsonDocument doc) {
+                        return "brewery".equals(doc.content().getString("type"));
+                    }
+                });
+        Observable<List<JsonDocument>> beers =
+                couchbaseService.findBeerDocumentsForBreweryAsync(breweryId, Stale.FALSE);
+        return Observable.zip(brewery, beers, new Func2<JsonDocument, List<JsonDocument>, JsonObject>() {
+            @Override
+            public JsonObject call(JsonDocument breweryDoc, List<JsonDocument> beerDocs) {
+                JsonObject envelope = JsonObject.create()
+                        .put("type", TYPE)
+                        .put("breweryId", breweryId)
+                        .put("brewery", breweryDoc.content())
+                        .put("beers", JsonArray.create());
+                for (JsonDocument beerDoc : beerDocs) {
+                    putBeer(envelope, beerDoc.id(), beerDoc.content());
+                }
+                envelope.put("materializedAt", System.currentTimeMillis());
+                return envelope;
+            }
+        });
+    }
+
+    /**
+     * Store an aggregate. If a change happened in the meantime, it may have missed the aggregate, which is then
+     * deleted again to be rebuilt later.
+     *
+     * @return a stream emitting true if the aggregate was stored and kept.
+     */
+    private Observable<Boolean> store(final String breweryId, JsonObject envelope, final long ticket) {
+        //an aggregate is neither a beer nor a brewery, what it replaces doesn't matter to the listeners
+        return couchbaseService.asyncUpsert(JsonDocument.create(aggregateId(breweryId), copy(envelope)), null)
+                .flatMap(new Func1<JsonDocument, Observable<Boolean>>() {
+                    @Override
+                    public Observable<Boolean> call(JsonDocument stored) {
+                        if (ticket == changes.get()) {
+                            return Observable.just(true);
+                        }
+                        return drop(breweryId).map(new Func1<Boolean, Boolean>() {
+                            @Override
+                            public Boolean call(Boolean dropped) {
+                                return false;
+                            }
+                        });
+                    }
+                })
+                .onErrorReturn(new Func1<Throwable, Boolean>() {
+                    @Override
+                    public Boolean call(Throwable throwable) {
+                        LOGGER.warn("Unable to store the aggregate of brewery " + breweryId, throwable);
+                        return false;
+                    }
+                });
+    }
+
+    /**
+     * Delete the aggregate of a brewery, if there is one.
+     *
+     * @return a stream emitting true if an aggregate was deleted.
+     */
+    private Observable<Boolean> drop(String breweryId) {
+        return couchbaseService.asyncDelete(aggregateId(breweryId))
+                .map(new Func1<JsonDocument, Boolean>() {
+                    @Override
+                    public Boolean call(JsonDocument deleted) {
+                        return true;
+                    }
+                })
+                .onErrorResumeNext(new Func1<Throwable, Observable<Boolean>>() {
+                    @Override
+                    public Observable<Boolean> call(Throwable throwable) {
+                        if (throwable instanceof DocumentDoesNotExistException) {
+                            return Observable.just(false);
+                        }
+                        return Observable.error(throwable);
+                    }
+                });
+    }
+
+    /**
+     * Compare the aggregate of a brewery to what a build from its sources gives.
+     *
+     * @return a stream emitting a JSON report of the differences.
+     */
+    public Observable<JsonObject> check(final String breweryId) {
+        Observable<JsonObject> expected = compute(breweryId).defaultIfEmpty(null);
+        Observable<JsonObject> actual = couchbaseService.asyncRead(aggregateId(breweryId))
+                .map(new Func1<JsonDocument, JsonObject>() {
+                    @Override
+                    public JsonObject call(JsonDocument aggregate) {
+                        return aggregate.content();
+                    }
+                })
+                .defaultIfEmpty(null);
+        return Observable.zip(expected, actual, new Func2<JsonObject, JsonObject, JsonObject>() {
+            @Override
+            public JsonObject call(JsonObject expected, JsonObject actual) {
+                return compare(breweryId, expected, actual);
+            }
+        });
+    }
+
+    private static JsonObject compare(String breweryId, JsonObject expected, JsonObject actual) {
+        JsonObject report = JsonObject.create()
+                .put("id", breweryId)
+                .put("exists", expected != null)
+                .put("materialized", actual != null);
+        if (expected == null || actual == null) {
+            //an aggregate without brewery is an inconsistency, a brewery without aggregate is not (yet) one
+            report.put("consistent", actual == null);
+            return report;
+        }
+        Map<String, JsonObject> expectedBeers = beersById(expected);
+        Map<String, JsonObject> actualBeers = beersById(actual);
+        JsonArray missing = JsonArray.create();
+        JsonArray stale = JsonArray.create();
+        JsonArray extra = JsonArray.create();
+        for (Map.Entry<String, JsonObject> beer : expectedBeers.entrySet()) {
+            JsonObject materialized = actualBeers.get(beer.getKey());
+            if (materialized == null) {
+                missing.add(beer.getKey());
+            } else if (!materialized.equals(beer.getValue())) {
+                stale.add(beer.getKey());
+            }
+        }
+        for (String id : actualBeers.keySet()) {
+            if (!expectedBeers.containsKey(id)) {
+                extra.add(id);
+            }
+        }
+        boolean breweryStale = !expected.getObject("brewery").equals(actual.getObject("brewery"));
+        return report
+                .put("consistent", !breweryStale && missing.isEmpty() && stale.isEmpty() && extra.isEmpty())
+                .put("breweryStale", breweryStale)
+                .put("missingBeers", missing)
+                .put("staleBeers", stale)
+                .put("extraBeers", extra)
+                .put("materializedAt", actual.getLong("materializedAt"));
+    }
+
+    /**
+     * Rebuild the aggregate of a brewery from its sources.
+     *
+     * @return a stream emitting a JSON report of the rebuild.
+     */
+    public Observable<JsonObject> rebuild(final String breweryId) {
+        return build(breweryId, true)
+                .map(new Func1<JsonObject, JsonObject>() {
+                    @Override
+                    public JsonObject call(JsonObject envelope) {
+                        return JsonObject.create()
+                                .put("id", breweryId)
+                                .put("exists", true)
+                                .put("beers", envelope.getArray("beers").size());
+                    }
+                })
+                .defaultIfEmpty(JsonObject.create().put("id", breweryId).put("exists", false));
+    }
+
+    /**
+     * Rebuild the aggregates of all the breweries, a few at a time.
+     *
+     * @return a stream emitting a JSON report of the whole rebuild.
+     */
+    public Observable<JsonObject> rebuildAll() {
+        final long start = System.nanoTime();
+        Observable<Observable<Boolean>> rebuilds = couchbaseService.findBreweryIdsAsync()
+                .map(new Func1<String, Observable<Boolean>>() {
+                    @Override
+                    public Observable<Boolean> call(final String breweryId) {
+                        return build(breweryId, true)
+                                .map(new Func1<JsonObject, Boolean>() {
+                                    @Override
+                                    public Boolean call(JsonObject envelope) {
+                                        return true;
+                                    }
+                                })
+                                .onErrorReturn(new Func1<Throwable, Boolean>() {
+                                    @Override
+                                    public Boolean call(Throwable throwable) {
+                                        LOGGER.warn("Unable to rebuild the aggregate of brewery " + breweryId,
+                                                throwable);
+                                        return false;
+                                    }
+                                });
+                    }
+                });
+        return Observable.merge(rebuilds, rebuildConcurrency)
+                .reduce(new long[2], new Func2<long[], Boolean, long[]>() {
+                    @Override
+                    public long[] call(long[] counts, Boolean rebuilt) {
+                        counts[rebuilt ? 0 : 1]++;
+                        return counts;
+                    }
+                })
+                .map(new Func1<long[], JsonObject>() {
+                    @Override
+                    public JsonObject call(long[] counts) {
+                        return JsonObject.create()
+                                .put("rebuilt", counts[0])
+                                .put("failed", counts[1])
+                                .put("elapsedMillis", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                    }
+                });
+    }
+
+    //===== incremental updates =====
+
+    @Override
+    public void documentStored(String id, JsonObject content, JsonObject previous) {
+        if (isAggregate(id, content) || isAggregate(id, previous)) {
+            return;
+        }
+        String oldBrewery = breweryOfBeer(previous);
+        String newBrewery = breweryOfBeer(content);
+        if (oldBrewery != null && !oldBrewery.equals(newBrewery)) {
+            update(oldBrewery, removeBeer(id));
+        }
+        if (newBrewery != null) {
+            update(newBrewery, putBeer(id, copy(content)));
+        }
+        if (isOfType(content, "brewery")) {
+            update(id, replaceBrewery(copy(content)));
+        } else if (isOfType(previous, "brewery")) {
+            dropAsync(id);
+        }
+    }
+
+    @Override
+    public void documentRemoved(String id, JsonObject previous) {
+        if (isAggregate(id, previous)) {
+            return;
+        }
+        if (previous == null) {
+            //the document could have been a beer of any brewery, only a check or rebuild will tell
+            untracked.incrementAndGet();
+            dropAsync(id);
+            return;
+        }
+        String oldBrewery = breweryOfBeer(previous);
+        if (oldBrewery != null) {
+            update(oldBrewery, removeBeer(id));
+        }
+        if (isOfType(previous, "brewery")) {
+            dropAsync(id);
+        }
+    }
+
+    private static boolean isAggregate(String id, JsonObject content) {
+        return id.endsWith(SUFFIX) || isOfType(content, TYPE);
+    }
+
+    private static boolean isOfType(JsonObject content, String type) {
+        return content != null && type.equals(content.getString("type"));
+    }
+
+    private static String breweryOfBeer(JsonObject content) {
+        return isOfType(content, "beer") ? content.getString("brewery_id") : null;
+    }
+
+    /**
+     * Apply a change to the aggregate of a brewery in the background, if it has been materialized.
+     */
+    private void update(final String breweryId, final Action1<JsonObject> change) {
+        track(breweryId, patch(breweryId, change, 1));
+    }
+
+    private void dropAsync(String breweryId) {
+        track(breweryId, drop(breweryId));
+    }
+
+    private void track(final String breweryId, Observable<?> work) {
+        changes.incrementAndGet();
+        final long start = System.nanoTime();
+        final Long key = sequence.incrementAndGet();
+        pending.put(key, start);
+        work.subscribe(new Subscriber<Object>() {
+            @Override
+            public void onCompleted() {
+                pending.remove(key);
+                updates.incrementAndGet();
+                long lag = System.nanoTime() - start;
+                lastLagNanos.set(lag);
+                updateMax(maxLagNanos, lag);
+            }
+
+            @Override
+            public void onError(Throwable e) {
+                pending.remove(key);
+                failures.incrementAndGet();
+                LOGGER.warn("Unable to update the aggregate of brewery " + breweryId + ", dropping it", e);
+                //best effort, the next read will rebuild it
+                drop(breweryId).subscribe(new Subscriber<Boolean>() {
+                    @Override
+                    public void onCompleted() { }
+
+                    @Override
+                    public void onError(Throwable e) {
+                        LOGGER.error("Unable to drop the aggregate of brewery " + breweryId, e);
+                    }
+
+                    @Override
+                    public void onNext(Boolean dropped) { }
+                });
+            }
+
+            @Override
+            public void onNext(Object o) { }
+        });
+    }
+
+    /**
+     * Read, change and replace an aggregate, starting over if it was concurrently modified.
+     */
+    private Observable<JsonDocument> patch(final String breweryId, final Action1<JsonObject> change,
+            final int attempt) {
+        final String aggregateId = aggregateId(breweryId);
+        return couchbaseService.asyncRead(aggregateId)
+                .flatMap(new Func1<JsonDocument, Observable<JsonDocument>>() {
+                    @Override
+                    public Observable<JsonDocument> call(JsonDocument aggregate) {
+                        JsonObject envelope = aggregate.content();
+                        change.call(envelope);
+                        envelope.put("materializedAt", System.currentTimeMillis());
+                        //no need to read the previous aggregate again for the listeners, see store()
+                        return couchbaseService.asyncUpdate(JsonDocument.create(aggregateId, envelope, aggregate.cas()),
+                                null);
+                    }
+                })
+                .onErrorResumeNext(new Func1<Throwable, Observable<JsonDocument>>() {
+                    @Override
+                    public Observable<JsonDocument> call(Throwable throwable) {
+                        if (throwable instanceof DocumentDoesNotExistException) {
+                            //deleted in the meantime, it will be built when next read
+                            return Observable.empty();
+                        }
+                        if (throwable instanceof CASMismatchException && attempt < maxAttempts) {
+                            return patch(breweryId, change, attempt + 1);
+                        }
+                        return Observable.error(throwable);
+                    }
+                });
+    }
+
+    private static Action1<JsonObject> putBeer(final String beerId, final JsonObject beer) {
+        return new Action1<JsonObject>() {
+            @Override
+            public void call(JsonObject envelope) {
+                putBeer(envelope, beerId, beer);
+            }
+        };
+    }
+
+    private static Action1<JsonObject> removeBeer(final String beerId) {
+        return new Action1<JsonObject>() {
+            @Override
+            public void call(JsonObject envelope) {
+                putBeer(envelope, beerId, null);
+            }
+        };
+    }
+
+    private static Action1<JsonObject> replaceBrewery(final JsonObject brewery) {
+        return new Action1<JsonObject>() {
+            @Override
+            public void call(JsonObject envelope) {
+                envelope.put("brewery", brewery);
+            }
+        };
+    }
+
+    /**
+     * Insert, replace or (if the beer is null) remove a beer in an aggregate envelope, keeping the beers ordered
+     * by id like the view does.
+     */
+    private static void putBeer(JsonObject envelope, String beerId, JsonObject beer) {
+        JsonArray beers = envelope.getArray("beers");
+        JsonArray updated = JsonArray.create();
+        boolean added = beer == null;
+        for (int i = 0; beers != null && i < beers.size(); i++) {
+            JsonObject entry = beers.getObject(i);
+            String entryId = entry.getString("id");
+            if (!added && entryId.compareTo(beerId) > 0) {
+                updated.add(beerEntry(beerId, beer));
+                added = true;
+            }
+            if (!entryId.equals(beerId)) {
+                updated.add(entry);
+            }
+        }
+        if (!added) {
+            updated.add(beerEntry(beerId, beer));
+        }
+        envelope.put("beers", updated);
+    }
+
+    private static JsonObject beerEntry(String beerId, JsonObject beer) {
+        return JsonObject.create().put("id", beerId).put("beer", beer);
+    }
+
+    private static Map<String, JsonObject> beersById(JsonObject envelope) {
+        Map<String, JsonObject> beers = new HashMap<String, JsonObject>();
+        JsonArray array = envelope.getArray("beers");
+        for (int i = 0; array != null && i < array.size(); i++) {
+            JsonObject entry = array.getObject(i);
+            beers.put(entry.getString("id"), entry.getObject("beer"));
+        }
+        return beers;
+    }
+
+    /**
+     * Turn an aggregate envelope into the brewery document with its beers under "beers".
+     */
+    private static JsonDocument toBreweryWithBeers(String breweryId, JsonObject envelope) {
+        JsonObject brewery = copy(envelope.getObject("brewery"));
+        brewery.put("beers", envelope.getArray("beers"));
+        return JsonDocument.create(breweryId, brewery);
+    }
+
+    /**
+     * The contents given to listeners are shared with the writer, so they are copied before being kept.
+     */
+    private static JsonObject copy(JsonObject content) {
+        return JsonObject.from(content.toMap());
+    }
+
+    private static void updateMax(AtomicLong max, long value) {
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
+    /**
+     * @return the staleness counters of the aggregates, as a JSON object.
+     */
+    public JsonObject stats() {
+        Map.Entry<Long, Long> oldest = pending.firstEntry();
+        long oldestPendingNanos = oldest == null ? 0L : System.nanoTime() - oldest.getValue();
+        return JsonObject.create()
+                .put("enabled", enabled)
+                .put("pending", pending.size())
+                .put("oldestPendingMillis", TimeUnit.NANOSECONDS.toMillis(oldestPendingNanos))
+                .put("lastLagMillis", TimeUnit.NANOSECONDS.toMillis(lastLagNanos.get()))
+                .put("maxLagMillis", TimeUnit.NANOSECONDS.toMillis(maxLagNanos.get()))
+                .put("updates", updates.get())
+                .put("failures", failures.get())
+                .put("untracked", untracked.get())
+                .put("hits", hits.get())
+                .put("misses", misses.get())
+                .put("builds", builds.get());
+    }
+}
@@ -0,0 +1,239 @@
+/**
+ * Copyright (C) 2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.beersample.breweries;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+
+import com.couchbase.beersample.CouchbaseService;
+import com.couchbase.beersample.DocumentChangeListener;
+import com.couchbase.beersample.config.Database;
+import com.couchbase.client.java.document.JsonDocument;
+import com.couchbase.client.java.document.json.JsonArray;
+import com.couchbase.client.java.document.json.JsonObject;
+import com.couchbase.client.java.view.AsyncViewRow;
+import com.couchbase.client.java.view.Stale;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import rx.Observable;
+import rx.Subscriber;
+import rx.functions.Action1;
+import rx.functions.Func1;
+
+/**
+ * The nearby breweries: a {@link BreweryGeoIndex} loaded from the "brewery_beers" view once the bucket is open, then
+ * kept up to date from the writes going through the {@link CouchbaseService}.
+ *
+ * The load reads the view once: the rows of the breweries give the documents to fetch (for their location), the rows
+ * of the beers are counted for their brewery. Like {@link com.couchbase.beersample.search.BeerSearch}, documents
+ * written while the index is being loaded are indexed from the write and skipped by the load.
+ */
+@Component
+public class BreweryGeo implements DocumentChangeListener {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BreweryGeo.class);
+
+    private final CouchbaseService couchbaseService;
+    private final boolean enabled;
+    private final int maxRadiusKm;
+    private final int maxLimit;
+    private final int fetchConcurrency;
+    private final BreweryGeoIndex index = new BreweryGeoIndex();
+
+    /** the documents written during the current load, null when not loading */
+    private volatile Set<String> writtenDuringLoad;
+    private volatile long loadMillis = -1;
+
+    @Autowired
+    public BreweryGeo(final CouchbaseService couchbaseService, final Database config) {
+        this.couchbaseService = couchbaseService;
+        this.enabled = config.isGeoEnabled();
+        this.maxRadiusKm = config.getGeoMaxRadiusKm();
+        this.maxLimit = config.getGeoMaxLimit();
+        this.fetchConcurrency = config.getMgetConcurrency();
+        if (enabled) {
+            couchbaseService.addDocumentChangeListener(this);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return true once the index is loaded and queries can be answered.
+     */
+    public boolean isReady() {
+        return enabled && index.isReady();
+    }
+
+    public int getMaxRadiusKm() {
+        return maxRadiusKm;
+    }
+
+    public int getMaxLimit() {
+        return maxLimit;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (enabled) {
+            load();
+        }
+    }
+
+    /**
+     * Load the index in the background, from scratch. Queries are refused until it is done, and if it fails.
+     */
+    public void load() {
+        index.clear();
+        final Set<String> written = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        writtenDuringLoad = written;
+        final long start = System.nanoTime();
+        Observable<Observable<JsonDocument>> breweries = couchbaseService
+                .scanViewAsync("brewery_beers", Stale.FALSE, false)
+                .doOnNext(new Action1<AsyncViewRow>() {
+                    @Override
+                    public void call(AsyncViewRow row) {
+                        //a beer's key is [breweryId, beerId]
+                        JsonArray key = (JsonArray) row.key();
+                        if (key.size() == 2 && !written.contains(row.id())) {
+                            index.putBeer(row.id(), key.getString(0));
+                        }
+                    }
+                })
+                .filter(new Func1<AsyncViewRow, Boolean>() {
+                    @Override
+                    public Boolean call(AsyncViewRow row) {
+                        return ((JsonArray) row.key()).size() == 1;
+                    }
+                })
+                .map(new Func1<AsyncViewRow, Observable<JsonDocument>>() {
+                    @Override
+                    public Observable<JsonDocument> call(AsyncViewRow row) {
+                        return couchbaseService.asyncRead(row.id());
+                    }
+                });
+        Observable.merge(breweries, fetchConcurrency).subscribe(new Subscriber<JsonDocument>() {
+            @Override
+            public void onNext(JsonDocument doc) {
+                if (!written.contains(doc.id())) {
+                    putBrewery(doc.id(), doc.content());
+                }
+            }
+
+            @Override
+            public void onError(Throwable e) {
+                writtenDuringLoad = null;
+                LOGGER.warn("Unable to load the brewery geo index, nearby breweries are unavailable", e);
+            }
+
+            @Override
+            public void onCompleted() {
+                writtenDuringLoad = null;
+                loadMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                index.markReady();
+                LOGGER.info("Brewery geo index loaded with " + index.size() + " located breweries in "
+                        + loadMillis + "ms");
+            }
+        });
+    }
+
+    /**
+     * Find the breweries within a radius of a point, nearest first.
+     *
+     * @throws IllegalStateException if the index is not loaded.
+     */
+    public BreweryGeoIndex.Result near(double lat, double lon, double radiusKm, int limit) {
+        if (!isReady()) {
+            throw new IllegalStateException("The brewery geo index is " + (enabled ? "loading" : "disabled"));
+        }
+        return index.near(lat, lon, radiusKm, limit);
+    }
+
+    @Override
+    public void documentStored(String id, JsonObject content, JsonObject previous) {
+        markWritten(id);
+        index.putBeer(id, breweryOfBeer(content));
+        if (content != null && "brewery".equals(content.getString("type"))) {
+            putBrewery(id, content);
+        } else {
+            index.remove(id);
+        }
+    }
+
+    @Override
+    public void documentRemoved(String id, JsonObject previous) {
+        markWritten(id);
+        index.removeBeer(id);
+        index.remove(id);
+    }
+
+    private void markWritten(String id) {
+        Set<String> written = writtenDuringLoad;
+        if (written != null) {
+            written.add(id);
+        }
+    }
+
+    /**
+     * Index the location of a brewery, which may be missing or invalid in documents not written through the
+     * application: such a brewery is left out.
+     */
+    private void putBrewery(String id, JsonObject content) {
+        JsonObject geo = content.getObject("geo");
+        Double lat = geo == null ? null : degrees(geo.get("lat"));
+        Double lon = geo == null ? null : degrees(geo.get("lon"));
+        try {
+            index.put(id, content.getString("name"), lat, lon);
+        } catch (IllegalArgumentException e) {
+            LOGGER.debug("Brewery " + id + " left out of the geo index", e);
+            index.remove(id);
+        }
+    }
+
+    private static Double degrees(Object value) {
+        return value instanceof Number ? ((Number) value).doubleValue() : null;
+    }
+
+    private static String breweryOfBeer(JsonObject content) {
+        return content != null && "beer".equals(content.getString("type")) ? content.getString("brewery_id") : null;
+    }
+
+    /**
+     * @return the size and counters of the geo index, as a JSON object.
+     */
+    public JsonObject stats() {
+        if (!enabled) {
+            return JsonObject.create().put("enabled", false);
+        }
+        return index.stats()
+                .put("enabled", true)
+                .put("loadMillis", loadMillis);
+    }
+}
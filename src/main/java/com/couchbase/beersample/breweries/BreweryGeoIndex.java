@@ -0,0 +1,555 @@
+/**
+ * Copyright (C) 2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.beersample.breweries;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.couchbase.client.java.document.json.JsonObject;
+
+/**
+ * An in-memory spatial index of the breweries, answering "breweries within X km of a point" without scanning (and
+ * fetching) every brewery of the bucket.
+ *
+ * The globe is cut into a grid of {@value #CELL_DEGREES} degree cells, each holding the ordinals of the breweries it
+ * contains, and the breweries themselves are kept in columns of primitive arrays (latitude, longitude and cosine of
+ * the latitude). A query only visits the cells overlapping the bounding box of its circle, computes the great-circle
+ * distance of the breweries they hold and keeps the nearest ones in a bounded heap. The bounding box accounts for the
+ * longitudes converging towards the poles, and for circles crossing the antimeridian.
+ *
+ * The index also knows the brewery of each beer and keeps the number of beers of each brewery, so that it can be
+ * joined to the results. Like the beer indexes, it doesn't know about Couchbase and is simply fed breweries and beers.
+ */
+public class BreweryGeoIndex {
+
+    /** the size of the cells of the grid, in degrees of latitude and longitude */
+    public static final int CELL_DEGREES = 1;
+    /** the mean radius of the Earth */
+    public static final double EARTH_RADIUS_KM = 6371.0088;
+
+    private static final int ROWS = 180 / CELL_DEGREES;
+    private static final int COLUMNS = 360 / CELL_DEGREES;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    //===== breweries, by ordinal =====
+    private final Map<String, Integer> ordinals = new HashMap<String, Integer>();
+    private String[] ids = new String[256];
+    private String[] names = new String[256];
+    private double[] lats = new double[256];
+    private double[] lons = new double[256];
+    private double[] cosLats = new double[256];
+    private int[] cellOf = new int[256];
+    private int[] freeOrdinals = new int[16];
+    private int freeCount = 0;
+    private int nextOrdinal = 0;
+
+    //===== the grid, ordinals by cell =====
+    private final int[][] cells = new int[ROWS * COLUMNS][];
+    private final int[] cellSizes = new int[ROWS * COLUMNS];
+    private int usedCells = 0;
+
+    /** beer id to brewery id, and brewery id to number of beers (including breweries without a location) */
+    private final Map<String, String> breweryIds = new HashMap<String, String>();
+    private final Map<String, Integer> beerCounts = new HashMap<String, Integer>();
+
+    private volatile boolean ready = false;
+
+    private final AtomicLong queries = new AtomicLong();
+    private final AtomicLong queryNanos = new AtomicLong();
+    private final AtomicLong candidates = new AtomicLong();
+
+    /**
+     * Index (or re-index) the location of a brewery.
+     *
+     * @param id the brewery's key.
+     * @param name the brewery's name.
+     * @param lat the latitude in degrees, null if unknown.
+     * @param lon the longitude in degrees, null if unknown.
+     * @throws IllegalArgumentException if the latitude or the longitude is out of range.
+     */
+    public void put(String id, String name, Double lat, Double lon) {
+        if (lat == null || lon == null || lat.isNaN() || lon.isNaN()) {
+            //a brewery that can't be located can't be near anything
+            remove(id);
+            return;
+        }
+        if (lat < -90d || lat > 90d || lon < -180d || lon > 180d) {
+            throw new IllegalArgumentException("Invalid location of brewery " + id + ": " + lat + ", " + lon);
+        }
+        lock.writeLock().lock();
+        try {
+            Integer existing = ordinals.get(id);
+            int ordinal;
+            if (existing != null) {
+                ordinal = existing;
+                removeFromCell(ordinal);
+            } else {
+                ordinal = newOrdinal();
+                ordinals.put(id, ordinal);
+                ids[ordinal] = id;
+            }
+            names[ordinal] = name;
+            lats[ordinal] = lat;
+            lons[ordinal] = lon;
+            cosLats[ordinal] = Math.cos(Math.toRadians(lat));
+            cellOf[ordinal] = cell(lat, lon);
+            addToCell(ordinal);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Remove the location of a brewery from the index, if it was indexed. Its beers are still counted.
+     */
+    public void remove(String id) {
+        lock.writeLock().lock();
+        try {
+            Integer ordinal = ordinals.remove(id);
+            if (ordinal == null) {
+                return;
+            }
+            removeFromCell(ordinal);
+            ids[ordinal] = null;
+            names[ordinal] = null;
+            if (freeCount == freeOrdinals.length) {
+                freeOrdinals = Arrays.copyOf(freeOrdinals, 2 * freeCount);
+            }
+            freeOrdinals[freeCount++] = ordinal;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Count (or re-count) a beer for its brewery.
+     *
+     * @param beerId the beer's key.
+     * @param breweryId the id of the beer's brewery, null to simply stop counting the beer.
+     */
+    public void putBeer(String beerId, String breweryId) {
+        lock.writeLock().lock();
+        try {
+            String previous = breweryIds.remove(beerId);
+            if (previous != null) {
+                Integer count = beerCounts.get(previous);
+                if (count == 1) {
+                    beerCounts.remove(previous);
+                } else {
+                    beerCounts.put(previous, count - 1);
+                }
+            }
+            if (breweryId != null) {
+                breweryIds.put(beerId, breweryId);
+                Integer count = beerCounts.get(breweryId);
+                beerCounts.put(breweryId, count == null ? 1 : count + 1);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Stop counting a beer, if it was counted.
+     */
+    public void removeBeer(String beerId) {
+        putBeer(beerId, null);
+    }
+
+    /**
+     * Find the breweries within a radius of a point, nearest first (then by id).
+     *
+     * @param lat the latitude of the point in degrees, between -90 and 90.
+     * @param lon the longitude of the point in degrees, between -180 and 180.
+     * @param radiusKm the radius of the circle, in kilometers.
+     * @param limit the maximum number of breweries to return, all of them being counted in the total.
+     */
+    public Result near(double lat, double lon, double radiusKm, int limit) {
+        long start = System.nanoTime();
+        double angle = radiusKm / EARTH_RADIUS_KM;
+        double cosLat = Math.cos(Math.toRadians(lat));
+        double minLat = lat - Math.toDegrees(angle);
+        double maxLat = lat + Math.toDegrees(angle);
+        int firstColumn;
+        int lastColumn;
+        if (minLat <= -90d || maxLat >= 90d) {
+            //the circle holds a pole, so every longitude
+            firstColumn = 0;
+            lastColumn = COLUMNS - 1;
+        } else {
+            double deltaLon = Math.toDegrees(Math.asin(Math.sin(angle) / cosLat));
+            firstColumn = column(lon - deltaLon);
+            lastColumn = column(lon + deltaLon);
+            if (lastColumn - firstColumn + 1 >= COLUMNS) {
+                firstColumn = 0;
+                lastColumn = COLUMNS - 1;
+            }
+        }
+        int firstRow = row(Math.max(-90d, minLat));
+        int lastRow = row(Math.min(90d, maxLat));
+
+        Nearest nearest = new Nearest(limit);
+        long scanned = 0;
+        int total = 0;
+        List<Nearby> breweries;
+        lock.readLock().lock();
+        try {
+            for (int row = firstRow; row <= lastRow; row++) {
+                for (int column = firstColumn; column <= lastColumn; column++) {
+                    //columns past the antimeridian wrap around
+                    int cell = row * COLUMNS + (column + COLUMNS) % COLUMNS;
+                    int[] ordinalsInCell = cells[cell];
+                    int size = cellSizes[cell];
+                    scanned += size;
+                    for (int i = 0; i < size; i++) {
+                        int ordinal = ordinalsInCell[i];
+                        double distance = distanceKm(lat, lon, cosLat, ordinal);
+                        if (distance <= radiusKm) {
+                            total++;
+                            nearest.offer(ordinal, distance);
+                        }
+                    }
+                }
+            }
+            //pop the farthest first, filling the result from its end
+            Nearby[] found = new Nearby[nearest.size];
+            for (int i = found.length - 1; i >= 0; i--) {
+                double distance = nearest.distances[0];
+                int ordinal = nearest.poll();
+                Integer beers = beerCounts.get(ids[ordinal]);
+                found[i] = new Nearby(ids[ordinal], names[ordinal], lats[ordinal], lons[ordinal], distance,
+                        beers == null ? 0 : beers);
+            }
+            breweries = Arrays.asList(found);
+        } finally {
+            lock.readLock().unlock();
+        }
+        queries.incrementAndGet();
+        candidates.addAndGet(scanned);
+        queryNanos.addAndGet(System.nanoTime() - start);
+        return new Result(total, breweries);
+    }
+
+    /**
+     * @return the number of located breweries.
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return ordinals.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Remove every brewery and beer from the index and flag it as not ready.
+     */
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            ready = false;
+            ordinals.clear();
+            Arrays.fill(ids, null);
+            Arrays.fill(names, null);
+            Arrays.fill(cells, null);
+            Arrays.fill(cellSizes, 0);
+            usedCells = 0;
+            freeCount = 0;
+            nextOrdinal = 0;
+            breweryIds.clear();
+            beerCounts.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return true once the index has been fully loaded and can be trusted to answer queries.
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Flag the index as fully loaded.
+     */
+    public void markReady() {
+        this.ready = true;
+    }
+
+    /**
+     * @return the size of the index and the counters of the queries.
+     */
+    public JsonObject stats() {
+        int breweries;
+        int used;
+        int beers;
+        lock.readLock().lock();
+        try {
+            breweries = ordinals.size();
+            used = usedCells;
+            beers = breweryIds.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+        long queryCount = queries.get();
+        return JsonObject.create()
+                .put("breweries", breweries)
+                .put("cells", used)
+                .put("beers", beers)
+                .put("ready", ready)
+                .put("queries", queryCount)
+                .put("meanQueryMicros", queryCount == 0 ? 0d : queryNanos.get() / 1000d / queryCount)
+                .put("meanCandidates", queryCount == 0 ? 0d : (double) candidates.get() / queryCount);
+    }
+
+    /**
+     * @return the great-circle distance between a point and a brewery, with the haversine formula.
+     */
+    private double distanceKm(double lat, double lon, double cosLat, int ordinal) {
+        double sinHalfLat = Math.sin(Math.toRadians(lats[ordinal] - lat) / 2);
+        double sinHalfLon = Math.sin(Math.toRadians(lons[ordinal] - lon) / 2);
+        double h = sinHalfLat * sinHalfLat + cosLat * cosLats[ordinal] * sinHalfLon * sinHalfLon;
+        return 2 * EARTH_RADIUS_KM * Math.asin(Math.min(1d, Math.sqrt(h)));
+    }
+
+    private int newOrdinal() {
+        if (freeCount > 0) {
+            return freeOrdinals[--freeCount];
+        }
+        if (nextOrdinal == ids.length) {
+            int capacity = 2 * ids.length;
+            ids = Arrays.copyOf(ids, capacity);
+            names = Arrays.copyOf(names, capacity);
+            lats = Arrays.copyOf(lats, capacity);
+            lons = Arrays.copyOf(lons, capacity);
+            cosLats = Arrays.copyOf(cosLats, capacity);
+            cellOf = Arrays.copyOf(cellOf, capacity);
+        }
+        return nextOrdinal++;
+    }
+
+    private void addToCell(int ordinal) {
+        int cell = cellOf[ordinal];
+        int[] ordinalsInCell = cells[cell];
+        int size = cellSizes[cell];
+        if (ordinalsInCell == null) {
+            ordinalsInCell = new int[4];
+            cells[cell] = ordinalsInCell;
+            usedCells++;
+        } else if (size == ordinalsInCell.length) {
+            ordinalsInCell = Arrays.copyOf(ordinalsInCell, 2 * size);
+            cells[cell] = ordinalsInCell;
+        }
+        ordinalsInCell[size] = ordinal;
+        cellSizes[cell] = size + 1;
+    }
+
+    private void removeFromCell(int ordinal) {
+        int cell = cellOf[ordinal];
+        int[] ordinalsInCell = cells[cell];
+        int size = cellSizes[cell];
+        for (int i = 0; i < size; i++) {
+            if (ordinalsInCell[i] == ordinal) {
+                //the order within a cell doesn't matter, move the last one in the hole
+                ordinalsInCell[i] = ordinalsInCell[size - 1];
+                cellSizes[cell] = --size;
+                break;
+            }
+        }
+        if (size == 0) {
+            cells[cell] = null;
+            usedCells--;
+        }
+    }
+
+    private static int cell(double lat, double lon) {
+        return row(lat) * COLUMNS + (column(lon) + COLUMNS) % COLUMNS;
+    }
+
+    private static int row(double lat) {
+        //the north pole belongs to the last row
+        return Math.min(ROWS - 1, (int) Math.floor((lat + 90d) / CELL_DEGREES));
+    }
+
+    /**
+     * @return the column of a longitude, which may be out of the grid if the longitude is out of [-180, 180).
+     */
+    private static int column(double lon) {
+        return (int) Math.floor((lon + 180d) / CELL_DEGREES);
+    }
+
+    /**
+     * A bounded max-heap of the nearest breweries found so far, the farthest at its root.
+     */
+    private final class Nearest {
+        private final int[] ordinals;
+        private final double[] distances;
+        private int size = 0;
+
+        private Nearest(int limit) {
+            this.ordinals = new int[Math.max(0, limit)];
+            this.distances = new double[Math.max(0, limit)];
+        }
+
+        void offer(int ordinal, double distance) {
+            if (size < ordinals.length) {
+                int i = size++;
+                //sift up
+                while (i > 0) {
+                    int parent = (i - 1) / 2;
+                    if (!fartherThan(ordinal, distance, ordinals[parent], distances[parent])) {
+                        break;
+                    }
+                    ordinals[i] = ordinals[parent];
+                    distances[i] = distances[parent];
+                    i = parent;
+                }
+                ordinals[i] = ordinal;
+                distances[i] = distance;
+            } else if (size > 0 && fartherThan(ordinals[0], distances[0], ordinal, distance)) {
+                siftDown(ordinal, distance);
+            }
+        }
+
+        /**
+         * @return the ordinal of the farthest brewery, removed from the heap.
+         */
+        int poll() {
+            int farthest = ordinals[0];
+            size--;
+            if (size > 0) {
+                siftDown(ordinals[size], distances[size]);
+            }
+            return farthest;
+        }
+
+        /**
+         * Replace the root with the given brewery, moving it down to its place.
+         */
+        private void siftDown(int ordinal, double distance) {
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size
+                        && fartherThan(ordinals[child + 1], distances[child + 1], ordinals[child], distances[child])) {
+                    child++;
+                }
+                if (!fartherThan(ordinals[child], distances[child], ordinal, distance)) {
+                    break;
+                }
+                ordinals[i] = ordinals[child];
+                distances[i] = distances[child];
+                i = child;
+            }
+            ordinals[i] = ordinal;
+            distances[i] = distance;
+        }
+
+        private boolean fartherThan(int ordinal1, double distance1, int ordinal2, double distance2) {
+            if (distance1 != distance2) {
+                return distance1 > distance2;
+            }
+            return ids[ordinal1].compareTo(ids[ordinal2]) > 0;
+        }
+    }
+
+    /**
+     * The result of a query: the number of breweries within the radius and the nearest of them.
+     */
+    public static class Result {
+        private final int total;
+        private final List<Nearby> breweries;
+
+        Result(int total, List<Nearby> breweries) {
+            this.total = total;
+            this.breweries = Collections.unmodifiableList(breweries);
+        }
+
+        public int total() {
+            return total;
+        }
+
+        public List<Nearby> breweries() {
+            return breweries;
+        }
+    }
+
+    /**
+     * A brewery found by a query, with its distance to the point.
+     */
+    public static class Nearby {
+        private final String id;
+        private final String name;
+        private final double lat;
+        private final double lon;
+        private final double distanceKm;
+        private final int beers;
+
+        Nearby(String id, String name, double lat, double lon, double distanceKm, int beers) {
+            this.id = id;
+            this.name = name;
+            this.lat = lat;
+            this.lon = lon;
+            this.distanceKm = distanceKm;
+            this.beers = beers;
+        }
+
+        public String id() {
+            return id;
+        }
+
+        public String name() {
+            return name;
+        }
+
+        public double lat() {
+            return lat;
+        }
+
+        public double lon() {
+            return lon;
+        }
+
+        public double distanceKm() {
+            return distanceKm;
+        }
+
+        /**
+         * @return the number of beers of the brewery.
+         */
+        public int beers() {
+            return beers;
+        }
+    }
+}
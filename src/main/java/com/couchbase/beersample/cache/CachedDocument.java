@@ -0,0 +1,54 @@
+/**
+ * Copyright (C) 2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.beersample.cache;
+
+/**
+ * An immutable copy of a document as held by the {@link DocumentCache}: its id, its
+ * serialized JSON content and the CAS of the revision that was read.
+ */
+public class CachedDocument {
+
+    private final String id;
+    private final String content;
+    private final long cas;
+
+    public CachedDocument(String id, String content, long cas) {
+        this.id = id;
+        this.content = content;
+        this.cas = cas;
+    }
+
+    public String id() {
+        return id;
+    }
+
+    /**
+     * @return the serialized JSON content of the document.
+     */
+    public String content() {
+        return content;
+    }
+
+    public long cas() {
+        return cas;
+    }
+}
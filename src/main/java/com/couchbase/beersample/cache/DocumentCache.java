@@ -0,0 +1,321 @@
+/**
+ * Copyright (C) 2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.beersample.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.couchbase.client.java.document.json.JsonObject;
+
+/**
+ * A bounded read-through cache of documents, keyed by document id.
+ *
+ * Documents are kept in their serialized JSON form (along with their CAS) rather than as
+ * {@link JsonObject}, so that callers always get their own copy and can mutate it freely.
+ * The cache is bounded by an estimate of the bytes it holds rather than by a number of
+ * entries, and each entry expires after a configurable time to live.
+ *
+ * Eviction is LRU, guarded by a TinyLFU-style admission policy: when the cache is full, a
+ * new document only gets in if it has been requested at least as often as the LRU victim
+ * it would replace. This keeps a burst of one-off reads from flushing the popular documents.
+ *
+ * The cache is split in {@value #SEGMENTS} segments by hash of the id, each with its own
+ * lock, LRU order, frequency sketch and share of the size bound, so that reads of different
+ * documents rarely contend. Likewise, the tickets protecting reads from racing writes are
+ * striped by id: a write only keeps the reads of the documents of its stripe from being
+ * cached, rather than every read in flight.
+ */
+public class DocumentCache {
+
+    /** rough per-entry overhead (entry object, map node, key and String headers) */
+    private static final int ENTRY_OVERHEAD = 96;
+    /** the number of independently locked segments, a power of two */
+    private static final int SEGMENTS = 16;
+    /** the number of invalidation tickets, a power of two */
+    private static final int TICKET_STRIPES = 1024;
+
+    private final long maxBytes;
+    private final long ttlNanos;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+
+    /**
+     * incremented on each invalidation of an id of the stripe, so that reads racing with a
+     * write don't cache stale content
+     */
+    private final AtomicLongArray invalidations = new AtomicLongArray(TICKET_STRIPES);
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong expirations = new AtomicLong();
+    private final AtomicLong rejections = new AtomicLong();
+
+    /**
+     * @param maxBytes the maximum estimated size of the cached documents, 0 or less to disable the cache.
+     * @param ttl the time a document can stay in the cache.
+     * @param unit the unit of the ttl.
+     */
+    public DocumentCache(long maxBytes, long ttl, TimeUnit unit) {
+        this.maxBytes = maxBytes;
+        this.ttlNanos = unit.toNanos(ttl);
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(maxBytes / SEGMENTS);
+        }
+    }
+
+    public boolean isEnabled() {
+        return maxBytes > 0;
+    }
+
+    /**
+     * Take a ticket before reading a document from the database, to be given back to
+     * {@link #put(String, String, long, long)} once the document has been read.
+     */
+    public long ticket(String id) {
+        return invalidations.get(stripeOf(id));
+    }
+
+    /**
+     * @return the cached document, or null if it is not cached (or has expired).
+     */
+    public CachedDocument get(String id) {
+        if (!isEnabled()) {
+            return null;
+        }
+        Segment segment = segmentOf(id);
+        synchronized (segment) {
+            segment.sketch.increment(id);
+            Entry entry = segment.entries.get(id);
+            if (entry != null && entry.expiresAt - System.nanoTime() < 0) {
+                segment.remove(id);
+                expirations.incrementAndGet();
+                entry = null;
+            }
+            if (entry == null) {
+                misses.incrementAndGet();
+                return null;
+            }
+            hits.incrementAndGet();
+            return entry.document;
+        }
+    }
+
+    /**
+     * Cache a document that was just read from the database.
+     *
+     * @param ticket the ticket taken (for this id) before reading the document. If a document
+     *  of the same stripe has been invalidated since then, the content may already be stale
+     *  and is not cached.
+     */
+    public void put(String id, String content, long cas, long ticket) {
+        if (!isEnabled()) {
+            return;
+        }
+        Segment segment = segmentOf(id);
+        Entry entry = new Entry(new CachedDocument(id, content, cas), System.nanoTime() + ttlNanos);
+        if (entry.weight > segment.maxBytes) {
+            rejections.incrementAndGet();
+            return;
+        }
+        synchronized (segment) {
+            if (ticket != ticket(id)) {
+                return;
+            }
+            segment.remove(id);
+            if (!segment.makeRoomFor(id, entry.weight)) {
+                rejections.incrementAndGet();
+                return;
+            }
+            segment.entries.put(id, entry);
+            segment.bytes += entry.weight;
+        }
+    }
+
+    /**
+     * Invalidate the cached copy of a document that has been written, unless the cache
+     * already holds the revision identified by the given CAS.
+     *
+     * @param cas the CAS of the document after the write, 0 to invalidate unconditionally.
+     */
+    public void invalidate(String id, long cas) {
+        if (!isEnabled()) {
+            return;
+        }
+        invalidations.incrementAndGet(stripeOf(id));
+        Segment segment = segmentOf(id);
+        synchronized (segment) {
+            Entry entry = segment.entries.get(id);
+            if (entry != null && (cas == 0 || entry.document.cas() != cas)) {
+                segment.remove(id);
+            }
+        }
+    }
+
+    private static int spread(String id) {
+        int h = id.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private Segment segmentOf(String id) {
+        return segments[spread(id) & (SEGMENTS - 1)];
+    }
+
+    private static int stripeOf(String id) {
+        return spread(id) & (TICKET_STRIPES - 1);
+    }
+
+    /**
+     * @return the counters of this cache, as a JSON object.
+     */
+    public JsonObject stats() {
+        long entryCount = 0;
+        long byteCount = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                entryCount += segment.entries.size();
+                byteCount += segment.bytes;
+            }
+        }
+        return JsonObject.create()
+                .put("enabled", isEnabled())
+                .put("entries", entryCount)
+                .put("bytes", byteCount)
+                .put("maxBytes", maxBytes)
+                .put("segments", SEGMENTS)
+                .put("hits", hits.get())
+                .put("misses", misses.get())
+                .put("evictions", evictions.get())
+                .put("expirations", expirations.get())
+                .put("rejections", rejections.get());
+    }
+
+    /**
+     * A share of the cache, guarded by its own lock.
+     */
+    private final class Segment {
+        private final long maxBytes;
+        private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(32, 0.75f, true);
+        private final FrequencySketch sketch = new FrequencySketch();
+        private long bytes = 0;
+
+        private Segment(long maxBytes) {
+            this.maxBytes = maxBytes;
+        }
+
+        /**
+         * Evict LRU entries until the given weight fits, as long as the candidate is at least as
+         * popular as the victims.
+         *
+         * @return false if the candidate should not be admitted.
+         */
+        private boolean makeRoomFor(String candidateId, int weight) {
+            if (bytes + weight <= maxBytes) {
+                return true;
+            }
+            int candidateFrequency = sketch.frequency(candidateId);
+            Iterator<Map.Entry<String, Entry>> lru = entries.entrySet().iterator();
+            while (bytes + weight > maxBytes && lru.hasNext()) {
+                Map.Entry<String, Entry> victim = lru.next();
+                if (sketch.frequency(victim.getKey()) > candidateFrequency) {
+                    return false;
+                }
+                lru.remove();
+                bytes -= victim.getValue().weight;
+                evictions.incrementAndGet();
+            }
+            return true;
+        }
+
+        private void remove(String id) {
+            Entry removed = entries.remove(id);
+            if (removed != null) {
+                bytes -= removed.weight;
+            }
+        }
+    }
+
+    private static class Entry {
+        private final CachedDocument document;
+        private final long expiresAt;
+        private final int weight;
+
+        private Entry(CachedDocument document, long expiresAt) {
+            this.document = document;
+            this.expiresAt = expiresAt;
+            //Strings are UTF-16 in memory
+            this.weight = ENTRY_OVERHEAD + 2 * (document.id().length() + document.content().length());
+        }
+    }
+
+    /**
+     * A small count-min sketch of how often each id was requested, with 4-bit saturating
+     * counters that are halved periodically so that the popularity follows the traffic.
+     * Not thread safe, its segment guards it.
+     */
+    private static class FrequencySketch {
+
+        /** per segment, so that the whole cache has as many counters as a single sketch of 1 << 14 */
+        private static final int SIZE = (1 << 14) / SEGMENTS;
+        private static final int MAX = 15;
+        private static final int RESET_AFTER = 10 * SIZE;
+        private static final int[] SEEDS = { 0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F };
+
+        private final byte[] counters = new byte[SIZE];
+        private int additions = 0;
+
+        void increment(String id) {
+            int hash = id.hashCode();
+            for (int seed : SEEDS) {
+                int index = indexOf(hash, seed);
+                if (counters[index] < MAX) {
+                    counters[index]++;
+                }
+            }
+            if (++additions >= RESET_AFTER) {
+                for (int i = 0; i < SIZE; i++) {
+                    counters[i] >>= 1;
+                }
+                additions = 0;
+            }
+        }
+
+        int frequency(String id) {
+            int hash = id.hashCode();
+            int min = MAX;
+            for (int seed : SEEDS) {
+                min = Math.min(min, counters[indexOf(hash, seed)]);
+            }
+            return min;
+        }
+
+        private static int indexOf(int hash, int seed) {
+            int h = (hash ^ seed) * 0x45D9F3B;
+            h ^= h >>> 16;
+            return h & (SIZE - 1);
+        }
+    }
+}
@@ -0,0 +1,456 @@
+/**
+ * Copyright (C) 2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.beersample.cache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+import com.couchbase.client.java.document.json.JsonObject;
+import rx.functions.Func1;
+
+/**
+ * A bounded cache of whole HTTP responses, keyed by route and parameters, for the responses that are expensive to
+ * build and large to send.
+ *
+ * Each response is kept as bytes, both as is and gzip-compressed (unless compressing doesn't make it smaller), so
+ * that it can be sent again without being rendered or compressed, along with an entity tag of its content. The bytes
+ * can be kept off the heap, in direct buffers. The cache is bounded by the bytes it holds (LRU eviction), and each
+ * response expires after a configurable time to live.
+ *
+ * Each response is stored under a tag naming what it was built from (eg. a brewery), so that the writes can
+ * invalidate all the responses that depend on what they changed.
+ */
+public class ResponseCache {
+
+    /** rough per-entry overhead (entry objects, map nodes, headers) */
+    private static final int ENTRY_OVERHEAD = 256;
+
+    private final long maxBytes;
+    private final long maxEntryBytes;
+    private final long ttlNanos;
+    private final boolean offHeap;
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(64, 0.75f, true);
+    private final Map<String, Set<String>> keysByTag = new HashMap<String, Set<String>>();
+    private long bytes = 0;
+
+    /** incremented on each invalidation, so that responses racing with a write aren't cached stale */
+    private final AtomicLong invalidations = new AtomicLong();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong stores = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong expirations = new AtomicLong();
+    private final AtomicLong invalidated = new AtomicLong();
+    private final AtomicLong gzipSent = new AtomicLong();
+    private final AtomicLong identitySent = new AtomicLong();
+
+    /**
+     * @param maxBytes the maximum size of the cached responses, 0 or less to disable the cache. A single response
+     *  can take at most a quarter of it.
+     * @param ttl the time a response can stay in the cache.
+     * @param unit the unit of the ttl.
+     * @param offHeap true to keep the bytes of the responses in direct buffers, off the heap.
+     */
+    public ResponseCache(long maxBytes, long ttl, TimeUnit unit, boolean offHeap) {
+        this.maxBytes = maxBytes;
+        this.maxEntryBytes = maxBytes / 4;
+        this.ttlNanos = unit.toNanos(ttl);
+        this.offHeap = offHeap;
+    }
+
+    public boolean isEnabled() {
+        return maxBytes > 0;
+    }
+
+    /**
+     * @return the size of the largest response that can be cached, in bytes.
+     */
+    public long getMaxEntryBytes() {
+        return maxEntryBytes;
+    }
+
+    /**
+     * Take a ticket before building a response, to be given back to {@link #put} once it is built.
+     */
+    public long ticket() {
+        return invalidations.get();
+    }
+
+    /**
+     * @return the cached response, or null if it is not cached (or has expired).
+     */
+    public synchronized CachedResponse get(String key) {
+        if (!isEnabled()) {
+            return null;
+        }
+        Entry entry = entries.get(key);
+        if (entry != null && entry.expiresAt - System.nanoTime() < 0) {
+            removeEntry(key);
+            expirations.incrementAndGet();
+            entry = null;
+        }
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return entry.response;
+    }
+
+    /**
+     * Cache a response that was just sent. The response is compressed here, outside of any lock.
+     *
+     * @param tag what the response was built from, see {@link #invalidate(String)}.
+     * @param headers the headers to send along with the body, as (name, value) pairs.
+     * @param ticket the ticket taken before building the response. If anything has been invalidated since then,
+     *  the response may already be stale and is not cached.
+     */
+    public void put(String key, String tag, String contentType, List<String[]> headers, byte[] body, long ticket) {
+        if (!isEnabled() || body.length > maxEntryBytes) {
+            return;
+        }
+        byte[] gzipped = gzip(body);
+        CachedResponse response = new CachedResponse(contentType, headers, Bytes.of(body, offHeap),
+                gzipped.length < body.length ? Bytes.of(gzipped, offHeap) : null, etag(body));
+        Entry entry = new Entry(tag, response, System.nanoTime() + ttlNanos, key);
+        synchronized (this) {
+            if (ticket != invalidations.get()) {
+                return;
+            }
+            removeEntry(key);
+            while (bytes + entry.weight > maxBytes && !entries.isEmpty()) {
+                Iterator<Map.Entry<String, Entry>> lru = entries.entrySet().iterator();
+                Map.Entry<String, Entry> victim = lru.next();
+                lru.remove();
+                untag(victim.getKey(), victim.getValue());
+                bytes -= victim.getValue().weight;
+                evictions.incrementAndGet();
+            }
+            entries.put(key, entry);
+            Set<String> keys = keysByTag.get(tag);
+            if (keys == null) {
+                keys = new HashSet<String>();
+                keysByTag.put(tag, keys);
+            }
+            keys.add(key);
+            bytes += entry.weight;
+            stores.incrementAndGet();
+        }
+    }
+
+    /**
+     * Invalidate all the responses stored under a tag.
+     */
+    public void invalidate(String tag) {
+        if (!isEnabled()) {
+            return;
+        }
+        invalidations.incrementAndGet();
+        synchronized (this) {
+            invalidateUnderLock(tag);
+        }
+    }
+
+    /**
+     * Invalidate all the responses which tag matches a predicate.
+     */
+    public void invalidateIf(Func1<String, Boolean> tagPredicate) {
+        if (!isEnabled()) {
+            return;
+        }
+        invalidations.incrementAndGet();
+        synchronized (this) {
+            for (String tag : new ArrayList<String>(keysByTag.keySet())) {
+                if (tagPredicate.call(tag)) {
+                    invalidateUnderLock(tag);
+                }
+            }
+        }
+    }
+
+    private void invalidateUnderLock(String tag) {
+        Set<String> keys = keysByTag.remove(tag);
+        if (keys == null) {
+            return;
+        }
+        for (String key : keys) {
+            Entry removed = entries.remove(key);
+            if (removed != null) {
+                bytes -= removed.weight;
+                invalidated.incrementAndGet();
+            }
+        }
+    }
+
+    private void removeEntry(String key) {
+        Entry removed = entries.remove(key);
+        if (removed != null) {
+            untag(key, removed);
+            bytes -= removed.weight;
+        }
+    }
+
+    private void untag(String key, Entry entry) {
+        Set<String> keys = keysByTag.get(entry.tag);
+        if (keys != null) {
+            keys.remove(key);
+            if (keys.isEmpty()) {
+                keysByTag.remove(entry.tag);
+            }
+        }
+    }
+
+    /**
+     * Count a response sent from the cache, by encoding.
+     */
+    public void sent(boolean gzip) {
+        (gzip ? gzipSent : identitySent).incrementAndGet();
+    }
+
+    public long hits() {
+        return hits.get();
+    }
+
+    public long misses() {
+        return misses.get();
+    }
+
+    /**
+     * @return the size of the cached responses, in bytes.
+     */
+    public synchronized long bytes() {
+        return bytes;
+    }
+
+    /**
+     * @return the counters of this cache, as a JSON object.
+     */
+    public JsonObject stats() {
+        long entryCount;
+        long byteCount;
+        synchronized (this) {
+            entryCount = entries.size();
+            byteCount = bytes;
+        }
+        long hitCount = hits.get();
+        long lookups = hitCount + misses.get();
+        return JsonObject.create()
+                .put("enabled", isEnabled())
+                .put("offHeap", offHeap)
+                .put("entries", entryCount)
+                .put("bytes", byteCount)
+                .put("maxBytes", maxBytes)
+                .put("hits", hitCount)
+                .put("misses", misses.get())
+                .put("hitRatio", lookups == 0 ? 0d : (double) hitCount / lookups)
+                .put("stores", stores.get())
+                .put("evictions", evictions.get())
+                .put("expirations", expirations.get())
+                .put("invalidated", invalidated.get())
+                .put("gzipSent", gzipSent.get())
+                .put("identitySent", identitySent.get());
+    }
+
+    private static byte[] gzip(byte[] body) {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(body.length / 4 + 64);
+            GZIPOutputStream gzip = new GZIPOutputStream(out);
+            gzip.write(body);
+            gzip.close();
+            return out.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to compress in memory", e);
+        }
+    }
+
+    /**
+     * @return a strong entity tag of the content, from its 64-bit FNV-1a hash and its length.
+     */
+    private static String etag(byte[] body) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : body) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return "\"" + Long.toHexString(hash) + "-" + Integer.toHexString(body.length) + "\"";
+    }
+
+    private static class Entry {
+        private final String tag;
+        private final CachedResponse response;
+        private final long expiresAt;
+        private final long weight;
+
+        private Entry(String tag, CachedResponse response, long expiresAt, String key) {
+            this.tag = tag;
+            this.response = response;
+            this.expiresAt = expiresAt;
+            long headerChars = 0;
+            for (String[] header : response.headers) {
+                headerChars += header[0].length() + header[1].length();
+            }
+            //Strings are UTF-16 in memory, off-heap bytes count against the budget too
+            this.weight = ENTRY_OVERHEAD + 2 * (key.length() + tag.length() + headerChars)
+                    + response.identity.length() + (response.gzip == null ? 0 : response.gzip.length());
+        }
+    }
+
+    /**
+     * A cached response: its content type, headers and body in each encoding.
+     */
+    public static class CachedResponse {
+        private final String contentType;
+        private final List<String[]> headers;
+        private final Bytes identity;
+        private final Bytes gzip;
+        private final String etag;
+
+        CachedResponse(String contentType, List<String[]> headers, Bytes identity, Bytes gzip, String etag) {
+            this.contentType = contentType;
+            this.headers = Collections.unmodifiableList(new ArrayList<String[]>(headers));
+            this.identity = identity;
+            this.gzip = gzip;
+            this.etag = etag;
+        }
+
+        public String contentType() {
+            return contentType;
+        }
+
+        /**
+         * @return the headers to send with the body, as (name, value) pairs.
+         */
+        public List<String[]> headers() {
+            return headers;
+        }
+
+        /**
+         * @return true if a gzip-compressed body is available.
+         */
+        public boolean hasGzip() {
+            return gzip != null;
+        }
+
+        /**
+         * @return the length of the body in the given encoding.
+         */
+        public int length(boolean gzipped) {
+            return (gzipped ? gzip : identity).length();
+        }
+
+        /**
+         * Write the body in the given encoding.
+         */
+        public void writeTo(OutputStream out, boolean gzipped) throws IOException {
+            (gzipped ? gzip : identity).writeTo(out);
+        }
+
+        /**
+         * @return the entity tag of the body in the given encoding: the encodings are different representations,
+         *  so they have different tags.
+         */
+        public String etag(boolean gzipped) {
+            return gzipped ? etag.substring(0, etag.length() - 1) + "-gzip\"" : etag;
+        }
+    }
+
+    /**
+     * Bytes either on the heap or in a direct buffer.
+     */
+    private abstract static class Bytes {
+
+        static Bytes of(byte[] data, boolean offHeap) {
+            if (!offHeap) {
+                return new HeapBytes(data);
+            }
+            ByteBuffer buffer = ByteBuffer.allocateDirect(data.length);
+            buffer.put(data);
+            buffer.flip();
+            return new DirectBytes(buffer);
+        }
+
+        abstract int length();
+
+        abstract void writeTo(OutputStream out) throws IOException;
+    }
+
+    private static final class HeapBytes extends Bytes {
+        private final byte[] data;
+
+        private HeapBytes(byte[] data) {
+            this.data = data;
+        }
+
+        @Override
+        int length() {
+            return data.length;
+        }
+
+        @Override
+        void writeTo(OutputStream out) throws IOException {
+            out.write(data);
+        }
+    }
+
+    private static final class DirectBytes extends Bytes {
+        private static final int CHUNK_SIZE = 8192;
+
+        private final ByteBuffer buffer;
+
+        private DirectBytes(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        int length() {
+            return buffer.limit();
+        }
+
+        @Override
+        void writeTo(OutputStream out) throws IOException {
+            //each writer gets its own view of the buffer, so that concurrent reads don't share a position
+            ByteBuffer view = buffer.duplicate();
+            byte[] chunk = new byte[Math.min(CHUNK_SIZE, view.remaining())];
+            while (view.hasRemaining()) {
+                int length = Math.min(chunk.length, view.remaining());
+                view.get(chunk, 0, length);
+                out.write(chunk, 0, length);
+            }
+        }
+    }
+}
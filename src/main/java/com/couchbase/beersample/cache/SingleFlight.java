@@ -0,0 +1,121 @@
+/**
+ * Copyright (C) 2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.beersample.cache;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.couchbase.client.java.document.json.JsonObject;
+import rx.Observable;
+import rx.functions.Action0;
+import rx.functions.Func0;
+
+/**
+ * Coalesces concurrent identical asynchronous operations: while an operation is in flight for a key, callers asking
+ * for the same key subscribe to it instead of starting their own, and all get the same items (replayed if they
+ * came late) and the same termination, errors included. Once the operation terminates the key is released, so the
+ * next caller starts a new operation: nothing is cached beyond the operation's lifetime.
+ *
+ * The shared items are seen by every caller, so they must be treated as read-only.
+ *
+ * @param <T> the type of items emitted by the operations.
+ */
+public class SingleFlight<T> {
+
+    private final boolean enabled;
+    private final ConcurrentMap<String, Observable<T>> flights = new ConcurrentHashMap<String, Observable<T>>();
+
+    private final AtomicLong executions = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    /**
+     * @param enabled false to run every operation on its own (only the executions are counted).
+     */
+    public SingleFlight(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * @param key identifies the operation: two calls with the same key must produce the same result.
+     * @param operation creates the operation, only called if no operation is in flight for the key.
+     * @return a stream of the operation's items. The operation starts (or is joined) on subscription.
+     */
+    public Observable<T> execute(final String key, final Func0<Observable<T>> operation) {
+        return Observable.defer(new Func0<Observable<T>>() {
+            @Override
+            public Observable<T> call() {
+                if (!enabled) {
+                    executions.incrementAndGet();
+                    return operation.call();
+                }
+                Observable<T> flight = flights.get(key);
+                if (flight != null) {
+                    coalesced.incrementAndGet();
+                    return flight;
+                }
+                final AtomicReference<Observable<T>> self = new AtomicReference<Observable<T>>();
+                Observable<T> created = Observable.defer(operation)
+                        //release the key before the callers see the termination, so that they never join a
+                        //finished flight after that
+                        .doOnTerminate(new Action0() {
+                            @Override
+                            public void call() {
+                                flights.remove(key, self.get());
+                            }
+                        })
+                        .cache();
+                self.set(created);
+                flight = flights.putIfAbsent(key, created);
+                if (flight != null) {
+                    coalesced.incrementAndGet();
+                    return flight;
+                }
+                executions.incrementAndGet();
+                return created;
+            }
+        });
+    }
+
+    /**
+     * Release the key of the operation in flight for it, if any, so that the next caller starts a new one
+     * (callers that already joined it still get its result). Typically used when the operation's result is
+     * known to be outdated, such as after a write.
+     */
+    public void forget(String key) {
+        if (enabled) {
+            flights.remove(key);
+        }
+    }
+
+    /**
+     * @return the counters of this single flight, as a JSON object.
+     */
+    public JsonObject stats() {
+        return JsonObject.create()
+                .put("enabled", enabled)
+                .put("inFlight", flights.size())
+                .put("executions", executions.get())
+                .put("coalesced", coalesced.get());
+    }
+}
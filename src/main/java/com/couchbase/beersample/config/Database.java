@@ -24,9 +24,14 @@ package com.couchbase.beersample.config;
 import java.util.ArrayList;
 import java.util.List;
 
-import com.couchbase.client.java.Bucket;
 import com.couchbase.client.java.Cluster;
 import com.couchbase.client.java.CouchbaseCluster;
+import com.couchbase.client.java.document.json.JsonObject;
+import com.couchbase.client.java.env.CouchbaseEnvironment;
+import com.couchbase.client.java.env.DefaultCouchbaseEnvironment;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -38,7 +43,11 @@ import org.springframework.context.annotation.Configuration;
  * @since 1.0
  */
 @Configuration
-public class Database {
+public class Database implements DisposableBean {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Database.class);
+
+    private CouchbaseEnvironment environment;
 
     @Value("${couchbase.nodes}")
     private List<String> nodes = new ArrayList<String>();
@@ -49,6 +58,358 @@ public class Database {
     @Value("${couchbase.password}")
     private String password;
 
+    @Value("${couchbase.requestTimeoutMillis:5000}")
+    private long requestTimeoutMillis;
+
+    @Value("${couchbase.mget.maxIds:500}")
+    private int mgetMaxIds;
+
+    @Value("${couchbase.mget.concurrency:32}")
+    private int mgetConcurrency;
+
+    @Value("${couchbase.cache.maxBytes:33554432}")
+    private long cacheMaxBytes;
+
+    @Value("${couchbase.cache.ttlSeconds:60}")
+    private long cacheTtlSeconds;
+
+    @Value("${couchbase.bulk.window:64}")
+    private int bulkWindow;
+
+    @Value("${couchbase.bulk.maxRetries:5}")
+    private int bulkMaxRetries;
+
+    @Value("${couchbase.bulk.retryDelayMillis:10}")
+    private long bulkRetryDelayMillis;
+
+    @Value("${couchbase.bulk.exportPageSize:500}")
+    private int bulkExportPageSize;
+
+    @Value("${couchbase.bulk.importFile:}")
+    private String bulkImportFile;
+
+    @Value("${couchbase.brewery.fanOutConcurrency:16}")
+    private int breweryFanOutConcurrency;
+
+    @Value("${couchbase.brewery.summaryView:brewery_beers_summary}")
+    private String brewerySummaryView;
+
+    @Value("${couchbase.aggregates.enabled:false}")
+    private boolean aggregatesEnabled;
+
+    @Value("${couchbase.aggregates.maxAttempts:5}")
+    private int aggregatesMaxAttempts;
+
+    @Value("${couchbase.aggregates.rebuildConcurrency:4}")
+    private int aggregatesRebuildConcurrency;
+
+    @Value("${couchbase.coalescing.enabled:true}")
+    private boolean coalescingEnabled;
+
+    @Value("${couchbase.beerSnapshot.enabled:true}")
+    private boolean beerSnapshotEnabled;
+
+    @Value("${couchbase.beerSnapshot.refreshSeconds:300}")
+    private long beerSnapshotRefreshSeconds;
+
+    @Value("${couchbase.writeBehind.enabled:false}")
+    private boolean writeBehindEnabled;
+
+    @Value("${couchbase.writeBehind.batchSize:100}")
+    private int writeBehindBatchSize;
+
+    @Value("${couchbase.writeBehind.flushIntervalMillis:50}")
+    private long writeBehindFlushIntervalMillis;
+
+    @Value("${couchbase.writeBehind.maxPending:10000}")
+    private int writeBehindMaxPending;
+
+    @Value("${couchbase.env.kvEndpoints:0}")
+    private int envKvEndpoints;
+
+    @Value("${couchbase.env.viewEndpoints:0}")
+    private int envViewEndpoints;
+
+    @Value("${couchbase.env.queryEndpoints:0}")
+    private int envQueryEndpoints;
+
+    @Value("${couchbase.env.ioPoolSize:0}")
+    private int envIoPoolSize;
+
+    @Value("${couchbase.env.computationPoolSize:0}")
+    private int envComputationPoolSize;
+
+    @Value("${couchbase.env.requestBufferSize:0}")
+    private int envRequestBufferSize;
+
+    @Value("${couchbase.env.responseBufferSize:0}")
+    private int envResponseBufferSize;
+
+    @Value("${couchbase.env.kvTimeoutMillis:0}")
+    private long envKvTimeoutMillis;
+
+    @Value("${couchbase.env.viewTimeoutMillis:0}")
+    private long envViewTimeoutMillis;
+
+    @Value("${couchbase.env.queryTimeoutMillis:0}")
+    private long envQueryTimeoutMillis;
+
+    @Value("${couchbase.env.connectTimeoutMillis:0}")
+    private long envConnectTimeoutMillis;
+
+    @Value("${couchbase.env.disconnectTimeoutMillis:0}")
+    private long envDisconnectTimeoutMillis;
+
+    @Value("${couchbase.startup.warmUpIds:}")
+    private String startupWarmUpIds;
+
+    @Value("${couchbase.startup.readyAfterWarmUp:true}")
+    private boolean startupReadyAfterWarmUp;
+
+    @Value("${couchbase.env.managementTimeoutMillis:0}")
+    private long envManagementTimeoutMillis;
+
+    @Value("${couchbase.timeouts.enabled:true}")
+    private boolean adaptiveTimeoutsEnabled;
+
+    @Value("${couchbase.timeouts.quantile:0.99}")
+    private double timeoutQuantile;
+
+    @Value("${couchbase.timeouts.factor:3}")
+    private double timeoutFactor;
+
+    @Value("${couchbase.timeouts.minMillis:100}")
+    private long timeoutMinMillis;
+
+    @Value("${couchbase.hedge.enabled:true}")
+    private boolean hedgeEnabled;
+
+    @Value("${couchbase.hedge.quantile:0.95}")
+    private double hedgeQuantile;
+
+    @Value("${couchbase.hedge.minDelayMillis:2}")
+    private long hedgeMinDelayMillis;
+
+    @Value("${couchbase.breaker.enabled:true}")
+    private boolean breakerEnabled;
+
+    @Value("${couchbase.breaker.errorRate:0.5}")
+    private double breakerErrorRate;
+
+    @Value("${couchbase.breaker.minRequests:20}")
+    private int breakerMinRequests;
+
+    @Value("${couchbase.breaker.windowSeconds:10}")
+    private int breakerWindowSeconds;
+
+    @Value("${couchbase.breaker.openSeconds:5}")
+    private int breakerOpenSeconds;
+
+    @Value("${couchbase.search.enabled:true}")
+    private boolean searchEnabled;
+
+    @Value("${couchbase.search.maxLimit:100}")
+    private int searchMaxLimit;
+
+    @Value("${couchbase.scan.partitions:4}")
+    private int scanPartitions;
+
+    @Value("${couchbase.scan.pageSize:1000}")
+    private int scanPageSize;
+
+    @Value("${couchbase.scan.maxRetries:3}")
+    private int scanMaxRetries;
+
+    @Value("${couchbase.scan.retryDelayMillis:50}")
+    private long scanRetryDelayMillis;
+
+    @Value("${couchbase.suggest.enabled:true}")
+    private boolean suggestEnabled;
+
+    @Value("${couchbase.suggest.topK:10}")
+    private int suggestTopK;
+
+    @Value("${couchbase.geo.enabled:true}")
+    private boolean geoEnabled;
+
+    @Value("${couchbase.geo.maxRadiusKm:500}")
+    private int geoMaxRadiusKm;
+
+    @Value("${couchbase.geo.maxLimit:100}")
+    private int geoMaxLimit;
+
+    @Value("${couchbase.admission.enabled:true}")
+    private boolean admissionEnabled;
+
+    @Value("${couchbase.admission.initialLimit:20}")
+    private int admissionInitialLimit;
+
+    @Value("${couchbase.admission.minLimit:2}")
+    private int admissionMinLimit;
+
+    @Value("${couchbase.admission.maxLimit:200}")
+    private int admissionMaxLimit;
+
+    @Value("${couchbase.admission.retryAfterSeconds:1}")
+    private int admissionRetryAfterSeconds;
+
+    @Value("${couchbase.responseCache.maxBytes:33554432}")
+    private long responseCacheMaxBytes;
+
+    @Value("${couchbase.responseCache.ttlSeconds:60}")
+    private long responseCacheTtlSeconds;
+
+    @Value("${couchbase.responseCache.offHeap:false}")
+    private boolean responseCacheOffHeap;
+
+    /**
+     * The SDK environment (I/O and computation pools, connections, buffers and timeouts), built from the
+     * "couchbase.env" settings once they are validated. It is heavy, so there must be a single one per
+     * application: every bucket is to be opened from {@link #couchbaseCluster(CouchbaseEnvironment)}.
+     *
+     * @throws IllegalStateException if some settings are invalid, to prevent the application from starting.
+     */
+    @Bean(destroyMethod = "")
+    public CouchbaseEnvironment couchbaseEnvironment() {
+        validate();
+        environment = buildEnvironment();
+        LOGGER.info("Couchbase environment: " + describe(environment));
+        //only the timeouts explicitly set: 0 keeps the SDK defaults, which the application bounds on its own
+        if (envKvTimeoutMillis > requestTimeoutMillis || envViewTimeoutMillis > requestTimeoutMillis) {
+            LOGGER.warn("couchbase.requestTimeoutMillis (" + requestTimeoutMillis + ") is lower than the configured"
+                    + " couchbase.env.kvTimeoutMillis or viewTimeoutMillis, requests may give up before the database"
+                    + " does");
+        }
+        return environment;
+    }
+
+    /**
+     * The cluster on which the buckets are opened, sharing the {@link #couchbaseEnvironment() environment}.
+     */
+    @Bean(destroyMethod = "disconnect")
+    public Cluster couchbaseCluster(CouchbaseEnvironment environment) {
+        return CouchbaseCluster.create(environment, nodes);
+    }
+
+    /**
+     * Shut the environment down, once the cluster (which depends on it) is disconnected.
+     */
+    @Override
+    public void destroy() {
+        if (environment != null) {
+            environment.shutdown().toBlocking().single();
+        }
+    }
+
+    /**
+     * Build an environment with the "couchbase.env" settings, the SDK defaults being used for those left to 0.
+     */
+    public DefaultCouchbaseEnvironment buildEnvironment() {
+        DefaultCouchbaseEnvironment.Builder builder = DefaultCouchbaseEnvironment.builder();
+        if (envKvEndpoints > 0) {
+            builder.kvEndpoints(envKvEndpoints);
+        }
+        if (envViewEndpoints > 0) {
+            builder.viewEndpoints(envViewEndpoints);
+        }
+        if (envQueryEndpoints > 0) {
+            builder.queryEndpoints(envQueryEndpoints);
+        }
+        if (envIoPoolSize > 0) {
+            builder.ioPoolSize(envIoPoolSize);
+        }
+        if (envComputationPoolSize > 0) {
+            builder.computationPoolSize(envComputationPoolSize);
+        }
+        if (envRequestBufferSize > 0) {
+            builder.requestBufferSize(envRequestBufferSize);
+        }
+        if (envResponseBufferSize > 0) {
+            builder.responseBufferSize(envResponseBufferSize);
+        }
+        if (envKvTimeoutMillis > 0) {
+            builder.kvTimeout(envKvTimeoutMillis);
+        }
+        if (envViewTimeoutMillis > 0) {
+            builder.viewTimeout(envViewTimeoutMillis);
+        }
+        if (envQueryTimeoutMillis > 0) {
+            builder.queryTimeout(envQueryTimeoutMillis);
+        }
+        if (envConnectTimeoutMillis > 0) {
+            builder.connectTimeout(envConnectTimeoutMillis);
+        }
+        if (envDisconnectTimeoutMillis > 0) {
+            builder.disconnectTimeout(envDisconnectTimeoutMillis);
+        }
+        if (envManagementTimeoutMillis > 0) {
+            builder.managementTimeout(envManagementTimeoutMillis);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Check the connection and environment settings, reporting all the invalid ones at once.
+     *
+     * @throws IllegalStateException if some settings are invalid.
+     */
+    public void validate() {
+        List<String> errors = new ArrayList<String>();
+        if (nodes == null || nodes.isEmpty()) {
+            errors.add("couchbase.nodes must list at least one node");
+        }
+        if (bucket == null || bucket.isEmpty()) {
+            errors.add("couchbase.bucket must be set");
+        }
+        checkNotNegative(errors, "kvEndpoints", envKvEndpoints);
+        checkNotNegative(errors, "viewEndpoints", envViewEndpoints);
+        checkNotNegative(errors, "queryEndpoints", envQueryEndpoints);
+        checkNotNegative(errors, "ioPoolSize", envIoPoolSize);
+        checkNotNegative(errors, "computationPoolSize", envComputationPoolSize);
+        checkNotNegative(errors, "kvTimeoutMillis", envKvTimeoutMillis);
+        checkNotNegative(errors, "viewTimeoutMillis", envViewTimeoutMillis);
+        checkNotNegative(errors, "queryTimeoutMillis", envQueryTimeoutMillis);
+        checkNotNegative(errors, "connectTimeoutMillis", envConnectTimeoutMillis);
+        checkNotNegative(errors, "disconnectTimeoutMillis", envDisconnectTimeoutMillis);
+        checkNotNegative(errors, "managementTimeoutMillis", envManagementTimeoutMillis);
+        //the buffers are ring buffers, which size must be a power of two
+        if (envRequestBufferSize < 0 || Integer.bitCount(envRequestBufferSize) > 1) {
+            errors.add("couchbase.env.requestBufferSize must be 0 or a power of two, not " + envRequestBufferSize);
+        }
+        if (envResponseBufferSize < 0 || Integer.bitCount(envResponseBufferSize) > 1) {
+            errors.add("couchbase.env.responseBufferSize must be 0 or a power of two, not " + envResponseBufferSize);
+        }
+        if (!errors.isEmpty()) {
+            throw new IllegalStateException("Invalid Couchbase settings: " + errors);
+        }
+    }
+
+    private static void checkNotNegative(List<String> errors, String name, long value) {
+        if (value < 0) {
+            errors.add("couchbase.env." + name + " can't be negative, not " + value);
+        }
+    }
+
+    /**
+     * @return the effective settings of an environment, as a JSON object.
+     */
+    public static JsonObject describe(CouchbaseEnvironment environment) {
+        return JsonObject.create()
+                .put("kvEndpoints", environment.kvEndpoints())
+                .put("viewEndpoints", environment.viewEndpoints())
+                .put("queryEndpoints", environment.queryEndpoints())
+                .put("ioPoolSize", environment.ioPoolSize())
+                .put("computationPoolSize", environment.computationPoolSize())
+                .put("requestBufferSize", environment.requestBufferSize())
+                .put("responseBufferSize", environment.responseBufferSize())
+                .put("kvTimeoutMillis", environment.kvTimeout())
+                .put("viewTimeoutMillis", environment.viewTimeout())
+                .put("queryTimeoutMillis", environment.queryTimeout())
+                .put("connectTimeoutMillis", environment.connectTimeout())
+                .put("disconnectTimeoutMillis", environment.disconnectTimeout())
+                .put("managementTimeoutMillis", environment.managementTimeout());
+    }
+
     public List<String> getNodes() {
         return nodes;
     }
@@ -60,4 +421,485 @@ public class Database {
     public String getPassword() {
         return password;
     }
+
+    /**
+     * @return how long, in milliseconds, a REST request waits for the database before giving up.
+     */
+    public long getRequestTimeoutMillis() {
+        return requestTimeoutMillis;
+    }
+
+    /**
+     * @return the maximum number of ids that can be read in one "_mget" request.
+     */
+    public int getMgetMaxIds() {
+        return mgetMaxIds;
+    }
+
+    /**
+     * @return the maximum number of gets in flight at once for one "_mget" request.
+     */
+    public int getMgetConcurrency() {
+        return mgetConcurrency;
+    }
+
+    /**
+     * @return the maximum estimated size, in bytes, of the documents kept in the read cache (0 to disable it).
+     */
+    public long getCacheMaxBytes() {
+        return cacheMaxBytes;
+    }
+
+    /**
+     * @return how long, in seconds, a document can be served from the read cache.
+     */
+    public long getCacheTtlSeconds() {
+        return cacheTtlSeconds;
+    }
+
+    /**
+     * @return the maximum number of writes (or reads) in flight at once during a bulk import (or export).
+     */
+    public int getBulkWindow() {
+        return bulkWindow;
+    }
+
+    /**
+     * @return the maximum number of times a bulk write is retried after a temporary failure.
+     */
+    public int getBulkMaxRetries() {
+        return bulkMaxRetries;
+    }
+
+    /**
+     * @return the delay before the first retry of a bulk write, in milliseconds, doubled on each retry.
+     */
+    public long getBulkRetryDelayMillis() {
+        return bulkRetryDelayMillis;
+    }
+
+    /**
+     * @return the number of beers fetched and written at once during a bulk export.
+     */
+    public int getBulkExportPageSize() {
+        return bulkExportPageSize;
+    }
+
+    /**
+     * @return the path of a NDJSON file of beers to import at startup, empty for none.
+     */
+    public String getBulkImportFile() {
+        return bulkImportFile;
+    }
+
+    /**
+     * @return the maximum number of beers fetched in parallel when building a brewery with its beers.
+     */
+    public int getBreweryFanOutConcurrency() {
+        return breweryFanOutConcurrency;
+    }
+
+    /**
+     * @return the name of the view (in the "beer" design document) emitting beer summaries per brewery.
+     */
+    public String getBrewerySummaryView() {
+        return brewerySummaryView;
+    }
+
+    /**
+     * @return true to keep a materialized document aggregating each brewery with its beers
+     */
+    public boolean isAggregatesEnabled() {
+        return aggregatesEnabled;
+    }
+
+    /**
+     * @return the number of times an incremental update of an aggregate is attempted when it races with another write
+     */
+    public int getAggregatesMaxAttempts() {
+        return aggregatesMaxAttempts;
+    }
+
+    /**
+     * @return the number of aggregates rebuilt in parallel by a full rebuild
+     */
+    public int getAggregatesRebuildConcurrency() {
+        return aggregatesRebuildConcurrency;
+    }
+
+    /**
+     * @return true if concurrent identical reads, view queries and searches share a single database operation.
+     */
+    public boolean isCoalescingEnabled() {
+        return coalescingEnabled;
+    }
+
+    /**
+     * @return true if the beer listing is served from an in-memory snapshot of the "by_name" view.
+     */
+    public boolean isBeerSnapshotEnabled() {
+        return beerSnapshotEnabled;
+    }
+
+    /**
+     * @return the delay between two reloads of the beer snapshot from the view, 0 or less to never reload it.
+     */
+    public long getBeerSnapshotRefreshSeconds() {
+        return beerSnapshotRefreshSeconds;
+    }
+
+    /**
+     * @return true if beer writes are queued and flushed in batches rather than written right away.
+     */
+    public boolean isWriteBehindEnabled() {
+        return writeBehindEnabled;
+    }
+
+    /**
+     * @return the number of queued writes that triggers a flush, and the maximum size of a flush.
+     */
+    public int getWriteBehindBatchSize() {
+        return writeBehindBatchSize;
+    }
+
+    /**
+     * @return the maximum time a write stays queued before being flushed, unless the previous flush is still running.
+     */
+    public long getWriteBehindFlushIntervalMillis() {
+        return writeBehindFlushIntervalMillis;
+    }
+
+    /**
+     * @return the maximum number of queued writes, beyond which writes are rejected.
+     */
+    public int getWriteBehindMaxPending() {
+        return writeBehindMaxPending;
+    }
+
+    /**
+     * @return the number of key/value connections opened to each node, 0 for the SDK default (1).
+     */
+    public int getEnvKvEndpoints() {
+        return envKvEndpoints;
+    }
+
+    /**
+     * @return the number of view connections opened to each node, 0 for the SDK default (1).
+     */
+    public int getEnvViewEndpoints() {
+        return envViewEndpoints;
+    }
+
+    /**
+     * @return the number of N1QL connections opened to each node, 0 for the SDK default (1).
+     */
+    public int getEnvQueryEndpoints() {
+        return envQueryEndpoints;
+    }
+
+    /**
+     * @return the number of I/O threads, 0 for the SDK default (the number of cores).
+     */
+    public int getEnvIoPoolSize() {
+        return envIoPoolSize;
+    }
+
+    /**
+     * @return the number of threads running the callbacks of the streams, 0 for the SDK default (the number of cores).
+     */
+    public int getEnvComputationPoolSize() {
+        return envComputationPoolSize;
+    }
+
+    /**
+     * @return the size of the ring buffer of requests waiting to be sent (a power of two), 0 for the SDK default
+     * (16384).
+     */
+    public int getEnvRequestBufferSize() {
+        return envRequestBufferSize;
+    }
+
+    /**
+     * @return the size of the ring buffer of responses waiting to be processed (a power of two), 0 for the SDK
+     * default (16384).
+     */
+    public int getEnvResponseBufferSize() {
+        return envResponseBufferSize;
+    }
+
+    /**
+     * @return the timeout of key/value operations in milliseconds, 0 for the SDK default (2500).
+     */
+    public long getEnvKvTimeoutMillis() {
+        return envKvTimeoutMillis;
+    }
+
+    /**
+     * @return the timeout of view queries in milliseconds, 0 for the SDK default (75000).
+     */
+    public long getEnvViewTimeoutMillis() {
+        return envViewTimeoutMillis;
+    }
+
+    /**
+     * @return the timeout of N1QL queries in milliseconds, 0 for the SDK default (75000).
+     */
+    public long getEnvQueryTimeoutMillis() {
+        return envQueryTimeoutMillis;
+    }
+
+    /**
+     * @return the timeout of opening a bucket in milliseconds, 0 for the SDK default (5000).
+     */
+    public long getEnvConnectTimeoutMillis() {
+        return envConnectTimeoutMillis;
+    }
+
+    /**
+     * @return the timeout of disconnecting from the cluster in milliseconds, 0 for the SDK default (25000).
+     */
+    public long getEnvDisconnectTimeoutMillis() {
+        return envDisconnectTimeoutMillis;
+    }
+
+    /**
+     * @return the timeout of management operations in milliseconds, 0 for the SDK default (75000).
+     */
+    public long getEnvManagementTimeoutMillis() {
+        return envManagementTimeoutMillis;
+    }
+
+    /**
+     * @return the comma-separated ids of the documents to read into the document cache once the bucket is open.
+     */
+    public String getStartupWarmUpIds() {
+        return startupWarmUpIds;
+    }
+
+    /**
+     * @return true if the application is only ready once warmed up (the beer name index and snapshot loaded and the
+     * documents to warm up read), false as soon as the bucket is open.
+     */
+    public boolean isStartupReadyAfterWarmUp() {
+        return startupReadyAfterWarmUp;
+    }
+
+    /**
+     * @return true to time database operations out after a multiple of their usual latency, false to always wait up
+     * to the request timeout.
+     */
+    public boolean isAdaptiveTimeoutsEnabled() {
+        return adaptiveTimeoutsEnabled;
+    }
+
+    /**
+     * @return the percentile of the latency of an operation its timeout follows.
+     */
+    public double getTimeoutQuantile() {
+        return timeoutQuantile;
+    }
+
+    /**
+     * @return the factor applied to the percentile of the latency of an operation to get its timeout.
+     */
+    public double getTimeoutFactor() {
+        return timeoutFactor;
+    }
+
+    /**
+     * @return the lowest timeout of a database operation, in milliseconds (the highest being the request timeout).
+     */
+    public long getTimeoutMinMillis() {
+        return timeoutMinMillis;
+    }
+
+    /**
+     * @return true to also read a replica when a document read is slower than usual.
+     */
+    public boolean isHedgeEnabled() {
+        return hedgeEnabled;
+    }
+
+    /**
+     * @return the percentile of the latency of reads after which a replica is read too.
+     */
+    public double getHedgeQuantile() {
+        return hedgeQuantile;
+    }
+
+    /**
+     * @return the lowest delay before a replica is read too, in milliseconds.
+     */
+    public long getHedgeMinDelayMillis() {
+        return hedgeMinDelayMillis;
+    }
+
+    /**
+     * @return true to fail database operations fast while the database is failing.
+     */
+    public boolean isBreakerEnabled() {
+        return breakerEnabled;
+    }
+
+    /**
+     * @return the rate of failed database operations (between 0 and 1) over the window that opens the circuit.
+     */
+    public double getBreakerErrorRate() {
+        return breakerErrorRate;
+    }
+
+    /**
+     * @return the number of database operations over the window under which the circuit never opens.
+     */
+    public int getBreakerMinRequests() {
+        return breakerMinRequests;
+    }
+
+    /**
+     * @return the length of the window over which the error rate is measured, in seconds.
+     */
+    public int getBreakerWindowSeconds() {
+        return breakerWindowSeconds;
+    }
+
+    /**
+     * @return the time the circuit stays open before a trial operation is let through, in seconds.
+     */
+    public int getBreakerOpenSeconds() {
+        return breakerOpenSeconds;
+    }
+
+    /**
+     * @return true to keep an in-memory faceted search index of the beers, serving <code>/beer/query</code>.
+     */
+    public boolean isSearchEnabled() {
+        return searchEnabled;
+    }
+
+    /**
+     * @return the maximum number of ranked beers a <code>/beer/query</code> can ask for.
+     */
+    public int getSearchMaxLimit() {
+        return searchMaxLimit;
+    }
+
+    /**
+     * @return the maximum number of key ranges a full view scan is split into, each queried in parallel.
+     */
+    public int getScanPartitions() {
+        return scanPartitions;
+    }
+
+    /**
+     * @return the number of rows read at once in each key range of a full view scan.
+     */
+    public int getScanPageSize() {
+        return scanPageSize;
+    }
+
+    /**
+     * @return the maximum number of retries of a failed key range of a full view scan.
+     */
+    public int getScanMaxRetries() {
+        return scanMaxRetries;
+    }
+
+    /**
+     * @return the delay before the first retry of a failed key range, doubled for each subsequent retry.
+     */
+    public long getScanRetryDelayMillis() {
+        return scanRetryDelayMillis;
+    }
+
+    /**
+     * @return true to serve the beer suggestions from an in-memory index of the names rather than from the view.
+     */
+    public boolean isSuggestEnabled() {
+        return suggestEnabled;
+    }
+
+    /**
+     * @return the number of most popular beers kept for each prefix, the maximum number of suggestions.
+     */
+    public int getSuggestTopK() {
+        return suggestTopK;
+    }
+
+    /**
+     * @return true to answer the nearby breweries from an in-memory spatial index (the route is unavailable otherwise).
+     */
+    public boolean isGeoEnabled() {
+        return geoEnabled;
+    }
+
+    /**
+     * @return the maximum radius of a nearby breweries query, in kilometers.
+     */
+    public int getGeoMaxRadiusKm() {
+        return geoMaxRadiusKm;
+    }
+
+    /**
+     * @return the maximum number of breweries a nearby breweries query can return.
+     */
+    public int getGeoMaxLimit() {
+        return geoMaxLimit;
+    }
+
+    /**
+     * @return true to limit the concurrent requests of each class of beer and brewery endpoints, rejecting the excess.
+     */
+    public boolean isAdmissionEnabled() {
+        return admissionEnabled;
+    }
+
+    /**
+     * @return the concurrency limit of each class of endpoints until their latency is known.
+     */
+    public int getAdmissionInitialLimit() {
+        return admissionInitialLimit;
+    }
+
+    /**
+     * @return the lowest the concurrency limit of a class of endpoints can go.
+     */
+    public int getAdmissionMinLimit() {
+        return admissionMinLimit;
+    }
+
+    /**
+     * @return the highest the concurrency limit of a class of endpoints can go.
+     */
+    public int getAdmissionMaxLimit() {
+        return admissionMaxLimit;
+    }
+
+    /**
+     * @return the delay clients are told to wait before retrying a rejected request (the Retry-After header).
+     */
+    public int getAdmissionRetryAfterSeconds() {
+        return admissionRetryAfterSeconds;
+    }
+
+    /**
+     * @return the maximum size of the cached responses of the brewery, listing and search routes, in bytes (0 to
+     * disable the cache)
+     */
+    public long getResponseCacheMaxBytes() {
+        return responseCacheMaxBytes;
+    }
+
+    /**
+     * @return the time a response stays in the response cache, in seconds
+     */
+    public long getResponseCacheTtlSeconds() {
+        return responseCacheTtlSeconds;
+    }
+
+    /**
+     * @return whether the cached responses are kept in direct buffers, off the heap
+     */
+    public boolean isResponseCacheOffHeap() {
+        return responseCacheOffHeap;
+    }
 }
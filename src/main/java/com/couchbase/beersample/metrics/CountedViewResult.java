@@ -0,0 +1,86 @@
+/**
+ * Copyright (C) 2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.beersample.metrics;
+
+import com.couchbase.client.java.document.json.JsonObject;
+import com.couchbase.client.java.view.AsyncViewResult;
+import com.couchbase.client.java.view.AsyncViewRow;
+import rx.Observable;
+import rx.functions.Action1;
+import rx.functions.Func1;
+
+/**
+ * A view result which rows are counted in an {@link OperationMetrics} as they are streamed.
+ */
+public class CountedViewResult implements AsyncViewResult {
+
+    private final AsyncViewResult result;
+    private final Action1<AsyncViewRow> counter;
+
+    private CountedViewResult(AsyncViewResult result, Action1<AsyncViewRow> counter) {
+        this.result = result;
+        this.counter = counter;
+    }
+
+    /**
+     * @return a function wrapping view results so that their rows are counted in the given metrics.
+     */
+    public static Func1<AsyncViewResult, AsyncViewResult> counting(final OperationMetrics metrics) {
+        final Action1<AsyncViewRow> counter = new Action1<AsyncViewRow>() {
+            @Override
+            public void call(AsyncViewRow row) {
+                metrics.rows(1);
+            }
+        };
+        return new Func1<AsyncViewResult, AsyncViewResult>() {
+            @Override
+            public AsyncViewResult call(AsyncViewResult result) {
+                return new CountedViewResult(result, counter);
+            }
+        };
+    }
+
+    @Override
+    public Observable<AsyncViewRow> rows() {
+        return result.rows().doOnNext(counter);
+    }
+
+    @Override
+    public int totalRows() {
+        return result.totalRows();
+    }
+
+    @Override
+    public boolean success() {
+        return result.success();
+    }
+
+    @Override
+    public JsonObject error() {
+        return result.error();
+    }
+
+    @Override
+    public JsonObject debug() {
+        return result.debug();
+    }
+}
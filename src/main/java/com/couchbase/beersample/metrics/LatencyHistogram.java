@@ -0,0 +1,169 @@
+/**
+ * Copyright (C) 2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.beersample.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of durations in nanoseconds, from which percentiles can be read.
+ *
+ * Like an HDR histogram, values are counted in buckets of logarithmically growing width, each power of two being
+ * split in {@value #SUB_BUCKETS} linear sub-buckets, so any recorded value is known within about 3% whatever its
+ * magnitude. Recording is a few atomic increments on a fixed array: it never locks nor allocates, so it can sit on
+ * every request path. Counts are cumulative since the start of the application, but the percentiles of the values
+ * recorded since a given point can be read by diffing with an earlier copy of the counts.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    /** the number of linear sub-buckets each power of two is split into */
+    public static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    /** values below twice the number of sub-buckets have their own exact bucket */
+    private static final int BUCKET_COUNT = (63 - SUB_BUCKET_BITS) * SUB_BUCKETS + 2 * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Record one duration.
+     *
+     * @param nanos the duration in nanoseconds, negative values are counted as 0.
+     */
+    public void record(long nanos) {
+        long value = Math.max(0L, nanos);
+        counts.incrementAndGet(indexOf(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
+    static int indexOf(long value) {
+        if (value < 2 * SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        //the top SUB_BUCKET_BITS + 1 bits of the value, between SUB_BUCKETS and 2 * SUB_BUCKETS - 1
+        long mantissa = value >>> shift;
+        return (int) (shift * SUB_BUCKETS + mantissa);
+    }
+
+    /**
+     * @return the highest value counted in the bucket at this index.
+     */
+    static long highestValueAt(int index) {
+        if (index < 2 * SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long mantissa = index - shift * SUB_BUCKETS;
+        return ((mantissa + 1) << shift) - 1;
+    }
+
+    public long count() {
+        return count.get();
+    }
+
+    /**
+     * @return the sum of all the recorded values, in nanoseconds.
+     */
+    public long sum() {
+        return sum.get();
+    }
+
+    /**
+     * @return the highest recorded value, in nanoseconds.
+     */
+    public long max() {
+        return max.get();
+    }
+
+    /**
+     * Read several percentiles at once, from a single pass over the buckets. Concurrent recordings may or may not
+     * be taken into account.
+     *
+     * @param quantiles the quantiles to read (eg. 0.99 for the 99th percentile), in increasing order.
+     * @return the value at each quantile, in nanoseconds (the highest value of its bucket, capped to the max).
+     */
+    public long[] percentiles(double... quantiles) {
+        return percentilesSince(null, quantiles);
+    }
+
+    /**
+     * @return a copy of the bucket counts, to later read the values recorded since (see
+     * {@link #percentilesSince(long[], double...)}).
+     */
+    public long[] counts() {
+        long[] snapshot = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            snapshot[i] = counts.get(i);
+        }
+        return snapshot;
+    }
+
+    /**
+     * @param since bucket counts previously read with {@link #counts()}.
+     * @return the number of values recorded since these counts were read.
+     */
+    public long countSince(long[] since) {
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            total += counts.get(i) - since[i];
+        }
+        return total;
+    }
+
+    /**
+     * Read several percentiles of the values recorded since the bucket counts were read with {@link #counts()},
+     * so that they follow the recent latency rather than the whole history.
+     *
+     * @param since bucket counts previously read with {@link #counts()}, null for all the recorded values.
+     * @param quantiles the quantiles to read (eg. 0.99 for the 99th percentile), in increasing order.
+     * @return the value at each quantile, in nanoseconds (0 if no value was recorded since).
+     */
+    public long[] percentilesSince(long[] since, double... quantiles) {
+        long[] snapshot = counts();
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            if (since != null) {
+                snapshot[i] -= since[i];
+            }
+            total += snapshot[i];
+        }
+        long[] values = new long[quantiles.length];
+        long highest = max.get();
+        int q = 0;
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT && q < quantiles.length && total > 0; i++) {
+            seen += snapshot[i];
+            while (q < quantiles.length && seen >= Math.max(1L, (long) Math.ceil(quantiles[q] * total))) {
+                values[q++] = Math.min(highestValueAt(i), highest);
+            }
+        }
+        return values;
+    }
+}
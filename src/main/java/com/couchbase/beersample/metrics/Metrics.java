@@ -0,0 +1,255 @@
+/**
+ * Copyright (C) 2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.beersample.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.couchbase.beersample.ConcurrencyLimiter;
+import com.couchbase.beersample.cache.ResponseCache;
+import org.springframework.stereotype.Component;
+
+/**
+ * The registry of the application's metrics: one {@link OperationMetrics} per database operation and one per HTTP
+ * route and method, created on first use. Looking up an existing one doesn't allocate.
+ *
+ * The concurrency limiters of the admission control and the response cache are registered here too, to report
+ * their state.
+ *
+ * The metrics are rendered in the Prometheus text format by {@link #scrape()}.
+ */
+@Component
+public class Metrics {
+
+    private static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+    private static final String[] QUANTILE_LABELS = { "0.5", "0.9", "0.99", "0.999" };
+
+    private final ConcurrentMap<String, OperationMetrics> operations =
+            new ConcurrentHashMap<String, OperationMetrics>();
+    /** by route, then by method */
+    private final ConcurrentMap<String, ConcurrentMap<String, OperationMetrics>> requests =
+            new ConcurrentHashMap<String, ConcurrentMap<String, OperationMetrics>>();
+    private final AtomicLong requestsInFlight = new AtomicLong();
+    private final ConcurrentMap<String, ConcurrencyLimiter> limiters =
+            new ConcurrentHashMap<String, ConcurrencyLimiter>();
+    private volatile ResponseCache responseCache;
+
+    /**
+     * @return the metrics of a database operation (eg. "get" or "view.by_name").
+     */
+    public OperationMetrics operation(String name) {
+        return getOrCreate(operations, name);
+    }
+
+    /**
+     * @param method the HTTP method.
+     * @param route the route pattern (eg. "/beer/{id}") rather than the actual path, to keep the number of
+     *  metrics bounded.
+     * @return the metrics of an HTTP route.
+     */
+    public OperationMetrics request(String method, String route) {
+        ConcurrentMap<String, OperationMetrics> byMethod = requests.get(route);
+        if (byMethod == null) {
+            ConcurrentMap<String, OperationMetrics> created = new ConcurrentHashMap<String, OperationMetrics>();
+            byMethod = requests.putIfAbsent(route, created);
+            if (byMethod == null) {
+                byMethod = created;
+            }
+        }
+        return getOrCreate(byMethod, method);
+    }
+
+    /**
+     * @return the number of HTTP requests being processed, whatever their route.
+     */
+    public AtomicLong requestsInFlight() {
+        return requestsInFlight;
+    }
+
+    /**
+     * Report the state of a concurrency limiter, under its name.
+     */
+    public void register(ConcurrencyLimiter limiter) {
+        limiters.put(limiter.name(), limiter);
+    }
+
+    /**
+     * Report the hits, misses and size of the response cache.
+     */
+    public void register(ResponseCache cache) {
+        this.responseCache = cache;
+    }
+
+    private static OperationMetrics getOrCreate(ConcurrentMap<String, OperationMetrics> metrics, String name) {
+        OperationMetrics existing = metrics.get(name);
+        if (existing == null) {
+            OperationMetrics created = new OperationMetrics(name);
+            existing = metrics.putIfAbsent(name, created);
+            if (existing == null) {
+                existing = created;
+            }
+        }
+        return existing;
+    }
+
+    /**
+     * @return all the metrics, in the Prometheus text exposition format.
+     */
+    public String scrape() {
+        StringBuilder out = new StringBuilder(4096);
+
+        Map<String, OperationMetrics> sortedOperations = new TreeMap<String, OperationMetrics>(operations);
+        header(out, "beersample_couchbase_operation_seconds", "summary",
+                "Latency of the database operations, from the call to the response");
+        for (OperationMetrics op : sortedOperations.values()) {
+            summary(out, "beersample_couchbase_operation_seconds", "operation=\"" + escape(op.name()) + "\"", op);
+        }
+        header(out, "beersample_couchbase_operations_in_flight", "gauge", "Database operations waiting for a response");
+        for (OperationMetrics op : sortedOperations.values()) {
+            sample(out, "beersample_couchbase_operations_in_flight", "operation=\"" + escape(op.name()) + "\"",
+                    op.inFlight());
+        }
+        header(out, "beersample_couchbase_operation_errors_total", "counter",
+                "Failed database operations, by exception type");
+        for (OperationMetrics op : sortedOperations.values()) {
+            errors(out, "beersample_couchbase_operation_errors_total", "operation=\"" + escape(op.name()) + "\"", op);
+        }
+        header(out, "beersample_couchbase_view_rows_total", "counter", "Rows returned by the view queries");
+        for (OperationMetrics op : sortedOperations.values()) {
+            if (op.name().startsWith("view.")) {
+                sample(out, "beersample_couchbase_view_rows_total", "operation=\"" + escape(op.name()) + "\"",
+                        op.rows());
+            }
+        }
+
+        Map<String, OperationMetrics> sortedRequests = new TreeMap<String, OperationMetrics>();
+        for (Map.Entry<String, ConcurrentMap<String, OperationMetrics>> route : requests.entrySet()) {
+            for (Map.Entry<String, OperationMetrics> method : route.getValue().entrySet()) {
+                String labels = "method=\"" + escape(method.getKey()) + "\",route=\"" + escape(route.getKey()) + "\"";
+                sortedRequests.put(labels, method.getValue());
+            }
+        }
+        header(out, "beersample_http_request_seconds", "summary", "Latency of the HTTP requests, until fully answered");
+        for (Map.Entry<String, OperationMetrics> request : sortedRequests.entrySet()) {
+            summary(out, "beersample_http_request_seconds", request.getKey(), request.getValue());
+        }
+        header(out, "beersample_http_requests_in_flight", "gauge", "HTTP requests being processed");
+        sample(out, "beersample_http_requests_in_flight", null, requestsInFlight.get());
+        header(out, "beersample_http_responses_total", "counter", "HTTP responses, by status class");
+        for (Map.Entry<String, OperationMetrics> request : sortedRequests.entrySet()) {
+            for (int statusClass = 1; statusClass < 6; statusClass++) {
+                long count = request.getValue().statuses(statusClass);
+                if (count > 0) {
+                    sample(out, "beersample_http_responses_total",
+                            request.getKey() + ",status=\"" + statusClass + "xx\"", count);
+                }
+            }
+        }
+        header(out, "beersample_http_request_errors_total", "counter",
+                "HTTP requests that failed with an exception, by exception type");
+        for (Map.Entry<String, OperationMetrics> request : sortedRequests.entrySet()) {
+            errors(out, "beersample_http_request_errors_total", request.getKey(), request.getValue());
+        }
+
+        Map<String, ConcurrencyLimiter> sortedLimiters = new TreeMap<String, ConcurrencyLimiter>(limiters);
+        header(out, "beersample_admission_limit", "gauge", "Concurrency limit of the requests, by endpoint class");
+        for (ConcurrencyLimiter limiter : sortedLimiters.values()) {
+            sample(out, "beersample_admission_limit", "class=\"" + escape(limiter.name()) + "\"", limiter.limit());
+        }
+        header(out, "beersample_admission_in_flight", "gauge", "Admitted requests being processed, by endpoint class");
+        for (ConcurrencyLimiter limiter : sortedLimiters.values()) {
+            sample(out, "beersample_admission_in_flight", "class=\"" + escape(limiter.name()) + "\"",
+                    limiter.inFlight());
+        }
+        header(out, "beersample_admission_admitted_total", "counter", "Requests let through, by endpoint class");
+        for (ConcurrencyLimiter limiter : sortedLimiters.values()) {
+            sample(out, "beersample_admission_admitted_total", "class=\"" + escape(limiter.name()) + "\"",
+                    limiter.admitted());
+        }
+        header(out, "beersample_admission_rejected_total", "counter",
+                "Requests rejected with a 503 because of the concurrency limit, by endpoint class");
+        for (ConcurrencyLimiter limiter : sortedLimiters.values()) {
+            sample(out, "beersample_admission_rejected_total", "class=\"" + escape(limiter.name()) + "\"",
+                    limiter.rejected());
+        }
+
+        ResponseCache cache = responseCache;
+        if (cache != null) {
+            header(out, "beersample_response_cache_hits_total", "counter", "Responses served from the response cache");
+            sample(out, "beersample_response_cache_hits_total", null, cache.hits());
+            header(out, "beersample_response_cache_misses_total", "counter",
+                    "Cacheable requests that weren't in the response cache");
+            sample(out, "beersample_response_cache_misses_total", null, cache.misses());
+            header(out, "beersample_response_cache_bytes", "gauge", "Size of the cached responses");
+            sample(out, "beersample_response_cache_bytes", null, cache.bytes());
+        }
+        return out.toString();
+    }
+
+    private static void header(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void summary(StringBuilder out, String name, String labels, OperationMetrics op) {
+        LatencyHistogram latency = op.latency();
+        long[] percentiles = latency.percentiles(QUANTILES);
+        for (int i = 0; i < QUANTILES.length; i++) {
+            sample(out, name, labels + ",quantile=\"" + QUANTILE_LABELS[i] + "\"", seconds(percentiles[i]));
+        }
+        sample(out, name + "_sum", labels, seconds(latency.sum()));
+        sample(out, name + "_count", labels, latency.count());
+        sample(out, name.replace("_seconds", "_max_seconds"), labels, seconds(latency.max()));
+        if (op.cancelled() > 0) {
+            sample(out, name.replace("_seconds", "_cancelled_total"), labels, op.cancelled());
+        }
+    }
+
+    private static void errors(StringBuilder out, String name, String labels, OperationMetrics op) {
+        Map<String, Long> byType = new TreeMap<String, Long>();
+        for (Map.Entry<Class<?>, AtomicLong> error : op.errors().entrySet()) {
+            byType.put(error.getKey().getSimpleName(), error.getValue().get());
+        }
+        for (Map.Entry<String, Long> error : byType.entrySet()) {
+            sample(out, name, labels + ",exception=\"" + escape(error.getKey()) + "\"", error.getValue());
+        }
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, Object value) {
+        out.append(name);
+        if (labels != null) {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ').append(value).append('\n');
+    }
+
+    private static double seconds(long nanos) {
+        return nanos / 1e9d;
+    }
+
+    private static String escape(String labelValue) {
+        return labelValue.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
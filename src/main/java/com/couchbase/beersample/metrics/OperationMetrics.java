@@ -0,0 +1,223 @@
+/**
+ * Copyright (C) 2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.beersample.metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import rx.Observable;
+import rx.Subscriber;
+import rx.functions.Action0;
+import rx.subscriptions.Subscriptions;
+
+/**
+ * The metrics of one kind of operation (a database call, an HTTP route...): a latency histogram, the number of
+ * operations in flight, the errors by exception type and, for view queries, the number of rows returned.
+ *
+ * Recording is lock-free and doesn't allocate, except the first time an exception type is seen.
+ */
+public class OperationMetrics {
+
+    private final String name;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final AtomicLong inFlight = new AtomicLong();
+    private final AtomicLong cancelled = new AtomicLong();
+    private final AtomicLong rows = new AtomicLong();
+    private final ConcurrentMap<Class<?>, AtomicLong> errors = new ConcurrentHashMap<Class<?>, AtomicLong>();
+    /** responses by status class, 1xx to 5xx */
+    private final AtomicLongArray statuses = new AtomicLongArray(6);
+
+    private final Observable.Operator<Object, Object> timer = new Observable.Operator<Object, Object>() {
+        @Override
+        public Subscriber<? super Object> call(Subscriber<? super Object> child) {
+            return new TimedSubscriber<Object>(child, OperationMetrics.this);
+        }
+    };
+
+    public OperationMetrics(String name) {
+        this.name = name;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    /**
+     * Mark the start of an operation.
+     *
+     * @return the start time, to give back to {@link #stop(long, Throwable)}.
+     */
+    public long start() {
+        inFlight.incrementAndGet();
+        return System.nanoTime();
+    }
+
+    /**
+     * Mark the end of an operation started with {@link #start()}.
+     *
+     * @param error the error the operation failed with, null if it succeeded.
+     */
+    public void stop(long start, Throwable error) {
+        inFlight.decrementAndGet();
+        record(System.nanoTime() - start, error);
+    }
+
+    /**
+     * Record an operation which start wasn't marked.
+     *
+     * @param error the error the operation failed with, null if it succeeded.
+     */
+    public void record(long nanos, Throwable error) {
+        latency.record(nanos);
+        if (error != null) {
+            errorCounter(error.getClass()).incrementAndGet();
+        }
+    }
+
+    private AtomicLong errorCounter(Class<?> type) {
+        AtomicLong counter = errors.get(type);
+        if (counter == null) {
+            AtomicLong created = new AtomicLong();
+            counter = errors.putIfAbsent(type, created);
+            if (counter == null) {
+                counter = created;
+            }
+        }
+        return counter;
+    }
+
+    /**
+     * Count the status of an HTTP response.
+     */
+    public void status(int status) {
+        int statusClass = status / 100;
+        if (statusClass > 0 && statusClass < 6) {
+            statuses.incrementAndGet(statusClass);
+        }
+    }
+
+    /**
+     * Count rows returned by a view query.
+     */
+    public void rows(long count) {
+        rows.addAndGet(count);
+    }
+
+    /**
+     * Time an asynchronous operation, from the subscription to its termination. Unsubscribing before the
+     * termination (eg. on a request timeout) counts the operation as cancelled.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> Observable<T> time(Observable<T> operation) {
+        return operation.lift((Observable.Operator<T, T>) (Observable.Operator<?, ?>) timer);
+    }
+
+    public LatencyHistogram latency() {
+        return latency;
+    }
+
+    public long inFlight() {
+        return inFlight.get();
+    }
+
+    public long cancelled() {
+        return cancelled.get();
+    }
+
+    public long rows() {
+        return rows.get();
+    }
+
+    /**
+     * @return the count of errors by exception class.
+     */
+    public Map<Class<?>, AtomicLong> errors() {
+        return errors;
+    }
+
+    /**
+     * @return the count of responses in this status class (eg. 5 for 5xx).
+     */
+    public long statuses(int statusClass) {
+        return statuses.get(statusClass);
+    }
+
+    private static final class TimedSubscriber<T> extends Subscriber<T> implements Action0 {
+
+        private static final AtomicIntegerFieldUpdater<TimedSubscriber<?>> DONE =
+                AtomicIntegerFieldUpdater.newUpdater(timedSubscriberClass(), "done");
+
+        @SuppressWarnings("unchecked")
+        private static Class<TimedSubscriber<?>> timedSubscriberClass() {
+            return (Class<TimedSubscriber<?>>) (Class<?>) TimedSubscriber.class;
+        }
+
+        private final Subscriber<? super T> child;
+        private final OperationMetrics metrics;
+        private final long start;
+        private volatile int done = 0;
+
+        TimedSubscriber(Subscriber<? super T> child, OperationMetrics metrics) {
+            super(child);
+            this.child = child;
+            this.metrics = metrics;
+            this.start = metrics.start();
+            child.add(Subscriptions.create(this));
+        }
+
+        @Override
+        public void onNext(T t) {
+            child.onNext(t);
+        }
+
+        @Override
+        public void onError(Throwable e) {
+            if (DONE.compareAndSet(this, 0, 1)) {
+                metrics.stop(start, e);
+            }
+            child.onError(e);
+        }
+
+        @Override
+        public void onCompleted() {
+            if (DONE.compareAndSet(this, 0, 1)) {
+                metrics.stop(start, null);
+            }
+            child.onCompleted();
+        }
+
+        /**
+         * Called on unsubscription.
+         */
+        @Override
+        public void call() {
+            if (DONE.compareAndSet(this, 0, 1)) {
+                metrics.stop(start, null);
+                metrics.cancelled.incrementAndGet();
+            }
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/**
+ * Copyright (C) 2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.beersample.metrics;
+
+import java.io.IOException;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.DispatcherType;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.HandlerMapping;
+
+/**
+ * Records the latency, status and errors of every HTTP request, by route.
+ *
+ * Most routes answer asynchronously, so a request that went async is only recorded once its async processing
+ * completes, whether it was started by Spring (deferred results) or directly (streamed responses). Only the initial
+ * dispatch of a request is recorded, not the dispatch that renders a deferred result. It runs before the other
+ * filters, so that it also sees the requests they reject.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class RequestMetricsFilter implements Filter {
+
+    /** the route of the requests that no handler matched, so that random paths don't create metrics */
+    static final String UNMATCHED = "unmatched";
+
+    private final Metrics metrics;
+
+    @Autowired
+    public RequestMetricsFilter(final Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void init(FilterConfig filterConfig) throws ServletException {
+    }
+
+    @Override
+    public void destroy() {
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+        //the async redispatch of a request already being recorded (and forwards or includes) are passed through
+        if (request.getDispatcherType() != DispatcherType.REQUEST || !(request instanceof HttpServletRequest)
+                || !(response instanceof HttpServletResponse)) {
+            chain.doFilter(request, response);
+            return;
+        }
+        final HttpServletRequest httpRequest = (HttpServletRequest) request;
+        final HttpServletResponse httpResponse = (HttpServletResponse) response;
+        final long start = System.nanoTime();
+        metrics.requestsInFlight().incrementAndGet();
+        try {
+            chain.doFilter(request, response);
+        } catch (IOException e) {
+            record(httpRequest, httpResponse, start, e);
+            throw e;
+        } catch (ServletException e) {
+            record(httpRequest, httpResponse, start, e);
+            throw e;
+        } catch (RuntimeException e) {
+            record(httpRequest, httpResponse, start, e);
+            throw e;
+        }
+        if (!request.isAsyncStarted()) {
+            record(httpRequest, httpResponse, start, null);
+            return;
+        }
+        request.getAsyncContext().addListener(new AsyncListener() {
+            private Throwable error;
+
+            @Override
+            public void onComplete(AsyncEvent event) throws IOException {
+                record(httpRequest, httpResponse, start, error);
+            }
+
+            @Override
+            public void onTimeout(AsyncEvent event) throws IOException {
+            }
+
+            @Override
+            public void onError(AsyncEvent event) throws IOException {
+                error = event.getThrowable();
+            }
+
+            @Override
+            public void onStartAsync(AsyncEvent event) throws IOException {
+            }
+        });
+    }
+
+    private void record(HttpServletRequest request, HttpServletResponse response, long start, Throwable error) {
+        metrics.requestsInFlight().decrementAndGet();
+        Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+        OperationMetrics route = metrics.request(request.getMethod(), pattern == null ? UNMATCHED : pattern.toString());
+        route.record(System.nanoTime() - start, error);
+        route.status(error == null ? response.getStatus() : HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+    }
+}
@@ -0,0 +1,277 @@
+/**
+ * Copyright (C) 2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.beersample.model;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.couchbase.client.java.document.json.JsonObject;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+
+/**
+ * A beer document, as stored in the bucket: <code>{"type": "beer", "name": ..., "brewery_id": ..., "abv": ...,
+ * "ibu": ..., "srm": ..., "upc": ..., "style": ..., "category": ..., "updated": ..., "description": ...}</code>.
+ *
+ * Beers are read straight from the JSON tokens, without building an intermediate tree: each field is validated as it
+ * is met, so that a body with a wrong type, an unknown field or an oversized value is rejected right there. Only the
+ * type and the name are mandatory.
+ */
+public final class Beer implements JsonFields.Writable {
+
+    public static final String TYPE = "beer";
+
+    /** the maximum length of the name and of the other short text fields */
+    public static final int MAX_NAME_LENGTH = 256;
+    /** the maximum length of the description */
+    public static final int MAX_DESCRIPTION_LENGTH = 16384;
+
+    private enum Field {
+        TYPE("type"), NAME("name"), BREWERY_ID("brewery_id"), ABV("abv"), IBU("ibu"), SRM("srm"), UPC("upc"),
+        STYLE("style"), CATEGORY("category"), UPDATED("updated"), DESCRIPTION("description");
+
+        private static final Map<String, Field> BY_NAME = new HashMap<String, Field>();
+        static {
+            for (Field field : values()) {
+                BY_NAME.put(field.jsonName, field);
+            }
+        }
+
+        private final String jsonName;
+
+        Field(String jsonName) {
+            this.jsonName = jsonName;
+        }
+    }
+
+    private String name;
+    private String breweryId;
+    private Number abv;
+    private Number ibu;
+    private Number srm;
+    private Number upc;
+    private String style;
+    private String category;
+    private String updated;
+    private String description;
+
+    private Beer() {
+    }
+
+    /**
+     * Read a beer from a JSON document, such as a request body.
+     *
+     * @throws IllegalArgumentException if the document is not a valid beer (including malformed JSON).
+     * @throws IOException if the input can't be read.
+     */
+    public static Beer parse(InputStream in) throws IOException {
+        return JsonFields.parse(in, new Reader());
+    }
+
+    /**
+     * Read a beer from a JSON object, the parser being on its START_OBJECT token.
+     *
+     * @throws IllegalArgumentException if the object is not a valid beer.
+     */
+    public static Beer read(JsonParser parser) throws IOException {
+        return JsonFields.readObject(parser, new Reader());
+    }
+
+    /**
+     * @return the id a beer is created with when none is given.
+     */
+    public String defaultId() {
+        return "beer-" + name;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public String breweryId() {
+        return breweryId;
+    }
+
+    public Number abv() {
+        return abv;
+    }
+
+    public Number ibu() {
+        return ibu;
+    }
+
+    public Number srm() {
+        return srm;
+    }
+
+    public Number upc() {
+        return upc;
+    }
+
+    public String style() {
+        return style;
+    }
+
+    public String category() {
+        return category;
+    }
+
+    public String updated() {
+        return updated;
+    }
+
+    public String description() {
+        return description;
+    }
+
+    /**
+     * Write the beer in its stored format.
+     */
+    @Override
+    public void write(JsonGenerator generator) throws IOException {
+        generator.writeStartObject();
+        generator.writeStringField(Field.TYPE.jsonName, TYPE);
+        generator.writeStringField(Field.NAME.jsonName, name);
+        JsonFields.writeString(generator, Field.BREWERY_ID.jsonName, breweryId);
+        JsonFields.writeNumber(generator, Field.ABV.jsonName, abv);
+        JsonFields.writeNumber(generator, Field.IBU.jsonName, ibu);
+        JsonFields.writeNumber(generator, Field.SRM.jsonName, srm);
+        JsonFields.writeNumber(generator, Field.UPC.jsonName, upc);
+        JsonFields.writeString(generator, Field.STYLE.jsonName, style);
+        JsonFields.writeString(generator, Field.CATEGORY.jsonName, category);
+        JsonFields.writeString(generator, Field.UPDATED.jsonName, updated);
+        JsonFields.writeString(generator, Field.DESCRIPTION.jsonName, description);
+        generator.writeEndObject();
+    }
+
+    /**
+     * @return the beer in its stored format.
+     */
+    public String toJson() {
+        return JsonFields.toJson(this);
+    }
+
+    /**
+     * @return the content of the beer's document.
+     */
+    public JsonObject toContent() {
+        JsonObject content = JsonObject.create()
+                .put(Field.TYPE.jsonName, TYPE)
+                .put(Field.NAME.jsonName, name);
+        putIfSet(content, Field.BREWERY_ID, breweryId);
+        putIfSet(content, Field.ABV, abv);
+        putIfSet(content, Field.IBU, ibu);
+        putIfSet(content, Field.SRM, srm);
+        putIfSet(content, Field.UPC, upc);
+        putIfSet(content, Field.STYLE, style);
+        putIfSet(content, Field.CATEGORY, category);
+        putIfSet(content, Field.UPDATED, updated);
+        putIfSet(content, Field.DESCRIPTION, description);
+        return content;
+    }
+
+    private static void putIfSet(JsonObject content, Field field, Object value) {
+        if (value != null) {
+            content.put(field.jsonName, value);
+        }
+    }
+
+    /**
+     * Reads the fields of a beer one at a time, for callers which walk the JSON object themselves (eg. to pick
+     * fields of their own in the same object).
+     */
+    public static final class Reader implements JsonFields.ObjectReader<Beer> {
+
+        private final Beer beer = new Beer();
+        private boolean typed;
+
+        /**
+         * Read the value of a field of the beer, the parser being on its first token.
+         *
+         * @throws IllegalArgumentException if the field is unknown or its value is invalid.
+         */
+        @Override
+        public void field(String name, JsonParser parser) throws IOException {
+            Field field = Field.BY_NAME.get(name);
+            if (field == null) {
+                throw JsonFields.unknownField(name);
+            }
+            switch (field) {
+                case TYPE:
+                    if (!TYPE.equals(JsonFields.readString(parser, name, MAX_NAME_LENGTH))) {
+                        throw new IllegalArgumentException("Field type must be \"" + TYPE + "\"");
+                    }
+                    typed = true;
+                    break;
+                case NAME:
+                    beer.name = JsonFields.readString(parser, name, MAX_NAME_LENGTH);
+                    break;
+                case BREWERY_ID:
+                    beer.breweryId = JsonFields.readString(parser, name, MAX_NAME_LENGTH);
+                    break;
+                case ABV:
+                    beer.abv = JsonFields.readNumber(parser, name);
+                    break;
+                case IBU:
+                    beer.ibu = JsonFields.readNumber(parser, name);
+                    break;
+                case SRM:
+                    beer.srm = JsonFields.readNumber(parser, name);
+                    break;
+                case UPC:
+                    beer.upc = JsonFields.readNumber(parser, name);
+                    break;
+                case STYLE:
+                    beer.style = JsonFields.readString(parser, name, MAX_NAME_LENGTH);
+                    break;
+                case CATEGORY:
+                    beer.category = JsonFields.readString(parser, name, MAX_NAME_LENGTH);
+                    break;
+                case UPDATED:
+                    beer.updated = JsonFields.readString(parser, name, MAX_NAME_LENGTH);
+                    break;
+                case DESCRIPTION:
+                    beer.description = JsonFields.readString(parser, name, MAX_DESCRIPTION_LENGTH);
+                    break;
+                default:
+                    throw JsonFields.unknownField(name);
+            }
+        }
+
+        /**
+         * @return the beer which fields were read.
+         * @throws IllegalArgumentException if the type or the name is missing.
+         */
+        @Override
+        public Beer build() {
+            if (!typed) {
+                throw new IllegalArgumentException("Field type is mandatory");
+            }
+            if (beer.name == null || beer.name.isEmpty()) {
+                throw new IllegalArgumentException("Field name is mandatory");
+            }
+            return beer;
+        }
+    }
+}
@@ -0,0 +1,403 @@
+/**
+ * Copyright (C) 2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.beersample.model;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.couchbase.client.java.document.json.JsonArray;
+import com.couchbase.client.java.document.json.JsonObject;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * A brewery document, as stored in the bucket: <code>{"type": "brewery", "name": ..., "city": ..., "state": ...,
+ * "code": ..., "country": ..., "phone": ..., "website": ..., "updated": ..., "description": ..., "address": [...],
+ * "geo": {"accuracy": ..., "lat": ..., "lon": ...}}</code>.
+ *
+ * Like {@link Beer}, breweries are read straight from the JSON tokens and validated field by field. Only the type
+ * and the name are mandatory.
+ */
+public final class Brewery implements JsonFields.Writable {
+
+    public static final String TYPE = "brewery";
+
+    /** the maximum length of the name and of the other short text fields */
+    public static final int MAX_NAME_LENGTH = 256;
+    /** the maximum length of the description */
+    public static final int MAX_DESCRIPTION_LENGTH = 16384;
+    /** the maximum number of address lines */
+    public static final int MAX_ADDRESS_LINES = 8;
+
+    private enum Field {
+        TYPE("type"), NAME("name"), CITY("city"), STATE("state"), CODE("code"), COUNTRY("country"),
+        PHONE("phone"), WEBSITE("website"), UPDATED("updated"), DESCRIPTION("description"), ADDRESS("address"),
+        GEO("geo"), ACCURACY("accuracy"), LAT("lat"), LON("lon");
+
+        private static final Map<String, Field> BY_NAME = new HashMap<String, Field>();
+        static {
+            for (Field field : values()) {
+                BY_NAME.put(field.jsonName, field);
+            }
+        }
+
+        private final String jsonName;
+
+        Field(String jsonName) {
+            this.jsonName = jsonName;
+        }
+    }
+
+    private String name;
+    private String city;
+    private String state;
+    private String code;
+    private String country;
+    private String phone;
+    private String website;
+    private String updated;
+    private String description;
+    private List<String> address = Collections.emptyList();
+    private Geo geo;
+
+    private Brewery() {
+    }
+
+    /**
+     * Read a brewery from a JSON document.
+     *
+     * @throws IllegalArgumentException if the document is not a valid brewery (including malformed JSON).
+     * @throws IOException if the input can't be read.
+     */
+    public static Brewery parse(InputStream in) throws IOException {
+        return JsonFields.parse(in, new Reader());
+    }
+
+    /**
+     * Read a brewery from a JSON object, the parser being on its START_OBJECT token.
+     *
+     * @throws IllegalArgumentException if the object is not a valid brewery.
+     */
+    public static Brewery read(JsonParser parser) throws IOException {
+        return JsonFields.readObject(parser, new Reader());
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public String city() {
+        return city;
+    }
+
+    public String state() {
+        return state;
+    }
+
+    public String code() {
+        return code;
+    }
+
+    public String country() {
+        return country;
+    }
+
+    public String phone() {
+        return phone;
+    }
+
+    public String website() {
+        return website;
+    }
+
+    public String updated() {
+        return updated;
+    }
+
+    public String description() {
+        return description;
+    }
+
+    /**
+     * @return the address lines, empty if there are none.
+     */
+    public List<String> address() {
+        return address;
+    }
+
+    /**
+     * @return the location of the brewery, null if it is unknown.
+     */
+    public Geo geo() {
+        return geo;
+    }
+
+    /**
+     * Write the brewery in its stored format.
+     */
+    @Override
+    public void write(JsonGenerator generator) throws IOException {
+        generator.writeStartObject();
+        generator.writeStringField(Field.TYPE.jsonName, TYPE);
+        generator.writeStringField(Field.NAME.jsonName, name);
+        JsonFields.writeString(generator, Field.CITY.jsonName, city);
+        JsonFields.writeString(generator, Field.STATE.jsonName, state);
+        JsonFields.writeString(generator, Field.CODE.jsonName, code);
+        JsonFields.writeString(generator, Field.COUNTRY.jsonName, country);
+        JsonFields.writeString(generator, Field.PHONE.jsonName, phone);
+        JsonFields.writeString(generator, Field.WEBSITE.jsonName, website);
+        JsonFields.writeString(generator, Field.UPDATED.jsonName, updated);
+        JsonFields.writeString(generator, Field.DESCRIPTION.jsonName, description);
+        if (!address.isEmpty()) {
+            generator.writeArrayFieldStart(Field.ADDRESS.jsonName);
+            for (String line : address) {
+                generator.writeString(line);
+            }
+            generator.writeEndArray();
+        }
+        if (geo != null) {
+            generator.writeObjectFieldStart(Field.GEO.jsonName);
+            JsonFields.writeString(generator, Field.ACCURACY.jsonName, geo.accuracy);
+            JsonFields.writeNumber(generator, Field.LAT.jsonName, geo.lat);
+            JsonFields.writeNumber(generator, Field.LON.jsonName, geo.lon);
+            generator.writeEndObject();
+        }
+        generator.writeEndObject();
+    }
+
+    /**
+     * @return the brewery in its stored format.
+     */
+    public String toJson() {
+        return JsonFields.toJson(this);
+    }
+
+    /**
+     * @return the content of the brewery's document.
+     */
+    public JsonObject toContent() {
+        JsonObject content = JsonObject.create()
+                .put(Field.TYPE.jsonName, TYPE)
+                .put(Field.NAME.jsonName, name);
+        putIfSet(content, Field.CITY, city);
+        putIfSet(content, Field.STATE, state);
+        putIfSet(content, Field.CODE, code);
+        putIfSet(content, Field.COUNTRY, country);
+        putIfSet(content, Field.PHONE, phone);
+        putIfSet(content, Field.WEBSITE, website);
+        putIfSet(content, Field.UPDATED, updated);
+        putIfSet(content, Field.DESCRIPTION, description);
+        if (!address.isEmpty()) {
+            JsonArray lines = JsonArray.create();
+            for (String line : address) {
+                lines.add(line);
+            }
+            content.put(Field.ADDRESS.jsonName, lines);
+        }
+        if (geo != null) {
+            JsonObject location = JsonObject.create();
+            putIfSet(location, Field.ACCURACY, geo.accuracy);
+            putIfSet(location, Field.LAT, geo.lat);
+            putIfSet(location, Field.LON, geo.lon);
+            content.put(Field.GEO.jsonName, location);
+        }
+        return content;
+    }
+
+    private static void putIfSet(JsonObject content, Field field, Object value) {
+        if (value != null) {
+            content.put(field.jsonName, value);
+        }
+    }
+
+    /**
+     * The location of a brewery.
+     */
+    public static final class Geo {
+        private String accuracy;
+        private Double lat;
+        private Double lon;
+
+        public String accuracy() {
+            return accuracy;
+        }
+
+        /**
+         * @return the latitude in degrees, null if unknown.
+         */
+        public Double lat() {
+            return lat;
+        }
+
+        /**
+         * @return the longitude in degrees, null if unknown.
+         */
+        public Double lon() {
+            return lon;
+        }
+    }
+
+    /**
+     * Reads the fields of a brewery one at a time.
+     */
+    public static final class Reader implements JsonFields.ObjectReader<Brewery> {
+
+        private final Brewery brewery = new Brewery();
+        private boolean typed;
+
+        /**
+         * Read the value of a field of the brewery, the parser being on its first token.
+         *
+         * @throws IllegalArgumentException if the field is unknown or its value is invalid.
+         */
+        @Override
+        public void field(String name, JsonParser parser) throws IOException {
+            Field field = Field.BY_NAME.get(name);
+            if (field == null) {
+                throw JsonFields.unknownField(name);
+            }
+            switch (field) {
+                case TYPE:
+                    if (!TYPE.equals(JsonFields.readString(parser, name, MAX_NAME_LENGTH))) {
+                        throw new IllegalArgumentException("Field type must be \"" + TYPE + "\"");
+                    }
+                    typed = true;
+                    break;
+                case NAME:
+                    brewery.name = JsonFields.readString(parser, name, MAX_NAME_LENGTH);
+                    break;
+                case CITY:
+                    brewery.city = JsonFields.readString(parser, name, MAX_NAME_LENGTH);
+                    break;
+                case STATE:
+                    brewery.state = JsonFields.readString(parser, name, MAX_NAME_LENGTH);
+                    break;
+                case CODE:
+                    brewery.code = JsonFields.readString(parser, name, MAX_NAME_LENGTH);
+                    break;
+                case COUNTRY:
+                    brewery.country = JsonFields.readString(parser, name, MAX_NAME_LENGTH);
+                    break;
+                case PHONE:
+                    brewery.phone = JsonFields.readString(parser, name, MAX_NAME_LENGTH);
+                    break;
+                case WEBSITE:
+                    brewery.website = JsonFields.readString(parser, name, MAX_NAME_LENGTH);
+                    break;
+                case UPDATED:
+                    brewery.updated = JsonFields.readString(parser, name, MAX_NAME_LENGTH);
+                    break;
+                case DESCRIPTION:
+                    brewery.description = JsonFields.readString(parser, name, MAX_DESCRIPTION_LENGTH);
+                    break;
+                case ADDRESS:
+                    brewery.address = readAddress(parser);
+                    break;
+                case GEO:
+                    brewery.geo = readGeo(parser);
+                    break;
+                default:
+                    //the fields of the location are only known inside it
+                    throw JsonFields.unknownField(name);
+            }
+        }
+
+        private static List<String> readAddress(JsonParser parser) throws IOException {
+            if (parser.getCurrentToken() == JsonToken.VALUE_NULL) {
+                return Collections.emptyList();
+            }
+            if (parser.getCurrentToken() != JsonToken.START_ARRAY) {
+                throw new IllegalArgumentException("Field address must be an array");
+            }
+            List<String> lines = new ArrayList<String>(2);
+            while (parser.nextToken() != JsonToken.END_ARRAY) {
+                if (lines.size() == MAX_ADDRESS_LINES) {
+                    throw new IllegalArgumentException("Field address has more than " + MAX_ADDRESS_LINES
+                            + " lines");
+                }
+                String line = JsonFields.readString(parser, "address", MAX_NAME_LENGTH);
+                if (line != null) {
+                    lines.add(line);
+                }
+            }
+            return lines;
+        }
+
+        private static Geo readGeo(JsonParser parser) throws IOException {
+            if (parser.getCurrentToken() == JsonToken.VALUE_NULL) {
+                return null;
+            }
+            if (parser.getCurrentToken() != JsonToken.START_OBJECT) {
+                throw new IllegalArgumentException("Field geo must be an object");
+            }
+            Geo geo = new Geo();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                parser.nextToken();
+                Field field = Field.BY_NAME.get(name);
+                if (field == Field.ACCURACY) {
+                    geo.accuracy = JsonFields.readString(parser, "geo.accuracy", MAX_NAME_LENGTH);
+                } else if (field == Field.LAT) {
+                    geo.lat = readDegrees(parser, "geo.lat", 90d);
+                } else if (field == Field.LON) {
+                    geo.lon = readDegrees(parser, "geo.lon", 180d);
+                } else {
+                    throw JsonFields.unknownField("geo." + name);
+                }
+            }
+            return geo;
+        }
+
+        private static Double readDegrees(JsonParser parser, String name, double max) throws IOException {
+            Number value = JsonFields.readNumber(parser, name);
+            if (value == null) {
+                return null;
+            }
+            double degrees = value.doubleValue();
+            if (degrees < -max || degrees > max) {
+                throw new IllegalArgumentException("Field " + name + " must be between " + -max + " and " + max);
+            }
+            return degrees;
+        }
+
+        /**
+         * @return the brewery which fields were read.
+         * @throws IllegalArgumentException if the type or the name is missing.
+         */
+        @Override
+        public Brewery build() {
+            if (!typed) {
+                throw new IllegalArgumentException("Field type is mandatory");
+            }
+            if (brewery.name == null || brewery.name.isEmpty()) {
+                throw new IllegalArgumentException("Field name is mandatory");
+            }
+            return brewery;
+        }
+    }
+}
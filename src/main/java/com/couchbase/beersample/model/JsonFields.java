@@ -0,0 +1,183 @@
+/**
+ * Copyright (C) 2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.beersample.model;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * Token-level helpers shared by the model classes, to read and write their fields straight from and to a JSON
+ * stream. Reads fail with an {@link IllegalArgumentException} describing the offending field, as soon as it is met.
+ */
+final class JsonFields {
+
+    static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private JsonFields() {
+    }
+
+    /**
+     * Something that reads the fields of a JSON object one at a time, then builds the result.
+     */
+    interface ObjectReader<T> {
+        /**
+         * Read the value of a field, the parser being on its first token.
+         */
+        void field(String name, JsonParser parser) throws IOException;
+
+        T build();
+    }
+
+    /**
+     * Read a whole JSON document, which must be a single object.
+     *
+     * @throws IllegalArgumentException if the document is invalid (including malformed JSON).
+     * @throws IOException if the input can't be read.
+     */
+    static <T> T parse(InputStream in, ObjectReader<T> reader) throws IOException {
+        JsonParser parser = JSON_FACTORY.createParser(in);
+        try {
+            parser.nextToken();
+            T result = readObject(parser, reader);
+            if (parser.nextToken() != null) {
+                throw new IllegalArgumentException("Unexpected content after the JSON object");
+            }
+            return result;
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Malformed JSON: " + e.getOriginalMessage(), e);
+        } finally {
+            parser.close();
+        }
+    }
+
+    /**
+     * Read a JSON object, the parser being on its START_OBJECT token. The parser is left on its END_OBJECT token.
+     */
+    static <T> T readObject(JsonParser parser, ObjectReader<T> reader) throws IOException {
+        if (parser.getCurrentToken() != JsonToken.START_OBJECT) {
+            throw new IllegalArgumentException("Expected a JSON object");
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            //field names are canonicalized by the parser, no String is created for them
+            String name = parser.getCurrentName();
+            parser.nextToken();
+            reader.field(name, parser);
+        }
+        return reader.build();
+    }
+
+    /**
+     * @return the string value of the current token, or null for a JSON null.
+     * @throws IllegalArgumentException if the value is not a string or is longer than the maximum length.
+     */
+    static String readString(JsonParser parser, String field, int maxLength) throws IOException {
+        JsonToken token = parser.getCurrentToken();
+        if (token == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        if (token != JsonToken.VALUE_STRING) {
+            throw new IllegalArgumentException("Field " + field + " must be a string");
+        }
+        //checked before the String is even created
+        if (parser.getTextLength() > maxLength) {
+            throw new IllegalArgumentException("Field " + field + " is longer than " + maxLength + " characters");
+        }
+        return parser.getText();
+    }
+
+    /**
+     * @return the numeric value of the current token (an Integer, a Long or a Double), or null for a JSON null.
+     * @throws IllegalArgumentException if the value is not a number or doesn't fit in a long or a double.
+     */
+    static Number readNumber(JsonParser parser, String field) throws IOException {
+        JsonToken token = parser.getCurrentToken();
+        if (token == JsonToken.VALUE_NULL) {
+            return null;
+        } else if (token == JsonToken.VALUE_NUMBER_INT) {
+            JsonParser.NumberType type = parser.getNumberType();
+            if (type == JsonParser.NumberType.INT) {
+                return parser.getIntValue();
+            } else if (type == JsonParser.NumberType.LONG) {
+                return parser.getLongValue();
+            }
+        } else if (token == JsonToken.VALUE_NUMBER_FLOAT) {
+            double value = parser.getDoubleValue();
+            if (!Double.isInfinite(value)) {
+                return value;
+            }
+        } else {
+            throw new IllegalArgumentException("Field " + field + " must be a number");
+        }
+        throw new IllegalArgumentException("Field " + field + " is out of range");
+    }
+
+    static IllegalArgumentException unknownField(String field) {
+        return new IllegalArgumentException("Unknown field " + field);
+    }
+
+    static void writeString(JsonGenerator generator, String field, String value) throws IOException {
+        if (value != null) {
+            generator.writeStringField(field, value);
+        }
+    }
+
+    static void writeNumber(JsonGenerator generator, String field, Number value) throws IOException {
+        if (value == null) {
+            return;
+        }
+        generator.writeFieldName(field);
+        if (value instanceof Integer) {
+            generator.writeNumber(value.intValue());
+        } else if (value instanceof Long) {
+            generator.writeNumber(value.longValue());
+        } else {
+            generator.writeNumber(value.doubleValue());
+        }
+    }
+
+    /**
+     * Something that writes itself as a JSON value.
+     */
+    interface Writable {
+        void write(JsonGenerator generator) throws IOException;
+    }
+
+    static String toJson(Writable value) {
+        StringWriter out = new StringWriter();
+        try {
+            JsonGenerator generator = JSON_FACTORY.createGenerator(out);
+            value.write(generator);
+            generator.close();
+        } catch (IOException e) {
+            //a StringWriter doesn't fail
+            throw new IllegalStateException("Unable to encode JSON", e);
+        }
+        return out.toString();
+    }
+}
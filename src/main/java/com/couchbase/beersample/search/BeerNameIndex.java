@@ -0,0 +1,219 @@
+/**
+ * Copyright (C) 2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.beersample.search;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * An in-memory trigram index over beer names, used to answer "name contains" searches
+ * without scanning (and fetching) every beer in the bucket.
+ *
+ * Each lower-cased name is cut into overlapping 3-character grams, and each gram points to
+ * the set of beer ids whose name contains it. A search looks up the smallest posting set among
+ * the token's grams and verifies each candidate against its full name, so only true matches
+ * are returned. Tokens shorter than a gram are verified against every indexed name, which is
+ * still a purely local operation.
+ *
+ * The index doesn't know about Couchbase at all: it is fed (id, name) pairs, which makes it
+ * easy to load from a view, keep up to date from the write paths or exercise on its own.
+ */
+public class BeerNameIndex {
+
+    /** the size of the grams the names are cut into */
+    public static final int GRAM_SIZE = 3;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /** beer id to lower-cased beer name */
+    private final Map<String, String> names = new HashMap<String, String>();
+    /** beer id to original beer name, used to order the results */
+    private final Map<String, String> displayNames = new HashMap<String, String>();
+    /** gram to the ids of the beers which name contains it */
+    private final Map<String, Set<String>> postings = new HashMap<String, Set<String>>();
+
+    private volatile boolean ready = false;
+
+    /**
+     * Index (or re-index) the name of a beer.
+     *
+     * @param id the beer's key.
+     * @param name the beer's name, null to simply remove the beer from the index.
+     */
+    public void put(String id, String name) {
+        lock.writeLock().lock();
+        try {
+            removeUnderLock(id);
+            if (name == null) {
+                return;
+            }
+            String lowerName = normalize(name);
+            names.put(id, lowerName);
+            displayNames.put(id, name);
+            for (String gram : grams(lowerName)) {
+                Set<String> ids = postings.get(gram);
+                if (ids == null) {
+                    ids = new HashSet<String>();
+                    postings.put(gram, ids);
+                }
+                ids.add(id);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Remove a beer from the index, if it was indexed.
+     */
+    public void remove(String id) {
+        lock.writeLock().lock();
+        try {
+            removeUnderLock(id);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void removeUnderLock(String id) {
+        String previous = names.remove(id);
+        displayNames.remove(id);
+        if (previous == null) {
+            return;
+        }
+        for (String gram : grams(previous)) {
+            Set<String> ids = postings.get(gram);
+            if (ids != null) {
+                ids.remove(id);
+                if (ids.isEmpty()) {
+                    postings.remove(gram);
+                }
+            }
+        }
+    }
+
+    /**
+     * Find the ids of all the beers which name contains the token (ignoring case), ordered
+     * by name then id.
+     */
+    public List<String> search(String token) {
+        final String lowerToken = normalize(token);
+        List<String> result = new ArrayList<String>();
+        lock.readLock().lock();
+        try {
+            Set<String> candidates;
+            if (lowerToken.length() < GRAM_SIZE) {
+                candidates = names.keySet();
+            } else {
+                candidates = null;
+                for (String gram : grams(lowerToken)) {
+                    Set<String> ids = postings.get(gram);
+                    if (ids == null) {
+                        //one of the grams is in no name at all, so nothing can match
+                        return result;
+                    }
+                    if (candidates == null || ids.size() < candidates.size()) {
+                        candidates = ids;
+                    }
+                }
+            }
+            //the smallest posting set is a superset of the matches, verify each candidate
+            for (String id : candidates) {
+                if (names.get(id).contains(lowerToken)) {
+                    result.add(id);
+                }
+            }
+            Collections.sort(result, new Comparator<String>() {
+                @Override
+                public int compare(String id1, String id2) {
+                    int byName = displayNames.get(id1).compareTo(displayNames.get(id2));
+                    return byName != 0 ? byName : id1.compareTo(id2);
+                }
+            });
+        } finally {
+            lock.readLock().unlock();
+        }
+        return result;
+    }
+
+    /**
+     * @return the number of indexed beers.
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return names.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Remove every beer from the index and flag it as not ready.
+     */
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            ready = false;
+            names.clear();
+            displayNames.clear();
+            postings.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return true once the index has been fully loaded and can be trusted to answer searches.
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Flag the index as fully loaded.
+     */
+    public void markReady() {
+        this.ready = true;
+    }
+
+    private static String normalize(String value) {
+        return value.toLowerCase(Locale.ENGLISH);
+    }
+
+    private static Set<String> grams(String lowerValue) {
+        Set<String> grams = new HashSet<String>();
+        for (int i = 0; i + GRAM_SIZE <= lowerValue.length(); i++) {
+            grams.add(lowerValue.substring(i, i + GRAM_SIZE));
+        }
+        return grams;
+    }
+}
@@ -0,0 +1,270 @@
+/**
+ * Copyright (C) 2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.beersample.search;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * An immutable, sorted copy of the rows of the "by_name" view (the beer names and ids), used to serve the beer
+ * listing without querying the view.
+ *
+ * The rows are packed in a single char array, each row being its name followed by its id, with the bounds of each
+ * part in an int array: a few bytes per row instead of a couple of objects. Names and ids are only materialized
+ * as Strings for the rows being read.
+ *
+ * Rows are ordered by name ignoring case, then by name, then by id, which is close to the view's collation, and a
+ * row can be found by binary search on that order. A snapshot is never modified: {@link #with(String, String)}
+ * returns a new snapshot, to be swapped in atomically by the owner.
+ */
+public final class BeerNameSnapshot {
+
+    private static final Comparator<String> NAME_ORDER = new Comparator<String>() {
+        @Override
+        public int compare(String name1, String name2) {
+            if (name1 == null || name2 == null) {
+                return name1 == null ? (name2 == null ? 0 : -1) : 1;
+            }
+            int ignoringCase = String.CASE_INSENSITIVE_ORDER.compare(name1, name2);
+            return ignoringCase != 0 ? ignoringCase : name1.compareTo(name2);
+        }
+    };
+
+    /** the names and ids of all the rows, one after the other */
+    private final char[] chars;
+    /** row i's name is chars[bounds[2i], bounds[2i+1]) and its id is chars[bounds[2i+1], bounds[2i+2]) */
+    private final int[] bounds;
+    /** the rows which name is null (as opposed to empty) */
+    private final BitSet nullNames;
+    private final long createdAt;
+
+    private BeerNameSnapshot(char[] chars, int[] bounds, BitSet nullNames) {
+        this.chars = chars;
+        this.bounds = bounds;
+        this.nullNames = nullNames;
+        this.createdAt = System.currentTimeMillis();
+    }
+
+    /**
+     * @return the number of rows.
+     */
+    public int size() {
+        return bounds.length / 2;
+    }
+
+    /**
+     * @return the time this snapshot was built, in milliseconds since the epoch.
+     */
+    public long createdAt() {
+        return createdAt;
+    }
+
+    /**
+     * @return the name of the row at the given index, possibly null.
+     */
+    public String name(int index) {
+        if (nullNames.get(index)) {
+            return null;
+        }
+        return new String(chars, bounds[2 * index], bounds[2 * index + 1] - bounds[2 * index]);
+    }
+
+    /**
+     * @return the id of the row at the given index.
+     */
+    public String id(int index) {
+        return new String(chars, bounds[2 * index + 1], bounds[2 * index + 2] - bounds[2 * index + 1]);
+    }
+
+    /**
+     * @return the index of the first row after the given name and id (whether such a row exists or not), which is
+     * {@link #size()} if there is none.
+     */
+    public int indexAfter(String name, String id) {
+        int low = 0;
+        int high = size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (compareRow(middle, name, id) <= 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return a view of the rows from the first index (inclusive) to the second one (exclusive), both being
+     * clamped to the existing rows.
+     */
+    public List<Row> rows(int fromIndex, int toIndex) {
+        final int from = Math.max(0, Math.min(fromIndex, size()));
+        final int to = Math.max(from, Math.min(toIndex, size()));
+        return new AbstractList<Row>() {
+            @Override
+            public Row get(int index) {
+                if (index < 0 || index >= to - from) {
+                    throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+                }
+                return new Row(name(from + index), id(from + index));
+            }
+
+            @Override
+            public int size() {
+                return to - from;
+            }
+        };
+    }
+
+    /**
+     * @param id the id of a beer that was written.
+     * @param name the new name of the beer, null if it was deleted or is not a beer anymore.
+     * @return a new snapshot where the beer's row is replaced, added or removed.
+     */
+    public BeerNameSnapshot with(String id, String name) {
+        Builder builder = new Builder(size() + 1);
+        for (int i = 0; i < size(); i++) {
+            if (!idEquals(i, id)) {
+                builder.add(name(i), id(i));
+            }
+        }
+        if (name != null) {
+            builder.add(name, id);
+        }
+        return builder.build();
+    }
+
+    private int compareRow(int index, String name, String id) {
+        int byName = NAME_ORDER.compare(name(index), name);
+        return byName != 0 ? byName : id(index).compareTo(id);
+    }
+
+    private boolean idEquals(int index, String id) {
+        int start = bounds[2 * index + 1];
+        int length = bounds[2 * index + 2] - start;
+        if (length != id.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (chars[start + i] != id.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * A row of a snapshot.
+     */
+    public static final class Row {
+        private final String name;
+        private final String id;
+
+        private Row(String name, String id) {
+            this.name = name;
+            this.id = id;
+        }
+
+        /**
+         * @return the beer's name (view key), possibly null.
+         */
+        public String name() {
+            return name;
+        }
+
+        /**
+         * @return the beer's id.
+         */
+        public String id() {
+            return id;
+        }
+    }
+
+    /**
+     * Collects rows in any order, then sorts and packs them into a snapshot. Not thread safe.
+     */
+    public static class Builder {
+
+        private final List<String> names;
+        private final List<String> ids;
+
+        public Builder() {
+            this(1024);
+        }
+
+        public Builder(int expectedSize) {
+            this.names = new ArrayList<String>(expectedSize);
+            this.ids = new ArrayList<String>(expectedSize);
+        }
+
+        /**
+         * Add a row. Rows with the same id are all kept, the caller is expected to add each beer once.
+         */
+        public Builder add(String name, String id) {
+            names.add(name);
+            ids.add(id);
+            return this;
+        }
+
+        public BeerNameSnapshot build() {
+            Integer[] order = new Integer[ids.size()];
+            int length = 0;
+            for (int i = 0; i < order.length; i++) {
+                order[i] = i;
+                length += (names.get(i) == null ? 0 : names.get(i).length()) + ids.get(i).length();
+            }
+            Arrays.sort(order, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer row1, Integer row2) {
+                    int byName = NAME_ORDER.compare(names.get(row1), names.get(row2));
+                    return byName != 0 ? byName : ids.get(row1).compareTo(ids.get(row2));
+                }
+            });
+
+            char[] chars = new char[length];
+            int[] bounds = new int[2 * order.length + 1];
+            BitSet nullNames = new BitSet();
+            int position = 0;
+            for (int i = 0; i < order.length; i++) {
+                String name = names.get(order[i]);
+                String id = ids.get(order[i]);
+                bounds[2 * i] = position;
+                if (name == null) {
+                    nullNames.set(i);
+                } else {
+                    name.getChars(0, name.length(), chars, position);
+                    position += name.length();
+                }
+                bounds[2 * i + 1] = position;
+                id.getChars(0, id.length(), chars, position);
+                position += id.length();
+            }
+            bounds[2 * order.length] = position;
+            return new BeerNameSnapshot(chars, bounds, nullNames);
+        }
+    }
+}
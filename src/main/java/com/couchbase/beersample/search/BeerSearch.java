@@ -0,0 +1,170 @@
+/**
+ * Copyright (C) 2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.beersample.search;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+
+import com.couchbase.beersample.CouchbaseService;
+import com.couchbase.beersample.DocumentChangeListener;
+import com.couchbase.beersample.config.Database;
+import com.couchbase.client.java.document.JsonDocument;
+import com.couchbase.client.java.document.json.JsonObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import rx.Subscriber;
+
+/**
+ * The faceted search over the beers: a {@link BeerSearchIndex} loaded from the "brewery_beers" view once the bucket
+ * is open, then kept up to date from the writes going through the {@link CouchbaseService}.
+ *
+ * Documents written while the index is being loaded are indexed from the write, and skipped by the load which may
+ * have read them before the write. Beers without a brewery are not in the view, so they are only indexed once they
+ * are written through the application.
+ */
+@Component
+public class BeerSearch implements DocumentChangeListener {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BeerSearch.class);
+
+    private final CouchbaseService couchbaseService;
+    private final boolean enabled;
+    private final int maxLimit;
+    private final BeerSearchIndex index = new BeerSearchIndex();
+
+    /** the documents written during the current load, null when not loading */
+    private volatile Set<String> writtenDuringLoad;
+    private volatile long loadMillis = -1;
+
+    @Autowired
+    public BeerSearch(final CouchbaseService couchbaseService, final Database config) {
+        this.couchbaseService = couchbaseService;
+        this.enabled = config.isSearchEnabled();
+        this.maxLimit = config.getSearchMaxLimit();
+        if (enabled) {
+            couchbaseService.addDocumentChangeListener(this);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return true once the index is loaded and queries can be answered.
+     */
+    public boolean isReady() {
+        return enabled && index.isReady();
+    }
+
+    public int getMaxLimit() {
+        return maxLimit;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (enabled) {
+            load();
+        }
+    }
+
+    /**
+     * Load the index in the background, from scratch. Queries are refused until it is done, and if it fails.
+     */
+    public void load() {
+        index.clear();
+        final Set<String> written = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        writtenDuringLoad = written;
+        final long start = System.nanoTime();
+        couchbaseService.findBreweriesAndBeersAsync().subscribe(new Subscriber<JsonDocument>() {
+            @Override
+            public void onNext(JsonDocument doc) {
+                if (!written.contains(doc.id())) {
+                    index.put(doc.id(), doc.content());
+                }
+            }
+
+            @Override
+            public void onError(Throwable e) {
+                writtenDuringLoad = null;
+                LOGGER.warn("Unable to load the beer search index, beer queries are unavailable", e);
+            }
+
+            @Override
+            public void onCompleted() {
+                writtenDuringLoad = null;
+                loadMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                index.markReady();
+                LOGGER.info("Beer search index loaded with " + index.size() + " beers in " + loadMillis + "ms");
+            }
+        });
+    }
+
+    /**
+     * Run a query on the index.
+     *
+     * @throws IllegalStateException if the index is not loaded.
+     */
+    public BeerSearchIndex.Result search(BeerSearchIndex.Query query) {
+        if (!isReady()) {
+            throw new IllegalStateException("The beer search index is " + (enabled ? "loading" : "disabled"));
+        }
+        return index.search(query);
+    }
+
+    @Override
+    public void documentStored(String id, JsonObject content, JsonObject previous) {
+        markWritten(id);
+        index.put(id, content);
+    }
+
+    @Override
+    public void documentRemoved(String id, JsonObject previous) {
+        markWritten(id);
+        index.remove(id);
+    }
+
+    private void markWritten(String id) {
+        Set<String> written = writtenDuringLoad;
+        if (written != null) {
+            written.add(id);
+        }
+    }
+
+    /**
+     * @return the counters of the search index, as a JSON object.
+     */
+    public JsonObject stats() {
+        if (!enabled) {
+            return JsonObject.create().put("enabled", false);
+        }
+        return index.stats()
+                .put("enabled", true)
+                .put("loadMillis", loadMillis);
+    }
+}
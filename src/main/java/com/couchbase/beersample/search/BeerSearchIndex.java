@@ -0,0 +1,1061 @@
+/**
+ * Copyright (C) 2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.beersample.search;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+import com.couchbase.client.java.document.json.JsonArray;
+import com.couchbase.client.java.document.json.JsonObject;
+
+/**
+ * An in-memory inverted index over the beers (and the breweries they belong to), answering queries such as "ipa
+ * with an abv between 6 and 8 from breweries in Colorado" with facet counts and the top ranked beers, without
+ * touching the database.
+ *
+ * Each beer gets an ordinal, and the index keeps:
+ * <ul>
+ *     <li>for each word of the name, style, category and description, the {@link PostingList} of the beers holding
+ *     it in that field,</li>
+ *     <li>for each style, category and brewery, the posting list of its beers,</li>
+ *     <li>for each range of ABV (by {@value #ABV_BUCKET}) and IBU (by {@value #IBU_BUCKET}), the posting list of the
+ *     beers in that range, the beers at the edges of a queried range being checked against their actual value,</li>
+ *     <li>the columns needed to rank and count the matches (name, abv, ibu, style, category, brewery).</li>
+ * </ul>
+ * Breweries are a much smaller set: their words, state and country are indexed by brewery and joined to the beers
+ * through the brewery posting lists at query time, so that a change to a brewery doesn't touch its beers.
+ *
+ * Posting lists only ever get appended to: a beer which is updated or deleted leaves a dead ordinal behind (and an
+ * update gets a new one), and the index compacts itself once there are as many dead ordinals as live ones. Like
+ * {@link BeerNameIndex}, the index doesn't know about Couchbase and is simply fed documents.
+ */
+public class BeerSearchIndex {
+
+    /** the fields a search can be filtered and faceted on */
+    public static final String STYLE = "style";
+    public static final String CATEGORY = "category";
+    public static final String BREWERY = "brewery";
+    public static final String STATE = "state";
+    public static final String COUNTRY = "country";
+    public static final List<String> FACETS = Collections.unmodifiableList(
+            Arrays.asList(STYLE, CATEGORY, BREWERY, STATE, COUNTRY));
+
+    static final float ABV_BUCKET = 0.5f;
+    static final float IBU_BUCKET = 5f;
+
+    /** the text fields of a beer, and the weight of a word found in each */
+    private static final String[] TEXT_FIELDS = { "name", "style", "category", "description" };
+    private static final float[] TEXT_WEIGHTS = { 3f, 2f, 2f, 1f };
+    /** the weight of a word found in the name of the beer's brewery */
+    private static final float BREWERY_WEIGHT = 1.5f;
+
+    /** compact once there are at least that many dead ordinals, and as many as live ones */
+    private static final int MIN_DEAD_TO_COMPACT = 1024;
+
+    private static final Pattern NON_WORD = Pattern.compile("[^\\p{L}\\p{N}]+");
+    private static final Pattern DIACRITICS = Pattern.compile("\\p{InCombiningDiacriticalMarks}+");
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    //===== beers, by ordinal =====
+    private final Map<String, Integer> ordinals = new HashMap<String, Integer>();
+    private final DocSet live = new DocSet(1024);
+    private int nextOrdinal = 0;
+    private int deadCount = 0;
+    private String[] ids = new String[1024];
+    private String[] names = new String[1024];
+    /** the first characters of each name, see {@link #nameKey(String)} */
+    private long[] nameKeys = new long[1024];
+    private double[] abvs = new double[1024];
+    private double[] ibus = new double[1024];
+    private int[] styles = new int[1024];
+    private int[] categories = new int[1024];
+    private int[] breweries = new int[1024];
+
+    /** for each text field, the words to their posting lists */
+    private final List<Map<String, PostingList>> words = new ArrayList<Map<String, PostingList>>();
+    private final Values styleValues = new Values();
+    private final Values categoryValues = new Values();
+    /** keyed by brewery id, whether the brewery is known or not */
+    private final Values breweryValues = new Values(false);
+    private final NavigableMap<Integer, PostingList> abvBuckets = new TreeMap<Integer, PostingList>();
+    private final NavigableMap<Integer, PostingList> ibuBuckets = new TreeMap<Integer, PostingList>();
+
+    //===== breweries =====
+    private final Map<String, Set<String>> breweryWords = new HashMap<String, Set<String>>();
+    private final Map<String, Set<String>> breweriesByWord = new HashMap<String, Set<String>>();
+    private final Values stateValues = new Values();
+    private final Values countryValues = new Values();
+    /** the state and country of each brewery, by ordinal in breweryValues, -1 if unknown */
+    private int[] breweryStates = new int[256];
+    private int[] breweryCountries = new int[256];
+
+    private volatile boolean ready = false;
+
+    private final AtomicLong queries = new AtomicLong();
+    private final AtomicLong queryNanos = new AtomicLong();
+    private final AtomicLong updates = new AtomicLong();
+    private final AtomicLong compactions = new AtomicLong();
+
+    public BeerSearchIndex() {
+        for (int i = 0; i < TEXT_FIELDS.length; i++) {
+            words.add(new HashMap<String, PostingList>());
+        }
+        Arrays.fill(breweryStates, -1);
+        Arrays.fill(breweryCountries, -1);
+    }
+
+    //===== updates =====
+
+    /**
+     * Index (or re-index) a document: beers and breweries are indexed, anything else is removed from the index.
+     *
+     * @param id the document's key.
+     * @param content the document's content, null to simply remove the document from the index.
+     */
+    public void put(String id, JsonObject content) {
+        String type = content == null ? null : content.getString("type");
+        lock.writeLock().lock();
+        try {
+            updates.incrementAndGet();
+            removeUnderLock(id);
+            if ("beer".equals(type)) {
+                putBeer(id, content);
+            } else if ("brewery".equals(type)) {
+                putBrewery(id, content);
+            }
+            if (deadCount >= MIN_DEAD_TO_COMPACT && deadCount >= ordinals.size()) {
+                compact();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Remove a beer or brewery from the index, if it was indexed.
+     */
+    public void remove(String id) {
+        put(id, null);
+    }
+
+    private void removeUnderLock(String id) {
+        Integer ordinal = ordinals.remove(id);
+        if (ordinal != null) {
+            live.clear(ordinal);
+            //the strings are no longer needed, the rest stays until the next compaction
+            ids[ordinal] = null;
+            names[ordinal] = null;
+            deadCount++;
+        }
+        Set<String> previousWords = breweryWords.remove(id);
+        if (previousWords != null) {
+            for (String word : previousWords) {
+                unlink(breweriesByWord, word, id);
+            }
+            int brewery = breweryValues.ordinal(id);
+            breweryStates[brewery] = -1;
+            breweryCountries[brewery] = -1;
+        }
+    }
+
+    private void putBeer(String id, JsonObject content) {
+        int ordinal = nextOrdinal++;
+        if (ordinal == ids.length) {
+            grow(2 * ids.length);
+        }
+        ordinals.put(id, ordinal);
+        live.add(ordinal);
+        ids[ordinal] = id;
+        names[ordinal] = content.getString("name");
+        nameKeys[ordinal] = nameKey(names[ordinal]);
+        abvs[ordinal] = number(content.get("abv"));
+        ibus[ordinal] = number(content.get("ibu"));
+        styles[ordinal] = styleValues.add(content.getString("style"), ordinal);
+        categories[ordinal] = categoryValues.add(content.getString("category"), ordinal);
+        breweries[ordinal] = breweryValues.add(content.getString("brewery_id"), ordinal);
+        for (int field = 0; field < TEXT_FIELDS.length; field++) {
+            Map<String, PostingList> fieldWords = words.get(field);
+            for (String word : words(content.getString(TEXT_FIELDS[field]))) {
+                PostingList postings = fieldWords.get(word);
+                if (postings == null) {
+                    postings = new PostingList();
+                    fieldWords.put(word, postings);
+                }
+                postings.add(ordinal);
+            }
+        }
+        addToBucket(abvBuckets, abvs[ordinal], ABV_BUCKET, ordinal);
+        addToBucket(ibuBuckets, ibus[ordinal], IBU_BUCKET, ordinal);
+    }
+
+    private void putBrewery(String id, JsonObject content) {
+        Set<String> nameWords = words(content.getString("name"));
+        breweryWords.put(id, nameWords);
+        for (String word : nameWords) {
+            link(breweriesByWord, word, id);
+        }
+        int brewery = breweryValues.intern(id);
+        if (brewery >= breweryStates.length) {
+            int capacity = Math.max(2 * breweryStates.length, brewery + 1);
+            int previous = breweryStates.length;
+            breweryStates = Arrays.copyOf(breweryStates, capacity);
+            breweryCountries = Arrays.copyOf(breweryCountries, capacity);
+            Arrays.fill(breweryStates, previous, capacity, -1);
+            Arrays.fill(breweryCountries, previous, capacity, -1);
+        }
+        breweryStates[brewery] = stateValues.intern(content.getString("state"));
+        breweryCountries[brewery] = countryValues.intern(content.getString("country"));
+    }
+
+    private void grow(int capacity) {
+        ids = Arrays.copyOf(ids, capacity);
+        names = Arrays.copyOf(names, capacity);
+        nameKeys = Arrays.copyOf(nameKeys, capacity);
+        abvs = Arrays.copyOf(abvs, capacity);
+        ibus = Arrays.copyOf(ibus, capacity);
+        styles = Arrays.copyOf(styles, capacity);
+        categories = Arrays.copyOf(categories, capacity);
+        breweries = Arrays.copyOf(breweries, capacity);
+    }
+
+    private static void addToBucket(NavigableMap<Integer, PostingList> buckets, double value, float width,
+            int ordinal) {
+        if (Double.isNaN(value)) {
+            return;
+        }
+        Integer bucket = (int) Math.floor(value / width);
+        PostingList postings = buckets.get(bucket);
+        if (postings == null) {
+            postings = new PostingList();
+            buckets.put(bucket, postings);
+        }
+        postings.add(ordinal);
+    }
+
+    private static void link(Map<String, Set<String>> index, String key, String id) {
+        if (key == null) {
+            return;
+        }
+        Set<String> ids = index.get(key);
+        if (ids == null) {
+            ids = new HashSet<String>();
+            index.put(key, ids);
+        }
+        ids.add(id);
+    }
+
+    private static void unlink(Map<String, Set<String>> index, String key, String id) {
+        Set<String> ids = key == null ? null : index.get(key);
+        if (ids != null) {
+            ids.remove(id);
+            if (ids.isEmpty()) {
+                index.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Drop the dead ordinals: the live beers are renumbered (in the same order) and every posting list is rebuilt.
+     */
+    private void compact() {
+        int[] renumbering = new int[nextOrdinal];
+        int count = 0;
+        for (int ordinal = 0; ordinal < nextOrdinal; ordinal++) {
+            if (live.get(ordinal)) {
+                renumbering[ordinal] = count;
+                ids[count] = ids[ordinal];
+                names[count] = names[ordinal];
+                nameKeys[count] = nameKeys[ordinal];
+                abvs[count] = abvs[ordinal];
+                ibus[count] = ibus[ordinal];
+                styles[count] = styles[ordinal];
+                categories[count] = categories[ordinal];
+                breweries[count] = breweries[ordinal];
+                ordinals.put(ids[count], count);
+                count++;
+            } else {
+                renumbering[ordinal] = -1;
+            }
+        }
+        Arrays.fill(ids, count, nextOrdinal, null);
+        Arrays.fill(names, count, nextOrdinal, null);
+        for (Map<String, PostingList> fieldWords : words) {
+            retain(fieldWords.values(), renumbering);
+        }
+        retain(abvBuckets.values(), renumbering);
+        retain(ibuBuckets.values(), renumbering);
+        styleValues.retain(renumbering);
+        categoryValues.retain(renumbering);
+        breweryValues.retain(renumbering);
+        live.setUntil(count);
+        nextOrdinal = count;
+        deadCount = 0;
+        compactions.incrementAndGet();
+    }
+
+    private static void retain(Iterable<PostingList> lists, int[] renumbering) {
+        for (Iterator<PostingList> i = lists.iterator(); i.hasNext();) {
+            if (!i.next().retain(renumbering)) {
+                i.remove();
+            }
+        }
+    }
+
+    //===== queries =====
+
+    /**
+     * Run a query.
+     */
+    public Result search(Query query) {
+        long start = System.nanoTime();
+        Set<String> queryWords = words(query.text);
+        lock.readLock().lock();
+        try {
+            DocSet matches = live.copy();
+            //the scores are accumulated while the words are matched, so that each posting list is read once
+            float[] scores = queryWords.isEmpty() || query.limit <= 0 ? null : new float[nextOrdinal];
+            for (String word : queryWords) {
+                matches.and(matchAndScore(word, scores));
+            }
+            for (Map.Entry<String, Set<String>> filter : query.filters.entrySet()) {
+                matches.and(filter(filter.getKey(), filter.getValue()));
+            }
+            if (query.minAbv != null || query.maxAbv != null) {
+                matches.and(range(abvBuckets, abvs, ABV_BUCKET, query.minAbv, query.maxAbv));
+            }
+            if (query.minIbu != null || query.maxIbu != null) {
+                matches.and(range(ibuBuckets, ibus, IBU_BUCKET, query.minIbu, query.maxIbu));
+            }
+
+            Result result = new Result(matches.cardinality());
+            countFacets(matches, query, result);
+            rank(matches, scores, query.limit, result);
+            result.tookNanos = System.nanoTime() - start;
+            return result;
+        } finally {
+            lock.readLock().unlock();
+            queries.incrementAndGet();
+            queryNanos.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * @return the beers holding the word in one of their text fields or in the name of their brewery, each of them
+     * getting the weight of the field times the inverse document frequency of the word added to its score.
+     */
+    private DocSet matchAndScore(String word, float[] scores) {
+        int frequency = 0;
+        for (int field = 0; field < TEXT_FIELDS.length; field++) {
+            PostingList postings = words.get(field).get(word);
+            if (postings != null) {
+                frequency += postings.size();
+            }
+        }
+        float idf = (float) Math.log(1d + (nextOrdinal - deadCount) / (1d + frequency));
+        DocSet matches = new DocSet(nextOrdinal);
+        for (int field = 0; field < TEXT_FIELDS.length; field++) {
+            PostingList postings = words.get(field).get(word);
+            if (postings != null) {
+                postings.addTo(matches, scores, TEXT_WEIGHTS[field] * idf);
+            }
+        }
+        DocSet wordBreweries = breweries(breweriesByWord.get(word));
+        for (int b = wordBreweries.nextSetBit(0); b >= 0; b = wordBreweries.nextSetBit(b + 1)) {
+            breweryValues.postings.get(b).addTo(matches, scores, BREWERY_WEIGHT * idf);
+        }
+        return matches;
+    }
+
+    /**
+     * @return the beers matching any of the values of a facet.
+     */
+    private DocSet filter(String facet, Set<String> values) {
+        DocSet matches = new DocSet(nextOrdinal);
+        for (String value : values) {
+            if (STYLE.equals(facet)) {
+                styleValues.addTo(normalize(value), matches);
+            } else if (CATEGORY.equals(facet)) {
+                categoryValues.addTo(normalize(value), matches);
+            } else if (BREWERY.equals(facet)) {
+                breweryValues.addTo(value, matches);
+            } else if (STATE.equals(facet)) {
+                addBeersOf(breweriesWith(breweryStates, stateValues.ordinal(normalize(value))), matches);
+            } else if (COUNTRY.equals(facet)) {
+                addBeersOf(breweriesWith(breweryCountries, countryValues.ordinal(normalize(value))), matches);
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * @return the given breweries, by brewery ordinal.
+     */
+    private DocSet breweries(Set<String> breweryIds) {
+        DocSet result = new DocSet(breweryValues.size());
+        if (breweryIds != null) {
+            for (String breweryId : breweryIds) {
+                int brewery = breweryValues.ordinal(breweryId);
+                if (brewery >= 0) {
+                    result.set(brewery);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the breweries which state (or country) is the given one, by brewery ordinal.
+     */
+    private DocSet breweriesWith(int[] breweryValue, int value) {
+        DocSet result = new DocSet(breweryValues.size());
+        if (value >= 0) {
+            int known = Math.min(breweryValues.size(), breweryValue.length);
+            for (int brewery = 0; brewery < known; brewery++) {
+                if (breweryValue[brewery] == value) {
+                    result.set(brewery);
+                }
+            }
+        }
+        return result;
+    }
+
+    private void addBeersOf(DocSet breweryOrdinals, DocSet beers) {
+        for (int b = breweryOrdinals.nextSetBit(0); b >= 0; b = breweryOrdinals.nextSetBit(b + 1)) {
+            breweryValues.postings.get(b).addTo(beers);
+        }
+    }
+
+    /**
+     * @return the beers which value is within [min, max] (either bound being optional): the buckets fully within
+     * the range are taken as a whole, the beers of the buckets at its edges are checked one by one.
+     */
+    private DocSet range(NavigableMap<Integer, PostingList> buckets, double[] values, float width, Double min,
+            Double max) {
+        double low = min != null ? min : Double.NEGATIVE_INFINITY;
+        double high = max != null ? max : Double.POSITIVE_INFINITY;
+        DocSet matches = new DocSet(nextOrdinal);
+        if (low > high) {
+            return matches;
+        }
+        NavigableMap<Integer, PostingList> candidates = buckets;
+        if (min != null) {
+            candidates = candidates.tailMap((int) Math.floor(low / width), true);
+        }
+        if (max != null) {
+            candidates = candidates.headMap((int) Math.floor(high / width), true);
+        }
+        for (Map.Entry<Integer, PostingList> bucket : candidates.entrySet()) {
+            double bucketLow = bucket.getKey() * (double) width;
+            double bucketHigh = bucketLow + width;
+            if (bucketLow >= low && bucketHigh <= high) {
+                bucket.getValue().addTo(matches);
+            } else {
+                PostingList.Iterator beers = bucket.getValue().iterator();
+                for (int beer = beers.next(); beer != PostingList.Iterator.END; beer = beers.next()) {
+                    if (values[beer] >= low && values[beer] <= high) {
+                        matches.set(beer);
+                    }
+                }
+            }
+        }
+        return matches;
+    }
+
+    private void countFacets(DocSet matches, Query query, Result result) {
+        if (query.facets.isEmpty() || query.facetSize <= 0) {
+            return;
+        }
+        //beers without a value are counted at index 0, and not reported
+        int[] styleCounts = new int[styleValues.size() + 1];
+        int[] categoryCounts = new int[categoryValues.size() + 1];
+        int[] breweryCounts = new int[breweryValues.size() + 1];
+        for (int w = 0; w < matches.wordCount(); w++) {
+            for (long bits = matches.word(w); bits != 0; bits &= bits - 1) {
+                int beer = (w << 6) + Long.numberOfTrailingZeros(bits);
+                styleCounts[styles[beer] + 1]++;
+                categoryCounts[categories[beer] + 1]++;
+                breweryCounts[breweries[beer] + 1]++;
+            }
+        }
+        int[] stateCounts = new int[stateValues.size() + 1];
+        int[] countryCounts = new int[countryValues.size() + 1];
+        for (int brewery = 0; brewery < breweryValues.size(); brewery++) {
+            int count = breweryCounts[brewery + 1];
+            if (count > 0 && brewery < breweryStates.length) {
+                stateCounts[breweryStates[brewery] + 1] += count;
+                countryCounts[breweryCountries[brewery] + 1] += count;
+            }
+        }
+        for (String facet : query.facets) {
+            List<FacetCount> top;
+            if (STYLE.equals(facet)) {
+                top = styleValues.top(styleCounts, query.facetSize);
+            } else if (CATEGORY.equals(facet)) {
+                top = categoryValues.top(categoryCounts, query.facetSize);
+            } else if (BREWERY.equals(facet)) {
+                top = breweryValues.top(breweryCounts, query.facetSize);
+            } else if (STATE.equals(facet)) {
+                top = stateValues.top(stateCounts, query.facetSize);
+            } else {
+                top = countryValues.top(countryCounts, query.facetSize);
+            }
+            result.facets.put(facet, top);
+        }
+    }
+
+    /**
+     * Keep the best matches in a bounded heap: the score of a beer is the sum, for each word of the query, of its
+     * weight in each field holding it (its brewery's name being one) times its inverse document frequency. Ties (eg.
+     * when there are no words) are broken by name then id.
+     *
+     * @param scores the scores of the beers, by ordinal, null if they are all 0.
+     */
+    private void rank(DocSet matches, float[] scores, int limit, Result result) {
+        if (limit <= 0) {
+            return;
+        }
+        final Comparator<Hit> worstFirst = new Comparator<Hit>() {
+            @Override
+            public int compare(Hit hit1, Hit hit2) {
+                return compareRanks(hit1.beer, hit1.score, hit2.beer, hit2.score);
+            }
+        };
+        PriorityQueue<Hit> best = new PriorityQueue<Hit>(limit + 1, worstFirst);
+        for (int w = 0; w < matches.wordCount(); w++) {
+            for (long bits = matches.word(w); bits != 0; bits &= bits - 1) {
+                int beer = (w << 6) + Long.numberOfTrailingZeros(bits);
+                float score = scores == null ? 0f : scores[beer];
+                if (best.size() < limit) {
+                    best.add(new Hit(beer, score));
+                } else if (compareRanks(beer, score, best.peek().beer, best.peek().score) > 0) {
+                    best.poll();
+                    best.add(new Hit(beer, score));
+                }
+            }
+        }
+        List<Hit> hits = new ArrayList<Hit>(best);
+        Collections.sort(hits, Collections.reverseOrder(worstFirst));
+        for (Hit hit : hits) {
+            result.hits.add(hit.toJson());
+        }
+    }
+
+    /**
+     * @return a positive number if the first beer ranks better than the second one.
+     */
+    private int compareRanks(int beer1, float score1, int beer2, float score2) {
+        if (score1 != score2) {
+            return score1 > score2 ? 1 : -1;
+        }
+        if (nameKeys[beer1] != nameKeys[beer2]) {
+            //compared as unsigned, the smaller name ranks better
+            return (nameKeys[beer1] ^ Long.MIN_VALUE) < (nameKeys[beer2] ^ Long.MIN_VALUE) ? 1 : -1;
+        }
+        int byName = compareNames(names[beer2], names[beer1]);
+        return byName != 0 ? byName : ids[beer2].compareTo(ids[beer1]);
+    }
+
+    /**
+     * @return the first 4 characters of a name ignoring case, packed in a long which unsigned order is the order of
+     * {@link String#CASE_INSENSITIVE_ORDER} on them, so that most names are compared without reading them.
+     */
+    static long nameKey(String name) {
+        if (name == null) {
+            //null names come last
+            return -1L;
+        }
+        long key = 0;
+        for (int i = 0; i < 4; i++) {
+            char c = i < name.length() ? Character.toLowerCase(Character.toUpperCase(name.charAt(i))) : 0;
+            key = (key << 16) | c;
+        }
+        return key;
+    }
+
+    private static int compareNames(String name1, String name2) {
+        if (name1 == null || name2 == null) {
+            return name1 == null ? (name2 == null ? 0 : 1) : -1;
+        }
+        int ignoringCase = String.CASE_INSENSITIVE_ORDER.compare(name1, name2);
+        return ignoringCase != 0 ? ignoringCase : name1.compareTo(name2);
+    }
+
+    //===== state =====
+
+    /**
+     * @return the number of indexed beers.
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return ordinals.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Remove everything from the index and flag it as not ready.
+     */
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            ready = false;
+            ordinals.clear();
+            live.clearAll();
+            nextOrdinal = 0;
+            deadCount = 0;
+            Arrays.fill(ids, null);
+            Arrays.fill(names, null);
+            for (Map<String, PostingList> fieldWords : words) {
+                fieldWords.clear();
+            }
+            styleValues.clear();
+            categoryValues.clear();
+            breweryValues.clear();
+            abvBuckets.clear();
+            ibuBuckets.clear();
+            breweryWords.clear();
+            breweriesByWord.clear();
+            stateValues.clear();
+            countryValues.clear();
+            Arrays.fill(breweryStates, -1);
+            Arrays.fill(breweryCountries, -1);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return true once the index has been fully loaded and can be trusted to answer queries.
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Flag the index as fully loaded.
+     */
+    public void markReady() {
+        this.ready = true;
+    }
+
+    /**
+     * @return the size and counters of the index, as a JSON object.
+     */
+    public JsonObject stats() {
+        JsonObject stats = JsonObject.create();
+        lock.readLock().lock();
+        try {
+            long postingBytes = styleValues.bytes() + categoryValues.bytes() + breweryValues.bytes()
+                    + bytes(abvBuckets.values()) + bytes(ibuBuckets.values());
+            int wordCount = 0;
+            for (Map<String, PostingList> fieldWords : words) {
+                postingBytes += bytes(fieldWords.values());
+                wordCount += fieldWords.size();
+            }
+            stats.put("beers", ordinals.size())
+                    .put("deadOrdinals", deadCount)
+                    .put("breweries", breweryWords.size())
+                    .put("words", wordCount)
+                    .put("postingBytes", postingBytes);
+        } finally {
+            lock.readLock().unlock();
+        }
+        long queryCount = queries.get();
+        return stats.put("ready", ready)
+                .put("updates", updates.get())
+                .put("compactions", compactions.get())
+                .put("queries", queryCount)
+                .put("meanQueryMicros", queryCount == 0 ? 0L : queryNanos.get() / queryCount / 1000L);
+    }
+
+    private static long bytes(Iterable<PostingList> lists) {
+        long bytes = 0;
+        for (PostingList postings : lists) {
+            bytes += postings.bytes();
+        }
+        return bytes;
+    }
+
+    //===== text =====
+
+    /**
+     * Lower-case a value and strip its accents, so that "Köln" is found as "koln".
+     */
+    static String normalize(String value) {
+        if (value == null) {
+            return null;
+        }
+        String decomposed = Normalizer.normalize(value, Normalizer.Form.NFD);
+        return DIACRITICS.matcher(decomposed).replaceAll("").toLowerCase(Locale.ENGLISH).trim();
+    }
+
+    /**
+     * @return the distinct normalized words of a text, in order.
+     */
+    static Set<String> words(String text) {
+        Set<String> words = new LinkedHashSet<String>();
+        if (text == null) {
+            return words;
+        }
+        for (String word : NON_WORD.split(normalize(text))) {
+            if (!word.isEmpty()) {
+                words.add(word);
+            }
+        }
+        return words;
+    }
+
+    private static double number(Object value) {
+        return value instanceof Number ? ((Number) value).doubleValue() : Double.NaN;
+    }
+
+    /**
+     * A dictionary of the distinct values of a facet, each with the posting list of its beers.
+     */
+    private static final class Values {
+
+        private final Map<String, Integer> ordinals = new HashMap<String, Integer>();
+        /** the value as first seen, by ordinal */
+        private final List<String> values = new ArrayList<String>();
+        private final List<PostingList> postings = new ArrayList<PostingList>();
+        /** whether values are normalized before being looked up */
+        private final boolean normalized;
+
+        Values() {
+            this(true);
+        }
+
+        Values(boolean normalized) {
+            this.normalized = normalized;
+        }
+
+        /**
+         * @return the ordinal of the value, -1 if it is null.
+         */
+        int add(String value, int beer) {
+            if (value == null || value.isEmpty()) {
+                return -1;
+            }
+            String key = normalized ? normalize(value) : value;
+            Integer ordinal = ordinals.get(key);
+            if (ordinal == null) {
+                ordinal = values.size();
+                ordinals.put(key, ordinal);
+                values.add(value);
+                postings.add(new PostingList());
+            }
+            postings.get(ordinal).add(beer);
+            return ordinal;
+        }
+
+        /**
+         * @return the ordinal of the value, created if needed without adding any beer, -1 if it is null.
+         */
+        int intern(String value) {
+            if (value == null || value.isEmpty()) {
+                return -1;
+            }
+            String key = normalized ? normalize(value) : value;
+            Integer ordinal = ordinals.get(key);
+            if (ordinal == null) {
+                ordinal = values.size();
+                ordinals.put(key, ordinal);
+                values.add(value);
+                postings.add(new PostingList());
+            }
+            return ordinal;
+        }
+
+        int ordinal(String key) {
+            Integer ordinal = ordinals.get(key);
+            return ordinal == null ? -1 : ordinal;
+        }
+
+        void addTo(String key, DocSet beers) {
+            Integer ordinal = ordinals.get(key);
+            if (ordinal != null) {
+                postings.get(ordinal).addTo(beers);
+            }
+        }
+
+        int size() {
+            return values.size();
+        }
+
+        String value(int ordinal) {
+            return values.get(ordinal);
+        }
+
+        /**
+         * @param counts the count of each ordinal, shifted by one.
+         * @return the values with the highest counts, by decreasing count then value.
+         */
+        List<FacetCount> top(int[] counts, int size) {
+            PriorityQueue<FacetCount> top = new PriorityQueue<FacetCount>(size + 1, FacetCount.WORST_FIRST);
+            for (int ordinal = 0; ordinal < values.size(); ordinal++) {
+                int count = counts[ordinal + 1];
+                if (count == 0) {
+                    continue;
+                }
+                if (top.size() == size) {
+                    FacetCount worst = top.peek();
+                    boolean worse = count < worst.count
+                            || (count == worst.count && values.get(ordinal).compareTo(worst.value) > 0);
+                    if (worse) {
+                        continue;
+                    }
+                }
+                top.add(new FacetCount(values.get(ordinal), count));
+                if (top.size() > size) {
+                    top.poll();
+                }
+            }
+            List<FacetCount> result = new ArrayList<FacetCount>(top);
+            Collections.sort(result, Collections.reverseOrder(FacetCount.WORST_FIRST));
+            return result;
+        }
+
+        /**
+         * Values without beers are kept (with an empty list), so that the ordinals of the others don't change.
+         */
+        void retain(int[] renumbering) {
+            for (PostingList list : postings) {
+                list.retain(renumbering);
+            }
+        }
+
+        long bytes() {
+            return BeerSearchIndex.bytes(postings);
+        }
+
+        void clear() {
+            ordinals.clear();
+            values.clear();
+            postings.clear();
+        }
+    }
+
+    private static final class FacetCount {
+
+        private static final Comparator<FacetCount> WORST_FIRST = new Comparator<FacetCount>() {
+            @Override
+            public int compare(FacetCount count1, FacetCount count2) {
+                if (count1.count != count2.count) {
+                    return count1.count < count2.count ? -1 : 1;
+                }
+                return count2.value.compareTo(count1.value);
+            }
+        };
+
+        private final String value;
+        private final int count;
+
+        private FacetCount(String value, int count) {
+            this.value = value;
+            this.count = count;
+        }
+    }
+
+    /**
+     * A ranked match, reading the columns of the beer.
+     */
+    private final class Hit {
+        private final int beer;
+        private final float score;
+
+        private Hit(int beer, float score) {
+            this.beer = beer;
+            this.score = score;
+        }
+
+        private JsonObject toJson() {
+            JsonObject hit = JsonObject.create()
+                    .put("id", ids[beer])
+                    .put("name", names[beer])
+                    .put("score", Math.round(score * 1000d) / 1000d);
+            if (!Double.isNaN(abvs[beer])) {
+                hit.put("abv", abvs[beer]);
+            }
+            if (!Double.isNaN(ibus[beer])) {
+                hit.put("ibu", ibus[beer]);
+            }
+            if (styles[beer] >= 0) {
+                hit.put(STYLE, styleValues.value(styles[beer]));
+            }
+            if (categories[beer] >= 0) {
+                hit.put(CATEGORY, categoryValues.value(categories[beer]));
+            }
+            if (breweries[beer] >= 0) {
+                hit.put("brewery_id", breweryValues.value(breweries[beer]));
+            }
+            return hit;
+        }
+    }
+
+    /**
+     * A search: beers matching all the words of the text (in their name, style, category, description or the name
+     * of their brewery), any of the values of each filtered facet, and the ABV and IBU ranges.
+     */
+    public static final class Query {
+
+        private String text;
+        private final Map<String, Set<String>> filters = new LinkedHashMap<String, Set<String>>();
+        private Double minAbv;
+        private Double maxAbv;
+        private Double minIbu;
+        private Double maxIbu;
+        private int limit = 10;
+        private final Set<String> facets = new LinkedHashSet<String>(FACETS);
+        private int facetSize = 10;
+
+        public Query text(String text) {
+            this.text = text;
+            return this;
+        }
+
+        /**
+         * Only match the beers which facet has the value (or any of the values given for the same facet). Styles,
+         * categories, states and countries are matched ignoring case and accents, breweries by id.
+         */
+        public Query filter(String facet, String value) {
+            checkFacet(facet);
+            Set<String> values = filters.get(facet);
+            if (values == null) {
+                values = new LinkedHashSet<String>();
+                filters.put(facet, values);
+            }
+            values.add(value);
+            return this;
+        }
+
+        public Query abv(Double min, Double max) {
+            this.minAbv = min;
+            this.maxAbv = max;
+            return this;
+        }
+
+        public Query ibu(Double min, Double max) {
+            this.minIbu = min;
+            this.maxIbu = max;
+            return this;
+        }
+
+        /**
+         * @param limit the number of ranked beers to return.
+         */
+        public Query limit(int limit) {
+            this.limit = limit;
+            return this;
+        }
+
+        /**
+         * @param facets the facets to count the matches by (all of them by default).
+         */
+        public Query facets(List<String> facets) {
+            for (String facet : facets) {
+                checkFacet(facet);
+            }
+            this.facets.clear();
+            this.facets.addAll(facets);
+            return this;
+        }
+
+        /**
+         * @param facetSize the number of values to return for each facet, those with the most matches.
+         */
+        public Query facetSize(int facetSize) {
+            this.facetSize = facetSize;
+            return this;
+        }
+
+        private static void checkFacet(String facet) {
+            if (!FACETS.contains(facet)) {
+                throw new IllegalArgumentException("Unknown facet " + facet + ", expected one of " + FACETS);
+            }
+        }
+    }
+
+    /**
+     * The outcome of a search: the total number of matches, the best ranked ones and the facet counts.
+     */
+    public static final class Result {
+
+        private final int total;
+        private final List<JsonObject> hits = new ArrayList<JsonObject>();
+        private final Map<String, List<FacetCount>> facets = new LinkedHashMap<String, List<FacetCount>>();
+        private long tookNanos;
+
+        private Result(int total) {
+            this.total = total;
+        }
+
+        public int total() {
+            return total;
+        }
+
+        public List<JsonObject> hits() {
+            return hits;
+        }
+
+        public JsonObject toJson() {
+            JsonArray hitArray = JsonArray.empty();
+            for (JsonObject hit : hits) {
+                hitArray.add(hit);
+            }
+            JsonObject facetObject = JsonObject.create();
+            for (Map.Entry<String, List<FacetCount>> facet : facets.entrySet()) {
+                JsonArray counts = JsonArray.empty();
+                for (FacetCount count : facet.getValue()) {
+                    counts.add(JsonObject.create().put("value", count.value).put("count", count.count));
+                }
+                facetObject.put(facet.getKey(), counts);
+            }
+            return JsonObject.create()
+                    .put("total", total)
+                    .put("tookMicros", tookNanos / 1000L)
+                    .put("hits", hitArray)
+                    .put("facets", facetObject);
+        }
+    }
+}
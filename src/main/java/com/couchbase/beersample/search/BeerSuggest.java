@@ -0,0 +1,186 @@
+/**
+ * Copyright (C) 2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.beersample.search;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+
+import com.couchbase.beersample.CouchbaseService;
+import com.couchbase.beersample.DocumentChangeListener;
+import com.couchbase.beersample.config.Database;
+import com.couchbase.client.java.document.json.JsonObject;
+import com.couchbase.client.java.view.AsyncViewRow;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import rx.Subscriber;
+
+/**
+ * The type-ahead over the beer names: a {@link BeerSuggestIndex} loaded from the "by_name" view once the bucket is
+ * open, then kept up to date from the writes going through the {@link CouchbaseService}. The popularity of the beers
+ * is the number of times they were read since the application started.
+ *
+ * Like {@link BeerSearch}, beers written while the index is being loaded are indexed from the write and skipped by
+ * the load.
+ */
+@Component
+public class BeerSuggest implements DocumentChangeListener {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BeerSuggest.class);
+
+    private final CouchbaseService couchbaseService;
+    private final boolean enabled;
+    private final BeerSuggestIndex index;
+
+    /** the documents written during the current load, null when not loading */
+    private volatile Set<String> writtenDuringLoad;
+    private volatile long loadMillis = -1;
+
+    @Autowired
+    public BeerSuggest(final CouchbaseService couchbaseService, final Database config) {
+        this.couchbaseService = couchbaseService;
+        this.enabled = config.isSuggestEnabled();
+        this.index = new BeerSuggestIndex(config.getSuggestTopK());
+        if (enabled) {
+            couchbaseService.addDocumentChangeListener(this);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return true once the index is loaded and lookups can be answered from it.
+     */
+    public boolean isReady() {
+        return enabled && index.isReady();
+    }
+
+    /**
+     * @return the maximum number of suggestions of a lookup.
+     */
+    public int getMaxLimit() {
+        return index.getTopK();
+    }
+
+    @PostConstruct
+    public void start() {
+        if (enabled) {
+            load();
+        }
+    }
+
+    /**
+     * Load the index in the background, from scratch. Lookups fall back to the view until it is done, and if it fails.
+     */
+    public void load() {
+        index.clear();
+        final Set<String> written = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        writtenDuringLoad = written;
+        final long start = System.nanoTime();
+        couchbaseService.scanAllBeersAsync(false).subscribe(new Subscriber<AsyncViewRow>() {
+            @Override
+            public void onNext(AsyncViewRow row) {
+                if (row.key() instanceof String && !written.contains(row.id())) {
+                    index.put(row.id(), (String) row.key());
+                }
+            }
+
+            @Override
+            public void onError(Throwable e) {
+                writtenDuringLoad = null;
+                LOGGER.warn("Unable to load the beer suggestion index, suggestions are read from the view", e);
+            }
+
+            @Override
+            public void onCompleted() {
+                writtenDuringLoad = null;
+                loadMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                index.markReady();
+                LOGGER.info("Beer suggestion index loaded with " + index.size() + " beers in " + loadMillis + "ms");
+            }
+        });
+    }
+
+    /**
+     * Find the most popular beers which name starts with the prefix (ignoring case and accents).
+     *
+     * @throws IllegalStateException if the index is not loaded.
+     */
+    public List<BeerSuggestIndex.Suggestion> suggest(String prefix, int limit) {
+        if (!isReady()) {
+            throw new IllegalStateException("The beer suggestion index is " + (enabled ? "loading" : "disabled"));
+        }
+        return index.suggest(prefix, limit);
+    }
+
+    /**
+     * Record a read of a beer, making it more popular.
+     */
+    public void recordRead(String id) {
+        if (enabled) {
+            index.hit(id);
+        }
+    }
+
+    @Override
+    public void documentStored(String id, JsonObject content, JsonObject previous) {
+        markWritten(id);
+        if ("beer".equals(content.getString("type"))) {
+            index.put(id, content.getString("name"));
+        } else {
+            index.remove(id);
+        }
+    }
+
+    @Override
+    public void documentRemoved(String id, JsonObject previous) {
+        markWritten(id);
+        index.remove(id);
+    }
+
+    private void markWritten(String id) {
+        Set<String> written = writtenDuringLoad;
+        if (written != null) {
+            written.add(id);
+        }
+    }
+
+    /**
+     * @return the size and counters of the suggestion index, as a JSON object.
+     */
+    public JsonObject stats() {
+        if (!enabled) {
+            return JsonObject.create().put("enabled", false);
+        }
+        return index.stats()
+                .put("enabled", true)
+                .put("loadMillis", loadMillis);
+    }
+}
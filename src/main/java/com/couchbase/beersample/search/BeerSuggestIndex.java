@@ -0,0 +1,625 @@
+/**
+ * Copyright (C) 2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.beersample.search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.couchbase.client.java.document.json.JsonObject;
+
+/**
+ * An in-memory radix tree over the beer names, answering "names starting with" lookups for type-ahead with the most
+ * popular beers first.
+ *
+ * Names are normalized like in {@link BeerSearchIndex} (lower case, without accents) and only their first
+ * {@value #MAX_KEY_LENGTH} characters are indexed, which bounds the depth of the tree. Each edge holds a run of
+ * characters rather than a single one, and each node keeps the best ranked beers of its whole subtree (at most
+ * {@code topK} of them): a lookup walks down the prefix and returns the top beers of the node it ends at, without
+ * visiting the subtree. Beers are ranked by popularity (how many times they were {@link #hit(String) read}), then by
+ * name.
+ *
+ * The tree is updated in place: adding a beer or making it more popular offers it to the top beers of the nodes on
+ * its path, removing it recomputes the top beers of the nodes it was part of from their children. Like
+ * {@link BeerNameIndex}, the index doesn't know about Couchbase and is simply fed (id, name) pairs.
+ */
+public class BeerSuggestIndex {
+
+    /** the number of characters of a name that are indexed */
+    public static final int MAX_KEY_LENGTH = 64;
+
+    private static final int[] NO_ORDINALS = new int[0];
+    private static final char[] NO_CHARS = new char[0];
+    private static final Node[] NO_NODES = new Node[0];
+
+    private final int topK;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    //===== beers, by ordinal =====
+    private final Map<String, Integer> ordinals = new HashMap<String, Integer>();
+    private String[] ids = new String[1024];
+    private String[] names = new String[1024];
+    private String[] keys = new String[1024];
+    private int[] popularity = new int[1024];
+    private int[] freeOrdinals = new int[16];
+    private int freeCount = 0;
+    private int nextOrdinal = 0;
+
+    private Node root = new Node(NO_CHARS);
+
+    private volatile boolean ready = false;
+
+    private final AtomicLong lookups = new AtomicLong();
+    private final AtomicLong lookupNanos = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+
+    /**
+     * @param topK the number of beers kept by each node, the maximum number of suggestions of a lookup.
+     */
+    public BeerSuggestIndex(int topK) {
+        this.topK = Math.max(1, topK);
+    }
+
+    public int getTopK() {
+        return topK;
+    }
+
+    /**
+     * Index (or re-index) the name of a beer, keeping its popularity.
+     *
+     * @param id the beer's key.
+     * @param name the beer's name, null to simply remove the beer from the index.
+     */
+    public void put(String id, String name) {
+        if (name == null) {
+            remove(id);
+            return;
+        }
+        String key = key(name);
+        lock.writeLock().lock();
+        try {
+            Integer existing = ordinals.get(id);
+            int ordinal;
+            if (existing != null) {
+                ordinal = existing;
+                if (name.equals(names[ordinal])) {
+                    return;
+                }
+                unlink(ordinal);
+            } else {
+                ordinal = newOrdinal();
+                ordinals.put(id, ordinal);
+                ids[ordinal] = id;
+                popularity[ordinal] = 0;
+            }
+            names[ordinal] = name;
+            keys[ordinal] = key;
+            link(ordinal);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Remove a beer from the index, if it was indexed.
+     */
+    public void remove(String id) {
+        lock.writeLock().lock();
+        try {
+            Integer ordinal = ordinals.remove(id);
+            if (ordinal == null) {
+                return;
+            }
+            unlink(ordinal);
+            ids[ordinal] = null;
+            names[ordinal] = null;
+            keys[ordinal] = null;
+            if (freeCount == freeOrdinals.length) {
+                freeOrdinals = Arrays.copyOf(freeOrdinals, 2 * freeCount);
+            }
+            freeOrdinals[freeCount++] = ordinal;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Make a beer more popular, if it is indexed.
+     */
+    public void hit(String id) {
+        lock.writeLock().lock();
+        try {
+            Integer ordinal = ordinals.get(id);
+            if (ordinal == null) {
+                return;
+            }
+            hits.incrementAndGet();
+            if (popularity[ordinal] < Integer.MAX_VALUE) {
+                popularity[ordinal]++;
+            }
+            //the beer only got better, so offering it again to the nodes on its path is enough
+            String key = keys[ordinal];
+            Node node = root;
+            int depth = 0;
+            while (true) {
+                node.offer(ordinal);
+                if (depth == key.length()) {
+                    return;
+                }
+                node = node.child(key.charAt(depth));
+                depth += node.label.length;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Find the most popular beers which normalized name starts with the normalized prefix.
+     *
+     * @param limit the maximum number of suggestions, no more than the top K of the index.
+     * @return the suggestions, most popular first.
+     */
+    public List<Suggestion> suggest(String prefix, int limit) {
+        long start = System.nanoTime();
+        String fullKey = BeerSearchIndex.normalize(prefix == null ? "" : prefix);
+        String key = fullKey.length() > MAX_KEY_LENGTH ? fullKey.substring(0, MAX_KEY_LENGTH) : fullKey;
+        List<Suggestion> suggestions = new ArrayList<Suggestion>(Math.min(limit, topK));
+        lock.readLock().lock();
+        try {
+            Node node = root;
+            int depth = 0;
+            while (depth < key.length()) {
+                node = node.child(key.charAt(depth));
+                if (node == null || !node.labelMatches(key, depth)) {
+                    return suggestions;
+                }
+                depth += node.label.length;
+            }
+            for (int i = 0; i < node.topSize && suggestions.size() < limit; i++) {
+                int ordinal = node.top[i];
+                //past the indexed length, the tree can't tell the names apart any more
+                if (fullKey.length() <= MAX_KEY_LENGTH
+                        || BeerSearchIndex.normalize(names[ordinal]).startsWith(fullKey)) {
+                    suggestions.add(new Suggestion(ids[ordinal], names[ordinal], popularity[ordinal]));
+                }
+            }
+            return suggestions;
+        } finally {
+            lock.readLock().unlock();
+            lookups.incrementAndGet();
+            lookupNanos.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * @return the number of indexed beers.
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return ordinals.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Remove every beer from the index and flag it as not ready.
+     */
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            ready = false;
+            ordinals.clear();
+            Arrays.fill(ids, null);
+            Arrays.fill(names, null);
+            Arrays.fill(keys, null);
+            freeCount = 0;
+            nextOrdinal = 0;
+            root = new Node(NO_CHARS);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return true once the index has been fully loaded and can be trusted to answer lookups.
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Flag the index as fully loaded.
+     */
+    public void markReady() {
+        this.ready = true;
+    }
+
+    /**
+     * @return the size of the index (including an estimate of the memory it takes) and the counters of the lookups.
+     */
+    public JsonObject stats() {
+        long[] tree = new long[2];
+        int beers;
+        long bytes;
+        lock.readLock().lock();
+        try {
+            beers = ordinals.size();
+            measure(root, tree);
+            //the beer columns, plus the map by id (entry, boxed ordinal) and the strings
+            bytes = tree[1] + 4L * 8 * ids.length;
+            for (int ordinal = 0; ordinal < nextOrdinal; ordinal++) {
+                if (ids[ordinal] != null) {
+                    bytes += 48 + 16 + stringBytes(ids[ordinal]) + stringBytes(names[ordinal]);
+                    //the key is the name itself when it is already normalized
+                    if (keys[ordinal] != names[ordinal]) {
+                        bytes += stringBytes(keys[ordinal]);
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        long lookupCount = lookups.get();
+        return JsonObject.create()
+                .put("beers", beers)
+                .put("nodes", tree[0])
+                .put("topK", topK)
+                .put("estimatedBytes", bytes)
+                .put("ready", ready)
+                .put("lookups", lookupCount)
+                .put("meanLookupMicros", lookupCount == 0 ? 0d : lookupNanos.get() / 1000d / lookupCount)
+                .put("hits", hits.get());
+    }
+
+    //===== the tree =====
+
+    /**
+     * Add a beer under its key, offering it to the nodes on its path.
+     */
+    private void link(int ordinal) {
+        String key = keys[ordinal];
+        Node node = root;
+        int depth = 0;
+        node.offer(ordinal);
+        while (depth < key.length()) {
+            Node child = node.child(key.charAt(depth));
+            if (child == null) {
+                Node leaf = new Node(key.substring(depth).toCharArray());
+                leaf.addEntry(ordinal);
+                leaf.offer(ordinal);
+                node.addChild(leaf);
+                return;
+            }
+            int common = child.commonPrefix(key, depth);
+            if (common < child.label.length) {
+                child = node.split(child, common);
+            }
+            depth += common;
+            node = child;
+            node.offer(ordinal);
+        }
+        node.addEntry(ordinal);
+    }
+
+    /**
+     * Remove a beer from under its key: the nodes it was a top beer of recompute their top beers from their children
+     * (deepest first), and the nodes left empty are pruned.
+     */
+    private void unlink(int ordinal) {
+        String key = keys[ordinal];
+        List<Node> path = new ArrayList<Node>();
+        Node node = root;
+        int depth = 0;
+        path.add(node);
+        while (depth < key.length()) {
+            node = node.child(key.charAt(depth));
+            depth += node.label.length;
+            path.add(node);
+        }
+        node.removeEntry(ordinal);
+        for (int i = path.size() - 1; i >= 0; i--) {
+            Node current = path.get(i);
+            if (i > 0) {
+                Node parent = path.get(i - 1);
+                if (current.entryCount == 0 && current.children.length == 0) {
+                    parent.removeChild(current);
+                    continue;
+                }
+                if (current.entryCount == 0 && current.children.length == 1) {
+                    //a node without beers of its own is only worth it to tell several children apart
+                    current = parent.mergeWithChild(current);
+                    path.set(i, current);
+                }
+            }
+            if (current.topIndexOf(ordinal) >= 0) {
+                current.recomputeTop();
+            }
+        }
+    }
+
+    private int newOrdinal() {
+        if (freeCount > 0) {
+            return freeOrdinals[--freeCount];
+        }
+        if (nextOrdinal == ids.length) {
+            int capacity = 2 * ids.length;
+            ids = Arrays.copyOf(ids, capacity);
+            names = Arrays.copyOf(names, capacity);
+            keys = Arrays.copyOf(keys, capacity);
+            popularity = Arrays.copyOf(popularity, capacity);
+        }
+        return nextOrdinal++;
+    }
+
+    /**
+     * @return true if the first ordinal ranks before the second: more popular, then by name and id.
+     */
+    private boolean ranksBefore(int ordinal1, int ordinal2) {
+        if (popularity[ordinal1] != popularity[ordinal2]) {
+            return popularity[ordinal1] > popularity[ordinal2];
+        }
+        int byKey = keys[ordinal1].compareTo(keys[ordinal2]);
+        if (byKey != 0) {
+            return byKey < 0;
+        }
+        int byName = names[ordinal1].compareTo(names[ordinal2]);
+        return byName != 0 ? byName < 0 : ids[ordinal1].compareTo(ids[ordinal2]) < 0;
+    }
+
+    /**
+     * Count the nodes of a subtree, and estimate their size in bytes.
+     *
+     * @param totals the number of nodes and the bytes, added to.
+     */
+    private static void measure(Node node, long[] totals) {
+        totals[0]++;
+        //header and fields, then the arrays (header and content)
+        totals[1] += 48 + 16 + 2 * node.label.length + 16 + 2 * node.childFirsts.length
+                + 16 + 4 * node.children.length + 16 + 4 * node.entries.length + 16 + 4 * node.top.length;
+        for (Node child : node.children) {
+            measure(child, totals);
+        }
+    }
+
+    private static long stringBytes(String value) {
+        return 40 + 2 * value.length();
+    }
+
+    /**
+     * @return the normalized and truncated form of a name the tree is keyed by.
+     */
+    private static String key(String name) {
+        String key = BeerSearchIndex.normalize(name);
+        if (key.length() > MAX_KEY_LENGTH) {
+            key = key.substring(0, MAX_KEY_LENGTH);
+        }
+        //share the string with the name when normalizing didn't change it
+        return key.equals(name) ? name : key;
+    }
+
+    /**
+     * A node of the tree: the characters of the edge leading to it, its children by first character, the beers
+     * which key ends here and the best ranked beers of its subtree.
+     */
+    private final class Node {
+        private char[] label;
+        private char[] childFirsts = NO_CHARS;
+        private Node[] children = NO_NODES;
+        private int[] entries = NO_ORDINALS;
+        private int entryCount = 0;
+        private int[] top = NO_ORDINALS;
+        private int topSize = 0;
+
+        private Node(char[] label) {
+            this.label = label;
+        }
+
+        private Node child(char first) {
+            int index = Arrays.binarySearch(childFirsts, first);
+            return index < 0 ? null : children[index];
+        }
+
+        /**
+         * @return true if the label matches the key from the given offset, up to the end of the key.
+         */
+        private boolean labelMatches(String key, int offset) {
+            int length = Math.min(label.length, key.length() - offset);
+            for (int i = 0; i < length; i++) {
+                if (label[i] != key.charAt(offset + i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * @return the number of leading characters of the label that the key has from the given offset.
+         */
+        private int commonPrefix(String key, int offset) {
+            int length = Math.min(label.length, key.length() - offset);
+            int i = 0;
+            while (i < length && label[i] == key.charAt(offset + i)) {
+                i++;
+            }
+            return i;
+        }
+
+        private void addChild(Node child) {
+            int index = -Arrays.binarySearch(childFirsts, child.label[0]) - 1;
+            char[] firsts = new char[childFirsts.length + 1];
+            Node[] nodes = new Node[children.length + 1];
+            System.arraycopy(childFirsts, 0, firsts, 0, index);
+            System.arraycopy(children, 0, nodes, 0, index);
+            firsts[index] = child.label[0];
+            nodes[index] = child;
+            System.arraycopy(childFirsts, index, firsts, index + 1, childFirsts.length - index);
+            System.arraycopy(children, index, nodes, index + 1, children.length - index);
+            childFirsts = firsts;
+            children = nodes;
+        }
+
+        private void removeChild(Node child) {
+            int index = Arrays.binarySearch(childFirsts, child.label[0]);
+            char[] firsts = new char[childFirsts.length - 1];
+            Node[] nodes = new Node[children.length - 1];
+            System.arraycopy(childFirsts, 0, firsts, 0, index);
+            System.arraycopy(children, 0, nodes, 0, index);
+            System.arraycopy(childFirsts, index + 1, firsts, index, firsts.length - index);
+            System.arraycopy(children, index + 1, nodes, index, nodes.length - index);
+            childFirsts = firsts;
+            children = nodes;
+        }
+
+        /**
+         * Split the edge to a child after its first characters, with a new node in between.
+         *
+         * @return the new node, holding the same subtree as the child.
+         */
+        private Node split(Node child, int length) {
+            Node middle = new Node(Arrays.copyOf(child.label, length));
+            child.label = Arrays.copyOfRange(child.label, length, child.label.length);
+            middle.childFirsts = new char[] { child.label[0] };
+            middle.children = new Node[] { child };
+            middle.top = Arrays.copyOf(child.top, child.top.length);
+            middle.topSize = child.topSize;
+            children[Arrays.binarySearch(childFirsts, middle.label[0])] = middle;
+            return middle;
+        }
+
+        /**
+         * Replace a child which has a single child of its own by that grandchild, its label extended.
+         *
+         * @return the grandchild, holding the same subtree as the child.
+         */
+        private Node mergeWithChild(Node child) {
+            Node grandchild = child.children[0];
+            char[] merged = Arrays.copyOf(child.label, child.label.length + grandchild.label.length);
+            System.arraycopy(grandchild.label, 0, merged, child.label.length, grandchild.label.length);
+            grandchild.label = merged;
+            children[Arrays.binarySearch(childFirsts, merged[0])] = grandchild;
+            return grandchild;
+        }
+
+        private void addEntry(int ordinal) {
+            if (entryCount == entries.length) {
+                entries = Arrays.copyOf(entries, Math.max(1, 2 * entryCount));
+            }
+            entries[entryCount++] = ordinal;
+        }
+
+        private void removeEntry(int ordinal) {
+            for (int i = 0; i < entryCount; i++) {
+                if (entries[i] == ordinal) {
+                    entries[i] = entries[--entryCount];
+                    if (entryCount == 0) {
+                        entries = NO_ORDINALS;
+                    }
+                    return;
+                }
+            }
+        }
+
+        private int topIndexOf(int ordinal) {
+            for (int i = 0; i < topSize; i++) {
+                if (top[i] == ordinal) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Offer a beer which is new to the subtree or just got more popular: it takes its rank among the top beers
+         * if it is good enough, pushing the last one out if there are already K of them.
+         */
+        private void offer(int ordinal) {
+            int index = topIndexOf(ordinal);
+            if (index < 0) {
+                if (topSize == topK && !ranksBefore(ordinal, top[topSize - 1])) {
+                    return;
+                }
+                if (topSize == top.length) {
+                    top = Arrays.copyOf(top, Math.min(topK, Math.max(2, 2 * topSize)));
+                }
+                index = topSize < topK ? topSize++ : topSize - 1;
+            }
+            while (index > 0 && ranksBefore(ordinal, top[index - 1])) {
+                top[index] = top[index - 1];
+                index--;
+            }
+            top[index] = ordinal;
+        }
+
+        /**
+         * Recompute the top beers from the beers of this node and the top beers of its children.
+         */
+        private void recomputeTop() {
+            topSize = 0;
+            for (int i = 0; i < entryCount; i++) {
+                offer(entries[i]);
+            }
+            for (Node child : children) {
+                for (int i = 0; i < child.topSize; i++) {
+                    offer(child.top[i]);
+                }
+            }
+            if (topSize == 0) {
+                top = NO_ORDINALS;
+            }
+        }
+    }
+
+    /**
+     * A suggested beer.
+     */
+    public static class Suggestion {
+        private final String id;
+        private final String name;
+        private final int popularity;
+
+        Suggestion(String id, String name, int popularity) {
+            this.id = id;
+            this.name = name;
+            this.popularity = popularity;
+        }
+
+        public String id() {
+            return id;
+        }
+
+        public String name() {
+            return name;
+        }
+
+        public int popularity() {
+            return popularity;
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/**
+ * Copyright (C) 2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.beersample.search;
+
+import java.util.Arrays;
+
+/**
+ * A set of documents (by ordinal) as a plain array of bits. Unlike {@link java.util.BitSet}, setting a bit neither
+ * checks the invariants nor considers growing the array, which matters when posting lists of hundreds of thousands
+ * of documents are turned into sets for each query. Not thread safe.
+ */
+final class DocSet {
+
+    private long[] words;
+
+    /**
+     * @param capacity the number of documents the set is sized for, it grows if needed.
+     */
+    DocSet(int capacity) {
+        this.words = new long[Math.max(1, (capacity + 63) >>> 6)];
+    }
+
+    private DocSet(long[] words) {
+        this.words = words;
+    }
+
+    /**
+     * Add a document which fits in the capacity of the set.
+     */
+    void set(int doc) {
+        words[doc >>> 6] |= 1L << doc;
+    }
+
+    /**
+     * Add a document, growing the set if needed.
+     */
+    void add(int doc) {
+        int word = doc >>> 6;
+        if (word >= words.length) {
+            words = Arrays.copyOf(words, Math.max(2 * words.length, word + 1));
+        }
+        words[word] |= 1L << doc;
+    }
+
+    void clear(int doc) {
+        int word = doc >>> 6;
+        if (word < words.length) {
+            words[word] &= ~(1L << doc);
+        }
+    }
+
+    /**
+     * Only keep the documents [0, count).
+     */
+    void clearFrom(int count) {
+        int word = count >>> 6;
+        if (word < words.length) {
+            words[word] &= (1L << count) - 1;
+            Arrays.fill(words, word + 1, words.length, 0L);
+        }
+    }
+
+    /**
+     * Set the documents [0, count) and only those.
+     */
+    void setUntil(int count) {
+        int full = count >>> 6;
+        if (full >= words.length) {
+            words = Arrays.copyOf(words, full + 1);
+        }
+        Arrays.fill(words, 0, full, -1L);
+        words[full] = (1L << count) - 1;
+        Arrays.fill(words, full + 1, words.length, 0L);
+    }
+
+    boolean get(int doc) {
+        int word = doc >>> 6;
+        return word < words.length && (words[word] & (1L << doc)) != 0;
+    }
+
+    /**
+     * Only keep the documents which are in the other set too.
+     */
+    void and(DocSet other) {
+        int common = Math.min(words.length, other.words.length);
+        for (int i = 0; i < common; i++) {
+            words[i] &= other.words[i];
+        }
+        Arrays.fill(words, common, words.length, 0L);
+    }
+
+    int cardinality() {
+        int count = 0;
+        for (long word : words) {
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+
+    /**
+     * @return the first document at or after the given one, -1 if there is none.
+     */
+    int nextSetBit(int from) {
+        int word = from >>> 6;
+        if (word >= words.length) {
+            return -1;
+        }
+        long bits = words[word] & (-1L << from);
+        while (bits == 0) {
+            if (++word == words.length) {
+                return -1;
+            }
+            bits = words[word];
+        }
+        return (word << 6) + Long.numberOfTrailingZeros(bits);
+    }
+
+    /**
+     * @return the number of 64-bit words of the set: iterating over the words and their bits is faster than calling
+     * {@link #nextSetBit(int)} when most documents are set.
+     */
+    int wordCount() {
+        return words.length;
+    }
+
+    /**
+     * @return the bits of documents [64 * index, 64 * index + 64).
+     */
+    long word(int index) {
+        return words[index];
+    }
+
+    DocSet copy() {
+        return new DocSet(words.clone());
+    }
+
+    void clearAll() {
+        Arrays.fill(words, 0L);
+    }
+}
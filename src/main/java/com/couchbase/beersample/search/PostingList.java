@@ -0,0 +1,277 @@
+/**
+ * Copyright (C) 2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.beersample.search;
+
+import java.util.Arrays;
+
+/**
+ * The sorted documents (by ordinal) holding a term, compressed: full blocks of {@value #BLOCK_SIZE} ordinals are
+ * stored as variable-length deltas (a byte per document for dense terms), along with the first and last ordinal of
+ * each block so that whole blocks can be skipped. The ordinals being added are kept in an uncompressed tail until
+ * it fills a block.
+ *
+ * Ordinals are only ever appended in increasing order: documents which change get a new ordinal and the old ones
+ * are dropped by {@link #retain(int[])} when the index compacts. Not thread safe, the index guards it.
+ */
+final class PostingList {
+
+    static final int BLOCK_SIZE = 128;
+
+    private byte[][] blocks = new byte[0][];
+    private int[] firsts = new int[0];
+    private int[] lasts = new int[0];
+    private int blockCount = 0;
+
+    private int[] tail = new int[4];
+    private int tailSize = 0;
+
+    private int size = 0;
+    private long encodedBytes = 0;
+
+    /**
+     * @return the number of documents in the list.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return the estimated size of the list in memory.
+     */
+    long bytes() {
+        return encodedBytes + 4L * tail.length + 8L * blocks.length;
+    }
+
+    /**
+     * Append a document, which must be after all the documents already in the list (appending the last one again
+     * does nothing).
+     */
+    void add(int ordinal) {
+        int last = tailSize > 0 ? tail[tailSize - 1] : (blockCount > 0 ? lasts[blockCount - 1] : -1);
+        if (ordinal == last) {
+            return;
+        }
+        if (ordinal < last) {
+            throw new IllegalArgumentException("Ordinal " + ordinal + " added after " + last);
+        }
+        if (tailSize == tail.length) {
+            tail = Arrays.copyOf(tail, Math.min(BLOCK_SIZE, tailSize * 2));
+        }
+        tail[tailSize++] = ordinal;
+        size++;
+        if (tailSize == BLOCK_SIZE) {
+            seal();
+        }
+    }
+
+    /**
+     * Compress the tail into a new block.
+     */
+    private void seal() {
+        if (blockCount == blocks.length) {
+            int capacity = Math.max(4, blockCount * 2);
+            blocks = Arrays.copyOf(blocks, capacity);
+            firsts = Arrays.copyOf(firsts, capacity);
+            lasts = Arrays.copyOf(lasts, capacity);
+        }
+        byte[] block = encode(tail, tailSize);
+        blocks[blockCount] = block;
+        firsts[blockCount] = tail[0];
+        lasts[blockCount] = tail[tailSize - 1];
+        blockCount++;
+        encodedBytes += block.length;
+        tailSize = 0;
+    }
+
+    /**
+     * Add all the documents of the list to a set.
+     */
+    void addTo(DocSet documents) {
+        addTo(documents, null, 0f);
+    }
+
+    /**
+     * Add all the documents of the list to a set, and a weight to their scores.
+     *
+     * @param scores the score of each document, by ordinal, null to only fill the set.
+     */
+    void addTo(DocSet documents, float[] scores, float weight) {
+        int[] buffer = new int[BLOCK_SIZE];
+        for (int b = 0; b <= blockCount; b++) {
+            int[] ordinals = buffer;
+            int count;
+            if (b < blockCount) {
+                count = decode(b, buffer);
+            } else {
+                ordinals = tail;
+                count = tailSize;
+            }
+            for (int i = 0; i < count; i++) {
+                documents.set(ordinals[i]);
+            }
+            if (scores != null) {
+                for (int i = 0; i < count; i++) {
+                    scores[ordinals[i]] += weight;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return a new iterator over the documents of the list.
+     */
+    Iterator iterator() {
+        return new Iterator();
+    }
+
+    /**
+     * Drop the documents which are no longer alive and renumber the others.
+     *
+     * @param renumbering the new ordinal of each old ordinal, -1 for a dropped document. It must keep the order.
+     * @return false if the list ends up empty.
+     */
+    boolean retain(int[] renumbering) {
+        int[] kept = new int[Math.max(4, size)];
+        int count = 0;
+        Iterator documents = iterator();
+        for (int ordinal = documents.next(); ordinal != Iterator.END; ordinal = documents.next()) {
+            int renumbered = renumbering[ordinal];
+            if (renumbered >= 0) {
+                kept[count++] = renumbered;
+            }
+        }
+        blocks = new byte[0][];
+        firsts = new int[0];
+        lasts = new int[0];
+        blockCount = 0;
+        tail = new int[4];
+        tailSize = 0;
+        size = 0;
+        encodedBytes = 0;
+        for (int i = 0; i < count; i++) {
+            add(kept[i]);
+        }
+        return size > 0;
+    }
+
+    private static byte[] encode(int[] ordinals, int count) {
+        byte[] buffer = new byte[5 * count];
+        int length = 0;
+        for (int i = 1; i < count; i++) {
+            int delta = ordinals[i] - ordinals[i - 1];
+            while ((delta & ~0x7F) != 0) {
+                buffer[length++] = (byte) ((delta & 0x7F) | 0x80);
+                delta >>>= 7;
+            }
+            buffer[length++] = (byte) delta;
+        }
+        return Arrays.copyOf(buffer, length);
+    }
+
+    /**
+     * @return the number of ordinals of the block, decoded into the buffer.
+     */
+    private int decode(int block, int[] buffer) {
+        byte[] bytes = blocks[block];
+        int ordinal = firsts[block];
+        buffer[0] = ordinal;
+        int count = 1;
+        int position = 0;
+        while (position < bytes.length) {
+            int delta = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = bytes[position++];
+                delta |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            ordinal += delta;
+            buffer[count++] = ordinal;
+        }
+        return count;
+    }
+
+    /**
+     * Walks the documents of the list in order, decoding one block at a time. The list must not change meanwhile.
+     */
+    final class Iterator {
+
+        static final int END = Integer.MAX_VALUE;
+
+        private final int[] buffer = new int[BLOCK_SIZE];
+        /** the block being read, blockCount for the tail */
+        private int block = -1;
+        private int count = 0;
+        private int position = 0;
+
+        /**
+         * @return the next document, or {@link #END}.
+         */
+        int next() {
+            while (position == count) {
+                if (!load(block + 1)) {
+                    return END;
+                }
+            }
+            return buffer[position++];
+        }
+
+        /**
+         * @return the first document at or after the target, or {@link #END}.
+         */
+        int advance(int target) {
+            if (position == count || buffer[count - 1] < target) {
+                //skip the blocks ending before the target without decoding them
+                int next = block + 1;
+                while (next < blockCount && lasts[next] < target) {
+                    next++;
+                }
+                if (!load(next)) {
+                    return END;
+                }
+            }
+            int ordinal = next();
+            while (ordinal < target) {
+                ordinal = next();
+            }
+            return ordinal;
+        }
+
+        private boolean load(int next) {
+            block = next;
+            position = 0;
+            if (next < blockCount) {
+                count = decode(next, buffer);
+                return true;
+            }
+            if (next == blockCount) {
+                System.arraycopy(tail, 0, buffer, 0, tailSize);
+                count = tailSize;
+                return true;
+            }
+            count = 0;
+            block = blockCount;
+            return false;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+/**
+ * Copyright (C) 2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.beersample.stats;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.couchbase.client.java.document.json.JsonObject;
+
+/**
+ * Lock-free counters for a fan-out operation: how many times it ran, how wide it was (the number of
+ * sub-operations it triggered) and how long it took.
+ */
+public class FanOutStats {
+
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalWidth = new AtomicLong();
+    private final AtomicLong maxWidth = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    /**
+     * Record one run of the fan-out.
+     *
+     * @param width the number of sub-operations.
+     * @param nanos the duration of the whole fan-out, in nanoseconds.
+     */
+    public void record(long width, long nanos) {
+        count.incrementAndGet();
+        totalWidth.addAndGet(width);
+        totalNanos.addAndGet(nanos);
+        updateMax(maxWidth, width);
+        updateMax(maxNanos, nanos);
+    }
+
+    private static void updateMax(AtomicLong max, long value) {
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
+    public JsonObject toJson() {
+        long runs = count.get();
+        return JsonObject.create()
+                .put("count", runs)
+                .put("avgWidth", runs == 0 ? 0d : (double) totalWidth.get() / runs)
+                .put("maxWidth", maxWidth.get())
+                .put("avgMillis", runs == 0 ? 0d
+                        : (double) TimeUnit.NANOSECONDS.toMicros(totalNanos.get()) / runs / 1000d)
+                .put("maxMillis", TimeUnit.NANOSECONDS.toMillis(maxNanos.get()));
+    }
+}
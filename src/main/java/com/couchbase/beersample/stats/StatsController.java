@@ -0,0 +1,96 @@
+/**
+ * Copyright (C) 2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.beersample.stats;
+
+import com.couchbase.beersample.CouchbaseService;
+import com.couchbase.beersample.breweries.BreweryAggregates;
+import com.couchbase.beersample.breweries.BreweryGeo;
+import com.couchbase.beersample.config.Database;
+import com.couchbase.beersample.search.BeerSearch;
+import com.couchbase.beersample.search.BeerSuggest;
+import com.couchbase.beersample.web.AdmissionFilter;
+import com.couchbase.beersample.web.ResponseCacheFilter;
+import com.couchbase.client.java.document.json.JsonObject;
+import com.couchbase.client.java.env.CouchbaseEnvironment;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * REST Controller exposing the internal counters of the application
+ */
+@RestController
+@RequestMapping(value = "/stats", produces = MediaType.APPLICATION_JSON_VALUE)
+public class StatsController {
+
+    private final CouchbaseService couchbaseService;
+    private final BreweryAggregates breweryAggregates;
+    private final BeerSearch beerSearch;
+    private final BeerSuggest beerSuggest;
+    private final BreweryGeo breweryGeo;
+    private final AdmissionFilter admission;
+    private final ResponseCacheFilter responseCache;
+    private final CouchbaseEnvironment environment;
+
+    @Autowired
+    public StatsController(final CouchbaseService couchbaseService, final BreweryAggregates breweryAggregates,
+            final BeerSearch beerSearch, final BeerSuggest beerSuggest, final BreweryGeo breweryGeo,
+            final AdmissionFilter admission, final ResponseCacheFilter responseCache,
+            final CouchbaseEnvironment environment) {
+        this.couchbaseService = couchbaseService;
+        this.breweryAggregates = breweryAggregates;
+        this.beerSearch = beerSearch;
+        this.beerSuggest = beerSuggest;
+        this.breweryGeo = breweryGeo;
+        this.admission = admission;
+        this.responseCache = responseCache;
+        this.environment = environment;
+    }
+
+    @RequestMapping(method = RequestMethod.GET)
+    public ResponseEntity<String> getStats() {
+        JsonObject stats = JsonObject.create()
+                .put("documentCache", couchbaseService.documentCacheStats())
+                .put("breweryFanOut", couchbaseService.breweryFanOutStats())
+                .put("coalescing", couchbaseService.coalescingStats())
+                .put("beerSnapshot", couchbaseService.beerSnapshotStats())
+                .put("writeBehind", couchbaseService.writeBehindStats())
+                .put("resilience", couchbaseService.resilienceStats())
+                .put("viewScans", couchbaseService.viewScanStats())
+                .put("breweryAggregates", breweryAggregates.stats())
+                .put("beerSearch", beerSearch.stats())
+                .put("beerSuggest", beerSuggest.stats())
+                .put("breweryGeo", breweryGeo.stats())
+                .put("admission", admission.stats())
+                .put("responseCache", responseCache.stats());
+        return new ResponseEntity<String>(stats.toString(), HttpStatus.OK);
+    }
+
+    @RequestMapping(method = RequestMethod.GET, value = "/environment")
+    public ResponseEntity<String> getEnvironment() {
+        return new ResponseEntity<String>(Database.describe(environment).toString(), HttpStatus.OK);
+    }
+}
@@ -0,0 +1,222 @@
+/**
+ * Copyright (C) 2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.beersample.web;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.DispatcherType;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.couchbase.beersample.ConcurrencyLimiter;
+import com.couchbase.beersample.config.Database;
+import com.couchbase.beersample.metrics.Metrics;
+import com.couchbase.client.java.document.json.JsonObject;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+/**
+ * Admission control of the beer and brewery routes: each class of endpoints has its own {@link ConcurrencyLimiter},
+ * and a request that would go over the limit of its class is answered right away with a 503 and a Retry-After
+ * header, instead of waiting for a database that is already slow. Having one budget per class keeps cheap document
+ * reads from being starved by expensive searches and brewery fan-outs when those slow down.
+ *
+ * The classes are:
+ * <ul>
+ *     <li>{@value #GET}: <code>GET /beer/{id}</code>, a single get.</li>
+ *     <li>{@value #WRITE}: <code>POST /beer</code>, <code>PUT /beer/{id}</code> and
+ *     <code>DELETE /beer/{id}</code>.</li>
+ *     <li>{@value #SEARCH}: the beer listing and searches, the suggestions and the multi-gets, which read views
+ *     or many documents.</li>
+ *     <li>{@value #BREWERY}: <code>GET /brewery/{id}</code>, a get and the fan-out to the beers.</li>
+ * </ul>
+ * The routes answered from memory, the bulk and administration routes (which bound their own concurrency) and the
+ * stats are not limited.
+ *
+ * A request is in flight until its response is complete, including the asynchronous processing: it takes a permit
+ * on its initial dispatch only, and the latency is sampled once, when it completes. Responses with a 5xx status count
+ * as failures for the limiter. This filter runs after the {@link
+ * com.couchbase.beersample.metrics.RequestMetricsFilter}, so rejected requests show up in the metrics, and after
+ * the {@link ResponseCacheFilter}, so responses served from the cache aren't limited.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 2)
+public class AdmissionFilter implements Filter {
+
+    public static final String GET = "get";
+    public static final String WRITE = "write";
+    public static final String SEARCH = "search";
+    public static final String BREWERY = "brewery";
+
+    private final boolean enabled;
+    private final String retryAfterSeconds;
+    private final Map<String, ConcurrencyLimiter> limiters;
+
+    @Autowired
+    public AdmissionFilter(final Database config, final Metrics metrics) {
+        this.enabled = config.isAdmissionEnabled();
+        this.retryAfterSeconds = String.valueOf(config.getAdmissionRetryAfterSeconds());
+        Map<String, ConcurrencyLimiter> byClass = new LinkedHashMap<String, ConcurrencyLimiter>();
+        for (String endpointClass : new String[] { GET, WRITE, SEARCH, BREWERY }) {
+            ConcurrencyLimiter limiter = new ConcurrencyLimiter(endpointClass, config.getAdmissionInitialLimit(),
+                    config.getAdmissionMinLimit(), config.getAdmissionMaxLimit());
+            byClass.put(endpointClass, limiter);
+            if (enabled) {
+                metrics.register(limiter);
+            }
+        }
+        this.limiters = Collections.unmodifiableMap(byClass);
+    }
+
+    @Override
+    public void init(FilterConfig filterConfig) throws ServletException {
+    }
+
+    @Override
+    public void destroy() {
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+        //a request holds its permit from its initial dispatch until it completes, the async redispatch that renders
+        //a deferred result is part of it
+        if (!enabled || request.getDispatcherType() != DispatcherType.REQUEST
+                || !(request instanceof HttpServletRequest) || !(response instanceof HttpServletResponse)) {
+            chain.doFilter(request, response);
+            return;
+        }
+        HttpServletRequest httpRequest = (HttpServletRequest) request;
+        final HttpServletResponse httpResponse = (HttpServletResponse) response;
+        String endpointClass = classify(httpRequest.getMethod(),
+                httpRequest.getRequestURI().substring(httpRequest.getContextPath().length()));
+        if (endpointClass == null) {
+            chain.doFilter(request, response);
+            return;
+        }
+        final ConcurrencyLimiter limiter = limiters.get(endpointClass);
+        if (!limiter.tryAcquire()) {
+            httpResponse.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            httpResponse.setHeader("Retry-After", retryAfterSeconds);
+            httpResponse.setContentType("text/plain");
+            httpResponse.getWriter().write("Too many concurrent " + endpointClass + " requests, retry later");
+            return;
+        }
+        final long start = System.nanoTime();
+        boolean passed = false;
+        try {
+            chain.doFilter(request, response);
+            passed = true;
+        } finally {
+            if (!passed) {
+                limiter.release(System.nanoTime() - start, true);
+            }
+        }
+        if (!request.isAsyncStarted()) {
+            limiter.release(System.nanoTime() - start, isFailure(httpResponse.getStatus()));
+            return;
+        }
+        request.getAsyncContext().addListener(new AsyncListener() {
+            private boolean failed;
+
+            @Override
+            public void onComplete(AsyncEvent event) throws IOException {
+                limiter.release(System.nanoTime() - start, failed || isFailure(httpResponse.getStatus()));
+            }
+
+            @Override
+            public void onTimeout(AsyncEvent event) throws IOException {
+                failed = true;
+            }
+
+            @Override
+            public void onError(AsyncEvent event) throws IOException {
+                failed = true;
+            }
+
+            @Override
+            public void onStartAsync(AsyncEvent event) throws IOException {
+            }
+        });
+    }
+
+    /**
+     * @param path the path of the request, without the context path.
+     * @return the class of the endpoint, null if it is not limited.
+     */
+    static String classify(String method, String path) {
+        if (path.equals("/beer")) {
+            return "GET".equals(method) ? SEARCH : WRITE;
+        }
+        if (path.startsWith("/beer/")) {
+            String rest = path.substring("/beer/".length());
+            if (rest.startsWith("search/") || rest.equals("suggest") || rest.equals("_mget")) {
+                return SEARCH;
+            }
+            if (rest.isEmpty() || rest.startsWith("_") || rest.equals("query") || rest.indexOf('/') >= 0) {
+                return null;
+            }
+            return "GET".equals(method) ? GET : WRITE;
+        }
+        if (path.startsWith("/brewery/")) {
+            String rest = path.substring("/brewery/".length());
+            if (rest.equals("_mget")) {
+                return SEARCH;
+            }
+            if (rest.isEmpty() || rest.startsWith("_") || rest.equals("near") || rest.indexOf('/') >= 0) {
+                return null;
+            }
+            return "GET".equals(method) ? BREWERY : null;
+        }
+        return null;
+    }
+
+    private static boolean isFailure(int status) {
+        return status >= 500;
+    }
+
+    /**
+     * @return the state of the limiter of each class of endpoints, as a JSON object.
+     */
+    public JsonObject stats() {
+        JsonObject stats = JsonObject.create().put("enabled", enabled);
+        if (enabled) {
+            for (ConcurrencyLimiter limiter : limiters.values()) {
+                stats.put(limiter.name(), limiter.stats());
+            }
+        }
+        return stats;
+    }
+}
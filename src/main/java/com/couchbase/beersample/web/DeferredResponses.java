@@ -0,0 +1,104 @@
+/**
+ * Copyright (C) 2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.beersample.web;
+
+import com.couchbase.beersample.CircuitBreaker;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.context.request.async.DeferredResult;
+import rx.Observable;
+import rx.Subscriber;
+
+/**
+ * Utility methods to bridge asynchronous Couchbase calls to Spring MVC's {@link DeferredResult}, so that
+ * no servlet thread is parked waiting on database I/O: the response is completed from the Rx callbacks.
+ */
+public final class DeferredResponses {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DeferredResponses.class);
+
+    private DeferredResponses() {
+    }
+
+    /**
+     * Create a {@link DeferredResult} completed by the first response emitted by the given stream.
+     *
+     * If the stream fails, an ERROR 500 response with the detail of the error is sent back (or a 503 if the
+     * circuit breaker rejected a database operation). If it doesn't emit anything within the timeout, the
+     * processing is cancelled and a 504 response is sent back.
+     *
+     * @param response the stream that will emit the response.
+     * @param timeoutMillis the time to wait for the response, in milliseconds.
+     */
+    public static DeferredResult<ResponseEntity<String>> defer(Observable<ResponseEntity<String>> response,
+            long timeoutMillis) {
+        final DeferredResult<ResponseEntity<String>> result = new DeferredResult<ResponseEntity<String>>(
+                timeoutMillis, new ResponseEntity<String>("Timed out waiting for the database",
+                HttpStatus.GATEWAY_TIMEOUT));
+
+        final Subscriber<ResponseEntity<String>> subscriber = new Subscriber<ResponseEntity<String>>() {
+            @Override
+            public void onNext(ResponseEntity<String> responseEntity) {
+                result.setResult(responseEntity);
+            }
+
+            @Override
+            public void onError(Throwable e) {
+                if (e instanceof CircuitBreaker.CircuitBreakerOpenException) {
+                    result.setResult(new ResponseEntity<String>(e.getMessage(), HttpStatus.SERVICE_UNAVAILABLE));
+                    return;
+                }
+                LOGGER.warn("Error while processing request", e);
+                result.setResult(new ResponseEntity<String>("Error while processing request - " + e,
+                        HttpStatus.INTERNAL_SERVER_ERROR));
+            }
+
+            @Override
+            public void onCompleted() {
+                if (!result.isSetOrExpired()) {
+                    result.setResult(new ResponseEntity<String>(HttpStatus.INTERNAL_SERVER_ERROR));
+                }
+            }
+        };
+        //stop the processing if nobody is waiting for it anymore
+        result.onTimeout(new Runnable() {
+            @Override
+            public void run() {
+                subscriber.unsubscribe();
+            }
+        });
+        response.subscribe(subscriber);
+        return result;
+    }
+
+    /**
+     * Create a {@link DeferredResult} that is already completed with the given response, for the cases where
+     * the response can be determined without calling the database.
+     */
+    public static DeferredResult<ResponseEntity<String>> of(ResponseEntity<String> response) {
+        DeferredResult<ResponseEntity<String>> result = new DeferredResult<ResponseEntity<String>>();
+        result.setResult(response);
+        return result;
+    }
+}
@@ -0,0 +1,287 @@
+/**
+ * Copyright (C) 2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.beersample.web;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.couchbase.beersample.CircuitBreaker;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.MediaType;
+import rx.Observable;
+import rx.Subscriber;
+
+/**
+ * Streams the rows emitted by an {@link Observable} to the servlet output stream as a JSON array, using an
+ * asynchronous servlet response. Each row is written as soon as it is emitted, so neither an intermediate
+ * array of all the rows nor the whole serialized body is ever built, and the first bytes go out as soon as
+ * the first row is available.
+ *
+ * The rows are emitted on the SDK's I/O and computation threads, which must not block on a servlet write. So they
+ * are queued as they come, and written by a container thread (see {@link AsyncContext#start(Runnable)}) which
+ * drains the queue while rows keep coming. A slow client makes the pending rows pile up in memory rather than
+ * stall the SDK.
+ *
+ * The status and headers are committed with the first row: an error before it is reported as an ERROR 500
+ * (or 504 on timeout, 503 if the circuit breaker rejected a database operation) response, while an error after
+ * it can only cut the array short (and is logged). A response cut short is flagged with the
+ * {@link #INCOMPLETE_ATTRIBUTE} request attribute, so that it isn't mistaken for a whole one (eg. cached).
+ */
+public final class JsonStreamingResponse<T> extends Subscriber<T> implements AsyncListener {
+
+    /** the request attribute set (to true) when the array was cut short after the status was sent */
+    public static final String INCOMPLETE_ATTRIBUTE = JsonStreamingResponse.class.getName() + ".incomplete";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(JsonStreamingResponse.class);
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final AsyncContext asyncContext;
+    private final HttpServletResponse response;
+    private final JsonRowWriter<T> rowWriter;
+
+    private final Queue<T> pending = new ConcurrentLinkedQueue<T>();
+    /** the writes requested since the writer last found nothing to do, the writer runs while it isn't zero */
+    private final AtomicInteger drainRequests = new AtomicInteger();
+    private volatile boolean terminated;
+    private volatile Throwable error;
+    /** writes the pending rows until no more writes are requested */
+    private final Runnable writer = new Runnable() {
+        @Override
+        public void run() {
+            int missed = 1;
+            do {
+                writePending();
+                missed = drainRequests.addAndGet(-missed);
+            } while (missed != 0);
+        }
+    };
+
+    //guarded by this
+    private JsonGenerator generator;
+    private boolean done;
+
+    private JsonStreamingResponse(AsyncContext asyncContext, HttpServletResponse response,
+            JsonRowWriter<T> rowWriter) {
+        this.asyncContext = asyncContext;
+        this.response = response;
+        this.rowWriter = rowWriter;
+    }
+
+    /**
+     * Start streaming the rows as the response to the request. The request is switched to asynchronous mode,
+     * so the calling thread can return right away.
+     *
+     * @param request the request.
+     * @param response the response to stream the rows to.
+     * @param rows the rows to stream.
+     * @param rowWriter the writer of each row.
+     * @param timeoutMillis the maximum duration of the whole response, in milliseconds.
+     */
+    public static <T> void stream(HttpServletRequest request, HttpServletResponse response, Observable<T> rows,
+            JsonRowWriter<T> rowWriter, long timeoutMillis) {
+        AsyncContext asyncContext = request.startAsync();
+        asyncContext.setTimeout(timeoutMillis);
+        JsonStreamingResponse<T> subscriber = new JsonStreamingResponse<T>(asyncContext, response, rowWriter);
+        asyncContext.addListener(subscriber);
+        rows.subscribe(subscriber);
+    }
+
+    /**
+     * Render a bounded list of rows as a JSON array, with the same row writer as would be used to stream them.
+     */
+    public static <T> String render(Iterable<T> rows, JsonRowWriter<T> rowWriter) throws IOException {
+        StringWriter out = new StringWriter();
+        JsonGenerator generator = JSON_FACTORY.createGenerator(out);
+        generator.writeStartArray();
+        for (T row : rows) {
+            rowWriter.write(generator, row);
+        }
+        generator.writeEndArray();
+        generator.close();
+        return out.toString();
+    }
+
+    @Override
+    public void onNext(T row) {
+        pending.offer(row);
+        drain();
+    }
+
+    @Override
+    public void onCompleted() {
+        terminated = true;
+        drain();
+    }
+
+    @Override
+    public void onError(Throwable e) {
+        error = e;
+        terminated = true;
+        drain();
+    }
+
+    /**
+     * Have the pending rows written by a container thread, unless one is already at it.
+     */
+    private void drain() {
+        if (drainRequests.getAndIncrement() == 0) {
+            try {
+                asyncContext.start(writer);
+            } catch (IllegalStateException e) {
+                //the response is already complete (eg. timed out), nothing more will be written
+                pending.clear();
+            }
+        }
+    }
+
+    private synchronized void writePending() {
+        if (done) {
+            pending.clear();
+            return;
+        }
+        //read first: once the stream has terminated, all of its rows are already pending
+        boolean last = terminated;
+        try {
+            T row;
+            while ((row = pending.poll()) != null) {
+                if (generator == null) {
+                    start();
+                }
+                rowWriter.write(generator, row);
+            }
+        } catch (IOException e) {
+            //most likely the client went away, stop producing rows
+            LOGGER.debug("Unable to stream row", e);
+            unsubscribe();
+            pending.clear();
+            markIncomplete();
+            finish();
+            return;
+        }
+        if (!last) {
+            return;
+        }
+        Throwable e = error;
+        if (e == null) {
+            try {
+                if (generator == null) {
+                    start();
+                }
+                generator.writeEndArray();
+                generator.flush();
+            } catch (IOException ioe) {
+                LOGGER.debug("Unable to end streamed response", ioe);
+            }
+        } else {
+            LOGGER.warn("Error while streaming response", e);
+            if (generator == null && e instanceof CircuitBreaker.CircuitBreakerOpenException) {
+                fail(HttpServletResponse.SC_SERVICE_UNAVAILABLE, e.getMessage());
+            } else if (generator == null) {
+                fail(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Error while processing request - " + e);
+            } else {
+                markIncomplete();
+            }
+        }
+        finish();
+    }
+
+    @Override
+    public synchronized void onTimeout(AsyncEvent event) throws IOException {
+        unsubscribe();
+        pending.clear();
+        if (done) {
+            return;
+        }
+        if (generator == null) {
+            fail(HttpServletResponse.SC_GATEWAY_TIMEOUT, "Timed out waiting for the database");
+        } else {
+            LOGGER.warn("Timed out while streaming response, the array was cut short");
+            markIncomplete();
+        }
+        finish();
+    }
+
+    @Override
+    public void onError(AsyncEvent event) throws IOException {
+        unsubscribe();
+    }
+
+    @Override
+    public void onComplete(AsyncEvent event) throws IOException {
+        unsubscribe();
+    }
+
+    @Override
+    public void onStartAsync(AsyncEvent event) throws IOException {
+    }
+
+    private void start() throws IOException {
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        response.setCharacterEncoding("UTF-8");
+        OutputStream out = response.getOutputStream();
+        generator = JSON_FACTORY.createGenerator(out, JsonEncoding.UTF8);
+        generator.writeStartArray();
+    }
+
+    private void fail(int status, String message) {
+        try {
+            response.setStatus(status);
+            response.setContentType(MediaType.TEXT_PLAIN_VALUE);
+            response.setCharacterEncoding("UTF-8");
+            response.getOutputStream().write(message.getBytes("UTF-8"));
+        } catch (IOException e) {
+            LOGGER.debug("Unable to send error response", e);
+        }
+    }
+
+    private void markIncomplete() {
+        asyncContext.getRequest().setAttribute(INCOMPLETE_ATTRIBUTE, Boolean.TRUE);
+    }
+
+    private void finish() {
+        done = true;
+        try {
+            if (generator != null) {
+                generator.close();
+            }
+        } catch (IOException e) {
+            LOGGER.debug("Unable to close streamed response", e);
+        }
+        asyncContext.complete();
+    }
+}
@@ -0,0 +1,144 @@
+/**
+ * Copyright (C) 2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.beersample.web;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.couchbase.beersample.CouchbaseService;
+import com.couchbase.client.java.document.RawJsonDocument;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import rx.Observable;
+import rx.functions.Func1;
+
+/**
+ * Streams the response of the "_mget" routes, which read several documents of a given type in one request.
+ *
+ * The ids are fanned out to the asynchronous bucket with a bounded number of gets in flight, so that the
+ * SDK can pipeline them without flooding the cluster. Each document is streamed to the JSON array of the
+ * response as soon as it arrives (so the array is in arrival order rather than request order), through a
+ * {@link JsonStreamingResponse}: neither the entries nor the body are accumulated, and the stored content of
+ * the documents is written as is.
+ * <ul>
+ *     <li>found documents are represented as <code>{"id": "theId", "doc": {...}}</code></li>
+ *     <li>ids that don't exist (or are not of the expected type) as <code>{"id": "theId", "missing": true}</code></li>
+ *     <li>ids that couldn't be read as <code>{"id": "theId", "error": "the error"}</code></li>
+ * </ul>
+ */
+public final class MultiGetResponses {
+
+    private MultiGetResponses() {
+    }
+
+    /**
+     * @param ids the requested ids.
+     * @param maxIds the maximum number of distinct ids allowed in one request.
+     * @return the response rejecting the request if there are too many ids, null if it can be served.
+     */
+    public static ResponseEntity<String> reject(Collection<String> ids, int maxIds) {
+        if (ids != null && new LinkedHashSet<String>(ids).size() > maxIds) {
+            return new ResponseEntity<String>("At most " + maxIds + " ids can be read at once",
+                    HttpStatus.BAD_REQUEST);
+        }
+        return null;
+    }
+
+    /**
+     * Start streaming the documents as the response to the request, see {@link JsonStreamingResponse#stream}.
+     *
+     * @param couchbaseService the service to read the documents with.
+     * @param ids the ids to read, duplicates are only read once.
+     * @param type the expected value of the documents' "type" attribute.
+     * @param maxConcurrency the maximum number of gets in flight at once.
+     * @param timeoutMillis the maximum duration of the whole response, in milliseconds.
+     */
+    public static void stream(HttpServletRequest request, HttpServletResponse response,
+            final CouchbaseService couchbaseService, Collection<String> ids, final String type, int maxConcurrency,
+            long timeoutMillis) {
+        Observable<Observable<Entry>> gets = Observable.from(ids == null ? new LinkedHashSet<String>()
+                : new LinkedHashSet<String>(ids))
+                .map(new Func1<String, Observable<Entry>>() {
+                    @Override
+                    public Observable<Entry> call(final String id) {
+                        return couchbaseService.asyncReadRaw(id)
+                                .map(new Func1<RawJsonDocument, Entry>() {
+                                    @Override
+                                    public Entry call(RawJsonDocument doc) {
+                                        if (!type.equals(CouchbaseService.rawString(doc.content(), "type"))) {
+                                            return new Entry(id, null, null);
+                                        }
+                                        return new Entry(id, doc.content(), null);
+                                    }
+                                })
+                                .defaultIfEmpty(new Entry(id, null, null))
+                                //one failed get shouldn't fail the whole request
+                                .onErrorReturn(new Func1<Throwable, Entry>() {
+                                    @Override
+                                    public Entry call(Throwable throwable) {
+                                        return new Entry(id, null, throwable.toString());
+                                    }
+                                });
+                    }
+                });
+
+        JsonStreamingResponse.stream(request, response, Observable.merge(gets, maxConcurrency), ENTRY_WRITER,
+                timeoutMillis);
+    }
+
+    /**
+     * The outcome of reading one id: its stored content if found, else the error if the read failed, else missing.
+     */
+    private static final class Entry {
+        private final String id;
+        private final String content;
+        private final String error;
+
+        Entry(String id, String content, String error) {
+            this.id = id;
+            this.content = content;
+            this.error = error;
+        }
+    }
+
+    private static final JsonRowWriter<Entry> ENTRY_WRITER = new JsonRowWriter<Entry>() {
+        @Override
+        public void write(JsonGenerator generator, Entry entry) throws IOException {
+            generator.writeStartObject();
+            generator.writeStringField("id", entry.id);
+            if (entry.content != null) {
+                generator.writeFieldName("doc");
+                generator.writeRawValue(entry.content);
+            } else if (entry.error != null) {
+                generator.writeStringField("error", entry.error);
+            } else {
+                generator.writeBooleanField("missing", true);
+            }
+            generator.writeEndObject();
+        }
+    };
+}
@@ -0,0 +1,233 @@
+/**
+ * Copyright (C) 2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.beersample.web;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.couchbase.beersample.CircuitBreaker;
+import com.couchbase.client.java.document.RawJsonDocument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.MediaType;
+import rx.Observable;
+import rx.Subscriber;
+
+/**
+ * Sends the raw JSON content of a document as is, using an asynchronous servlet response: the stored content
+ * is written straight to the servlet output, without decoding it into a JSON tree nor re-encoding it.
+ *
+ * The document is emitted on one of the SDK's threads. So that a blocking servlet write never stalls it, the response
+ * is written by a container thread (see {@link AsyncContext#start(Runnable)}).
+ *
+ * The CAS of the document is sent as its ETag. If the request's If-None-Match header matches it, the client
+ * already has this revision and a 304 response without a body is sent instead. A stream completing without
+ * a document is answered with a 404, an error with an ERROR 500 (503 if the circuit breaker rejected the read)
+ * and a timeout with a 504.
+ */
+public final class RawJsonResponse extends Subscriber<RawJsonDocument> implements AsyncListener {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RawJsonResponse.class);
+
+    private final AsyncContext asyncContext;
+    private final HttpServletResponse response;
+    private final String ifNoneMatch;
+    private final Runnable writer = new Runnable() {
+        @Override
+        public void run() {
+            write();
+        }
+    };
+
+    private volatile RawJsonDocument document;
+    private volatile Throwable error;
+    //guarded by this
+    private boolean done;
+
+    private RawJsonResponse(AsyncContext asyncContext, HttpServletResponse response, String ifNoneMatch) {
+        this.asyncContext = asyncContext;
+        this.response = response;
+        this.ifNoneMatch = ifNoneMatch;
+    }
+
+    /**
+     * Start sending the document as the response to the request. The request is switched to asynchronous mode,
+     * so the calling thread can return right away.
+     *
+     * @param request the request, which may hold an If-None-Match header.
+     * @param response the response to send the document to.
+     * @param document the stream that will emit the document, or complete empty if it doesn't exist.
+     * @param timeoutMillis the maximum duration of the whole response, in milliseconds.
+     */
+    public static void send(HttpServletRequest request, HttpServletResponse response,
+            Observable<RawJsonDocument> document, long timeoutMillis) {
+        AsyncContext asyncContext = request.startAsync();
+        asyncContext.setTimeout(timeoutMillis);
+        RawJsonResponse subscriber = new RawJsonResponse(asyncContext, response, request.getHeader("If-None-Match"));
+        asyncContext.addListener(subscriber);
+        document.subscribe(subscriber);
+    }
+
+    /**
+     * @return the (strong) entity tag of the revision of a document identified by the given CAS.
+     */
+    public static String etag(long cas) {
+        return "\"" + Long.toHexString(cas) + "\"";
+    }
+
+    /**
+     * Check an If-None-Match header against an entity tag, with the weak comparison the header calls for.
+     *
+     * @param ifNoneMatch the value of the header, either "*" or a comma separated list of entity tags.
+     * @return true if the header lists the entity tag (or any entity tag), false if it doesn't or is null.
+     */
+    public static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.startsWith("W/")) {
+                candidate = candidate.substring(2);
+            }
+            if ("*".equals(candidate) || etag.equals(candidate)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void onNext(RawJsonDocument document) {
+        this.document = document;
+    }
+
+    @Override
+    public void onCompleted() {
+        respond();
+    }
+
+    @Override
+    public void onError(Throwable e) {
+        error = e;
+        respond();
+    }
+
+    /**
+     * Have the response written by a container thread rather than the SDK thread the document was emitted on.
+     */
+    private void respond() {
+        try {
+            asyncContext.start(writer);
+        } catch (IllegalStateException e) {
+            //the response is already complete (eg. timed out)
+            LOGGER.debug("Response already complete", e);
+        }
+    }
+
+    private synchronized void write() {
+        if (done) {
+            return;
+        }
+        Throwable e = error;
+        RawJsonDocument document = this.document;
+        if (e instanceof CircuitBreaker.CircuitBreakerOpenException) {
+            fail(HttpServletResponse.SC_SERVICE_UNAVAILABLE, e.getMessage());
+        } else if (e != null) {
+            LOGGER.warn("Error while processing request", e);
+            fail(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Error while processing request - " + e);
+        } else if (document == null) {
+            //no document is emitted when the id doesn't exist
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+        } else {
+            send(document);
+        }
+        finish();
+    }
+
+    private void send(RawJsonDocument document) {
+        String etag = etag(document.cas());
+        response.setHeader("ETag", etag);
+        try {
+            if (matches(ifNoneMatch, etag)) {
+                response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            } else {
+                response.setStatus(HttpServletResponse.SC_OK);
+                response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+                response.setCharacterEncoding("UTF-8");
+                //the writer encodes the content right into the response buffer, no byte array copy is made
+                Writer out = response.getWriter();
+                out.write(document.content());
+                out.flush();
+            }
+        } catch (IOException e) {
+            //most likely the client went away
+            LOGGER.debug("Unable to send document " + document.id(), e);
+        }
+    }
+
+    @Override
+    public synchronized void onTimeout(AsyncEvent event) throws IOException {
+        unsubscribe();
+        if (done) {
+            return;
+        }
+        fail(HttpServletResponse.SC_GATEWAY_TIMEOUT, "Timed out waiting for the database");
+        finish();
+    }
+
+    @Override
+    public void onError(AsyncEvent event) throws IOException {
+        unsubscribe();
+    }
+
+    @Override
+    public void onComplete(AsyncEvent event) throws IOException {
+        unsubscribe();
+    }
+
+    @Override
+    public void onStartAsync(AsyncEvent event) throws IOException {
+    }
+
+    private void fail(int status, String message) {
+        try {
+            response.setStatus(status);
+            response.setContentType(MediaType.TEXT_PLAIN_VALUE);
+            response.setCharacterEncoding("UTF-8");
+            response.getWriter().write(message);
+        } catch (IOException e) {
+            LOGGER.debug("Unable to send error response", e);
+        }
+    }
+
+    private void finish() {
+        done = true;
+        asyncContext.complete();
+    }
+}
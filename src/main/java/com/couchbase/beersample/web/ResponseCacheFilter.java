@@ -0,0 +1,471 @@
+/**
+ * Copyright (C) 2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.beersample.web;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.DispatcherType;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+import com.couchbase.beersample.CouchbaseService;
+import com.couchbase.beersample.DocumentChangeListener;
+import com.couchbase.beersample.cache.ResponseCache;
+import com.couchbase.beersample.config.Database;
+import com.couchbase.beersample.metrics.Metrics;
+import com.couchbase.client.java.document.json.JsonObject;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.HandlerMapping;
+import rx.functions.Func1;
+
+/**
+ * Caches the whole responses of the brewery, beer listing and beer search routes in a {@link ResponseCache}, keyed
+ * by their path and query string. A cached response is replayed without reaching the controllers (nor the
+ * {@link AdmissionFilter}, which runs after this one): gzipped to the clients that accept it, with an ETag so that
+ * revalidations are answered with a 304.
+ *
+ * Only complete 200 JSON responses are cached, not those cut short or marked with <code>Cache-Control: no-store</code>
+ * or <code>private</code>. The response that fills the cache is sent as the controller wrote it.
+ *
+ * The responses are invalidated as the documents are written through the {@link CouchbaseService}:
+ * <ul>
+ *     <li>a brewery's page when the brewery or one of its beers changes,</li>
+ *     <li>the listing when a beer is created, deleted or renamed,</li>
+ *     <li>the searches which token is in the name of a changed beer, before or after the write.</li>
+ * </ul>
+ * Writes made outside of the application are only seen once the responses expire.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 1)
+public class ResponseCacheFilter implements Filter, DocumentChangeListener {
+
+    private static final String BREWERY_TAG = "brewery:";
+    private static final String LISTING_TAG = "beers";
+    private static final String SEARCH_TAG = "search:";
+
+    private static final Func1<String, Boolean> DERIVED_FROM_BEERS = new Func1<String, Boolean>() {
+        @Override
+        public Boolean call(String tag) {
+            return tag.equals(LISTING_TAG) || tag.startsWith(SEARCH_TAG) || tag.startsWith(BREWERY_TAG);
+        }
+    };
+
+    private final ResponseCache cache;
+
+    @Autowired
+    public ResponseCacheFilter(final CouchbaseService couchbaseService, final Database config, final Metrics metrics) {
+        this.cache = new ResponseCache(config.getResponseCacheMaxBytes(), config.getResponseCacheTtlSeconds(),
+                TimeUnit.SECONDS, config.isResponseCacheOffHeap());
+        if (cache.isEnabled()) {
+            couchbaseService.addDocumentChangeListener(this, true);
+            metrics.register(cache);
+        }
+    }
+
+    @Override
+    public void init(FilterConfig filterConfig) throws ServletException {
+    }
+
+    @Override
+    public void destroy() {
+    }
+
+    @Override
+    public void doFilter(final ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+        //the async redispatch writes through the capturing response installed by the initial dispatch
+        if (!cache.isEnabled() || request.getDispatcherType() != DispatcherType.REQUEST
+                || !(request instanceof HttpServletRequest) || !(response instanceof HttpServletResponse)) {
+            chain.doFilter(request, response);
+            return;
+        }
+        HttpServletRequest httpRequest = (HttpServletRequest) request;
+        HttpServletResponse httpResponse = (HttpServletResponse) response;
+        String path = httpRequest.getRequestURI().substring(httpRequest.getContextPath().length());
+        final String tag = "GET".equals(httpRequest.getMethod()) ? tagOf(path) : null;
+        if (tag == null) {
+            chain.doFilter(request, response);
+            return;
+        }
+        final String key = httpRequest.getQueryString() == null ? path : path + "?" + httpRequest.getQueryString();
+        ResponseCache.CachedResponse cached = cache.get(key);
+        if (cached != null) {
+            //no handler is reached, name the route for the request metrics
+            httpRequest.setAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE, routeOf(tag));
+            send(httpRequest, httpResponse, cached);
+            return;
+        }
+
+        //taken before the response is built, a write meanwhile keeps it out of the cache
+        final long ticket = cache.ticket();
+        final CapturingResponse capturing = new CapturingResponse(httpResponse, cache.getMaxEntryBytes());
+        capturing.setHeader("Vary", "Accept-Encoding");
+        chain.doFilter(request, capturing);
+        if (!request.isAsyncStarted()) {
+            store(request, capturing, key, tag, ticket);
+            return;
+        }
+        request.getAsyncContext().addListener(new AsyncListener() {
+            private boolean failed;
+
+            @Override
+            public void onComplete(AsyncEvent event) throws IOException {
+                if (!failed) {
+                    store(request, capturing, key, tag, ticket);
+                }
+            }
+
+            @Override
+            public void onTimeout(AsyncEvent event) throws IOException {
+                failed = true;
+            }
+
+            @Override
+            public void onError(AsyncEvent event) throws IOException {
+                failed = true;
+            }
+
+            @Override
+            public void onStartAsync(AsyncEvent event) throws IOException {
+            }
+        });
+    }
+
+    private void store(ServletRequest request, CapturingResponse response, String key, String tag, long ticket) {
+        byte[] body = response.captured();
+        String contentType = response.getContentType();
+        if (body == null || response.getStatus() != HttpServletResponse.SC_OK || contentType == null
+                || !contentType.startsWith("application/json")
+                || request.getAttribute(JsonStreamingResponse.INCOMPLETE_ATTRIBUTE) != null) {
+            return;
+        }
+        for (String[] header : response.headers()) {
+            if (header[0].equalsIgnoreCase("Cache-Control")
+                    && (header[1].contains("no-store") || header[1].contains("private"))) {
+                return;
+            }
+        }
+        cache.put(key, tag, contentType, response.headers(), body, ticket);
+    }
+
+    private void send(HttpServletRequest request, HttpServletResponse response, ResponseCache.CachedResponse cached)
+            throws IOException {
+        boolean gzip = cached.hasGzip() && acceptsGzip(request.getHeader("Accept-Encoding"));
+        String etag = cached.etag(gzip);
+        response.setHeader("Vary", "Accept-Encoding");
+        response.setHeader("ETag", etag);
+        if (RawJsonResponse.matches(request.getHeader("If-None-Match"), etag)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.setContentType(cached.contentType());
+        for (String[] header : cached.headers()) {
+            response.addHeader(header[0], header[1]);
+        }
+        if (gzip) {
+            response.setHeader("Content-Encoding", "gzip");
+        }
+        response.setContentLength(cached.length(gzip));
+        cached.writeTo(response.getOutputStream(), gzip);
+        cache.sent(gzip);
+    }
+
+    /**
+     * @param path the path of the request, without the context path.
+     * @return the tag of the responses of the path, null if they are not cached.
+     */
+    static String tagOf(String path) {
+        if (path.equals("/beer")) {
+            return LISTING_TAG;
+        }
+        if (path.startsWith("/beer/search/")) {
+            String token = path.substring("/beer/search/".length());
+            if (token.isEmpty() || token.indexOf('/') >= 0) {
+                return null;
+            }
+            return SEARCH_TAG + decode(token).toLowerCase(Locale.ENGLISH);
+        }
+        if (path.startsWith("/brewery/")) {
+            String id = path.substring("/brewery/".length());
+            if (id.isEmpty() || id.startsWith("_") || id.equals("near") || id.indexOf('/') >= 0) {
+                return null;
+            }
+            return BREWERY_TAG + decode(id);
+        }
+        return null;
+    }
+
+    private static String routeOf(String tag) {
+        if (tag.startsWith(BREWERY_TAG)) {
+            return "/brewery/{id}";
+        }
+        return tag.startsWith(SEARCH_TAG) ? "/beer/search/{token}" : "/beer";
+    }
+
+    private static String decode(String segment) {
+        try {
+            return URLDecoder.decode(segment.replace("+", "%2B"), "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        } catch (IllegalArgumentException e) {
+            //not a valid escape, Spring will reject it the same way
+            return segment;
+        }
+    }
+
+    /**
+     * @return true if the Accept-Encoding header accepts gzip, explicitly or through <code>*</code>.
+     */
+    static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.split(";");
+            String name = parts[0].trim();
+            if (!name.equalsIgnoreCase("gzip") && !name.equals("*")) {
+                continue;
+            }
+            boolean accepted = true;
+            for (int i = 1; i < parts.length; i++) {
+                String param = parts[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        accepted = Double.parseDouble(param.substring(2)) > 0;
+                    } catch (NumberFormatException e) {
+                        accepted = false;
+                    }
+                }
+            }
+            if (accepted) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void documentStored(String id, JsonObject content, JsonObject previous) {
+        beerChanged(content, previous, previous == null);
+        if (isBrewery(content)) {
+            cache.invalidate(BREWERY_TAG + id);
+        }
+    }
+
+    @Override
+    public void documentRemoved(String id, JsonObject previous) {
+        cache.invalidate(BREWERY_TAG + id);
+        if (previous == null) {
+            //whatever it was, it may have been in any listing, search or brewery
+            cache.invalidateIf(DERIVED_FROM_BEERS);
+            return;
+        }
+        beerChanged(null, previous, true);
+    }
+
+    private void beerChanged(JsonObject content, JsonObject previous, boolean createdOrDeleted) {
+        String name = isBeer(content) ? content.getString("name") : null;
+        String previousName = isBeer(previous) ? previous.getString("name") : null;
+        if (!isBeer(content) && !isBeer(previous)) {
+            return;
+        }
+        if (createdOrDeleted || isBeer(content) != isBeer(previous) || !equal(name, previousName)) {
+            cache.invalidate(LISTING_TAG);
+        }
+        invalidateBrewery(content);
+        invalidateBrewery(previous);
+        final String lowerName = name == null ? null : name.toLowerCase(Locale.ENGLISH);
+        final String lowerPreviousName = previousName == null ? null : previousName.toLowerCase(Locale.ENGLISH);
+        cache.invalidateIf(new Func1<String, Boolean>() {
+            @Override
+            public Boolean call(String tag) {
+                if (!tag.startsWith(SEARCH_TAG)) {
+                    return false;
+                }
+                String token = tag.substring(SEARCH_TAG.length());
+                return (lowerName != null && lowerName.contains(token))
+                        || (lowerPreviousName != null && lowerPreviousName.contains(token));
+            }
+        });
+    }
+
+    private void invalidateBrewery(JsonObject beer) {
+        String breweryId = isBeer(beer) ? beer.getString("brewery_id") : null;
+        if (breweryId != null) {
+            cache.invalidate(BREWERY_TAG + breweryId);
+        }
+    }
+
+    private static boolean isBeer(JsonObject content) {
+        return content != null && "beer".equals(content.getString("type"));
+    }
+
+    private static boolean isBrewery(JsonObject content) {
+        return content != null && "brewery".equals(content.getString("type"));
+    }
+
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    public JsonObject stats() {
+        return cache.stats();
+    }
+
+    /**
+     * A response which body is copied as it is written through the output stream, up to a maximum size, and which
+     * headers are recorded. A response written through a writer isn't copied.
+     */
+    private static final class CapturingResponse extends HttpServletResponseWrapper {
+
+        private final long maxBytes;
+        private final List<String[]> headers = new ArrayList<String[]>();
+        /** null once the body can't be cached */
+        private ByteArrayOutputStream copy = new ByteArrayOutputStream(4096);
+        private ServletOutputStream outputStream;
+
+        CapturingResponse(HttpServletResponse response, long maxBytes) {
+            super(response);
+            this.maxBytes = maxBytes;
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            if (outputStream == null) {
+                outputStream = new TeeOutputStream(super.getOutputStream());
+            }
+            return outputStream;
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            copy = null;
+            return super.getWriter();
+        }
+
+        @Override
+        public void setHeader(String name, String value) {
+            super.setHeader(name, value);
+            removeHeader(name);
+            recordHeader(name, value);
+        }
+
+        @Override
+        public void addHeader(String name, String value) {
+            super.addHeader(name, value);
+            recordHeader(name, value);
+        }
+
+        private void removeHeader(String name) {
+            for (Iterator<String[]> it = headers.iterator(); it.hasNext();) {
+                if (it.next()[0].equalsIgnoreCase(name)) {
+                    it.remove();
+                }
+            }
+        }
+
+        private void recordHeader(String name, String value) {
+            //the framing and content headers are set again when the response is replayed
+            if (!name.equalsIgnoreCase("Content-Length") && !name.equalsIgnoreCase("Content-Type")
+                    && !name.equalsIgnoreCase("Content-Encoding") && !name.equalsIgnoreCase("Vary")
+                    && !name.equalsIgnoreCase("ETag") && !name.equalsIgnoreCase("Date")) {
+                headers.add(new String[] { name, value });
+            }
+        }
+
+        List<String[]> headers() {
+            return headers;
+        }
+
+        /**
+         * @return the body written so far, null if it isn't cacheable.
+         */
+        byte[] captured() {
+            return copy == null ? null : copy.toByteArray();
+        }
+
+        private void capture(byte[] b, int off, int len) {
+            if (copy == null) {
+                return;
+            }
+            if (copy.size() + len > maxBytes) {
+                copy = null;
+            } else {
+                copy.write(b, off, len);
+            }
+        }
+
+        private final class TeeOutputStream extends ServletOutputStream {
+
+            private final ServletOutputStream out;
+
+            TeeOutputStream(ServletOutputStream out) {
+                this.out = out;
+            }
+
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+                capture(new byte[] { (byte) b }, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+                capture(b, off, len);
+            }
+
+            @Override
+            public void flush() throws IOException {
+                out.flush();
+            }
+
+            @Override
+            public void close() throws IOException {
+                out.close();
+            }
+        }
+    }
+}
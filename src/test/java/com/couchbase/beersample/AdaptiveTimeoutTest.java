@@ -0,0 +1,109 @@
+/**
+ * Copyright (C) 2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.beersample;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import com.couchbase.beersample.metrics.LatencyHistogram;
+import org.junit.Test;
+
+public class AdaptiveTimeoutTest {
+
+    private static final long WINDOW_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    private static void record(LatencyHistogram latency, int count, long millis) {
+        for (int i = 0; i < count; i++) {
+            latency.record(TimeUnit.MILLISECONDS.toNanos(millis));
+        }
+    }
+
+    private static AdaptiveTimeout timeout(LatencyHistogram latency) {
+        //no refresh interval, so that each read sees the latest recordings
+        return new AdaptiveTimeout(latency, 0.99, 2d, 10, 1000, TimeUnit.MILLISECONDS, WINDOW_NANOS, 0);
+    }
+
+    @Test
+    public void usesTheUpperBoundUntilThereAreEnoughSamples() {
+        LatencyHistogram latency = new LatencyHistogram();
+        AdaptiveTimeout timeout = timeout(latency);
+        record(latency, 50, 20);
+
+        assertEquals(1000, timeout.millis());
+    }
+
+    @Test
+    public void followsThePercentileWithinBounds() {
+        LatencyHistogram latency = new LatencyHistogram();
+        AdaptiveTimeout timeout = timeout(latency);
+        record(latency, 200, 20);
+        //the buckets are precise within about 3%
+        long millis = timeout.millis();
+        assertTrue("timeout " + millis, millis >= 40 && millis <= 42);
+
+        record(latency, 10000, 900);
+        assertEquals(1000, timeout.millis());
+    }
+
+    @Test
+    public void usesTheLowerBoundForFastOperations() {
+        LatencyHistogram latency = new LatencyHistogram();
+        AdaptiveTimeout timeout = timeout(latency);
+        record(latency, 200, 1);
+
+        assertEquals(10, timeout.millis());
+    }
+
+    @Test
+    public void forgetsOldLatencies() throws InterruptedException {
+        LatencyHistogram latency = new LatencyHistogram();
+        AdaptiveTimeout timeout = timeout(latency);
+        record(latency, 1000, 400);
+        long millis = timeout.millis();
+        assertTrue("timeout " + millis, millis >= 800 && millis <= 830);
+
+        //the slow requests are in the previous window, then out of both
+        for (int window = 0; window < 2; window++) {
+            Thread.sleep(TimeUnit.NANOSECONDS.toMillis(WINDOW_NANOS) + 10);
+            record(latency, 200, 2);
+            timeout.millis();
+        }
+        assertEquals(10, timeout.millis());
+        //the cumulative histogram still remembers them
+        assertTrue(latency.percentiles(0.99)[0] >= TimeUnit.MILLISECONDS.toNanos(400));
+    }
+
+    @Test
+    public void readsThePercentilesOfRecentValues() {
+        LatencyHistogram latency = new LatencyHistogram();
+        record(latency, 100, 100);
+        long[] counts = latency.counts();
+        record(latency, 10, 1);
+
+        assertEquals(10, latency.countSince(counts));
+        long recent = latency.percentilesSince(counts, 0.5, 0.99)[1];
+        assertTrue("recent " + recent, recent <= TimeUnit.MILLISECONDS.toNanos(1) * 103 / 100);
+        assertEquals(0, latency.percentilesSince(latency.counts(), 0.99)[0]);
+    }
+}
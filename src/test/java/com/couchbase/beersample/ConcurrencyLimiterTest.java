@@ -0,0 +1,141 @@
+/**
+ * Copyright (C) 2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.beersample;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class ConcurrencyLimiterTest {
+
+    private static ConcurrencyLimiter limiter(int initialLimit) {
+        //no minimum duration of the windows, they end every 10 requests
+        return new ConcurrencyLimiter("test", initialLimit, 1, 100, 0);
+    }
+
+    /**
+     * Run concurrent requests: take that many permits, then release them all with the same latency.
+     */
+    private static void requests(ConcurrencyLimiter limiter, int concurrency, long latencyMillis, int failures) {
+        for (int i = 0; i < concurrency; i++) {
+            assertTrue(limiter.tryAcquire());
+        }
+        for (int i = 0; i < concurrency; i++) {
+            limiter.release(TimeUnit.MILLISECONDS.toNanos(latencyMillis), i < failures);
+        }
+    }
+
+    /**
+     * Run windows of requests using the whole limit.
+     */
+    private static void saturate(ConcurrencyLimiter limiter, int windows, long latencyMillis) {
+        for (int i = 0; i < windows; i++) {
+            requests(limiter, Math.max(10, limiter.limit()), latencyMillis, 0);
+        }
+    }
+
+    @Test
+    public void rejectsTheRequestsOverTheLimit() {
+        ConcurrencyLimiter limiter = limiter(2);
+
+        assertTrue(limiter.tryAcquire());
+        assertTrue(limiter.tryAcquire());
+        assertFalse(limiter.tryAcquire());
+        limiter.release(1, false);
+        assertTrue(limiter.tryAcquire());
+        assertEquals(3, limiter.admitted());
+        assertEquals(1, limiter.rejected());
+        assertEquals(2, limiter.inFlight());
+    }
+
+    @Test
+    public void growsWhileTheLatencyHolds() {
+        ConcurrencyLimiter limiter = limiter(10);
+        saturate(limiter, 5, 10);
+        int grown = limiter.limit();
+        assertTrue("limit " + grown, grown > 10);
+
+        //within the tolerance of the long-term latency
+        saturate(limiter, 5, 14);
+        assertTrue("limit " + limiter.limit(), limiter.limit() > grown);
+        saturate(limiter, 200, 10);
+        assertEquals(100, limiter.limit());
+    }
+
+    @Test
+    public void shrinksByTheLatencyGradient() {
+        ConcurrencyLimiter limiter = limiter(50);
+        ConcurrencyLimiter muchSlower = limiter(50);
+        saturate(limiter, 20, 10);
+        saturate(muchSlower, 20, 10);
+        int before = limiter.limit();
+
+        //10 and 100 times slower: the gradient is at its floor of 0.5 either way
+        saturate(limiter, 3, 100);
+        saturate(muchSlower, 3, 1000);
+        int after = limiter.limit();
+        assertTrue(before + " then " + after, after < 0.5 * before && after > 1);
+        assertEquals(after, muchSlower.limit());
+
+        //then the latency drops back: the long-term latency follows right away, and the limit grows again
+        saturate(limiter, 5, 10);
+        assertTrue(after + " then " + limiter.limit(), limiter.limit() > after);
+    }
+
+    @Test
+    public void backsOffAfterFailures() {
+        ConcurrencyLimiter limiter = limiter(50);
+        //a failure per window, with few requests in flight: the limit still goes down
+        for (int window = 0; window < 20; window++) {
+            requests(limiter, 10, 10, 1);
+        }
+        //about 0.98 of the limit per window
+        assertTrue("limit " + limiter.limit(), limiter.limit() >= 30 && limiter.limit() <= 35);
+        assertEquals(20, limiter.failed());
+
+        for (int window = 0; window < 500; window++) {
+            requests(limiter, Math.min(10, limiter.limit()), 10, 1);
+        }
+        assertEquals(1, limiter.limit());
+    }
+
+    @Test
+    public void doesNotGrowWhileUnderused() {
+        ConcurrencyLimiter limiter = limiter(40);
+        for (int window = 0; window < 50; window++) {
+            //windows of 10 requests, at most 10 at a time
+            requests(limiter, 5, 10, 0);
+            requests(limiter, 10, 10, 0);
+        }
+        assertEquals(40, limiter.limit());
+
+        //nor shrink on a latency which says nothing about the limit
+        for (int window = 0; window < 10; window++) {
+            requests(limiter, 10, 100, 0);
+        }
+        assertEquals(40, limiter.limit());
+    }
+}
@@ -0,0 +1,141 @@
+/**
+ * Copyright (C) 2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.beersample;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import com.couchbase.beersample.testing.BeerSampleData;
+import com.couchbase.beersample.testing.FakeBucket;
+import com.couchbase.beersample.testing.TestConfig;
+import com.couchbase.client.java.document.Document;
+import com.couchbase.client.java.document.JsonDocument;
+import com.couchbase.client.java.document.RawJsonDocument;
+import com.couchbase.client.java.document.json.JsonArray;
+import com.couchbase.client.java.document.json.JsonObject;
+import org.junit.Before;
+import org.junit.Test;
+import rx.Observable;
+
+/**
+ * The beer name search read paths, against an in-memory bucket of 100 beers, 10 of which have the search token in
+ * their name.
+ */
+public class CouchbaseServiceSearchTest {
+
+    private static final String TOKEN = BeerSampleData.TOKEN;
+
+    private FakeBucket bucket;
+    private CouchbaseService service;
+
+    @Before
+    public void setUp() {
+        bucket = new FakeBucket(0, TimeUnit.MICROSECONDS);
+        BeerSampleData.load(bucket, 10, 10, 0.1d);
+        //count the fetches, not the document cache
+        service = new CouchbaseService(TestConfig.database("couchbase.cache.maxBytes", 0), bucket.bucket());
+        assertEquals(100, service.loadBeerNameIndexAsync().toBlocking().single().intValue());
+    }
+
+    private static <D extends Document<?>> Set<String> ids(Observable<D> docs) {
+        Set<String> ids = new TreeSet<String>();
+        for (D doc : docs.toList().toBlocking().single()) {
+            ids.add(doc.id());
+        }
+        return ids;
+    }
+
+    @Test
+    public void findsTheSameBeersAsAScanOfTheView() {
+        assertTrue(service.isBeerNameIndexReady());
+        Set<String> found = ids(service.findBeersByName(TOKEN));
+
+        assertEquals(10, found.size());
+        assertEquals(ids(service.scanBeersByName(TOKEN)), found);
+        assertEquals(found, ids(service.findBeersByName(TOKEN.toUpperCase())));
+    }
+
+    @Test
+    public void onlyFetchesTheMatchingBeers() {
+        long before = bucket.operations();
+        List<JsonDocument> found = service.findBeersByName(TOKEN).toList().toBlocking().single();
+
+        assertEquals(10, found.size());
+        assertEquals(10L, bucket.operations() - before);
+        for (JsonDocument beer : found) {
+            assertTrue(beer.content().getString("name").contains(TOKEN));
+        }
+    }
+
+    @Test
+    public void findsTheRawDocumentsOfTheSameBeers() {
+        List<RawJsonDocument> found = service.findRawBeersByName(TOKEN).toList().toBlocking().single();
+
+        assertEquals(ids(service.findBeersByName(TOKEN)), ids(Observable.from(found)));
+        assertEquals(ids(service.scanRawBeersByName(TOKEN)), ids(Observable.from(found)));
+        for (RawJsonDocument beer : found) {
+            assertTrue(CouchbaseService.rawName(beer.content()).contains(TOKEN));
+        }
+    }
+
+    @Test
+    public void searchesIntoAJsonArray() {
+        JsonArray result = service.searchBeer(TOKEN).toBlocking().single();
+
+        assertEquals(10, result.size());
+        JsonObject first = result.getObject(0);
+        assertTrue(first.getString("name").contains(TOKEN));
+        assertEquals(first.getString("name"), first.getObject("detail").getString("name"));
+        assertEquals("beer", first.getObject("detail").getString("type"));
+    }
+
+    @Test
+    public void followsTheWrites() {
+        JsonObject beer = BeerSampleData.beer(0, 99, 0, 0d).content().put("name", "Lemon Zest Wheat");
+        service.create(JsonDocument.create("new_beer", beer));
+        assertTrue(ids(service.findBeersByName(TOKEN)).contains("new_beer"));
+
+        service.update(JsonDocument.create("new_beer", beer.put("name", "Lemon Wheat")));
+        assertEquals(10, ids(service.findBeersByName(TOKEN)).size());
+        assertEquals(1, ids(service.findBeersByName("lemon wheat")).size());
+
+        String matching = new ArrayList<String>(ids(service.findBeersByName(TOKEN))).get(0);
+        service.delete(matching);
+        Set<String> found = ids(service.findBeersByName(TOKEN));
+        assertEquals(9, found.size());
+        assertTrue(!found.contains(matching));
+    }
+
+    @Test
+    public void rawNameReadsTheTopLevelName() {
+        assertEquals("IPA", CouchbaseService.rawName("{\"detail\":{\"name\":\"nested\"},\"name\":\"IPA\"}"));
+        assertEquals("A \"quoted\" ale", CouchbaseService.rawName("{\"name\":\"A \\\"quoted\\\" ale\"}"));
+        assertEquals(null, CouchbaseService.rawName("{\"name\":42}"));
+        assertEquals(null, CouchbaseService.rawName("[\"name\"]"));
+    }
+}
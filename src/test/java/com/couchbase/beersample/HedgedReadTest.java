@@ -0,0 +1,114 @@
+/**
+ * Copyright (C) 2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.beersample;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.TimeUnit;
+
+import com.couchbase.beersample.testing.BeerSampleData;
+import com.couchbase.beersample.testing.FakeBucket;
+import com.couchbase.beersample.testing.TestConfig;
+import com.couchbase.client.java.document.JsonDocument;
+import com.couchbase.client.java.document.RawJsonDocument;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Hedged reads and the document cache: only the documents read from the active copy are cached, a replica may lag
+ * behind it.
+ */
+public class HedgedReadTest {
+
+    private FakeBucket bucket;
+    private CouchbaseService service;
+
+    @Before
+    public void setUp() throws InterruptedException {
+        bucket = new FakeBucket(0, TimeUnit.MICROSECONDS);
+        BeerSampleData.load(bucket, 11, 10, 0d);
+        service = new CouchbaseService(TestConfig.database("couchbase.requestTimeoutMillis", 1000,
+                "couchbase.timeouts.enabled", false), bucket.bucket());
+        //the hedge delay waits for 100 reads before following their latency, and is refreshed once per second
+        for (int brewery = 0; brewery < 10; brewery++) {
+            for (int beer = 0; beer < 10; beer++) {
+                service.asyncRead(BeerSampleData.beerId(brewery, beer)).toBlocking().single();
+            }
+        }
+        Thread.sleep(1100);
+    }
+
+    private void slowActiveCopy() {
+        bucket.injectFaults(1d, 500, 0d, TimeUnit.MILLISECONDS);
+    }
+
+    private void healthyActiveCopy() {
+        bucket.injectFaults(0d, 0, 0d, TimeUnit.MILLISECONDS);
+    }
+
+    private long hedgesWon() {
+        return service.resilienceStats().getObject("hedges").getLong("won");
+    }
+
+    @Test
+    public void cachesTheDocumentsReadFromTheActiveCopy() {
+        String id = BeerSampleData.beerId(10, 0);
+        long before = bucket.operations();
+        service.asyncRead(id).toBlocking().single();
+        service.asyncRead(id).toBlocking().single();
+
+        assertEquals(1L, bucket.operations() - before);
+        assertEquals(0L, hedgesWon());
+    }
+
+    @Test
+    public void doesNotCacheTheDocumentsReadFromAReplica() {
+        String id = BeerSampleData.beerId(10, 1);
+        slowActiveCopy();
+        JsonDocument hedged = service.asyncRead(id).toBlocking().single();
+        assertEquals(id, hedged.id());
+        assertEquals(1L, hedgesWon());
+
+        healthyActiveCopy();
+        long before = bucket.operations();
+        service.asyncRead(id).toBlocking().single();
+        assertEquals(1L, bucket.operations() - before);
+        //this one came from the active copy
+        service.asyncRead(id).toBlocking().single();
+        assertEquals(1L, bucket.operations() - before);
+    }
+
+    @Test
+    public void doesNotCacheTheRawDocumentsReadFromAReplica() {
+        String id = BeerSampleData.beerId(10, 2);
+        slowActiveCopy();
+        RawJsonDocument hedged = service.asyncReadRaw(id).toBlocking().single();
+        assertEquals(id, hedged.id());
+        assertEquals(1L, hedgesWon());
+
+        healthyActiveCopy();
+        long before = bucket.operations();
+        service.asyncReadRaw(id).toBlocking().single();
+        service.asyncReadRaw(id).toBlocking().single();
+        assertEquals(1L, bucket.operations() - before);
+    }
+}
@@ -0,0 +1,225 @@
+/**
+ * Copyright (C) 2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.beersample;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.couchbase.client.java.view.AsyncViewResult;
+import com.couchbase.client.java.view.AsyncViewRow;
+import com.couchbase.client.java.view.DefaultAsyncViewResult;
+import com.couchbase.client.java.view.DefaultAsyncViewRow;
+import com.couchbase.client.java.view.ViewQuery;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+import rx.Observable;
+import rx.functions.Func1;
+
+public class ViewScannerTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    /**
+     * An in-memory view of string keys, three rows per key, sorted by key then id like the view engine.
+     */
+    private static class FakeView implements Func1<ViewQuery, Observable<AsyncViewResult>> {
+        private final List<String[]> rows = new ArrayList<String[]>();
+        private final AtomicInteger queries = new AtomicInteger();
+        private final AtomicLong skippedBySamples = new AtomicLong();
+        /** fail every query which number is a multiple of this, 0 to never fail */
+        private volatile int failEvery = 0;
+        /** answer each query after this delay rather than right away, 0 for no delay */
+        private volatile long delayMillis = 0;
+
+        FakeView(int keys) {
+            for (int i = 0; i < keys; i++) {
+                for (int j = 0; j < 3; j++) {
+                    rows.add(new String[] { String.format("beer-%05d-%d", i, j), String.format("key-%05d", i) });
+                }
+            }
+        }
+
+        @Override
+        public Observable<AsyncViewResult> call(ViewQuery query) {
+            int number = queries.incrementAndGet();
+            if (failEvery > 0 && number % failEvery == 0) {
+                return Observable.error(new IllegalStateException("query " + number + " failed"));
+            }
+            Map<String, String> params = parameters(query);
+            int start = 0;
+            if (params.containsKey("startkey")) {
+                String[] from = { params.get("startkey_docid") == null ? "" : params.get("startkey_docid"),
+                        parseKey(params.get("startkey")) };
+                while (start < rows.size() && compare(rows.get(start), from) < 0) {
+                    start++;
+                }
+            }
+            String[] until = params.containsKey("endkey")
+                    ? new String[] { params.get("endkey_docid"), parseKey(params.get("endkey")) } : null;
+            int skip = params.containsKey("skip") ? Integer.parseInt(params.get("skip")) : 0;
+            int limit = params.containsKey("limit") ? Integer.parseInt(params.get("limit")) : Integer.MAX_VALUE;
+            if (limit == 1) {
+                skippedBySamples.addAndGet(skip);
+            }
+            List<AsyncViewRow> result = new ArrayList<AsyncViewRow>();
+            for (int i = start + skip; i < rows.size() && result.size() < limit; i++) {
+                if (until != null && compare(rows.get(i), until) > 0) {
+                    break;
+                }
+                result.add(new DefaultAsyncViewRow(null, rows.get(i)[0], rows.get(i)[1], null));
+            }
+            AsyncViewResult viewResult = new DefaultAsyncViewResult(Observable.from(result), rows.size(), true, null,
+                    null);
+            Observable<AsyncViewResult> answer = Observable.just(viewResult);
+            return delayMillis > 0 ? answer.delay(delayMillis, TimeUnit.MILLISECONDS) : answer;
+        }
+
+        private static int compare(String[] row, String[] position) {
+            int byKey = row[1].compareTo(position[1]);
+            if (byKey != 0 || position[0] == null) {
+                return byKey;
+            }
+            return row[0].compareTo(position[0]);
+        }
+
+        private static Map<String, String> parameters(ViewQuery query) {
+            Map<String, String> params = new HashMap<String, String>();
+            for (String param : query.toString().split("&")) {
+                int equals = param.indexOf('=');
+                if (equals > 0) {
+                    try {
+                        params.put(param.substring(0, equals), URLDecoder.decode(param.substring(equals + 1), "UTF-8"));
+                    } catch (UnsupportedEncodingException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            }
+            return params;
+        }
+
+        private static String parseKey(String json) {
+            try {
+                return MAPPER.readValue(json, String.class);
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Invalid view key " + json, e);
+            }
+        }
+    }
+
+    private static List<String> ids(Observable<AsyncViewRow> rows) {
+        return rows.map(new Func1<AsyncViewRow, String>() {
+            @Override
+            public String call(AsyncViewRow row) {
+                return row.id();
+            }
+        }).toList().toBlocking().single();
+    }
+
+    @Test
+    public void scansEveryRowOnce() {
+        FakeView view = new FakeView(1000);
+        ViewScanner scanner = new ViewScanner(view, 8, 100, 0, 1);
+
+        List<String> ids = ids(scanner.scan("beer", "by_name", null, false));
+
+        assertEquals(3000, ids.size());
+        assertEquals(3000, new HashSet<String>(ids).size());
+        assertEquals(8L, scanner.stats().getLong("ranges").longValue());
+    }
+
+    @Test
+    public void scansInKeyOrder() {
+        FakeView view = new FakeView(1000);
+        ViewScanner scanner = new ViewScanner(view, 8, 100, 0, 1);
+
+        List<String> ids = ids(scanner.scan("beer", "by_name", null, true));
+
+        List<String> expected = new ArrayList<String>();
+        for (String[] row : view.rows) {
+            expected.add(row[0]);
+        }
+        assertEquals(expected, ids);
+    }
+
+    @Test(timeout = 10000)
+    public void scansAViewAnsweringAsynchronously() {
+        FakeView view = new FakeView(1000);
+        view.delayMillis = 1;
+        ViewScanner scanner = new ViewScanner(view, 4, 100, 0, 1);
+
+        //each range is several pages, the next one being read once the previous one was answered
+        assertEquals(3000, new HashSet<String>(ids(scanner.scan("beer", "by_name", null, false))).size());
+        List<String> expected = new ArrayList<String>();
+        for (String[] row : view.rows) {
+            expected.add(row[0]);
+        }
+        assertEquals(expected, ids(scanner.scan("beer", "by_name", null, true)));
+    }
+
+    @Test
+    public void samplesTheSplitPointsInASinglePassOverTheView() {
+        FakeView view = new FakeView(1000);
+        ViewScanner scanner = new ViewScanner(view, 16, 10, 0, 1);
+
+        ids(scanner.scan("beer", "by_name", null, false));
+
+        //each split point is sampled a range's worth of rows after the previous one, rather than from the start
+        assertTrue("skipped " + view.skippedBySamples, view.skippedBySamples.get() <= 3000);
+        assertEquals(16L, scanner.stats().getLong("ranges").longValue());
+    }
+
+    @Test
+    public void retriesFailedQueriesWithoutDuplicatingRows() {
+        FakeView view = new FakeView(1000);
+        view.failEvery = 7;
+        ViewScanner scanner = new ViewScanner(view, 4, 50, 10, 1);
+
+        List<String> ids = ids(scanner.scan("beer", "by_name", null, false));
+
+        Set<String> distinct = new HashSet<String>(ids);
+        assertEquals(3000, ids.size());
+        assertEquals(3000, distinct.size());
+        assertTrue(scanner.stats().getLong("retries") > 0);
+    }
+
+    @Test
+    public void scansASmallViewAsASingleRange() {
+        FakeView view = new FakeView(10);
+        ViewScanner scanner = new ViewScanner(view, 8, 100, 0, 1);
+
+        assertEquals(30, ids(scanner.scan("beer", "by_name", null, true)).size());
+        assertEquals(1L, scanner.stats().getLong("ranges").longValue());
+    }
+}
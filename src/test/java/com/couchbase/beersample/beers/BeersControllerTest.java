@@ -0,0 +1,187 @@
+/**
+ * Copyright (C) 2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.beersample.beers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+
+import com.couchbase.beersample.CouchbaseService;
+import com.couchbase.beersample.config.Database;
+import com.couchbase.beersample.search.BeerSearch;
+import com.couchbase.beersample.search.BeerSuggest;
+import com.couchbase.beersample.testing.BeerSampleData;
+import com.couchbase.beersample.testing.FakeBucket;
+import com.couchbase.beersample.testing.TestConfig;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockAsyncContext;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.ResultActions;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+/**
+ * The beer endpoints, against an in-memory bucket of 100 beers which answers each operation after a latency. Every
+ * request must switch to asynchronous mode and release the servlet thread before the bucket answers: the response is
+ * then completed from the Rx callbacks.
+ */
+public class BeersControllerTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    /** long enough for the handler to return well before the bucket answers */
+    private static final long LATENCY_MILLIS = 50;
+    private static final long WAIT_MILLIS = 5000;
+
+    private static final String BEER = BeerSampleData.beerId(0, 0);
+    private static final String NEW_BEER = "{\"type\":\"beer\",\"name\":\"Test Lager\",\"brewery_id\":\""
+            + BeerSampleData.breweryId(0) + "\",\"abv\":5.0}";
+
+    private FakeBucket bucket;
+    private MockMvc mockMvc;
+
+    @Before
+    public void setUp() {
+        bucket = new FakeBucket(LATENCY_MILLIS, TimeUnit.MILLISECONDS);
+        BeerSampleData.load(bucket, 10, 10, 0.1d);
+        //every read goes to the bucket, and only the endpoints under test are wired
+        Database config = TestConfig.database("couchbase.cache.maxBytes", 0, "couchbase.hedge.enabled", false,
+                "couchbase.search.enabled", false, "couchbase.suggest.enabled", false);
+        CouchbaseService service = new CouchbaseService(config, bucket.bucket());
+        BeersController controller = new BeersController(service, new BeerBulkLoader(service, config),
+                new BeerSearch(service, config), new BeerSuggest(service, config), config);
+        mockMvc = MockMvcBuilders.standaloneSetup(controller).build();
+    }
+
+    /**
+     * Perform a request answered with a DeferredResult, and dispatch its result once it is set.
+     */
+    private ResultActions deferred(MockHttpServletRequestBuilder builder) throws Exception {
+        MvcResult started = mockMvc.perform(builder).andExpect(request().asyncStarted()).andReturn();
+        started.getAsyncResult(WAIT_MILLIS);
+        return mockMvc.perform(asyncDispatch(started));
+    }
+
+    /**
+     * Perform a request answered by writing to the asynchronous servlet response, and wait for it to complete.
+     */
+    private MockHttpServletResponse streamed(MockHttpServletRequestBuilder builder) throws Exception {
+        MvcResult started = mockMvc.perform(builder).andExpect(request().asyncStarted()).andReturn();
+        long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+        while (started.getRequest().isAsyncStarted()) {
+            assertTrue("The response wasn't completed in time", System.currentTimeMillis() < deadline);
+            Thread.sleep(1);
+        }
+        return started.getResponse();
+    }
+
+    @Test
+    public void getsABeerWithItsEtag() throws Exception {
+        MockHttpServletResponse response = streamed(get("/beer/" + BEER));
+
+        assertEquals(200, response.getStatus());
+        assertEquals(BeerSampleData.beer(0, 0, 0, 0.1d).content().getString("name"),
+                MAPPER.readTree(response.getContentAsString()).get("name").asText());
+        String etag = response.getHeader("ETag");
+
+        MockHttpServletResponse notModified = streamed(get("/beer/" + BEER).header("If-None-Match", etag));
+        assertEquals(304, notModified.getStatus());
+        assertEquals("", notModified.getContentAsString());
+    }
+
+    @Test
+    public void getsA404ForAMissingBeer() throws Exception {
+        assertEquals(404, streamed(get("/beer/missing")).getStatus());
+    }
+
+    @Test
+    public void createsUpdatesAndDeletesABeer() throws Exception {
+        deferred(post("/beer").contentType(MediaType.APPLICATION_JSON).content(NEW_BEER))
+                .andExpect(status().isCreated())
+                .andExpect(content().string("beer-Test Lager"));
+        deferred(post("/beer").contentType(MediaType.APPLICATION_JSON).content(NEW_BEER))
+                .andExpect(status().isConflict());
+
+        deferred(put("/beer/beer-Test Lager").contentType(MediaType.APPLICATION_JSON)
+                .content(NEW_BEER.replace("5.0", "6.5")))
+                .andExpect(status().isOk());
+        MockHttpServletResponse updated = streamed(get("/beer/beer-Test Lager"));
+        assertEquals(6.5d, MAPPER.readTree(updated.getContentAsString()).get("abv").asDouble(), 0d);
+
+        deferred(delete("/beer/beer-Test Lager")).andExpect(status().isOk());
+        deferred(delete("/beer/beer-Test Lager")).andExpect(status().isNotFound());
+        assertEquals(404, streamed(get("/beer/beer-Test Lager")).getStatus());
+    }
+
+    @Test
+    public void streamsTheSearchResults() throws Exception {
+        MockHttpServletResponse response = streamed(get("/beer/search/" + BeerSampleData.TOKEN));
+
+        assertEquals(200, response.getStatus());
+        JsonNode results = MAPPER.readTree(response.getContentAsString());
+        assertEquals(10, results.size());
+        Set<String> ids = new HashSet<String>();
+        for (JsonNode result : results) {
+            assertTrue(result.get("name").asText().contains(BeerSampleData.TOKEN));
+            assertEquals(result.get("name"), result.get("detail").get("name"));
+            ids.add(result.get("id").asText());
+        }
+        assertEquals(10, ids.size());
+    }
+
+    @Test
+    public void answersAGatewayTimeoutWhenTheBucketIsTooSlow() throws Exception {
+        bucket.injectFaults(1d, 1, 0d, TimeUnit.HOURS);
+        MvcResult started = mockMvc.perform(put("/beer/" + BEER).contentType(MediaType.APPLICATION_JSON)
+                .content(NEW_BEER)).andExpect(request().asyncStarted()).andReturn();
+
+        //the mock container doesn't time requests out by itself
+        MockAsyncContext asyncContext = (MockAsyncContext) started.getRequest().getAsyncContext();
+        for (AsyncListener listener : asyncContext.getListeners()) {
+            listener.onTimeout(new AsyncEvent(asyncContext));
+        }
+        started.getAsyncResult(WAIT_MILLIS);
+        mockMvc.perform(asyncDispatch(started))
+                .andExpect(status().isGatewayTimeout())
+                .andExpect(content().string("Timed out waiting for the database"));
+    }
+}
@@ -0,0 +1,150 @@
+/**
+ * Copyright (C) 2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.beersample.breweries;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import com.couchbase.beersample.CouchbaseService;
+import com.couchbase.beersample.config.Database;
+import com.couchbase.beersample.testing.BeerSampleData;
+import com.couchbase.beersample.testing.FakeBucket;
+import com.couchbase.beersample.testing.TestConfig;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.context.request.async.DeferredResult;
+
+/**
+ * Many concurrent requests for breweries served by a few servlet threads, against an in-memory bucket which answers
+ * each operation after a fixed latency: once with each servlet thread waiting for its response, like an endpoint
+ * blocking on the database would, once letting the deferred responses complete from the Rx callbacks.
+ */
+public class BreweriesControllerLoadTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private static final long LATENCY_MILLIS = 20;
+    /** a brewery is read along with the view rows of its beers, then the beers are read */
+    private static final int ROUND_TRIPS = 2;
+    private static final int SERVLET_THREADS = 4;
+    private static final int REQUESTS = 200;
+    private static final int BREWERIES = 20;
+    private static final int BEERS_PER_BREWERY = 5;
+    private static final long WAIT_MILLIS = 30000;
+
+    private BreweriesController controller;
+
+    /**
+     * The response of a request, as handed to the container once the deferred result is set.
+     */
+    private static class Response implements DeferredResult.DeferredResultHandler {
+        private final CountDownLatch set = new CountDownLatch(1);
+        private volatile Object result;
+
+        @Override
+        public void handleResult(Object result) {
+            this.result = result;
+            set.countDown();
+        }
+
+        private ResponseEntity<?> await() throws InterruptedException {
+            assertTrue("No response in time", set.await(WAIT_MILLIS, TimeUnit.MILLISECONDS));
+            return (ResponseEntity<?>) result;
+        }
+    }
+
+    @Before
+    public void setUp() {
+        FakeBucket bucket = new FakeBucket(LATENCY_MILLIS, TimeUnit.MILLISECONDS);
+        BeerSampleData.load(bucket, BREWERIES, BEERS_PER_BREWERY, 0d);
+        //every request pays for its own round trips
+        Database config = TestConfig.database("couchbase.cache.maxBytes", 0, "couchbase.coalescing.enabled", false,
+                "couchbase.hedge.enabled", false, "couchbase.geo.enabled", false);
+        CouchbaseService service = new CouchbaseService(config, bucket.bucket());
+        controller = new BreweriesController(service, new BreweryAggregates(service, config),
+                new BreweryGeo(service, config), config);
+    }
+
+    /**
+     * Serve all the requests through a fixed pool of servlet threads, and check their responses.
+     *
+     * @param waitForResponse true to have each servlet thread wait for the response of its request before taking
+     *  the next one.
+     * @return the time it took to answer all the requests, in milliseconds.
+     */
+    private long serve(final boolean waitForResponse) throws Exception {
+        ExecutorService servletThreads = Executors.newFixedThreadPool(SERVLET_THREADS);
+        List<Future<Response>> requests = new ArrayList<Future<Response>>(REQUESTS);
+        long start = System.nanoTime();
+        try {
+            for (int i = 0; i < REQUESTS; i++) {
+                final String id = BeerSampleData.breweryId(i % BREWERIES);
+                requests.add(servletThreads.submit(new Callable<Response>() {
+                    @Override
+                    public Response call() throws Exception {
+                        Response response = new Response();
+                        controller.getBrewery(id, false).setResultHandler(response);
+                        if (waitForResponse) {
+                            response.await();
+                        }
+                        return response;
+                    }
+                }));
+            }
+            for (Future<Response> request : requests) {
+                ResponseEntity<?> response = request.get().await();
+                assertEquals(HttpStatus.OK, response.getStatusCode());
+                assertEquals(BEERS_PER_BREWERY, MAPPER.readTree((String) response.getBody()).get("beers").size());
+            }
+            return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        } finally {
+            servletThreads.shutdown();
+        }
+    }
+
+    @Test
+    public void throughputIsNotBoundByTheServletThreads() throws Exception {
+        serve(false);
+
+        long blocking = serve(true);
+        long nonBlocking = serve(false);
+
+        //waiting servlet threads can't answer more than one request each per round trips to the bucket
+        long blockingBound = REQUESTS / SERVLET_THREADS * ROUND_TRIPS * LATENCY_MILLIS;
+        assertTrue("blocking took " + blocking + "ms", blocking >= blockingBound);
+        //released servlet threads get all the requests in flight at once
+        assertTrue("non blocking took " + nonBlocking + "ms, blocking " + blocking + "ms",
+                nonBlocking < blockingBound / 2);
+    }
+}
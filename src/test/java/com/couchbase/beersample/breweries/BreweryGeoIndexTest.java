@@ -0,0 +1,192 @@
+/**
+ * Copyright (C) 2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.beersample.breweries;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class BreweryGeoIndexTest {
+
+    private BreweryGeoIndex index;
+
+    @Before
+    public void setUp() {
+        index = new BreweryGeoIndex();
+        index.put("san-francisco", "San Francisco", 37.7749, -122.4194);
+        index.put("oakland", "Oakland", 37.8044, -122.2712);
+        index.put("san-jose", "San Jose", 37.3382, -121.8863);
+        index.put("los-angeles", "Los Angeles", 34.0522, -118.2437);
+        //Fiji, Taveuni being across the antimeridian
+        index.put("suva", "Suva", -18.1416, 178.4419);
+        index.put("levuka", "Levuka", -17.6833, 178.8333);
+        index.put("labasa", "Labasa", -16.4333, 179.3833);
+        index.put("taveuni", "Taveuni", -16.7906, -179.9897);
+        //around the poles
+        index.put("north-pole", "North Pole", 90d, 0d);
+        index.put("alert", "Alert", 82.5018, -62.3481);
+        index.put("ny-alesund", "Ny-Alesund", 78.9236, 11.9306);
+        index.put("longyearbyen", "Longyearbyen", 78.2232, 15.6267);
+        index.put("south-pole", "South Pole", -90d, 0d);
+        index.put("mcmurdo", "McMurdo", -77.846, 166.676);
+    }
+
+    private List<String> near(double lat, double lon, double radiusKm) {
+        List<String> ids = new ArrayList<String>();
+        for (BreweryGeoIndex.Nearby brewery : index.near(lat, lon, radiusKm, 100).breweries()) {
+            ids.add(brewery.id());
+        }
+        return ids;
+    }
+
+    @Test
+    public void findsTheBreweriesWithinTheRadiusNearestFirst() {
+        assertEquals(Arrays.asList("san-francisco", "oakland", "san-jose"), near(37.7749, -122.4194, 100));
+        assertEquals(Arrays.asList("san-francisco", "oakland"), near(37.7749, -122.4194, 60));
+        assertEquals(Arrays.asList("san-francisco", "oakland", "san-jose", "los-angeles"),
+                near(37.7749, -122.4194, 600));
+
+        BreweryGeoIndex.Nearby oakland = index.near(37.7749, -122.4194, 60, 10).breweries().get(1);
+        assertEquals("Oakland", oakland.name());
+        assertEquals(13.4, oakland.distanceKm(), 0.1);
+        assertEquals(37.8044, oakland.lat(), 0d);
+    }
+
+    @Test
+    public void findsTheBreweriesAcrossTheAntimeridian() {
+        assertEquals(Arrays.asList("labasa", "taveuni"), near(-16.4333, 179.3833, 100));
+        assertEquals(Arrays.asList("taveuni", "labasa", "levuka"), near(-16.7906, -179.9897, 200));
+        assertEquals(Arrays.asList("taveuni", "labasa", "levuka", "suva"), near(-16.7906, 180d, 250));
+    }
+
+    @Test
+    public void findsTheBreweriesAcrossThePoles() {
+        //the circle holds the pole: Alert is more than 117 degrees of longitude away
+        assertEquals(Arrays.asList("north-pole", "alert"), near(88, 180, 1000));
+        assertEquals(Arrays.asList("north-pole", "ny-alesund"), near(84, 100, 1400));
+        assertEquals(Arrays.asList("north-pole"), near(89.9, 180, 20));
+        assertEquals(Arrays.asList("mcmurdo", "south-pole"), near(-77.846, 166.676, 1400));
+        assertEquals(Arrays.asList("south-pole"), near(-90, 45, 1000));
+    }
+
+    @Test
+    public void countsAllTheBreweriesButOnlyReturnsTheLimit() {
+        BreweryGeoIndex.Result nearest = index.near(37.7749, -122.4194, 600, 2);
+        assertEquals(4, nearest.total());
+        assertEquals(2, nearest.breweries().size());
+        assertEquals("oakland", nearest.breweries().get(1).id());
+
+        BreweryGeoIndex.Result none = index.near(37.7749, -122.4194, 600, 0);
+        assertEquals(4, none.total());
+        assertTrue(none.breweries().isEmpty());
+        assertEquals(0, index.near(0, 0, 1000, 10).total());
+    }
+
+    @Test
+    public void breaksDistanceTiesById() {
+        index.put("oakland-2", "Oakland Too", 37.8044, -122.2712);
+        index.put("oakland-0", "Oakland First", 37.8044, -122.2712);
+
+        assertEquals(Arrays.asList("oakland", "oakland-0", "oakland-2"), near(37.8044, -122.2712, 1));
+        assertEquals("oakland-0", index.near(37.8044, -122.2712, 1, 2).breweries().get(1).id());
+    }
+
+    @Test
+    public void followsTheBreweriesAndTheirBeers() {
+        index.putBeer("anchor-steam", "san-francisco");
+        index.putBeer("liberty-ale", "san-francisco");
+        index.putBeer("oakland-ipa", "oakland");
+        index.putBeer("liberty-ale", "oakland");
+        index.removeBeer("oakland-ipa");
+        assertEquals(1, index.near(37.7749, -122.4194, 1, 1).breweries().get(0).beers());
+
+        //moved to Los Angeles, no longer located, gone
+        index.put("san-francisco", "San Francisco", 34.05, -118.25);
+        index.put("oakland", "Oakland", null, null);
+        index.remove("san-jose");
+        assertEquals(Arrays.asList("los-angeles", "san-francisco"), near(34.0522, -118.2437, 600));
+        assertEquals(12, index.size());
+
+        try {
+            index.put("nowhere", "Nowhere", 91d, 0d);
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("Invalid location of brewery nowhere: 91.0, 0.0", e.getMessage());
+        }
+    }
+
+    @Test
+    public void findsTheSameBreweriesAsAScan() {
+        Random random = new Random(11);
+        BreweryGeoIndex spread = new BreweryGeoIndex();
+        double[][] locations = new double[2000][];
+        for (int i = 0; i < locations.length; i++) {
+            //uniform on the sphere, so that some are close to the poles
+            double lat = Math.toDegrees(Math.asin(2 * random.nextDouble() - 1));
+            double lon = random.nextDouble() * 360d - 180d;
+            locations[i] = new double[] { lat, lon };
+            spread.put(String.format("brewery-%04d", i), null, lat, lon);
+        }
+        for (int q = 0; q < 300; q++) {
+            double lat = q % 10 == 0 ? 89.5 * (q % 20 == 0 ? 1 : -1) : random.nextDouble() * 180d - 90d;
+            double lon = q % 3 == 0 ? 179.5 : random.nextDouble() * 360d - 180d;
+            double radius = random.nextDouble() * 3000d;
+            List<double[]> expected = new ArrayList<double[]>();
+            for (int i = 0; i < locations.length; i++) {
+                double distance = distanceKm(lat, lon, locations[i][0], locations[i][1]);
+                if (distance <= radius) {
+                    expected.add(new double[] { distance, i });
+                }
+            }
+            BreweryGeoIndex.Result result = spread.near(lat, lon, radius, 5);
+            assertEquals(expected.size(), result.total());
+            double previous = 0;
+            for (BreweryGeoIndex.Nearby brewery : result.breweries()) {
+                assertTrue(brewery.distanceKm() >= previous);
+                previous = brewery.distanceKm();
+            }
+            if (!expected.isEmpty()) {
+                double nearest = Double.MAX_VALUE;
+                for (double[] found : expected) {
+                    nearest = Math.min(nearest, found[0]);
+                }
+                assertEquals(nearest, result.breweries().get(0).distanceKm(), 1e-6);
+            }
+        }
+    }
+
+    private static double distanceKm(double lat1, double lon1, double lat2, double lon2) {
+        double sinHalfLat = Math.sin(Math.toRadians(lat2 - lat1) / 2);
+        double sinHalfLon = Math.sin(Math.toRadians(lon2 - lon1) / 2);
+        double h = sinHalfLat * sinHalfLat
+                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) * sinHalfLon * sinHalfLon;
+        return 2 * BreweryGeoIndex.EARTH_RADIUS_KM * Math.asin(Math.min(1d, Math.sqrt(h)));
+    }
+}
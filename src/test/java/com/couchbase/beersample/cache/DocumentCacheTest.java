@@ -0,0 +1,103 @@
+/**
+ * Copyright (C) 2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.beersample.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class DocumentCacheTest {
+
+    private final DocumentCache cache = new DocumentCache(1 << 20, 60, TimeUnit.SECONDS);
+
+    @Test
+    public void servesWhatWasPut() {
+        assertNull(cache.get("beer-1"));
+        cache.put("beer-1", "{\"name\":\"IPA\"}", 42L, cache.ticket("beer-1"));
+
+        CachedDocument cached = cache.get("beer-1");
+        assertNotNull(cached);
+        assertEquals("{\"name\":\"IPA\"}", cached.content());
+        assertEquals(42L, cached.cas());
+        assertEquals(1L, cache.stats().getLong("hits").longValue());
+        assertEquals(1L, cache.stats().getLong("misses").longValue());
+    }
+
+    @Test
+    public void doesNotCacheAReadRacingWithAWriteOfTheSameDocument() {
+        long ticket = cache.ticket("beer-1");
+        cache.invalidate("beer-1", 0L);
+        cache.put("beer-1", "{\"name\":\"stale\"}", 1L, ticket);
+
+        assertNull(cache.get("beer-1"));
+    }
+
+    @Test
+    public void cachesAReadRacingWithAWriteOfAnotherDocument() {
+        long ticket = cache.ticket("beer-1");
+        cache.invalidate("beer-2", 0L);
+        cache.put("beer-1", "{\"name\":\"IPA\"}", 1L, ticket);
+
+        assertNotNull(cache.get("beer-1"));
+    }
+
+    @Test
+    public void keepsTheRevisionThatWasWritten() {
+        cache.put("beer-1", "{\"name\":\"IPA\"}", 1L, cache.ticket("beer-1"));
+        cache.invalidate("beer-1", 1L);
+        assertNotNull(cache.get("beer-1"));
+
+        cache.invalidate("beer-1", 2L);
+        assertNull(cache.get("beer-1"));
+    }
+
+    @Test
+    public void staysWithinItsSizeBound() {
+        DocumentCache small = new DocumentCache(64 * 1024, 60, TimeUnit.SECONDS);
+        StringBuilder content = new StringBuilder("{\"description\":\"");
+        for (int i = 0; i < 200; i++) {
+            content.append('x');
+        }
+        content.append("\"}");
+        for (int i = 0; i < 1000; i++) {
+            String id = "beer-" + i;
+            small.put(id, content.toString(), i, small.ticket(id));
+        }
+
+        long bytes = small.stats().getLong("bytes");
+        assertTrue(bytes > 0 && bytes <= 64 * 1024);
+        assertTrue(small.stats().getLong("evictions") > 0);
+    }
+
+    @Test
+    public void isDisabledWithoutASize() {
+        DocumentCache disabled = new DocumentCache(0, 60, TimeUnit.SECONDS);
+        disabled.put("beer-1", "{}", 1L, disabled.ticket("beer-1"));
+
+        assertNull(disabled.get("beer-1"));
+    }
+}
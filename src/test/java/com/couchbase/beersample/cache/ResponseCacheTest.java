@@ -0,0 +1,264 @@
+/**
+ * Copyright (C) 2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.beersample.cache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Test;
+import rx.functions.Func1;
+
+public class ResponseCacheTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final List<String[]> NO_HEADERS = Collections.emptyList();
+    /** the weight of an uncompressible 600 bytes body stored under a 2 chars key and a 1 char tag */
+    private static final int WEIGHT = 256 + 2 * 3 + 600;
+
+    private static byte[] json(int copies) {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < copies; i++) {
+            json.append(i == 0 ? "" : ",").append("{\"type\":\"beer\",\"name\":\"Beer ").append(i).append("\"}");
+        }
+        return json.append("]").toString().getBytes(UTF_8);
+    }
+
+    /** random bytes don't compress, their weight is predictable */
+    private static byte[] random(int length, long seed) {
+        byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static byte[] bytes(ResponseCache.CachedResponse response, boolean gzipped) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        response.writeTo(out, gzipped);
+        assertEquals(response.length(gzipped), out.size());
+        return out.toByteArray();
+    }
+
+    private static byte[] gunzip(byte[] gzipped) throws IOException {
+        GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(gzipped));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    private static void put(ResponseCache cache, String key, String tag, byte[] body) {
+        cache.put(key, tag, "application/json", NO_HEADERS, body, cache.ticket());
+    }
+
+    private void storesBothEncodings(boolean offHeap) throws IOException {
+        ResponseCache cache = new ResponseCache(1 << 20, 60, TimeUnit.SECONDS, offHeap);
+        byte[] body = json(1000);
+        cache.put("/beer", "beers", "application/json;charset=UTF-8",
+                Collections.singletonList(new String[] { "X-Total-Count", "1000" }), body, cache.ticket());
+
+        ResponseCache.CachedResponse cached = cache.get("/beer");
+        assertNotNull(cached);
+        assertEquals("application/json;charset=UTF-8", cached.contentType());
+        assertEquals("X-Total-Count", cached.headers().get(0)[0]);
+        assertArrayEquals(body, bytes(cached, false));
+        assertTrue(cached.hasGzip());
+        assertTrue(cached.length(true) < body.length / 4);
+        assertArrayEquals(body, gunzip(bytes(cached, true)));
+    }
+
+    @Test
+    public void storesTheIdentityAndGzippedBodies() throws IOException {
+        storesBothEncodings(false);
+    }
+
+    @Test
+    public void storesTheIdentityAndGzippedBodiesOffHeap() throws IOException {
+        storesBothEncodings(true);
+    }
+
+    @Test
+    public void keepsTheGzippedBodyOnlyWhenSmaller() throws IOException {
+        ResponseCache cache = new ResponseCache(1 << 20, 60, TimeUnit.SECONDS, false);
+        put(cache, "/brewery/b", "brewery:b", "{}".getBytes(UTF_8));
+
+        ResponseCache.CachedResponse cached = cache.get("/brewery/b");
+        assertFalse(cached.hasGzip());
+        assertEquals(2, cached.length(false));
+        assertEquals("{}", new String(bytes(cached, false), UTF_8));
+    }
+
+    @Test
+    public void tagsEachEncodingWithItsOwnStrongEtag() {
+        ResponseCache cache = new ResponseCache(1 << 20, 60, TimeUnit.SECONDS, false);
+        put(cache, "a", "t", json(100));
+        put(cache, "b", "t", json(100));
+        put(cache, "c", "t", json(101));
+
+        String etag = cache.get("a").etag(false);
+        assertTrue(etag, etag.matches("\"[0-9a-f]+-[0-9a-f]+\""));
+        assertEquals(etag, cache.get("b").etag(false));
+        assertFalse(etag.equals(cache.get("c").etag(false)));
+        assertEquals(etag.substring(0, etag.length() - 1) + "-gzip\"", cache.get("a").etag(true));
+    }
+
+    @Test
+    public void evictsTheLeastRecentlyUsedResponsesToStayWithinTheBudget() {
+        ResponseCache cache = new ResponseCache(4000, 60, TimeUnit.SECONDS, false);
+        for (int i = 1; i <= 4; i++) {
+            put(cache, "k" + i, "t", random(600, i));
+        }
+        assertEquals(4 * WEIGHT, cache.bytes());
+        //reading k1 makes k2 the least recently used
+        assertNotNull(cache.get("k1"));
+
+        put(cache, "k5", "t", random(600, 5));
+        assertEquals(4 * WEIGHT, cache.bytes());
+        assertNull(cache.get("k2"));
+        assertNotNull(cache.get("k1"));
+        assertNotNull(cache.get("k3"));
+        assertNotNull(cache.get("k4"));
+        assertNotNull(cache.get("k5"));
+        assertEquals(1L, cache.stats().getLong("evictions").longValue());
+
+        //the reads above left k1 as the least recently used, a larger response evicts as many as needed
+        put(cache, "k6", "t", random(1000, 6));
+        assertEquals(3 * WEIGHT + WEIGHT + 400, cache.bytes());
+        assertNull(cache.get("k1"));
+        assertNotNull(cache.get("k3"));
+        put(cache, "k7", "t", random(1000, 7));
+        assertTrue(cache.bytes() <= 4000);
+        assertNull(cache.get("k4"));
+        assertNull(cache.get("k5"));
+        assertNotNull(cache.get("k7"));
+        assertEquals(4L, cache.stats().getLong("evictions").longValue());
+    }
+
+    @Test
+    public void doesNotCacheAResponseLargerThanAQuarterOfTheBudget() {
+        ResponseCache cache = new ResponseCache(4000, 60, TimeUnit.SECONDS, false);
+        assertEquals(1000, cache.getMaxEntryBytes());
+        put(cache, "k1", "t", random(600, 1));
+        put(cache, "k2", "t", random(1001, 2));
+
+        assertNull(cache.get("k2"));
+        assertNotNull(cache.get("k1"));
+        assertEquals(WEIGHT, cache.bytes());
+    }
+
+    @Test
+    public void replacesTheResponseOfAKey() {
+        ResponseCache cache = new ResponseCache(4000, 60, TimeUnit.SECONDS, false);
+        put(cache, "k1", "t", random(600, 1));
+        put(cache, "k1", "u", random(600, 2));
+
+        assertEquals(WEIGHT, cache.bytes());
+        cache.invalidate("t");
+        assertNotNull(cache.get("k1"));
+        cache.invalidate("u");
+        assertNull(cache.get("k1"));
+        assertEquals(0L, cache.bytes());
+    }
+
+    @Test
+    public void dropsAResponseBuiltWhileSomethingWasInvalidated() {
+        ResponseCache cache = new ResponseCache(1 << 20, 60, TimeUnit.SECONDS, false);
+        long ticket = cache.ticket();
+        //a write lands while the response is built, even under another tag
+        cache.invalidate("brewery:other");
+        cache.put("/beer", "beers", "application/json", NO_HEADERS, json(10), ticket);
+        assertNull(cache.get("/beer"));
+
+        ticket = cache.ticket();
+        cache.invalidateIf(new Func1<String, Boolean>() {
+            @Override
+            public Boolean call(String tag) {
+                return false;
+            }
+        });
+        cache.put("/beer", "beers", "application/json", NO_HEADERS, json(10), ticket);
+        assertNull(cache.get("/beer"));
+
+        cache.put("/beer", "beers", "application/json", NO_HEADERS, json(10), cache.ticket());
+        assertNotNull(cache.get("/beer"));
+    }
+
+    @Test
+    public void invalidatesByTag() {
+        ResponseCache cache = new ResponseCache(1 << 20, 60, TimeUnit.SECONDS, false);
+        put(cache, "/beer/search/ale", "search:ale", json(10));
+        put(cache, "/beer/search/ale?limit=5", "search:ale", json(5));
+        put(cache, "/beer/search/stout", "search:stout", json(10));
+        put(cache, "/brewery/b", "brewery:b", json(10));
+
+        cache.invalidate("search:ale");
+        assertNull(cache.get("/beer/search/ale"));
+        assertNull(cache.get("/beer/search/ale?limit=5"));
+        assertNotNull(cache.get("/beer/search/stout"));
+        assertEquals(2L, cache.stats().getLong("invalidated").longValue());
+
+        cache.invalidateIf(new Func1<String, Boolean>() {
+            @Override
+            public Boolean call(String tag) {
+                return tag.startsWith("search:");
+            }
+        });
+        assertNull(cache.get("/beer/search/stout"));
+        assertNotNull(cache.get("/brewery/b"));
+        assertEquals(3L, cache.stats().getLong("invalidated").longValue());
+    }
+
+    @Test
+    public void expiresTheResponsesAfterTheirTtl() throws InterruptedException {
+        ResponseCache cache = new ResponseCache(1 << 20, 20, TimeUnit.MILLISECONDS, false);
+        put(cache, "/beer", "beers", json(10));
+        assertNotNull(cache.get("/beer"));
+
+        Thread.sleep(30);
+        assertNull(cache.get("/beer"));
+        assertEquals(1L, cache.stats().getLong("expirations").longValue());
+        assertEquals(0L, cache.bytes());
+    }
+
+    @Test
+    public void cachesNothingWhenDisabled() {
+        ResponseCache cache = new ResponseCache(0, 60, TimeUnit.SECONDS, false);
+        assertFalse(cache.isEnabled());
+        put(cache, "/beer", "beers", json(10));
+        assertNull(cache.get("/beer"));
+        assertEquals(0L, cache.misses());
+    }
+}
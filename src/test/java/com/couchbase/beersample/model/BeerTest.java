@@ -0,0 +1,132 @@
+/**
+ * Copyright (C) 2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.beersample.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class BeerTest {
+
+    /** a beer with every field, in the order they are written */
+    private static final String FULL = json("{'type':'beer','name':'Pale Ale','brewery_id':'brewery-1','abv':5.5,"
+            + "'ibu':40,'srm':8.0,'upc':1234567890123,'style':'American-Style Pale Ale',"
+            + "'category':'North American Ale','updated':'2010-07-22 20:00:20','description':'Hoppy'}");
+
+    /** single quotes make the JSON of the tests readable */
+    private static String json(String singleQuoted) {
+        return singleQuoted.replace('\'', '"');
+    }
+
+    private static Beer parse(String json) throws IOException {
+        return Beer.parse(new ByteArrayInputStream(json.getBytes("UTF-8")));
+    }
+
+    private static void rejects(String json, String message) throws IOException {
+        try {
+            parse(json(json));
+            fail("Accepted " + json);
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(message));
+        }
+    }
+
+    private static String repeat(char c, int count) {
+        char[] chars = new char[count];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+
+    @Test
+    public void readsAndWritesEveryField() throws IOException {
+        Beer beer = parse(FULL);
+
+        assertEquals("Pale Ale", beer.name());
+        assertEquals("brewery-1", beer.breweryId());
+        assertEquals(5.5d, beer.abv());
+        assertEquals(40, beer.ibu());
+        assertEquals(8.0d, beer.srm());
+        assertEquals(1234567890123L, beer.upc());
+        assertEquals("Hoppy", beer.description());
+        assertEquals("beer-Pale Ale", beer.defaultId());
+        assertEquals(FULL, beer.toJson());
+        assertEquals(parse(beer.toJson()).toContent().toMap(), beer.toContent().toMap());
+    }
+
+    @Test
+    public void onlyNeedsTheTypeAndTheName() throws IOException {
+        Beer beer = parse(json("{'type':'beer','name':'Stout','abv':null,'style':null}"));
+
+        assertNull(beer.abv());
+        assertNull(beer.style());
+        assertEquals(json("{'type':'beer','name':'Stout'}"), beer.toJson());
+        assertEquals(2, beer.toContent().size());
+    }
+
+    @Test
+    public void rejectsAValueOfTheWrongType() throws IOException {
+        rejects("{'type':'beer','name':'Stout','abv':'5.5'}", "Field abv must be a number");
+        rejects("{'type':'beer','name':42}", "Field name must be a string");
+        rejects("{'type':'beer','name':'Stout','style':['Stout']}", "Field style must be a string");
+    }
+
+    @Test
+    public void rejectsAnotherType() throws IOException {
+        rejects("{'type':'brewery','name':'Stout'}", "Field type must be \"beer\"");
+        rejects("{'name':'Stout'}", "Field type is mandatory");
+    }
+
+    @Test
+    public void rejectsAMissingName() throws IOException {
+        rejects("{'type':'beer'}", "Field name is mandatory");
+        rejects("{'type':'beer','name':''}", "Field name is mandatory");
+        rejects("{'type':'beer','name':null}", "Field name is mandatory");
+    }
+
+    @Test
+    public void rejectsAnUnknownField() throws IOException {
+        rejects("{'type':'beer','name':'Stout','color':'black'}", "Unknown field color");
+    }
+
+    @Test
+    public void rejectsAnOversizedString() throws IOException {
+        String name = repeat('a', Beer.MAX_NAME_LENGTH);
+        assertEquals(name, parse(json("{'type':'beer','name':'" + name + "'}")).name());
+
+        rejects("{'type':'beer','name':'" + name + "a'}", "Field name is longer than 256 characters");
+        rejects("{'type':'beer','name':'Stout','description':'" + repeat('a', Beer.MAX_DESCRIPTION_LENGTH + 1) + "'}",
+                "Field description is longer than 16384 characters");
+    }
+
+    @Test
+    public void rejectsAnOutOfRangeNumber() throws IOException {
+        rejects("{'type':'beer','name':'Stout','upc':123456789012345678901234567890}", "Field upc is out of range");
+        rejects("{'type':'beer','name':'Stout','abv':1e400}", "Field abv is out of range");
+    }
+}
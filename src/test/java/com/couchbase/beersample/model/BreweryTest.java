@@ -0,0 +1,126 @@
+/**
+ * Copyright (C) 2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.beersample.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+public class BreweryTest {
+
+    /** a brewery with every field, in the order they are written */
+    private static final String FULL = json("{'type':'brewery','name':'21st Amendment','city':'San Francisco',"
+            + "'state':'California','code':'94107','country':'United States','phone':'1-415-369-0900',"
+            + "'website':'http://www.21st-amendment.com/','updated':'2010-10-24 13:54:07','description':'Pub',"
+            + "'address':['563 Second Street'],'geo':{'accuracy':'ROOFTOP','lat':37.7825,'lon':-122.393}}");
+
+    private static String json(String singleQuoted) {
+        return singleQuoted.replace('\'', '"');
+    }
+
+    private static Brewery parse(String json) throws IOException {
+        return Brewery.parse(new ByteArrayInputStream(json.getBytes("UTF-8")));
+    }
+
+    private static void rejects(String json, String message) throws IOException {
+        try {
+            parse(json(json));
+            fail("Accepted " + json);
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(message));
+        }
+    }
+
+    @Test
+    public void readsAndWritesEveryField() throws IOException {
+        Brewery brewery = parse(FULL);
+
+        assertEquals("21st Amendment", brewery.name());
+        assertEquals("San Francisco", brewery.city());
+        assertEquals(Arrays.asList("563 Second Street"), brewery.address());
+        assertEquals("ROOFTOP", brewery.geo().accuracy());
+        assertEquals(37.7825d, brewery.geo().lat(), 0d);
+        assertEquals(-122.393d, brewery.geo().lon(), 0d);
+        assertEquals(FULL, brewery.toJson());
+        assertEquals(parse(brewery.toJson()).toContent().toMap(), brewery.toContent().toMap());
+    }
+
+    @Test
+    public void onlyNeedsTheTypeAndTheName() throws IOException {
+        Brewery brewery = parse(json("{'type':'brewery','name':'Anchor','address':null,'geo':null}"));
+
+        assertEquals(Collections.<String>emptyList(), brewery.address());
+        assertNull(brewery.geo());
+        assertEquals(json("{'type':'brewery','name':'Anchor'}"), brewery.toJson());
+    }
+
+    @Test
+    public void rejectsAValueOfTheWrongType() throws IOException {
+        rejects("{'type':'brewery','name':'Anchor','address':'1705 Mariposa Street'}",
+                "Field address must be an array");
+        rejects("{'type':'brewery','name':'Anchor','address':[1705]}", "Field address must be a string");
+        rejects("{'type':'brewery','name':'Anchor','geo':[37.7,-122.4]}", "Field geo must be an object");
+        rejects("{'type':'brewery','name':'Anchor','geo':{'lat':'37.7'}}", "Field geo.lat must be a number");
+    }
+
+    @Test
+    public void rejectsAMissingName() throws IOException {
+        rejects("{'type':'brewery','city':'San Francisco'}", "Field name is mandatory");
+        rejects("{'name':'Anchor'}", "Field type is mandatory");
+    }
+
+    @Test
+    public void rejectsAnUnknownField() throws IOException {
+        rejects("{'type':'brewery','name':'Anchor','beers':[]}", "Unknown field beers");
+        rejects("{'type':'brewery','name':'Anchor','geo':{'alt':12}}", "Unknown field geo.alt");
+        //the fields of the location are only known inside it
+        rejects("{'type':'brewery','name':'Anchor','lat':37.7}", "Unknown field lat");
+    }
+
+    @Test
+    public void rejectsAnOversizedString() throws IOException {
+        char[] name = new char[Brewery.MAX_NAME_LENGTH + 1];
+        Arrays.fill(name, 'a');
+        rejects("{'type':'brewery','name':'" + new String(name) + "'}", "Field name is longer than 256 characters");
+        rejects("{'type':'brewery','name':'Anchor','address':['1','2','3','4','5','6','7','8','9']}",
+                "Field address has more than 8 lines");
+    }
+
+    @Test
+    public void rejectsAnOutOfRangeNumber() throws IOException {
+        assertEquals(-90d, parse(json("{'type':'brewery','name':'Pole','geo':{'lat':-90}}")).geo().lat(), 0d);
+
+        rejects("{'type':'brewery','name':'Anchor','geo':{'lat':90.5}}",
+                "Field geo.lat must be between -90.0 and 90.0");
+        rejects("{'type':'brewery','name':'Anchor','geo':{'lon':-180.5}}",
+                "Field geo.lon must be between -180.0 and 180.0");
+        rejects("{'type':'brewery','name':'Anchor','geo':{'lon':1e400}}", "Field geo.lon is out of range");
+    }
+}
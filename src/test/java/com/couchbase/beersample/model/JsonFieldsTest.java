@@ -0,0 +1,87 @@
+/**
+ * Copyright (C) 2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.beersample.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonParser;
+import org.junit.Test;
+
+public class JsonFieldsTest {
+
+    /** reads the number of the single field of an object */
+    private static final class NumberReader implements JsonFields.ObjectReader<Number> {
+        private Number value;
+
+        @Override
+        public void field(String name, JsonParser parser) throws IOException {
+            value = JsonFields.readNumber(parser, name);
+        }
+
+        @Override
+        public Number build() {
+            return value;
+        }
+    }
+
+    private static Number number(String json) throws IOException {
+        return JsonFields.parse(new ByteArrayInputStream(json.getBytes("UTF-8")), new NumberReader());
+    }
+
+    private static void rejects(String json, String message) throws IOException {
+        try {
+            number(json);
+            fail("Accepted " + json);
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(message));
+        }
+    }
+
+    @Test
+    public void readsTheSmallestNumberType() throws IOException {
+        assertEquals(42, number("{\"n\":42}"));
+        assertEquals(4200000000L, number("{\"n\":4200000000}"));
+        assertEquals(4.2d, number("{\"n\":4.2}"));
+        assertNull(number("{\"n\":null}"));
+    }
+
+    @Test
+    public void rejectsNumbersWhichDoNotFit() throws IOException {
+        rejects("{\"n\":9223372036854775808}", "Field n is out of range");
+        rejects("{\"n\":-1e309}", "Field n is out of range");
+        rejects("{\"n\":true}", "Field n must be a number");
+    }
+
+    @Test
+    public void rejectsAnythingButASingleObject() throws IOException {
+        rejects("[42]", "Expected a JSON object");
+        rejects("{\"n\":42} {\"n\":43}", "Unexpected content after the JSON object");
+        rejects("{\"n\":42", "Malformed JSON");
+        rejects("", "Expected a JSON object");
+    }
+}
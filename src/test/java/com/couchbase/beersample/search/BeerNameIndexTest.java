@@ -0,0 +1,98 @@
+/**
+ * Copyright (C) 2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.beersample.search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class BeerNameIndexTest {
+
+    private BeerNameIndex index;
+
+    @Before
+    public void setUp() {
+        index = new BeerNameIndex();
+        index.put("beer-1", "Pale Ale");
+        index.put("beer-2", "India Pale Ale");
+        index.put("beer-3", "Oatmeal Stout");
+        index.put("beer-4", "Imperial Stout");
+    }
+
+    @Test
+    public void findsTheNamesContainingTheTokenIgnoringCase() {
+        assertEquals(Arrays.asList("beer-2", "beer-1"), index.search("PALE"));
+        assertEquals(Arrays.asList("beer-4", "beer-3"), index.search("stout"));
+        assertEquals(Arrays.asList("beer-2"), index.search("a pale"));
+    }
+
+    @Test
+    public void verifiesTheCandidatesOfTheGrams() {
+        BeerNameIndex grams = new BeerNameIndex();
+        //holds every gram of "stout", but not "stout" itself
+        grams.put("beer-5", "Tout Sto");
+
+        assertEquals(Collections.<String>emptyList(), grams.search("stout"));
+        assertEquals(Collections.<String>emptyList(), index.search("porter"));
+    }
+
+    @Test
+    public void matchesTokensShorterThanAGram() {
+        assertEquals(Arrays.asList("beer-4", "beer-2"), index.search("i"));
+        assertEquals(4, index.search("").size());
+    }
+
+    @Test
+    public void reindexesARenamedBeer() {
+        index.put("beer-1", "Porter");
+
+        assertEquals(Arrays.asList("beer-2"), index.search("pale"));
+        assertEquals(Arrays.asList("beer-1"), index.search("port"));
+        assertEquals(4, index.size());
+    }
+
+    @Test
+    public void forgetsARemovedBeer() {
+        index.remove("beer-3");
+        index.put("beer-4", null);
+
+        assertEquals(Collections.<String>emptyList(), index.search("stout"));
+        assertEquals(2, index.size());
+    }
+
+    @Test
+    public void isReadyOnceMarkedAndUntilCleared() {
+        assertFalse(index.isReady());
+        index.markReady();
+        assertTrue(index.isReady());
+
+        index.clear();
+        assertFalse(index.isReady());
+        assertEquals(0, index.size());
+    }
+}
@@ -0,0 +1,237 @@
+/**
+ * Copyright (C) 2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.beersample.search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import com.couchbase.client.java.document.json.JsonArray;
+import com.couchbase.client.java.document.json.JsonObject;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BeerSearchIndexTest {
+
+    private BeerSearchIndex index;
+
+    private static JsonObject brewery(String name, String state, String country) {
+        return JsonObject.create().put("type", "brewery").put("name", name).put("state", state)
+                .put("country", country);
+    }
+
+    private static JsonObject beer(String name, String style, String category, Double abv, Double ibu,
+            String breweryId) {
+        JsonObject beer = JsonObject.create().put("type", "beer").put("name", name).put("style", style)
+                .put("category", category).put("brewery_id", breweryId);
+        if (abv != null) {
+            beer.put("abv", abv);
+        }
+        if (ibu != null) {
+            beer.put("ibu", ibu);
+        }
+        return beer;
+    }
+
+    @Before
+    public void setUp() {
+        index = new BeerSearchIndex();
+        index.put("avery", brewery("Avery Brewing", "Colorado", "United States"));
+        index.put("odell", brewery("Odell Brewing", "Colorado", "United States"));
+        index.put("fruh", brewery("Früh Am Dom", null, "Germany"));
+        index.put("beer-1", beer("India Pale Ale", "American IPA", "North American Ale", 6.5, 65d, "avery"));
+        index.put("beer-2", beer("Double IPA", "American IPA", "North American Ale", 8d, 100d, "odell"));
+        index.put("beer-3", beer("Früh Kölsch", "Kölsch", "German Ale", 4.8, 25d, "fruh"));
+        index.put("beer-4", beer("Out Of Bounds Stout", "Stout", "Irish Ale", 6d, 40d, "avery"));
+        index.put("beer-5", beer("Session IPA", "American IPA", "North American Ale", 4.5, 45d, "odell"));
+        index.put("beer-6", beer("Mystery", null, null, null, null, "avery"));
+    }
+
+    private List<String> ids(BeerSearchIndex.Query query) {
+        List<String> ids = new ArrayList<String>();
+        for (JsonObject hit : index.search(query.limit(100)).hits()) {
+            ids.add(hit.getString("id"));
+        }
+        return ids;
+    }
+
+    private List<String> sortedIds(BeerSearchIndex.Query query) {
+        List<String> ids = ids(query);
+        Collections.sort(ids);
+        return ids;
+    }
+
+    private static BeerSearchIndex.Query query() {
+        return new BeerSearchIndex.Query();
+    }
+
+    /**
+     * @return the counts of a facet, as "value=count" strings in order.
+     */
+    private List<String> facet(BeerSearchIndex.Query query, String facet) {
+        JsonArray counts = index.search(query).toJson().getObject("facets").getArray(facet);
+        List<String> values = new ArrayList<String>();
+        for (int i = 0; i < counts.size(); i++) {
+            values.add(counts.getObject(i).getString("value") + "=" + counts.getObject(i).getInt("count"));
+        }
+        return values;
+    }
+
+    @Test
+    public void matchesAllTheWordsInAnyField() {
+        assertEquals(Arrays.asList("beer-1", "beer-2", "beer-5"), sortedIds(query().text("ipa")));
+        assertEquals(Arrays.asList("beer-2", "beer-5"), sortedIds(query().text("IPA Odell")));
+        //in the name of the brewery, ignoring accents
+        assertEquals(Arrays.asList("beer-1", "beer-4", "beer-6"), sortedIds(query().text("Avery")));
+        assertEquals(Arrays.asList("beer-3"), sortedIds(query().text("kolsch fruh")));
+        assertEquals(Collections.<String>emptyList(), ids(query().text("ipa porter")));
+        assertEquals(6, index.search(query()).total());
+    }
+
+    @Test
+    public void ranksByFieldWeightThenName() {
+        //"ipa" in the name and the style of the first two, only in the style of the third one
+        assertEquals(Arrays.asList("beer-2", "beer-5", "beer-1"), ids(query().text("ipa")));
+        //without words, by name
+        assertEquals(Arrays.asList("beer-2", "beer-3", "beer-1", "beer-6", "beer-4", "beer-5"), ids(query()));
+
+        BeerSearchIndex.Result top = index.search(query().text("ipa").limit(2));
+        assertEquals(3, top.total());
+        assertEquals(2, top.hits().size());
+        assertEquals("Double IPA", top.hits().get(0).getString("name"));
+        assertEquals(8d, top.hits().get(0).getDouble("abv"), 0d);
+        assertEquals("odell", top.hits().get(0).getString("brewery_id"));
+        assertEquals(0, index.search(query().limit(0)).hits().size());
+    }
+
+    @Test
+    public void filtersOnAnyValueOfEachFacet() {
+        assertEquals(Arrays.asList("beer-3"), ids(query().filter(BeerSearchIndex.STYLE, "kolsch")));
+        assertEquals(Arrays.asList("beer-3", "beer-4"), sortedIds(query()
+                .filter(BeerSearchIndex.CATEGORY, "German Ale").filter(BeerSearchIndex.CATEGORY, "irish ale")));
+        assertEquals(Arrays.asList("beer-2", "beer-5"), sortedIds(query().filter(BeerSearchIndex.BREWERY, "odell")));
+        assertEquals(Arrays.asList("beer-1", "beer-2", "beer-4", "beer-5", "beer-6"),
+                sortedIds(query().filter(BeerSearchIndex.STATE, "colorado")));
+        assertEquals(Arrays.asList("beer-3"), ids(query().filter(BeerSearchIndex.COUNTRY, "GERMANY")));
+        assertEquals(Arrays.asList("beer-1"), ids(query().text("ipa").filter(BeerSearchIndex.BREWERY, "avery")));
+        assertEquals(Collections.<String>emptyList(), ids(query().filter(BeerSearchIndex.STATE, "oregon")));
+    }
+
+    @Test
+    public void filtersOnRangesIncludingTheirBounds() {
+        assertEquals(Arrays.asList("beer-1", "beer-2", "beer-4"), sortedIds(query().abv(6d, 8d)));
+        //within a single bucket, and across the edges of two
+        assertEquals(Arrays.asList("beer-1"), ids(query().abv(6.1, 6.5)));
+        assertEquals(Arrays.asList("beer-1"), ids(query().abv(6.25, 6.75)));
+        assertEquals(Arrays.asList("beer-3", "beer-5"), sortedIds(query().abv(null, 5d)));
+        assertEquals(Arrays.asList("beer-2"), ids(query().abv(7.99, null)));
+        assertEquals(Arrays.asList("beer-1", "beer-4", "beer-5"), sortedIds(query().ibu(40d, 65d)));
+        assertEquals(Arrays.asList("beer-1"), ids(query().abv(6d, null).ibu(null, 65d).text("ipa")));
+        //beers without a value are out of any range
+        assertEquals(5, index.search(query().abv(0d, null)).total());
+        assertEquals(0, index.search(query().abv(8d, 6d)).total());
+    }
+
+    @Test
+    public void filtersOnRangesLikeAScanOfTheValues() {
+        Random random = new Random(42);
+        BeerSearchIndex numbers = new BeerSearchIndex();
+        double[] abvs = new double[500];
+        for (int i = 0; i < abvs.length; i++) {
+            //on and off the bucket edges
+            abvs[i] = random.nextBoolean() ? random.nextInt(30) * 0.5 : random.nextDouble() * 15d;
+            numbers.put("beer-" + i, beer("Beer " + i, null, null, abvs[i], null, null));
+        }
+        for (int q = 0; q < 200; q++) {
+            Double min = random.nextInt(5) == 0 ? null : random.nextInt(30) * 0.25;
+            Double max = random.nextInt(5) == 0 ? null : random.nextInt(60) * 0.25;
+            int expected = 0;
+            for (double abv : abvs) {
+                if ((min == null || abv >= min) && (max == null || abv <= max)) {
+                    expected++;
+                }
+            }
+            assertEquals("[" + min + ", " + max + "]", expected,
+                    numbers.search(query().abv(min, max).limit(0)).total());
+        }
+    }
+
+    @Test
+    public void countsTheTopValuesOfEachFacet() {
+        BeerSearchIndex.Query ipa = query().text("ipa");
+        assertEquals(Arrays.asList("American IPA=3"), facet(ipa, BeerSearchIndex.STYLE));
+        assertEquals(Arrays.asList("odell=2", "avery=1"), facet(ipa, BeerSearchIndex.BREWERY));
+        assertEquals(Arrays.asList("Colorado=3"), facet(ipa, BeerSearchIndex.STATE));
+        assertEquals(Arrays.asList("United States=3"), facet(ipa, BeerSearchIndex.COUNTRY));
+
+        //ties by value, beers without a value not counted
+        assertEquals(Arrays.asList("American IPA=3", "Kölsch=1", "Stout=1"), facet(query(), BeerSearchIndex.STYLE));
+        assertEquals(Arrays.asList("American IPA=3", "Kölsch=1"),
+                facet(query().facetSize(2), BeerSearchIndex.STYLE));
+        assertEquals(Arrays.asList("United States=5", "Germany=1"), facet(query(), BeerSearchIndex.COUNTRY));
+        assertEquals(Collections.singleton(BeerSearchIndex.STATE), index.search(query()
+                .facets(Arrays.asList(BeerSearchIndex.STATE))).toJson().getObject("facets").getNames());
+    }
+
+    @Test
+    public void followsUpdatesAndRemovals() {
+        index.put("beer-2", beer("Double Stout", "Stout", "Irish Ale", 8d, 50d, "odell"));
+        index.remove("beer-5");
+        index.put("beer-7", beer("Early Bird IPA", "American IPA", "North American Ale", 5d, 60d, "odell"));
+
+        assertEquals(Arrays.asList("beer-1", "beer-7"), sortedIds(query().text("ipa")));
+        assertEquals(Arrays.asList("beer-2", "beer-4"), sortedIds(query().filter(BeerSearchIndex.STYLE, "stout")));
+        assertEquals(Arrays.asList("beer-2"), ids(query().ibu(50d, 50d)));
+        assertEquals(Arrays.asList("American IPA=2", "Stout=2", "Kölsch=1"), facet(query(), BeerSearchIndex.STYLE));
+        assertEquals(6, index.size());
+
+        //a brewery which moves takes its beers along, one which is gone leaves them without a state
+        index.put("odell", brewery("Odell Brewing", "Oregon", "United States"));
+        index.remove("avery");
+        assertEquals(Arrays.asList("beer-2", "beer-7"), sortedIds(query().filter(BeerSearchIndex.STATE, "oregon")));
+        assertEquals(Collections.<String>emptyList(), ids(query().filter(BeerSearchIndex.STATE, "colorado")));
+        assertEquals(Collections.<String>emptyList(), ids(query().text("avery")));
+
+        //a beer replaced by a document of another type is no longer a beer
+        index.put("beer-1", JsonObject.create().put("type", "brewery").put("name", "Pale Ale Brewing"));
+        assertEquals(Arrays.asList("beer-7"), ids(query().text("ipa")));
+    }
+
+    @Test
+    public void compactsWithoutChangingTheResults() {
+        BeerSearchIndex.Query query = query().text("ipa").abv(4d, 7d).filter(BeerSearchIndex.STATE, "colorado");
+        List<String> before = ids(query);
+        for (int i = 0; i < 3000; i++) {
+            index.put("beer-1", beer("India Pale Ale", "American IPA", "North American Ale", 6.5, 65d, "avery"));
+        }
+
+        assertTrue(index.stats().getLong("compactions") > 0);
+        assertTrue(index.stats().getInt("deadOrdinals") < 1024);
+        assertEquals(before, ids(query));
+        assertEquals(Arrays.asList("American IPA=3", "Kölsch=1", "Stout=1"), facet(query(), BeerSearchIndex.STYLE));
+    }
+}
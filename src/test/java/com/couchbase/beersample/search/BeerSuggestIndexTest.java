@@ -0,0 +1,222 @@
+/**
+ * Copyright (C) 2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.beersample.search;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class BeerSuggestIndexTest {
+
+    private static List<String> names(List<BeerSuggestIndex.Suggestion> suggestions) {
+        List<String> names = new ArrayList<String>();
+        for (BeerSuggestIndex.Suggestion suggestion : suggestions) {
+            names.add(suggestion.name());
+        }
+        return names;
+    }
+
+    private static List<String> suggest(BeerSuggestIndex index, String prefix) {
+        return names(index.suggest(prefix, index.getTopK()));
+    }
+
+    private static long nodes(BeerSuggestIndex index) {
+        return index.stats().getLong("nodes");
+    }
+
+    private static BeerSuggestIndex index(int topK, String... names) {
+        BeerSuggestIndex index = new BeerSuggestIndex(topK);
+        for (String name : names) {
+            index.put("beer-" + name, name);
+        }
+        return index;
+    }
+
+    @Test
+    public void splitsTheEdgesWhereNamesDiverge() {
+        BeerSuggestIndex index = index(10, "stout");
+        assertEquals(2, nodes(index));
+
+        //"stout" becomes "sto" then "ut" and "ne"
+        index.put("beer-stone", "stone");
+        assertEquals(4, nodes(index));
+        //a name ending in the middle of an edge splits it too
+        index.put("beer-st", "st");
+        assertEquals(5, nodes(index));
+
+        assertEquals(Arrays.asList("st", "stone", "stout"), suggest(index, "s"));
+        assertEquals(Arrays.asList("st", "stone", "stout"), suggest(index, "st"));
+        assertEquals(Arrays.asList("stone", "stout"), suggest(index, "sto"));
+        assertEquals(Arrays.asList("stout"), suggest(index, "stou"));
+        assertEquals(Arrays.asList("stout"), suggest(index, "stout"));
+    }
+
+    @Test
+    public void mergesTheNodesLeftWithASingleChild() {
+        BeerSuggestIndex index = index(10, "st", "stone", "stout");
+        index.remove("beer-stone");
+        //"st", then "out"
+        assertEquals(3, nodes(index));
+        assertEquals(Arrays.asList("stout"), suggest(index, "sto"));
+
+        index.remove("beer-st");
+        assertEquals(2, nodes(index));
+        assertEquals(Arrays.asList("stout"), suggest(index, "s"));
+        assertEquals(Collections.<String>emptyList(), suggest(index, "sta"));
+
+        index.remove("beer-stout");
+        index.remove("beer-unknown");
+        assertEquals(1, nodes(index));
+        assertEquals(0, index.size());
+        assertEquals(Collections.<String>emptyList(), suggest(index, ""));
+    }
+
+    @Test
+    public void handlesThePrefixEdgeCases() {
+        BeerSuggestIndex index = index(10, "Kölsch", "Pale Ale", "Pale Lager");
+
+        //nothing, or a prefix diverging in the middle of an edge
+        assertEquals(Arrays.asList("Kölsch", "Pale Ale", "Pale Lager"), suggest(index, ""));
+        assertEquals(Arrays.asList("Kölsch", "Pale Ale", "Pale Lager"), suggest(index, null));
+        assertEquals(Collections.<String>emptyList(), suggest(index, "pals"));
+        assertEquals(Collections.<String>emptyList(), suggest(index, "pale ales"));
+        //ignoring case and accents
+        assertEquals(Arrays.asList("Kölsch"), suggest(index, "KOL"));
+        assertEquals(Arrays.asList("Pale Ale", "Pale Lager"), suggest(index, "PÂLE "));
+    }
+
+    @Test
+    public void tellsApartNamesLongerThanTheIndexedLength() {
+        char[] common = new char[BeerSuggestIndex.MAX_KEY_LENGTH];
+        Arrays.fill(common, 'a');
+        String prefix = new String(common);
+        BeerSuggestIndex index = index(10, prefix + "x", prefix + "y", prefix);
+
+        assertEquals(Arrays.asList(prefix, prefix + "x", prefix + "y"), suggest(index, prefix));
+        assertEquals(Arrays.asList(prefix + "y"), suggest(index, prefix + "y"));
+        assertEquals(Collections.<String>emptyList(), suggest(index, prefix + "z"));
+        //a single node holds them all
+        assertEquals(2, nodes(index));
+    }
+
+    @Test
+    public void ranksByPopularityThenName() {
+        BeerSuggestIndex index = index(2, "Pale Ale", "Pale Lager", "Pale Bock");
+        assertEquals(Arrays.asList("Pale Ale", "Pale Bock"), suggest(index, "pale"));
+
+        index.hit("beer-Pale Lager");
+        index.hit("beer-unknown");
+        List<BeerSuggestIndex.Suggestion> top = index.suggest("pale", 10);
+        assertEquals(Arrays.asList("Pale Lager", "Pale Ale"), names(top));
+        assertEquals(1, top.get(0).popularity());
+        assertEquals("beer-Pale Lager", top.get(0).id());
+        assertEquals(Arrays.asList("Pale Lager"), names(index.suggest("pale", 1)));
+
+        //the beer pushed out of the top comes back when one of the top beers is removed
+        index.remove("beer-Pale Ale");
+        assertEquals(Arrays.asList("Pale Lager", "Pale Bock"), suggest(index, "pale"));
+        assertEquals(Arrays.asList("Pale Lager", "Pale Bock"), suggest(index, ""));
+    }
+
+    @Test
+    public void keepsThePopularityOfARenamedBeer() {
+        BeerSuggestIndex index = index(10, "Pale Ale", "Pale Bock");
+        index.hit("beer-Pale Bock");
+        index.put("beer-Pale Bock", "Pale Weizen");
+        index.put("beer-Pale Ale", "Pale Ale");
+
+        assertEquals(Arrays.asList("Pale Weizen", "Pale Ale"), suggest(index, "pale"));
+        assertEquals(Collections.<String>emptyList(), suggest(index, "pale b"));
+        assertEquals(2, index.size());
+        index.put("beer-Pale Ale", null);
+        assertEquals(Arrays.asList("Pale Weizen"), suggest(index, "pale"));
+    }
+
+    @Test
+    public void answersLikeAScanOfTheNames() {
+        Random random = new Random(7);
+        BeerSuggestIndex index = new BeerSuggestIndex(3);
+        Map<String, String> names = new HashMap<String, String>();
+        Map<String, Integer> popularity = new HashMap<String, Integer>();
+        for (int step = 1; step <= 5000; step++) {
+            String id = "beer-" + random.nextInt(200);
+            int action = random.nextInt(10);
+            if (action < 5) {
+                //few letters and short names, so that the names share prefixes and nodes split and merge
+                char[] name = new char[1 + random.nextInt(5)];
+                for (int i = 0; i < name.length; i++) {
+                    name[i] = (char) ('a' + random.nextInt(3));
+                }
+                index.put(id, new String(name));
+                names.put(id, new String(name));
+                if (!popularity.containsKey(id)) {
+                    popularity.put(id, 0);
+                }
+            } else if (action < 7) {
+                index.remove(id);
+                names.remove(id);
+                popularity.remove(id);
+            } else if (names.containsKey(id)) {
+                index.hit(id);
+                popularity.put(id, popularity.get(id) + 1);
+            }
+            if (step % 500 == 0) {
+                assertScans(index, names, popularity);
+            }
+        }
+    }
+
+    private static void assertScans(BeerSuggestIndex index, final Map<String, String> names,
+            final Map<String, Integer> popularity) {
+        for (String prefix : new String[] { "", "a", "b", "c", "ab", "ba", "cc", "abc", "bca", "aaaa", "cbacb" }) {
+            List<String> expected = new ArrayList<String>();
+            for (Map.Entry<String, String> name : names.entrySet()) {
+                if (name.getValue().startsWith(prefix)) {
+                    expected.add(name.getKey());
+                }
+            }
+            Collections.sort(expected, new Comparator<String>() {
+                @Override
+                public int compare(String id1, String id2) {
+                    int byPopularity = popularity.get(id2) - popularity.get(id1);
+                    int byName = names.get(id1).compareTo(names.get(id2));
+                    return byPopularity != 0 ? byPopularity : (byName != 0 ? byName : id1.compareTo(id2));
+                }
+            });
+            List<String> found = new ArrayList<String>();
+            for (BeerSuggestIndex.Suggestion suggestion : index.suggest(prefix, 3)) {
+                found.add(suggestion.id());
+            }
+            assertEquals("prefix " + prefix, expected.subList(0, Math.min(3, expected.size())), found);
+        }
+        assertEquals(names.size(), index.size());
+    }
+}
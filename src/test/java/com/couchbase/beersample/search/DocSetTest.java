@@ -0,0 +1,110 @@
+/**
+ * Copyright (C) 2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.beersample.search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class DocSetTest {
+
+    private static DocSet set(int capacity, int... docs) {
+        DocSet set = new DocSet(capacity);
+        for (int doc : docs) {
+            set.add(doc);
+        }
+        return set;
+    }
+
+    @Test
+    public void setsAndClearsDocuments() {
+        DocSet set = set(128, 0, 63, 64, 127);
+        set.clear(64);
+        set.clear(1000);
+
+        assertTrue(set.get(0) && set.get(63) && set.get(127));
+        assertFalse(set.get(64));
+        assertFalse(set.get(1000));
+        assertEquals(3, set.cardinality());
+    }
+
+    @Test
+    public void growsWhenADocumentIsAdded() {
+        DocSet set = set(1, 5, 200);
+
+        assertTrue(set.get(200));
+        assertEquals(4, set.wordCount());
+        assertEquals(1L << 5, set.word(0));
+    }
+
+    @Test
+    public void walksTheDocumentsInOrder() {
+        DocSet set = set(256, 3, 64, 190);
+
+        assertEquals(3, set.nextSetBit(0));
+        assertEquals(64, set.nextSetBit(4));
+        assertEquals(190, set.nextSetBit(65));
+        assertEquals(-1, set.nextSetBit(191));
+        assertEquals(-1, set.nextSetBit(10000));
+    }
+
+    @Test
+    public void keepsTheDocumentsBeforeABound() {
+        for (int count : new int[] { 0, 1, 63, 64, 65, 128 }) {
+            DocSet set = new DocSet(128);
+            set.setUntil(128);
+            set.clearFrom(count);
+            assertEquals(count, set.cardinality());
+
+            set.setUntil(count);
+            assertEquals(count, set.cardinality());
+            assertEquals(count == 0 ? -1 : count - 1, count == 0 ? set.nextSetBit(0) : set.nextSetBit(count - 1));
+            assertEquals(-1, set.nextSetBit(count));
+        }
+    }
+
+    @Test
+    public void intersectsSetsOfDifferentSizes() {
+        DocSet large = set(256, 1, 2, 100, 200);
+        large.and(set(64, 2, 3));
+        assertEquals(1, large.cardinality());
+        assertTrue(large.get(2));
+
+        DocSet small = set(64, 2, 3);
+        small.and(set(256, 3, 200));
+        assertEquals(1, small.cardinality());
+        assertTrue(small.get(3));
+    }
+
+    @Test
+    public void copiesAreIndependent() {
+        DocSet set = set(64, 1);
+        DocSet copy = set.copy();
+        copy.add(2);
+        set.clearAll();
+
+        assertEquals(0, set.cardinality());
+        assertEquals(2, copy.cardinality());
+    }
+}
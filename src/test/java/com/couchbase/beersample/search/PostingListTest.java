@@ -0,0 +1,170 @@
+/**
+ * Copyright (C) 2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.beersample.search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class PostingListTest {
+
+    private static PostingList list(int... ordinals) {
+        PostingList list = new PostingList();
+        for (int ordinal : ordinals) {
+            list.add(ordinal);
+        }
+        return list;
+    }
+
+    private static List<Integer> read(PostingList list) {
+        List<Integer> ordinals = new ArrayList<Integer>();
+        PostingList.Iterator documents = list.iterator();
+        for (int ordinal = documents.next(); ordinal != PostingList.Iterator.END; ordinal = documents.next()) {
+            ordinals.add(ordinal);
+        }
+        return ordinals;
+    }
+
+    private static List<Integer> asList(int[] ordinals) {
+        List<Integer> list = new ArrayList<Integer>();
+        for (int ordinal : ordinals) {
+            list.add(ordinal);
+        }
+        return list;
+    }
+
+    private static int[] range(int from, int count, int step) {
+        int[] ordinals = new int[count];
+        for (int i = 0; i < count; i++) {
+            ordinals[i] = from + i * step;
+        }
+        return ordinals;
+    }
+
+    @Test
+    public void readsBackAroundTheBlockBoundaries() {
+        int block = PostingList.BLOCK_SIZE;
+        for (int size : new int[] { 0, 1, block - 1, block, block + 1, 2 * block, 5 * block + 3 }) {
+            int[] ordinals = range(7, size, 3);
+            PostingList list = list(ordinals);
+
+            assertEquals(size, list.size());
+            assertEquals("size " + size, asList(ordinals), read(list));
+        }
+    }
+
+    @Test
+    public void encodesTheDeltasOnAsManyBytesAsNeeded() {
+        //the largest deltas fitting in 1, 2, 3 and 4 bytes, and the smallest ones needing one more
+        int[] deltas = { 127, 128, 16383, 16384, 2097151, 2097152, 268435455, 268435456 };
+        //in the middle of a sealed block, then in the tail
+        int[] ordinals = new int[PostingList.BLOCK_SIZE + 2 * deltas.length];
+        for (int i = 1; i < ordinals.length; i++) {
+            int inBlock = i % PostingList.BLOCK_SIZE;
+            boolean large = inBlock >= 10 && inBlock < 10 + deltas.length;
+            ordinals[i] = ordinals[i - 1] + (large ? deltas[inBlock - 10] : 1);
+        }
+        PostingList list = list(ordinals);
+
+        assertEquals(asList(ordinals), read(list));
+        assertEquals(ordinals[20], list.iterator().advance(ordinals[19] + 1));
+    }
+
+    @Test
+    public void takesAboutAByteForEachDenseDocument() {
+        PostingList list = list(range(0, 100 * PostingList.BLOCK_SIZE, 1));
+
+        assertTrue("bytes " + list.bytes(), list.bytes() < 2 * list.size());
+    }
+
+    @Test
+    public void onlyAppendsInOrder() {
+        PostingList list = list(1, 5, 5);
+        assertEquals(2, list.size());
+
+        try {
+            list.add(4);
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("Ordinal 4 added after 5", e.getMessage());
+        }
+    }
+
+    @Test
+    public void advancesToTheFirstDocumentAtOrAfterTheTarget() {
+        PostingList list = list(range(0, 1000, 2));
+        PostingList.Iterator documents = list.iterator();
+
+        assertEquals(0, documents.advance(0));
+        assertEquals(502, documents.advance(501));
+        //the iterator only moves forward
+        assertEquals(504, documents.advance(502));
+        //into the tail
+        assertEquals(1998, documents.advance(1997));
+        assertEquals(PostingList.Iterator.END, documents.advance(1999));
+        assertEquals(PostingList.Iterator.END, list(new int[0]).iterator().advance(0));
+    }
+
+    @Test
+    public void addsItsDocumentsAndTheirWeightToASet() {
+        PostingList list = list(range(3, 300, 2));
+        DocSet documents = new DocSet(1000);
+        float[] scores = new float[1000];
+        list.addTo(documents, scores, 1.5f);
+        list(3, 5).addTo(documents, scores, 1f);
+
+        assertEquals(300, documents.cardinality());
+        assertTrue(documents.get(599));
+        assertFalse(documents.get(4));
+        assertEquals(2.5f, scores[5], 0f);
+        assertEquals(1.5f, scores[7], 0f);
+        assertEquals(0f, scores[8], 0f);
+    }
+
+    @Test
+    public void dropsAndRenumbersDocuments() {
+        PostingList list = list(range(0, 300, 1));
+        //keep the even documents, as ordinal / 2
+        int[] renumbering = new int[300];
+        for (int i = 0; i < renumbering.length; i++) {
+            renumbering[i] = i % 2 == 0 ? i / 2 : -1;
+        }
+
+        assertTrue(list.retain(renumbering));
+        assertEquals(150, list.size());
+        assertEquals(asList(range(0, 150, 1)), read(list));
+        list.add(150);
+        assertEquals(151, list.size());
+
+        int[] none = new int[151];
+        Arrays.fill(none, -1);
+        assertFalse(list.retain(none));
+        assertEquals(0, list.size());
+    }
+}
@@ -0,0 +1,132 @@
+/**
+ * Copyright (C) 2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.beersample.testing;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import com.couchbase.client.java.document.JsonDocument;
+import com.couchbase.client.java.document.json.JsonArray;
+import com.couchbase.client.java.document.json.JsonObject;
+
+/**
+ * Generates documents shaped like the ones of the beer-sample bucket, deterministically so that runs are comparable.
+ */
+public final class BeerSampleData {
+
+    /** the word that matching beers have in their name, see {@link #beers(int, int, double)} */
+    public static final String TOKEN = "zest";
+
+    private static final String[] STYLES = { "American-Style Pale Ale", "Oatmeal Stout", "Belgian-Style Tripel",
+            "American-Style India Pale Ale", "German-Style Pilsener", "Porter" };
+    private static final String[] WORDS = { "Amber", "Golden", "Hoppy", "Dark", "Imperial", "Harvest", "Winter",
+            "River", "Mountain", "Old" };
+
+    private BeerSampleData() {
+    }
+
+    public static String breweryId(int brewery) {
+        return String.format(Locale.ENGLISH, "brewery_%05d", brewery);
+    }
+
+    public static String beerId(int brewery, int beer) {
+        return breweryId(brewery) + "-beer_" + String.format(Locale.ENGLISH, "%05d", beer);
+    }
+
+    public static JsonDocument brewery(int brewery) {
+        String id = breweryId(brewery);
+        JsonObject content = JsonObject.create()
+                .put("type", "brewery")
+                .put("name", "Brewery " + brewery)
+                .put("city", "City " + (brewery % 50))
+                .put("state", "State " + (brewery % 10))
+                .put("code", String.valueOf(10000 + brewery))
+                .put("country", "United States")
+                .put("phone", "1-555-01" + (brewery % 100))
+                .put("website", "http://" + id + ".example.com/")
+                .put("updated", "2010-07-22 20:00:20")
+                .put("description", "A brewery generated for the benchmarks, with a description of a usual length "
+                        + "for the sample data set.")
+                .put("address", JsonArray.from(brewery + " Main Street"))
+                .put("geo", JsonObject.create()
+                        .put("accuracy", "ROOFTOP")
+                        .put("lat", 30d + (brewery % 200) / 10d)
+                        .put("lon", -120d + (brewery % 500) / 10d));
+        return JsonDocument.create(id, content);
+    }
+
+    /**
+     * @param index the global index of the beer, which decides if its name contains {@link #TOKEN}.
+     * @param matchRate the fraction of the beers which name contains {@link #TOKEN}.
+     */
+    public static JsonDocument beer(int brewery, int beer, int index, double matchRate) {
+        //spread the matches evenly: beer i matches if the count of matches goes up at i
+        boolean matches = Math.floor((index + 1) * matchRate) > Math.floor(index * matchRate);
+        String name = WORDS[index % WORDS.length] + (matches ? " " + TOKEN + " " : " ") + "Ale " + index;
+        JsonObject content = JsonObject.create()
+                .put("type", "beer")
+                .put("name", name)
+                .put("brewery_id", breweryId(brewery))
+                .put("abv", 4d + (index % 80) / 10d)
+                .put("ibu", (double) (index % 90))
+                .put("srm", (double) (index % 40))
+                .put("upc", index)
+                .put("style", STYLES[index % STYLES.length])
+                .put("category", "North American Ale")
+                .put("updated", "2010-07-22 20:00:20")
+                .put("description", "A beer generated for the benchmarks, with a description of a usual length "
+                        + "for the sample data set.");
+        return JsonDocument.create(beerId(brewery, beer), content);
+    }
+
+    /**
+     * Generate breweries and their beers.
+     *
+     * @param breweries the number of breweries.
+     * @param beersPerBrewery the number of beers of each brewery.
+     * @param matchRate the fraction of the beers which name contains {@link #TOKEN}.
+     * @return the breweries and the beers, breweries first.
+     */
+    public static List<JsonDocument> generate(int breweries, int beersPerBrewery, double matchRate) {
+        List<JsonDocument> docs = new ArrayList<JsonDocument>(breweries * (beersPerBrewery + 1));
+        for (int b = 0; b < breweries; b++) {
+            docs.add(brewery(b));
+        }
+        int index = 0;
+        for (int b = 0; b < breweries; b++) {
+            for (int i = 0; i < beersPerBrewery; i++) {
+                docs.add(beer(b, i, index++, matchRate));
+            }
+        }
+        return docs;
+    }
+
+    /**
+     * Generate the documents and load them in a fake bucket.
+     */
+    public static void load(FakeBucket bucket, int breweries, int beersPerBrewery, double matchRate) {
+        for (JsonDocument doc : generate(breweries, beersPerBrewery, matchRate)) {
+            bucket.load(doc.id(), doc.content());
+        }
+    }
+}
@@ -0,0 +1,640 @@
+/**
+ * Copyright (C) 2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.beersample.testing;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.couchbase.client.core.BackpressureException;
+import com.couchbase.client.java.AsyncBucket;
+import com.couchbase.client.java.Bucket;
+import com.couchbase.client.java.document.Document;
+import com.couchbase.client.java.document.JsonDocument;
+import com.couchbase.client.java.document.RawJsonDocument;
+import com.couchbase.client.java.document.json.JsonArray;
+import com.couchbase.client.java.document.json.JsonObject;
+import com.couchbase.client.java.error.CASMismatchException;
+import com.couchbase.client.java.error.DocumentAlreadyExistsException;
+import com.couchbase.client.java.error.DocumentDoesNotExistException;
+import com.couchbase.client.java.transcoder.JsonTranscoder;
+import com.couchbase.client.java.view.AsyncViewResult;
+import com.couchbase.client.java.view.AsyncViewRow;
+import com.couchbase.client.java.view.ViewQuery;
+import com.couchbase.client.java.view.ViewResult;
+import com.couchbase.client.java.view.ViewRow;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import rx.Observable;
+import rx.functions.Func0;
+import rx.functions.Func1;
+
+/**
+ * An in-process stand-in for a Couchbase bucket, so that the application code can be tested and measured without a
+ * cluster.
+ *
+ * Documents are kept serialized, like on a server, so each read decodes a fresh copy. Each operation (including view
+ * queries) answers after a configurable latency, to emulate the network round trip. The "beer" design document's
+ * views used by the application ("by_name", "brewery_beers" and "brewery_beers_summary") are computed from the
+ * documents, with support for the key ranges, skip and limit the application uses. Like the view engine, skipped rows
+ * are walked through one by one while start keys are looked up directly.
+ *
+ * Faults can be injected, to make some operations slow or failing, and view queries can be made to take longer the
+ * more rows they return.
+ *
+ * Only the JsonDocument flavor of the key/value operations is supported (plus RawJsonDocument gets and replica
+ * reads), other methods throw {@link UnsupportedOperationException}.
+ */
+public class FakeBucket {
+
+    private static final JsonTranscoder TRANSCODER = new JsonTranscoder();
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final long latencyNanos;
+
+    private final ConcurrentHashMap<String, Stored> documents = new ConcurrentHashMap<String, Stored>();
+    private final AtomicLong casSequence = new AtomicLong();
+    private final Map<String, List<Row>> views = new HashMap<String, List<Row>>();
+    private final AtomicLong operations = new AtomicLong();
+
+    private final Random faults = new Random(42);
+    private volatile double slowRate = 0d;
+    private volatile long slowLatencyNanos = 0L;
+    private volatile double errorRate = 0d;
+    private volatile long viewRowLatencyNanos = 0L;
+
+    private final Invocation asyncHandler = new AsyncHandler();
+    private final AsyncBucket asyncBucket;
+    private final Bucket bucket;
+
+    /**
+     * @param latency the time each operation takes to answer, 0 to answer right away.
+     * @param unit the unit of the latency.
+     */
+    public FakeBucket(long latency, TimeUnit unit) {
+        this.latencyNanos = unit.toNanos(latency);
+        this.asyncBucket = (AsyncBucket) proxy(AsyncBucket.class, asyncHandler);
+        this.bucket = (Bucket) proxy(Bucket.class, new SyncHandler());
+    }
+
+    /**
+     * @return the synchronous view of this bucket, as given to the application.
+     */
+    public Bucket bucket() {
+        return bucket;
+    }
+
+    public AsyncBucket async() {
+        return asyncBucket;
+    }
+
+    /**
+     * Store a document right away, without latency, to prepare a data set.
+     */
+    public void load(String id, JsonObject content) {
+        documents.put(id, new Stored(serialize(content), casSequence.incrementAndGet()));
+        invalidateViews();
+    }
+
+    /**
+     * Make some of the operations on the active copy of the documents misbehave, like on a sick node. Reads from
+     * replicas are left alone.
+     *
+     * @param slowRate the fraction of the operations which take the slow latency instead of the regular one.
+     * @param slowLatency the latency of the slow operations.
+     * @param errorRate the fraction of the operations which fail with a {@link BackpressureException}.
+     * @param unit the unit of the slow latency.
+     */
+    public void injectFaults(double slowRate, long slowLatency, double errorRate, TimeUnit unit) {
+        this.slowRate = slowRate;
+        this.slowLatencyNanos = unit.toNanos(slowLatency);
+        this.errorRate = errorRate;
+    }
+
+    /**
+     * Make the view queries take longer the more rows they return, on top of the latency of the round trip, like a
+     * node reading its index and streaming the rows.
+     *
+     * @param latency the time each returned row adds to a view query.
+     * @param unit the unit of the latency.
+     */
+    public void viewRowLatency(long latency, TimeUnit unit) {
+        this.viewRowLatencyNanos = unit.toNanos(latency);
+    }
+
+    /**
+     * @return the number of operations (key/value or view queries) served so far.
+     */
+    public long operations() {
+        return operations.get();
+    }
+
+    //===== key/value operations =====
+
+    private Observable<JsonDocument> get(final String id) {
+        return get(id, true);
+    }
+
+    private Observable<JsonDocument> get(final String id, boolean active) {
+        return delayed(active, new Func0<Observable<JsonDocument>>() {
+            @Override
+            public Observable<JsonDocument> call() {
+                Stored stored = documents.get(id);
+                if (stored == null) {
+                    return Observable.empty();
+                }
+                return Observable.just(JsonDocument.create(id, deserialize(stored.json), stored.cas));
+            }
+        });
+    }
+
+    private Observable<RawJsonDocument> getRaw(final String id, boolean active) {
+        return delayed(active, new Func0<Observable<RawJsonDocument>>() {
+            @Override
+            public Observable<RawJsonDocument> call() {
+                Stored stored = documents.get(id);
+                if (stored == null) {
+                    return Observable.empty();
+                }
+                return Observable.just(RawJsonDocument.create(id, stored.json, stored.cas));
+            }
+        });
+    }
+
+    private Observable<JsonDocument> store(final String operation, final JsonDocument doc) {
+        return delayed(true, new Func0<Observable<JsonDocument>>() {
+            @Override
+            public Observable<JsonDocument> call() {
+                Stored stored = new Stored(serialize(doc.content()), casSequence.incrementAndGet());
+                if ("insert".equals(operation)) {
+                    if (documents.putIfAbsent(doc.id(), stored) != null) {
+                        return Observable.error(new DocumentAlreadyExistsException());
+                    }
+                } else if ("replace".equals(operation)) {
+                    Stored current = documents.get(doc.id());
+                    if (current == null) {
+                        return Observable.error(new DocumentDoesNotExistException());
+                    }
+                    if ((doc.cas() != 0 && doc.cas() != current.cas) || !documents.replace(doc.id(), current, stored)) {
+                        return Observable.error(new CASMismatchException());
+                    }
+                } else {
+                    documents.put(doc.id(), stored);
+                }
+                invalidateViews();
+                return Observable.just(JsonDocument.create(doc.id(), doc.content(), stored.cas));
+            }
+        });
+    }
+
+    private Observable<JsonDocument> remove(final String id) {
+        return delayed(true, new Func0<Observable<JsonDocument>>() {
+            @Override
+            public Observable<JsonDocument> call() {
+                Stored removed = documents.remove(id);
+                if (removed == null) {
+                    return Observable.error(new DocumentDoesNotExistException());
+                }
+                invalidateViews();
+                return Observable.just(JsonDocument.create(id, null, removed.cas));
+            }
+        });
+    }
+
+    /**
+     * @param active true for an operation on the active copy, subject to the injected faults.
+     */
+    private <T> Observable<T> delayed(boolean active, final Func0<Observable<T>> operation) {
+        long delayNanos = latencyNanos;
+        boolean fail = false;
+        if (active && (slowRate > 0 || errorRate > 0)) {
+            double draw = faults.nextDouble();
+            fail = draw < errorRate;
+            if (!fail && draw < errorRate + slowRate) {
+                delayNanos = slowLatencyNanos;
+            }
+        }
+        final Observable<T> result = fail ? Observable.<T>error(new BackpressureException())
+                : Observable.defer(new Func0<Observable<T>>() {
+                    @Override
+                    public Observable<T> call() {
+                        operations.incrementAndGet();
+                        return operation.call();
+                    }
+                });
+        if (delayNanos <= 0) {
+            return result;
+        }
+        return Observable.timer(delayNanos, TimeUnit.NANOSECONDS).flatMap(new Func1<Long, Observable<T>>() {
+            @Override
+            public Observable<T> call(Long tick) {
+                return result;
+            }
+        });
+    }
+
+    private static String serialize(JsonObject content) {
+        try {
+            return TRANSCODER.jsonObjectToString(content);
+        } catch (Exception e) {
+            throw new IllegalArgumentException("Unable to encode document", e);
+        }
+    }
+
+    private static JsonObject deserialize(String json) {
+        try {
+            return TRANSCODER.stringToJsonObject(json);
+        } catch (Exception e) {
+            throw new IllegalStateException("Unable to decode document", e);
+        }
+    }
+
+    //===== views =====
+
+    private Observable<List<Row>> query(final ViewQuery query) {
+        return delayed(true, new Func0<Observable<List<Row>>>() {
+            @Override
+            public Observable<List<Row>> call() {
+                List<Row> rows = rows(query);
+                long streamingNanos = viewRowLatencyNanos * rows.size();
+                if (streamingNanos <= 0) {
+                    return Observable.just(rows);
+                }
+                return Observable.just(rows).delay(streamingNanos, TimeUnit.NANOSECONDS);
+            }
+        });
+    }
+
+    private List<Row> rows(ViewQuery query) {
+        Map<String, String> params = parameters(query);
+        List<Row> all = view(query.getView());
+        int start = 0;
+        if (params.containsKey("startkey")) {
+            Row from = new Row(params.get("startkey_docid") == null ? "" : params.get("startkey_docid"),
+                    parseKey(params.get("startkey")), null);
+            //the view engine seeks to the start key, it doesn't walk to it
+            int index = Collections.binarySearch(all, from, ROW_ORDER);
+            start = index < 0 ? -index - 1 : index;
+        }
+        Object endKey = params.containsKey("endkey") ? parseKey(params.get("endkey")) : null;
+        //with an end doc id, the end is a row rather than all the rows of a key
+        Row until = endKey != null && params.containsKey("endkey_docid")
+                ? new Row(params.get("endkey_docid"), endKey, null) : null;
+        boolean inclusiveEnd = !"false".equals(params.get("inclusive_end"));
+        int skip = params.containsKey("skip") ? Integer.parseInt(params.get("skip")) : 0;
+        int limit = params.containsKey("limit") ? Integer.parseInt(params.get("limit")) : Integer.MAX_VALUE;
+
+        List<Row> result = new ArrayList<Row>();
+        for (int i = start; i < all.size() && result.size() < limit; i++) {
+            Row row = all.get(i);
+            if (endKey != null) {
+                int c = until != null ? ROW_ORDER.compare(row, until) : compareKeys(row.sortKey, endKey);
+                if (c > 0 || (c == 0 && !inclusiveEnd)) {
+                    break;
+                }
+            }
+            //skipped rows are walked through, which is what makes deep offsets expensive
+            if (skip > 0) {
+                skip--;
+                continue;
+            }
+            result.add(row);
+        }
+        return result;
+    }
+
+    private synchronized void invalidateViews() {
+        views.clear();
+    }
+
+    /**
+     * Emulates the map functions of the "beer" design document, and sorts the rows like the view engine.
+     */
+    private synchronized List<Row> view(String name) {
+        List<Row> rows = views.get(name);
+        if (rows != null) {
+            return rows;
+        }
+        rows = new ArrayList<Row>();
+        for (Map.Entry<String, Stored> entry : documents.entrySet()) {
+            JsonObject doc = deserialize(entry.getValue().json);
+            String id = entry.getKey();
+            String type = doc.getString("type");
+            String breweryId = doc.getString("brewery_id");
+            if ("by_name".equals(name)) {
+                if ("beer".equals(type)) {
+                    rows.add(new Row(id, doc.getString("name"), breweryId));
+                }
+            } else if ("brewery_beers".equals(name) || "brewery_beers_summary".equals(name)) {
+                if ("brewery".equals(type)) {
+                    rows.add(new Row(id, JsonArray.from(id), null));
+                } else if ("beer".equals(type) && breweryId != null) {
+                    Object value = null;
+                    if ("brewery_beers_summary".equals(name)) {
+                        value = JsonObject.create()
+                                .put("name", doc.getString("name"))
+                                .put("style", doc.getString("style"))
+                                .put("abv", doc.get("abv"));
+                    }
+                    rows.add(new Row(id, JsonArray.from(breweryId, id), value));
+                }
+            } else {
+                throw new UnsupportedOperationException("Unknown view " + name);
+            }
+        }
+        Collections.sort(rows, ROW_ORDER);
+        rows = Collections.unmodifiableList(rows);
+        views.put(name, rows);
+        return rows;
+    }
+
+    /**
+     * The query parameters, as url-encoded by {@link ViewQuery#toString()}.
+     */
+    private static Map<String, String> parameters(ViewQuery query) {
+        Map<String, String> params = new HashMap<String, String>();
+        for (String param : query.toString().split("&")) {
+            int equals = param.indexOf('=');
+            if (equals > 0) {
+                try {
+                    params.put(param.substring(0, equals), URLDecoder.decode(param.substring(equals + 1), "UTF-8"));
+                } catch (UnsupportedEncodingException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        }
+        return params;
+    }
+
+    private static Object parseKey(String json) {
+        try {
+            return MAPPER.readValue(json, Object.class);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Invalid view key " + json, e);
+        }
+    }
+
+    private static final Comparator<Row> ROW_ORDER = new Comparator<Row>() {
+        @Override
+        public int compare(Row r1, Row r2) {
+            int byKey = compareKeys(r1.sortKey, r2.sortKey);
+            return byKey != 0 ? byKey : r1.id.compareTo(r2.id);
+        }
+    };
+
+    /**
+     * A simplified view collation: null, then booleans, numbers, strings and arrays (compared element by element).
+     */
+    private static int compareKeys(Object k1, Object k2) {
+        int rank1 = rank(k1);
+        int rank2 = rank(k2);
+        if (rank1 != rank2) {
+            return rank1 < rank2 ? -1 : 1;
+        }
+        if (k1 instanceof Boolean) {
+            return ((Boolean) k1).compareTo((Boolean) k2);
+        } else if (k1 instanceof Number) {
+            return Double.compare(((Number) k1).doubleValue(), ((Number) k2).doubleValue());
+        } else if (k1 instanceof String) {
+            return ((String) k1).compareTo((String) k2);
+        } else if (k1 instanceof List) {
+            List<?> l1 = (List<?>) k1;
+            List<?> l2 = (List<?>) k2;
+            for (int i = 0; i < l1.size() && i < l2.size(); i++) {
+                int c = compareKeys(l1.get(i), l2.get(i));
+                if (c != 0) {
+                    return c;
+                }
+            }
+            return l1.size() < l2.size() ? -1 : (l1.size() == l2.size() ? 0 : 1);
+        }
+        return 0;
+    }
+
+    private static int rank(Object key) {
+        if (key == null) {
+            return 0;
+        } else if (key instanceof Boolean) {
+            return 1;
+        } else if (key instanceof Number) {
+            return 2;
+        } else if (key instanceof String) {
+            return 3;
+        } else if (key instanceof List) {
+            return 4;
+        }
+        return 5;
+    }
+
+    private AsyncViewResult asyncResult(final List<Row> rows, final int totalRows) {
+        return (AsyncViewResult) proxy(AsyncViewResult.class, new Invocation() {
+            @Override
+            public Object invoke(String method, Object[] args) {
+                if ("rows".equals(method)) {
+                    return Observable.from(asyncRows(rows));
+                } else if ("totalRows".equals(method)) {
+                    return totalRows;
+                } else if ("success".equals(method)) {
+                    return true;
+                } else if ("error".equals(method)) {
+                    return Observable.empty();
+                }
+                return null;
+            }
+        });
+    }
+
+    private ViewResult syncResult(final List<Row> rows) {
+        final List<ViewRow> viewRows = new ArrayList<ViewRow>(rows.size());
+        for (final Row row : rows) {
+            viewRows.add((ViewRow) proxy(ViewRow.class, new Invocation() {
+                @Override
+                public Object invoke(String method, Object[] args) {
+                    if ("document".equals(method)) {
+                        return get(row.id).toBlocking().singleOrDefault(null);
+                    }
+                    return row.get(method);
+                }
+            }));
+        }
+        return (ViewResult) proxy(ViewResult.class, new Invocation() {
+            @Override
+            public Object invoke(String method, Object[] args) {
+                if ("rows".equals(method) || "iterator".equals(method)) {
+                    return viewRows.iterator();
+                } else if ("allRows".equals(method)) {
+                    return viewRows;
+                } else if ("totalRows".equals(method)) {
+                    return rows.size();
+                } else if ("success".equals(method)) {
+                    return true;
+                }
+                return null;
+            }
+        });
+    }
+
+    private List<AsyncViewRow> asyncRows(List<Row> rows) {
+        List<AsyncViewRow> asyncRows = new ArrayList<AsyncViewRow>(rows.size());
+        for (final Row row : rows) {
+            asyncRows.add((AsyncViewRow) proxy(AsyncViewRow.class, new Invocation() {
+                @Override
+                public Object invoke(String method, Object[] args) {
+                    if ("document".equals(method)) {
+                        return get(row.id);
+                    }
+                    return row.get(method);
+                }
+            }));
+        }
+        return asyncRows;
+    }
+
+    //===== bucket proxies =====
+
+    private class AsyncHandler implements Invocation {
+        @Override
+        public Object invoke(String method, Object[] args) {
+            Object target = args == null || args.length == 0 ? null : args[0];
+            if ("name".equals(method)) {
+                return "fake";
+            } else if ("close".equals(method)) {
+                return Observable.just(true);
+            } else if ("query".equals(method) && target instanceof ViewQuery) {
+                final ViewQuery query = (ViewQuery) target;
+                return query(query).map(new Func1<List<Row>, AsyncViewResult>() {
+                    @Override
+                    public AsyncViewResult call(List<Row> rows) {
+                        return asyncResult(rows, view(query.getView()).size());
+                    }
+                });
+            } else if ("get".equals(method)
+                    && (args.length == 1 || args[1] == JsonDocument.class || args[1] instanceof Long)) {
+                return get(target instanceof Document ? ((Document<?>) target).id() : (String) target);
+            } else if ("get".equals(method) && args.length == 2 && args[1] == RawJsonDocument.class) {
+                return getRaw((String) target, true);
+            } else if ("getFromReplica".equals(method)) {
+                //replicas are always in sync with the active copy here
+                return args.length == 3 && args[2] == RawJsonDocument.class ? getRaw((String) target, false)
+                        : get((String) target, false);
+            } else if ("remove".equals(method)) {
+                return remove(target instanceof Document ? ((Document<?>) target).id() : (String) target);
+            } else if (("insert".equals(method) || "upsert".equals(method) || "replace".equals(method))
+                    && target instanceof JsonDocument) {
+                return store(method, (JsonDocument) target);
+            }
+            throw new UnsupportedOperationException("AsyncBucket." + method + " is not supported by the fake bucket");
+        }
+    }
+
+    private class SyncHandler implements Invocation {
+        @Override
+        public Object invoke(String method, Object[] args) {
+            if ("async".equals(method)) {
+                return asyncBucket;
+            } else if ("name".equals(method)) {
+                return "fake";
+            } else if ("close".equals(method)) {
+                return true;
+            } else if ("query".equals(method) && args[0] instanceof ViewQuery) {
+                return syncResult(query((ViewQuery) args[0]).toBlocking().single());
+            }
+            Observable<?> result = (Observable<?>) asyncHandler.invoke(method, args);
+            return result.toBlocking().singleOrDefault(null);
+        }
+    }
+
+    private interface Invocation {
+        Object invoke(String method, Object[] args);
+    }
+
+    private static Object proxy(Class<?> type, final Invocation invocation) {
+        return Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if (method.getDeclaringClass() == Object.class) {
+                    if ("equals".equals(method.getName())) {
+                        return proxy == args[0];
+                    } else if ("hashCode".equals(method.getName())) {
+                        return System.identityHashCode(proxy);
+                    }
+                    return "Fake" + method.getDeclaringClass().getSimpleName();
+                }
+                try {
+                    return invocation.invoke(method.getName(), args);
+                } catch (RuntimeException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new InvocationTargetException(e);
+                }
+            }
+        });
+    }
+
+    private static class Stored {
+        private final String json;
+        private final long cas;
+
+        private Stored(String json, long cas) {
+            this.json = json;
+            this.cas = cas;
+        }
+    }
+
+    private static class Row {
+        private final String id;
+        private final Object key;
+        private final Object sortKey;
+        private final Object value;
+
+        private Row(String id, Object key, Object value) {
+            this.id = id;
+            this.key = key;
+            this.sortKey = key instanceof JsonArray ? ((JsonArray) key).toList() : key;
+            this.value = value;
+        }
+
+        private Object get(String method) {
+            if ("id".equals(method)) {
+                return id;
+            } else if ("key".equals(method)) {
+                return key;
+            } else if ("value".equals(method)) {
+                return value;
+            }
+            throw new UnsupportedOperationException("ViewRow." + method + " is not supported by the fake bucket");
+        }
+    }
+}
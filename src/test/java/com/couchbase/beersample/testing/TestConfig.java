@@ -0,0 +1,90 @@
+/**
+ * Copyright (C) 2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.beersample.testing;
+
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.couchbase.beersample.config.Database;
+import org.springframework.beans.factory.annotation.Value;
+
+/**
+ * Creates the application's {@link Database} configuration outside of Spring, with the defaults declared in its
+ * <code>@Value</code> annotations, so that tests and benchmarks run with the same settings as the application unless
+ * they override some of them.
+ */
+public final class TestConfig {
+
+    private TestConfig() {
+    }
+
+    /**
+     * @param overrides pairs of property names (eg. "couchbase.cache.maxBytes") and values.
+     */
+    public static Database database(Object... overrides) {
+        Map<String, Object> values = new HashMap<String, Object>();
+        for (int i = 0; i + 1 < overrides.length; i += 2) {
+            values.put((String) overrides[i], overrides[i + 1]);
+        }
+        Database config = new Database();
+        for (Field field : Database.class.getDeclaredFields()) {
+            Value value = field.getAnnotation(Value.class);
+            if (value == null) {
+                continue;
+            }
+            //${key:default} or ${key}
+            String expression = value.value().substring(2, value.value().length() - 1);
+            int colon = expression.indexOf(':');
+            String key = colon < 0 ? expression : expression.substring(0, colon);
+            Object setting = values.containsKey(key) ? values.get(key)
+                    : (colon < 0 ? null : expression.substring(colon + 1));
+            if (setting == null) {
+                continue;
+            }
+            try {
+                field.setAccessible(true);
+                field.set(config, convert(String.valueOf(setting), field.getType()));
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException("Unable to set " + key, e);
+            }
+        }
+        return config;
+    }
+
+    private static Object convert(String value, Class<?> type) {
+        if (type == int.class) {
+            return Integer.parseInt(value);
+        } else if (type == long.class) {
+            return Long.parseLong(value);
+        } else if (type == boolean.class) {
+            return Boolean.parseBoolean(value);
+        } else if (type == double.class) {
+            return Double.parseDouble(value);
+        } else if (type == List.class) {
+            return Arrays.asList(value.split(","));
+        }
+        return value;
+    }
+}
@@ -0,0 +1,68 @@
+/**
+ * Copyright (C) 2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.beersample.web;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class AdmissionFilterTest {
+
+    private static final String NONE = null;
+
+    /** method, path and expected class */
+    private static final String[][] ROUTES = {
+            { "GET", "/beer/21st_amendment_brewery_cafe-563_stout", AdmissionFilter.GET },
+            { "PUT", "/beer/21st_amendment_brewery_cafe-563_stout", AdmissionFilter.WRITE },
+            { "DELETE", "/beer/21st_amendment_brewery_cafe-563_stout", AdmissionFilter.WRITE },
+            { "POST", "/beer", AdmissionFilter.WRITE },
+            { "GET", "/beer", AdmissionFilter.SEARCH },
+            { "GET", "/beer/search/stout", AdmissionFilter.SEARCH },
+            { "GET", "/beer/suggest", AdmissionFilter.SEARCH },
+            { "POST", "/beer/_mget", AdmissionFilter.SEARCH },
+            { "POST", "/brewery/_mget", AdmissionFilter.SEARCH },
+            { "GET", "/brewery/21st_amendment_brewery_cafe", AdmissionFilter.BREWERY },
+            //answered from memory
+            { "GET", "/beer/query", NONE },
+            { "GET", "/brewery/near", NONE },
+            //bulk and administration routes
+            { "GET", "/beer/_export", NONE },
+            { "POST", "/beer/_import", NONE },
+            { "POST", "/brewery/_rebuild", NONE },
+            //not a route of a single document
+            { "GET", "/beer/", NONE },
+            { "GET", "/beer/stout/extra", NONE },
+            { "GET", "/brewery/", NONE },
+            { "PUT", "/brewery/21st_amendment_brewery_cafe", NONE },
+            { "GET", "/beers", NONE },
+            { "GET", "/stats", NONE },
+            { "GET", "/metrics", NONE },
+            { "GET", "/ready", NONE },
+    };
+
+    @Test
+    public void classifiesTheRoutes() {
+        for (String[] route : ROUTES) {
+            assertEquals(route[0] + " " + route[1], route[2], AdmissionFilter.classify(route[0], route[1]));
+        }
+    }
+}
@@ -0,0 +1,364 @@
+/**
+ * Copyright (C) 2015 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.beersample.web;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletResponse;
+
+import com.couchbase.beersample.CouchbaseService;
+import com.couchbase.beersample.metrics.Metrics;
+import com.couchbase.beersample.testing.BeerSampleData;
+import com.couchbase.beersample.testing.FakeBucket;
+import com.couchbase.beersample.testing.TestConfig;
+import com.couchbase.client.java.document.JsonDocument;
+import com.couchbase.client.java.document.json.JsonObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+public class ResponseCacheFilterTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private CouchbaseService service;
+    private ResponseCacheFilter filter;
+    private Controller controller;
+
+    /**
+     * Stands for the controllers: answers a JSON array, compressible, numbered by the count of requests it saw.
+     */
+    private static class Controller implements FilterChain {
+        int calls;
+        int status = HttpServletResponse.SC_OK;
+        String contentType = "application/json;charset=UTF-8";
+        String cacheControl;
+        Runnable whileBuilding;
+
+        @Override
+        public void doFilter(ServletRequest request, ServletResponse response) throws IOException, ServletException {
+            calls++;
+            if (whileBuilding != null) {
+                whileBuilding.run();
+            }
+            HttpServletResponse httpResponse = (HttpServletResponse) response;
+            httpResponse.setStatus(status);
+            httpResponse.setContentType(contentType);
+            httpResponse.setHeader("X-Calls", String.valueOf(calls));
+            if (cacheControl != null) {
+                httpResponse.setHeader("Cache-Control", cacheControl);
+            }
+            response.getOutputStream().write(body(calls));
+        }
+    }
+
+    private static byte[] body(int calls) {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < 50; i++) {
+            json.append(i == 0 ? "" : ",").append("{\"call\":").append(calls).append(",\"row\":").append(i)
+                    .append("}");
+        }
+        return json.append("]").toString().getBytes(UTF_8);
+    }
+
+    @Before
+    public void setUp() {
+        FakeBucket bucket = new FakeBucket(0, TimeUnit.MICROSECONDS);
+        BeerSampleData.load(bucket, 2, 3, 0.5d);
+        service = new CouchbaseService(TestConfig.database("couchbase.responseCache.maxBytes", 1 << 20),
+                bucket.bucket());
+        filter = new ResponseCacheFilter(service, TestConfig.database("couchbase.responseCache.maxBytes", 1 << 20),
+                new Metrics());
+        controller = new Controller();
+    }
+
+    private MockHttpServletResponse get(String path, String acceptEncoding, String ifNoneMatch)
+            throws IOException, ServletException {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", path);
+        int query = path.indexOf('?');
+        if (query >= 0) {
+            request.setRequestURI(path.substring(0, query));
+            request.setQueryString(path.substring(query + 1));
+        }
+        if (acceptEncoding != null) {
+            request.addHeader("Accept-Encoding", acceptEncoding);
+        }
+        if (ifNoneMatch != null) {
+            request.addHeader("If-None-Match", ifNoneMatch);
+        }
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        filter.doFilter(request, response, controller);
+        return response;
+    }
+
+    private MockHttpServletResponse get(String path) throws IOException, ServletException {
+        return get(path, null, null);
+    }
+
+    /**
+     * @return true if the controller built the response, false if it came from the cache.
+     */
+    private boolean built(String path) throws IOException, ServletException {
+        int before = controller.calls;
+        get(path);
+        return controller.calls > before;
+    }
+
+    private static byte[] gunzip(byte[] gzipped) throws IOException {
+        GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(gzipped));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    private JsonDocument beer(int brewery, int beer) {
+        return service.read(BeerSampleData.beerId(brewery, beer));
+    }
+
+    @Test
+    public void tagsTheCachedRoutes() {
+        assertEquals("beers", ResponseCacheFilter.tagOf("/beer"));
+        assertEquals("search:pale ale", ResponseCacheFilter.tagOf("/beer/search/Pale%20Ale"));
+        assertEquals("search:a+b", ResponseCacheFilter.tagOf("/beer/search/a+b"));
+        assertEquals("search:%zz", ResponseCacheFilter.tagOf("/beer/search/%zz"));
+        assertEquals("brewery:21st_amendment", ResponseCacheFilter.tagOf("/brewery/21st_amendment"));
+        assertNull(ResponseCacheFilter.tagOf("/beer/"));
+        assertNull(ResponseCacheFilter.tagOf("/beer/search/"));
+        assertNull(ResponseCacheFilter.tagOf("/beer/search/ale/more"));
+        assertNull(ResponseCacheFilter.tagOf("/beer/some_beer"));
+        assertNull(ResponseCacheFilter.tagOf("/brewery/"));
+        assertNull(ResponseCacheFilter.tagOf("/brewery/near"));
+        assertNull(ResponseCacheFilter.tagOf("/brewery/_mget"));
+        assertNull(ResponseCacheFilter.tagOf("/brewery/a/beers"));
+        assertNull(ResponseCacheFilter.tagOf("/metrics"));
+    }
+
+    @Test
+    public void negotiatesGzip() {
+        assertTrue(ResponseCacheFilter.acceptsGzip("gzip"));
+        assertTrue(ResponseCacheFilter.acceptsGzip("GZIP"));
+        assertTrue(ResponseCacheFilter.acceptsGzip("deflate, gzip;q=0.5"));
+        assertTrue(ResponseCacheFilter.acceptsGzip("gzip ; q=1.0, identity"));
+        assertTrue(ResponseCacheFilter.acceptsGzip("*"));
+        assertTrue(ResponseCacheFilter.acceptsGzip("identity, *;q=0.1"));
+        assertFalse(ResponseCacheFilter.acceptsGzip(null));
+        assertFalse(ResponseCacheFilter.acceptsGzip(""));
+        assertFalse(ResponseCacheFilter.acceptsGzip("identity"));
+        assertFalse(ResponseCacheFilter.acceptsGzip("deflate, br"));
+        assertFalse(ResponseCacheFilter.acceptsGzip("gzip;q=0"));
+        assertFalse(ResponseCacheFilter.acceptsGzip("gzip;q=0.000"));
+        assertFalse(ResponseCacheFilter.acceptsGzip("gzip;q=x"));
+        assertFalse(ResponseCacheFilter.acceptsGzip("*;q=0"));
+        assertFalse(ResponseCacheFilter.acceptsGzip("x-gzip"));
+    }
+
+    @Test
+    public void replaysTheResponseInTheEncodingTheClientAccepts() throws IOException, ServletException {
+        MockHttpServletResponse first = get("/beer?limit=50", "gzip", null);
+        assertEquals(1, controller.calls);
+        assertArrayEquals(body(1), first.getContentAsByteArray());
+        assertNull(first.getHeader("Content-Encoding"));
+        assertEquals("Accept-Encoding", first.getHeader("Vary"));
+
+        MockHttpServletResponse gzipped = get("/beer?limit=50", "deflate, gzip", null);
+        assertEquals(1, controller.calls);
+        assertEquals(200, gzipped.getStatus());
+        assertEquals("gzip", gzipped.getHeader("Content-Encoding"));
+        assertEquals("Accept-Encoding", gzipped.getHeader("Vary"));
+        assertEquals("1", gzipped.getHeader("X-Calls"));
+        assertTrue(gzipped.getContentType().startsWith("application/json"));
+        assertEquals(gzipped.getContentAsByteArray().length, gzipped.getContentLength());
+        assertTrue(gzipped.getContentLength() < body(1).length);
+        assertArrayEquals(body(1), gunzip(gzipped.getContentAsByteArray()));
+
+        for (String identity : new String[] { null, "identity", "gzip;q=0" }) {
+            MockHttpServletResponse plain = get("/beer?limit=50", identity, null);
+            assertEquals(1, controller.calls);
+            assertNull(plain.getHeader("Content-Encoding"));
+            assertEquals(body(1).length, plain.getContentLength());
+            assertArrayEquals(body(1), plain.getContentAsByteArray());
+        }
+
+        //another query string is another response
+        get("/beer?limit=10", "gzip", null);
+        assertEquals(2, controller.calls);
+    }
+
+    @Test
+    public void answersRevalidationsWithNotModified() throws IOException, ServletException {
+        get("/brewery/" + BeerSampleData.breweryId(0));
+        String gzipEtag = get("/brewery/" + BeerSampleData.breweryId(0), "gzip", null).getHeader("ETag");
+        String identityEtag = get("/brewery/" + BeerSampleData.breweryId(0)).getHeader("ETag");
+        assertFalse(gzipEtag.equals(identityEtag));
+
+        MockHttpServletResponse notModified = get("/brewery/" + BeerSampleData.breweryId(0), "gzip",
+                "\"other\", " + gzipEtag);
+        assertEquals(304, notModified.getStatus());
+        assertEquals(gzipEtag, notModified.getHeader("ETag"));
+        assertEquals(0, notModified.getContentAsByteArray().length);
+        assertNull(notModified.getHeader("Content-Encoding"));
+
+        assertEquals(304, get("/brewery/" + BeerSampleData.breweryId(0), null, "W/" + identityEtag).getStatus());
+        assertEquals(304, get("/brewery/" + BeerSampleData.breweryId(0), null, "*").getStatus());
+
+        //the etag of the other encoding doesn't match
+        MockHttpServletResponse modified = get("/brewery/" + BeerSampleData.breweryId(0), null, gzipEtag);
+        assertEquals(200, modified.getStatus());
+        assertEquals(identityEtag, modified.getHeader("ETag"));
+        assertArrayEquals(body(1), modified.getContentAsByteArray());
+        assertEquals(1, controller.calls);
+    }
+
+    @Test
+    public void cachesOnlyTheCompleteJsonResponsesOfTheCachedRoutes() throws IOException, ServletException {
+        for (String path : new String[] { "/beer/" + BeerSampleData.beerId(0, 0), "/brewery/near?lat=0&lon=0" }) {
+            assertTrue(built(path));
+            assertTrue(built(path));
+        }
+
+        MockHttpServletRequest post = new MockHttpServletRequest("POST", "/beer");
+        filter.doFilter(post, new MockHttpServletResponse(), controller);
+        assertTrue(built("/beer"));
+
+        controller.cacheControl = "private, max-age=60";
+        assertTrue(built("/beer/search/ale"));
+        assertTrue(built("/beer/search/ale"));
+        controller.cacheControl = "no-store";
+        assertTrue(built("/beer/search/ale"));
+        controller.cacheControl = null;
+
+        controller.contentType = "text/plain";
+        assertTrue(built("/beer/search/stout"));
+        controller.contentType = "application/json";
+        controller.status = HttpServletResponse.SC_NOT_FOUND;
+        assertTrue(built("/beer/search/stout"));
+        controller.status = HttpServletResponse.SC_OK;
+        assertTrue(built("/beer/search/stout"));
+        assertFalse(built("/beer/search/stout"));
+
+        //a response cut short by the streaming of a listing
+        MockHttpServletRequest cut = new MockHttpServletRequest("GET", "/beer/search/porter");
+        cut.setAttribute(JsonStreamingResponse.INCOMPLETE_ATTRIBUTE, Boolean.TRUE);
+        filter.doFilter(cut, new MockHttpServletResponse(), controller);
+        assertTrue(built("/beer/search/porter"));
+        assertFalse(built("/beer/search/porter"));
+    }
+
+    @Test
+    public void doesNotCacheAResponseBuiltDuringAWrite() throws IOException, ServletException {
+        final JsonDocument beer = beer(0, 0);
+        controller.whileBuilding = new Runnable() {
+            @Override
+            public void run() {
+                service.update(JsonDocument.create(beer.id(), beer.content().put("abv", 6.5d)));
+            }
+        };
+        assertTrue(built("/brewery/" + BeerSampleData.breweryId(1)));
+        controller.whileBuilding = null;
+
+        assertTrue(built("/brewery/" + BeerSampleData.breweryId(1)));
+        assertFalse(built("/brewery/" + BeerSampleData.breweryId(1)));
+    }
+
+    @Test
+    public void invalidatesTheResponsesDerivedFromTheWrittenDocuments() throws IOException, ServletException {
+        String brewery0 = "/brewery/" + BeerSampleData.breweryId(0);
+        String brewery1 = "/brewery/" + BeerSampleData.breweryId(1);
+        String[] paths = { "/beer", "/beer?limit=2", brewery0, brewery1, "/beer/search/Amber", "/beer/search/zest",
+                "/beer/search/lager" };
+        for (String path : paths) {
+            assertTrue(built(path));
+            assertFalse(built(path));
+        }
+
+        //"Amber Ale 0" of brewery 0, its name unchanged: its brewery and the searches matching its name
+        JsonDocument amber = beer(0, 0);
+        assertEquals("Amber Ale 0", amber.content().getString("name"));
+        service.update(JsonDocument.create(amber.id(), amber.content().put("abv", 6.5d)));
+        assertTrue(built(brewery0));
+        assertTrue(built("/beer/search/Amber"));
+        assertFalse(built("/beer"));
+        assertFalse(built(brewery1));
+        assertFalse(built("/beer/search/zest"));
+
+        //renamed: the listing too, and the searches matching the old or the new name
+        service.update(JsonDocument.create(amber.id(), amber.content().put("name", "Lager Ale 0")));
+        assertTrue(built("/beer"));
+        assertTrue(built("/beer?limit=2"));
+        assertTrue(built("/beer/search/Amber"));
+        assertTrue(built("/beer/search/lager"));
+        assertTrue(built(brewery0));
+        assertFalse(built("/beer/search/zest"));
+        assertFalse(built(brewery1));
+
+        //moved to another brewery: both breweries
+        service.update(JsonDocument.create(amber.id(), amber.content().put("brewery_id", BeerSampleData.breweryId(1))));
+        assertTrue(built(brewery0));
+        assertTrue(built(brewery1));
+        assertTrue(built("/beer/search/lager"));
+        assertFalse(built("/beer"));
+
+        //a brewery: only its page
+        JsonDocument brewery = service.read(BeerSampleData.breweryId(1));
+        service.update(JsonDocument.create(brewery.id(), brewery.content().put("city", "Elsewhere")));
+        assertTrue(built(brewery1));
+        assertFalse(built(brewery0));
+        assertFalse(built("/beer"));
+
+        //created, then deleted
+        JsonObject created = JsonObject.create().put("type", "beer").put("name", "New zest IPA")
+                .put("brewery_id", BeerSampleData.breweryId(0));
+        service.create(JsonDocument.create("new_beer", created));
+        assertTrue(built("/beer"));
+        assertTrue(built("/beer/search/zest"));
+        assertTrue(built(brewery0));
+        assertFalse(built("/beer/search/lager"));
+        service.delete("new_beer");
+        assertTrue(built("/beer"));
+        assertTrue(built("/beer/search/zest"));
+        assertTrue(built(brewery0));
+        assertFalse(built(brewery1));
+
+        service.delete(BeerSampleData.breweryId(1));
+        assertTrue(built(brewery1));
+        assertFalse(built(brewery0));
+    }
+}